@@ -0,0 +1,22 @@
+plugins {
+    `java-library`
+    checkstyle
+}
+
+dependencies {
+    checkstyle(libs.checkstyle)
+    api(libs.agrona)
+    implementation(libs.slf4j)
+    testImplementation(libs.bundles.testing)
+}
+
+testing {
+    suites {
+        // Configure the built-in test suite
+        @Suppress("UNUSED_VARIABLE")
+        val test by getting(JvmTestSuite::class) {
+            // Use JUnit Jupiter test framework
+            useJUnitJupiter(libs.versions.junitVersion.get())
+        }
+    }
+}
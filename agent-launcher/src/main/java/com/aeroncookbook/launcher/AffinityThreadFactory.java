@@ -0,0 +1,53 @@
+/*
+ * Copyright 2019-2023 Adaptive Financial Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.launcher;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Thread factory whose threads pin themselves to a cpu before running, so an agent never starts on, or moves to,
+ * another core
+ */
+public final class AffinityThreadFactory implements ThreadFactory
+{
+    private final int cpu;
+
+    /**
+     * Constructor
+     *
+     * @param cpu the cpu to pin threads to, or {@link AgentLauncher#NO_AFFINITY} to leave them unpinned
+     */
+    public AffinityThreadFactory(final int cpu)
+    {
+        this.cpu = cpu;
+    }
+
+    @Override
+    public Thread newThread(final Runnable runnable)
+    {
+        if (AgentLauncher.NO_AFFINITY == cpu)
+        {
+            return new Thread(runnable);
+        }
+
+        return new Thread(() ->
+        {
+            ThreadAffinity.pin(ThreadAffinity.currentNativeThreadId(), cpu);
+            runnable.run();
+        });
+    }
+}
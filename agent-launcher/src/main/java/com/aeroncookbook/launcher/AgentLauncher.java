@@ -0,0 +1,159 @@
+/*
+ * Copyright 2019-2023 Adaptive Financial Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.launcher;
+
+import org.agrona.CloseHelper;
+import org.agrona.ErrorHandler;
+import org.agrona.concurrent.Agent;
+import org.agrona.concurrent.AgentRunner;
+import org.agrona.concurrent.IdleStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Starts agents on their own threads, named by the agent's role name, optionally pinned to a cpu, each with an idle
+ * strategy of its own, and measuring each agent's duty cycles (see {@link DutyCycleAgent}). Cpus are assigned by role
+ * name, for example from {@code AGENT_CPUS=sender=2,receiver=3}, so latency critical agents stay on one core
+ * rather than being rescheduled across cores. Pinning uses taskset on Linux, and is skipped elsewhere.
+ */
+public final class AgentLauncher implements AutoCloseable
+{
+    /**
+     * No cpu is assigned
+     */
+    public static final int NO_AFFINITY = -1;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AgentLauncher.class);
+
+    private final Map<String, Integer> cpuByRoleName;
+    private final List<AgentRunner> runners = new ArrayList<>();
+    private final List<DutyCycleAgent> agents = new ArrayList<>();
+
+    /**
+     * Constructor
+     *
+     * @param cpuByRoleName the cpu for each agent role name; agents not listed are not pinned
+     */
+    public AgentLauncher(final Map<String, Integer> cpuByRoleName)
+    {
+        this.cpuByRoleName = Map.copyOf(cpuByRoleName);
+    }
+
+    /**
+     * Creates a launcher assigning cpus from the environment variable AGENT_CPUS or the system property agent.cpus,
+     * a comma separated list of {@code <role name>=<cpu>}
+     *
+     * @return the launcher
+     */
+    public static AgentLauncher fromEnvironment()
+    {
+        String value = System.getenv("AGENT_CPUS");
+        if (null == value || value.isEmpty())
+        {
+            value = System.getProperty("agent.cpus", "");
+        }
+        return new AgentLauncher(parseCpus(value));
+    }
+
+    /**
+     * Parses a comma separated list of {@code <role name>=<cpu>}
+     *
+     * @param cpus the list
+     * @return the cpu for each role name
+     */
+    public static Map<String, Integer> parseCpus(final String cpus)
+    {
+        final Map<String, Integer> cpuByRoleName = new HashMap<>();
+        for (final String entry : cpus.split(","))
+        {
+            if (entry.isBlank())
+            {
+                continue;
+            }
+            final int separator = entry.lastIndexOf('=');
+            if (separator <= 0)
+            {
+                throw new IllegalArgumentException("expected <role name>=<cpu>, got " + entry);
+            }
+            final int cpu = Integer.parseInt(entry.substring(separator + 1).trim());
+            if (cpu < 0)
+            {
+                throw new IllegalArgumentException("invalid cpu " + cpu + " for " + entry);
+            }
+            cpuByRoleName.put(entry.substring(0, separator).trim(), cpu);
+        }
+        return cpuByRoleName;
+    }
+
+    /**
+     * Starts an agent on a new thread, named by its role name and pinned to the agent's cpu if it has one
+     *
+     * @param agent                the agent
+     * @param idleStrategySupplier supplies the idle strategy of the agent's runner, which is not shared
+     * @param errorHandler         the error handler of the agent's runner
+     * @return the agent's runner, closed by closing this launcher or directly
+     */
+    public AgentRunner launch(
+        final Agent agent,
+        final Supplier<IdleStrategy> idleStrategySupplier,
+        final ErrorHandler errorHandler)
+    {
+        final int cpu = cpuByRoleName.getOrDefault(agent.roleName(), NO_AFFINITY);
+        final DutyCycleAgent dutyCycleAgent = new DutyCycleAgent(agent, cpu);
+        final AgentRunner runner = new AgentRunner(idleStrategySupplier.get(), errorHandler, null, dutyCycleAgent);
+        AgentRunner.startOnThread(runner, new AffinityThreadFactory(cpu));
+        LOGGER.info("Started {}{}", agent.roleName(), NO_AFFINITY == cpu ? "" : " on cpu " + cpu);
+
+        runners.add(runner);
+        agents.add(dutyCycleAgent);
+        return runner;
+    }
+
+    /**
+     * Gets the duty cycle reports of the agents launched, which may still be running
+     *
+     * @return a report per agent, in launch order
+     */
+    public List<String> reports()
+    {
+        final List<String> reports = new ArrayList<>(agents.size());
+        for (final DutyCycleAgent agent : agents)
+        {
+            reports.add(agent.report());
+        }
+        return reports;
+    }
+
+    /**
+     * Closes the runners of the agents launched, in reverse order, each agent logging its duty cycle report
+     */
+    @Override
+    public void close()
+    {
+        for (int i = runners.size() - 1; i >= 0; i--)
+        {
+            CloseHelper.quietClose(runners.get(i));
+        }
+        runners.clear();
+    }
+}
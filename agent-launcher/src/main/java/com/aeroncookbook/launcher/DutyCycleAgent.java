@@ -0,0 +1,146 @@
+/*
+ * Copyright 2019-2023 Adaptive Financial Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.launcher;
+
+import org.agrona.concurrent.Agent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wraps an agent to measure its duty cycles: how many there were, how many did work, and how long they took. The
+ * agent thread is the only writer, so the stats are published with ordered stores and may be read from any thread.
+ * The stats are logged when the agent closes.
+ */
+public final class DutyCycleAgent implements Agent
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(DutyCycleAgent.class);
+
+    private final AtomicLong dutyCycles = new AtomicLong();
+    private final AtomicLong workingCycles = new AtomicLong();
+    private final AtomicLong workCount = new AtomicLong();
+    private final AtomicLong workingTimeNs = new AtomicLong();
+    private final AtomicLong maxDutyCycleNs = new AtomicLong();
+    private final Agent delegate;
+    private final int cpu;
+    private volatile long nativeThreadId = ThreadAffinity.UNKNOWN;
+
+    /**
+     * Constructor
+     *
+     * @param delegate the agent to measure
+     * @param cpu      the cpu the agent is pinned to, or {@link AgentLauncher#NO_AFFINITY}
+     */
+    public DutyCycleAgent(final Agent delegate, final int cpu)
+    {
+        this.delegate = delegate;
+        this.cpu = cpu;
+    }
+
+    @Override
+    public void onStart()
+    {
+        nativeThreadId = ThreadAffinity.currentNativeThreadId();
+        delegate.onStart();
+    }
+
+    @Override
+    public int doWork() throws Exception
+    {
+        final long startNs = System.nanoTime();
+        final int work = delegate.doWork();
+        final long durationNs = System.nanoTime() - startNs;
+
+        dutyCycles.lazySet(dutyCycles.get() + 1);
+        if (work > 0)
+        {
+            workingCycles.lazySet(workingCycles.get() + 1);
+            workCount.lazySet(workCount.get() + work);
+            workingTimeNs.lazySet(workingTimeNs.get() + durationNs);
+        }
+        if (durationNs > maxDutyCycleNs.get())
+        {
+            maxDutyCycleNs.lazySet(durationNs);
+        }
+        return work;
+    }
+
+    @Override
+    public void onClose()
+    {
+        delegate.onClose();
+        LOGGER.info(report());
+    }
+
+    @Override
+    public String roleName()
+    {
+        return delegate.roleName();
+    }
+
+    /**
+     * Gets the number of duty cycles so far
+     *
+     * @return the number of duty cycles
+     */
+    public long dutyCycles()
+    {
+        return dutyCycles.get();
+    }
+
+    /**
+     * Gets the number of duty cycles that did work
+     *
+     * @return the number of working duty cycles
+     */
+    public long workingCycles()
+    {
+        return workingCycles.get();
+    }
+
+    /**
+     * Gets the longest duty cycle so far
+     *
+     * @return the duration in nanoseconds
+     */
+    public long maxDutyCycleNs()
+    {
+        return maxDutyCycleNs.get();
+    }
+
+    /**
+     * Describes the duty cycles so far, and where the agent thread runs
+     *
+     * @return the report
+     */
+    public String report()
+    {
+        final long cycles = dutyCycles.get();
+        final long working = workingCycles.get();
+        final long threadId = nativeThreadId;
+        return roleName() + ": duty cycles " + cycles +
+            ", working " + working + " (" + (0 == cycles ? 0 : working * 100 / cycles) + "%)" +
+            ", work count " + workCount.get() +
+            ", mean working cycle " + (0 == working ? 0 : workingTimeNs.get() / working) + "ns" +
+            ", max duty cycle " + TimeUnit.NANOSECONDS.toMicros(maxDutyCycleNs.get()) + "us" +
+            ", pinned cpu " + (AgentLauncher.NO_AFFINITY == cpu ? "none" : Integer.toString(cpu)) +
+            ", last cpu " + ThreadAffinity.lastCpu(threadId) +
+            ", involuntary context switches " + ThreadAffinity.nonVoluntaryContextSwitches(threadId);
+    }
+}
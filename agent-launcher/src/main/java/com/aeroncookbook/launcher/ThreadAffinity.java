@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019-2023 Adaptive Financial Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.launcher;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Linux thread placement without JNI: the native id of a thread is read from {@code /proc/thread-self}, the thread
+ * is pinned with {@code taskset}, and its scheduling is read back from {@code /proc}. On other platforms, or without
+ * taskset, threads are left where the scheduler puts them.
+ */
+public final class ThreadAffinity
+{
+    /**
+     * Returned when a value cannot be read on this platform
+     */
+    public static final long UNKNOWN = -1;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ThreadAffinity.class);
+    private static final String NONVOLUNTARY_SWITCHES = "nonvoluntary_ctxt_switches:";
+    private static final int PROCESSOR_FIELD_AFTER_COMMAND = 36;
+
+    private ThreadAffinity()
+    {
+    }
+
+    /**
+     * Gets the native thread id of the calling thread
+     *
+     * @return the thread id, or {@link #UNKNOWN}
+     */
+    public static long currentNativeThreadId()
+    {
+        try
+        {
+            // links to <pid>/task/<tid>
+            final Path task = Files.readSymbolicLink(Paths.get("/proc/thread-self"));
+            return Long.parseLong(task.getFileName().toString());
+        }
+        catch (final IOException | UnsupportedOperationException | NumberFormatException ex)
+        {
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * Pins a thread to one cpu
+     *
+     * @param nativeThreadId the native thread id
+     * @param cpu            the cpu
+     * @return true if pinned
+     */
+    public static boolean pin(final long nativeThreadId, final int cpu)
+    {
+        if (UNKNOWN == nativeThreadId)
+        {
+            LOGGER.warn("Cannot pin to cpu {}, thread ids are not available on this platform", cpu);
+            return false;
+        }
+
+        try
+        {
+            final Process taskset = new ProcessBuilder(
+                "taskset", "-p", "-c", Integer.toString(cpu), Long.toString(nativeThreadId))
+                .redirectErrorStream(true)
+                .start();
+            final String output = new String(taskset.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+            if (!taskset.waitFor(5, TimeUnit.SECONDS) || 0 != taskset.exitValue())
+            {
+                LOGGER.warn("Failed to pin thread {} to cpu {}: {}", nativeThreadId, cpu, output.trim());
+                return false;
+            }
+            return true;
+        }
+        catch (final IOException ex)
+        {
+            LOGGER.warn("Cannot pin to cpu {}, taskset is not available: {}", cpu, ex.getMessage());
+            return false;
+        }
+        catch (final InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Gets the cpu a thread last ran on
+     *
+     * @param nativeThreadId the native thread id
+     * @return the cpu, or {@link #UNKNOWN}
+     */
+    public static long lastCpu(final long nativeThreadId)
+    {
+        final String stat = read(nativeThreadId, "stat");
+        if (null == stat)
+        {
+            return UNKNOWN;
+        }
+
+        // the command may hold spaces, so count fields from the bracket closing it
+        final String[] fields = stat.substring(stat.lastIndexOf(')') + 2).trim().split(" ");
+        return fields.length > PROCESSOR_FIELD_AFTER_COMMAND ?
+            Long.parseLong(fields[PROCESSOR_FIELD_AFTER_COMMAND]) : UNKNOWN;
+    }
+
+    /**
+     * Gets the number of times a thread was descheduled while it could still run, as when moved off its cpu
+     *
+     * @param nativeThreadId the native thread id
+     * @return the count, or {@link #UNKNOWN}
+     */
+    public static long nonVoluntaryContextSwitches(final long nativeThreadId)
+    {
+        final String status = read(nativeThreadId, "status");
+        if (null == status)
+        {
+            return UNKNOWN;
+        }
+
+        for (final String line : status.split("\n"))
+        {
+            if (line.startsWith(NONVOLUNTARY_SWITCHES))
+            {
+                return Long.parseLong(line.substring(NONVOLUNTARY_SWITCHES.length()).trim());
+            }
+        }
+        return UNKNOWN;
+    }
+
+    private static String read(final long nativeThreadId, final String file)
+    {
+        if (UNKNOWN == nativeThreadId)
+        {
+            return null;
+        }
+
+        try
+        {
+            return Files.readString(Paths.get("/proc/self/task", Long.toString(nativeThreadId), file),
+                StandardCharsets.US_ASCII);
+        }
+        catch (final IOException ex)
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019-2023 Adaptive Financial Consulting Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.launcher;
+
+import org.agrona.concurrent.Agent;
+import org.agrona.concurrent.AgentRunner;
+import org.agrona.concurrent.YieldingIdleStrategy;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+class AgentLauncherTests
+{
+    @Test
+    void canParseCpus()
+    {
+        Assertions.assertEquals(Map.of("send-agent", 2, "receive-agent", 3),
+            AgentLauncher.parseCpus("send-agent=2, receive-agent=3"));
+        Assertions.assertEquals(Map.of(), AgentLauncher.parseCpus(""));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AgentLauncher.parseCpus("send-agent"));
+    }
+
+    @Test
+    void canMeasureDutyCycles()
+    {
+        final int workingCycles = 100;
+        try (AgentLauncher launcher = new AgentLauncher(Map.of()))
+        {
+            final AgentRunner runner = launcher.launch(new WorkingAgent(workingCycles), YieldingIdleStrategy::new,
+                Throwable::printStackTrace);
+            final DutyCycleAgent dutyCycleAgent = (DutyCycleAgent)runner.agent();
+            while (dutyCycleAgent.dutyCycles() <= workingCycles)
+            {
+                Thread.yield();
+            }
+
+            Assertions.assertEquals("working-agent", runner.agent().roleName());
+            Assertions.assertEquals(workingCycles, dutyCycleAgent.workingCycles());
+            Assertions.assertTrue(launcher.reports().get(0).startsWith("working-agent: duty cycles "));
+        }
+    }
+
+    static class WorkingAgent implements Agent
+    {
+        private int remaining;
+
+        WorkingAgent(final int remaining)
+        {
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int doWork()
+        {
+            if (remaining > 0)
+            {
+                remaining--;
+                return 1;
+            }
+            return 0;
+        }
+
+        @Override
+        public String roleName()
+        {
+            return "working-agent";
+        }
+    }
+}
@@ -6,6 +6,7 @@ plugins {
 dependencies {
     checkstyle(libs.checkstyle)
     implementation(libs.agrona)
+    implementation(project(":agent-launcher"))
     implementation(libs.slf4j)
     implementation(libs.logback)
     testImplementation(libs.bundles.testing)
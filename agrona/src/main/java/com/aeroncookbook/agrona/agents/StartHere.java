@@ -16,9 +16,8 @@
 
 package com.aeroncookbook.agrona.agents;
 
-import org.agrona.concurrent.AgentRunner;
+import com.aeroncookbook.launcher.AgentLauncher;
 import org.agrona.concurrent.BusySpinIdleStrategy;
-import org.agrona.concurrent.IdleStrategy;
 import org.agrona.concurrent.ShutdownSignalBarrier;
 import org.agrona.concurrent.UnsafeBuffer;
 import org.agrona.concurrent.ringbuffer.OneToOneRingBuffer;
@@ -37,8 +36,6 @@ public class StartHere
         final int sendCount = 18_000_000;
         final int bufferLength = 16384 + RingBufferDescriptor.TRAILER_LENGTH;
         final UnsafeBuffer unsafeBuffer = new UnsafeBuffer(ByteBuffer.allocateDirect(bufferLength));
-        final IdleStrategy idleStrategySend = new BusySpinIdleStrategy();
-        final IdleStrategy idleStrategyReceive = new BusySpinIdleStrategy();
         final ShutdownSignalBarrier barrier = new ShutdownSignalBarrier();
         final OneToOneRingBuffer ringBuffer = new OneToOneRingBuffer(unsafeBuffer);
 
@@ -46,21 +43,16 @@ public class StartHere
         final SendAgent sendAgent = new SendAgent(ringBuffer, sendCount);
         final ReceiveAgent receiveAgent = new ReceiveAgent(ringBuffer, barrier, sendCount);
 
-        //construct agent runners
-        final AgentRunner sendAgentRunner = new AgentRunner(idleStrategySend,
-            Throwable::printStackTrace, null, sendAgent);
-        final AgentRunner receiveAgentRunner = new AgentRunner(idleStrategyReceive,
-            Throwable::printStackTrace, null, receiveAgent);
+        //start the agents on their own threads, pinned to the cpus in AGENT_CPUS, each with its own idle strategy
+        final AgentLauncher launcher = AgentLauncher.fromEnvironment();
         LOGGER.info("starting");
-        //start the runners
-        AgentRunner.startOnThread(sendAgentRunner);
-        AgentRunner.startOnThread(receiveAgentRunner);
+        launcher.launch(sendAgent, BusySpinIdleStrategy::new, Throwable::printStackTrace);
+        launcher.launch(receiveAgent, BusySpinIdleStrategy::new, Throwable::printStackTrace);
 
         //wait for the final item to be received before closing
         barrier.await();
 
-        //close the resources
-        receiveAgentRunner.close();
-        sendAgentRunner.close();
+        //close the resources, logging each agent's duty cycles
+        launcher.close();
     }
 }
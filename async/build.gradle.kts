@@ -13,6 +13,7 @@ dependencies {
     checkstyle(libs.checkstyle)
     implementation(libs.aeron.archive)
     implementation(libs.agrona)
+    implementation(project(":agent-launcher"))
     implementation(libs.slf4j)
     implementation(libs.logback)
     testImplementation(libs.aeron.archive)
@@ -16,12 +16,11 @@
 
 package com.aeroncookbook.async;
 
+import com.aeroncookbook.launcher.AgentLauncher;
 import io.aeron.Aeron;
 import io.aeron.Publication;
 import io.aeron.Subscription;
 import io.aeron.driver.MediaDriver;
-import org.agrona.concurrent.AgentRunner;
-import org.agrona.concurrent.IdleStrategy;
 import org.agrona.concurrent.ShutdownSignalBarrier;
 import org.agrona.concurrent.SleepingMillisIdleStrategy;
 
@@ -32,8 +31,6 @@ public class AsyncSample
         final String channel = "aeron:ipc";
         final int streamToTimer = 10;
         final int streamToTimerClient = 11;
-        final IdleStrategy idleStrategySend = new SleepingMillisIdleStrategy(7);
-        final IdleStrategy idleStrategyReceive = new SleepingMillisIdleStrategy(5);
         final ShutdownSignalBarrier barrier = new ShutdownSignalBarrier();
 
         //construct Media Driver, cleaning up media driver folder on start/stop
@@ -58,22 +55,16 @@ public class AsyncSample
             new TimerClientAgent(timerPublication, timerClientSubscription);
         final TimerAgent timerAgent = new TimerAgent(timerSubscription, timerClientPublication, barrier);
 
-        //construct agent runners
-        final AgentRunner timerClientAgentRunner = new AgentRunner(idleStrategySend,
-            Throwable::printStackTrace, null, timerClientAgent);
-        final AgentRunner timerAgentRunner = new AgentRunner(idleStrategyReceive,
-            Throwable::printStackTrace, null, timerAgent);
-
-        //start the runners
-        AgentRunner.startOnThread(timerClientAgentRunner);
-        AgentRunner.startOnThread(timerAgentRunner);
+        //start the agents on their own threads, pinned to the cpus in AGENT_CPUS, each with its own idle strategy
+        final AgentLauncher launcher = AgentLauncher.fromEnvironment();
+        launcher.launch(timerClientAgent, () -> new SleepingMillisIdleStrategy(7), Throwable::printStackTrace);
+        launcher.launch(timerAgent, () -> new SleepingMillisIdleStrategy(5), Throwable::printStackTrace);
 
         //wait for the final item to be received before closing
         barrier.await();
 
-        //close the resources
-        timerAgentRunner.close();
-        timerClientAgentRunner.close();
+        //close the resources, logging each agent's duty cycles
+        launcher.close();
         aeron.close();
         mediaDriver.close();
     }
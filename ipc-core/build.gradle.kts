@@ -7,6 +7,7 @@ plugins {
 dependencies {
     checkstyle(libs.checkstyle)
     implementation(libs.agrona)
+    implementation(project(":agent-launcher"))
     implementation(libs.aeron.archive)
     implementation(libs.slf4j)
     implementation(libs.logback)
@@ -16,14 +16,13 @@
 
 package com.aeroncookbook.ipc.agents;
 
+import com.aeroncookbook.launcher.AgentLauncher;
 import io.aeron.Aeron;
 import io.aeron.Publication;
 import io.aeron.Subscription;
 import io.aeron.driver.MediaDriver;
 import io.aeron.driver.ThreadingMode;
-import org.agrona.concurrent.AgentRunner;
 import org.agrona.concurrent.BusySpinIdleStrategy;
-import org.agrona.concurrent.IdleStrategy;
 import org.agrona.concurrent.ShutdownSignalBarrier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,8 +36,6 @@ public class StartHere
         final String channel = "aeron:ipc";
         final int stream = 10;
         final int sendCount = 10_000_000;
-        final IdleStrategy idleStrategySend = new BusySpinIdleStrategy();
-        final IdleStrategy idleStrategyReceive = new BusySpinIdleStrategy();
         final ShutdownSignalBarrier barrier = new ShutdownSignalBarrier();
 
         //construct Media Driver, cleaning up media driver folder on start/stop
@@ -64,22 +61,17 @@ public class StartHere
         final SendAgent sendAgent = new SendAgent(publication, sendCount);
         final ReceiveAgent receiveAgent = new ReceiveAgent(subscription, barrier, sendCount);
 
-        //construct agent runners
-        final AgentRunner sendAgentRunner = new AgentRunner(idleStrategySend,
-            Throwable::printStackTrace, null, sendAgent);
-        final AgentRunner receiveAgentRunner = new AgentRunner(idleStrategyReceive,
-            Throwable::printStackTrace, null, receiveAgent);
+        //start the agents on their own threads, pinned to the cpus in AGENT_CPUS, each with its own idle strategy
+        final AgentLauncher launcher = AgentLauncher.fromEnvironment();
         LOGGER.info("starting");
-        //start the runners
-        AgentRunner.startOnThread(sendAgentRunner);
-        AgentRunner.startOnThread(receiveAgentRunner);
+        launcher.launch(sendAgent, BusySpinIdleStrategy::new, Throwable::printStackTrace);
+        launcher.launch(receiveAgent, BusySpinIdleStrategy::new, Throwable::printStackTrace);
 
         //wait for the final item to be received before closing
         barrier.await();
 
-        //close the resources
-        receiveAgentRunner.close();
-        sendAgentRunner.close();
+        //close the resources, logging each agent's duty cycles
+        launcher.close();
         aeron.close();
         mediaDriver.close();
     }
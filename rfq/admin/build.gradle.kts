@@ -33,8 +33,10 @@ dependencies {
     implementation(libs.picocli)
     implementation(libs.jline)
     implementation(libs.picoJline)
+    implementation(libs.hdrHistogram)
     testImplementation(libs.bundles.testing)
     implementation(project(":rfq:cluster-protocol"))
+    implementation(project(":agent-launcher"))
 }
 
 application {
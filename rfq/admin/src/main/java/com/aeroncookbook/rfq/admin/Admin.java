@@ -16,7 +16,10 @@
 
 package com.aeroncookbook.rfq.admin;
 
+import com.aeroncookbook.launcher.AgentLauncher;
+import com.aeroncookbook.rfq.admin.cli.BatchRunner;
 import com.aeroncookbook.rfq.admin.cli.CliCommands;
+import com.aeroncookbook.rfq.admin.cli.InstrumentFileLoader;
 import com.aeroncookbook.rfq.admin.cluster.ClusterInteractionAgent;
 import com.aeroncookbook.rfq.admin.util.EnvironmentUtil;
 import com.aeroncookbook.rfq.cluster.admin.protocol.ConnectClusterEncoder;
@@ -44,11 +47,17 @@ import org.jline.terminal.TerminalBuilder;
 import picocli.CommandLine;
 import picocli.shell.jline3.PicocliCommands;
 
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Supplier;
 
@@ -59,8 +68,12 @@ import static org.agrona.concurrent.ringbuffer.RingBufferDescriptor.TRAILER_LENG
  */
 public class Admin
 {
+    private static final int ADMIN_CHANNEL_LENGTH = 1024 * 1024;
+
     /**
-     * Main method
+     * Main method. Runs the interactive REPL, or with {@code --batch <file|-> [window]} streams the commands in the
+     * file (or stdin) to the cluster as a pipelined batch and exits once all responses are received. With
+     * {@code --load <file> [window]} loads an instrument reference data file in bulk commands, and exits once loaded.
      *
      * @param args command line arguments
      */
@@ -70,14 +83,28 @@ public class Admin
         final String prompt = "admin > ";
         final AtomicBoolean running = new AtomicBoolean(true);
         final IdleStrategy idleStrategy = new SleepingMillisIdleStrategy();
-        final UnsafeBuffer adminClusterBuffer = new UnsafeBuffer(ByteBuffer.allocateDirect(8192 + TRAILER_LENGTH));
+        final UnsafeBuffer adminClusterBuffer = new UnsafeBuffer(
+            ByteBuffer.allocateDirect(ADMIN_CHANNEL_LENGTH + TRAILER_LENGTH));
         final OneToOneRingBuffer adminClusterChannel = new OneToOneRingBuffer(adminClusterBuffer);
 
         final ClusterInteractionAgent clusterInteractionAgent = new ClusterInteractionAgent(adminClusterChannel,
             idleStrategy, running);
-        final AgentRunner clusterInteractionAgentRunner = new AgentRunner(idleStrategy, Throwable::printStackTrace,
-            null, clusterInteractionAgent);
-        AgentRunner.startOnThread(clusterInteractionAgentRunner);
+        final AgentRunner clusterInteractionAgentRunner = AgentLauncher.fromEnvironment()
+            .launch(clusterInteractionAgent, SleepingMillisIdleStrategy::new, Throwable::printStackTrace);
+
+        if (args.length >= 2 && "--batch".equals(args[0]))
+        {
+            final int window = args.length > 2 ? Integer.parseInt(args[2]) : BatchRunner.DEFAULT_WINDOW;
+            runBatch(args[1], window, adminClusterChannel, clusterInteractionAgent, clusterInteractionAgentRunner);
+            return;
+        }
+
+        if (args.length >= 2 && "--load".equals(args[0]))
+        {
+            final int window = args.length > 2 ? Integer.parseInt(args[2]) : InstrumentFileLoader.DEFAULT_WINDOW;
+            runLoad(args[1], window, adminClusterChannel, clusterInteractionAgent, clusterInteractionAgentRunner);
+            return;
+        }
 
         final Supplier<Path> workDir = () -> Paths.get(System.getProperty("user.dir"));
 
@@ -146,6 +173,83 @@ public class Admin
         }
     }
 
+    /**
+     * Runs a batch without a terminal, waiting until every response has been received or timed out
+     *
+     * @param source                        file to read commands from, or - for stdin
+     * @param window                        maximum number of requests awaiting a response
+     * @param adminClusterChannel           the channel to the cluster interaction agent
+     * @param clusterInteractionAgent       the cluster interaction agent
+     * @param clusterInteractionAgentRunner the runner of the agent, closed when the batch completes
+     * @throws IOException if the commands cannot be read
+     */
+    private static void runBatch(
+        final String source,
+        final int window,
+        final OneToOneRingBuffer adminClusterChannel,
+        final ClusterInteractionAgent clusterInteractionAgent,
+        final AgentRunner clusterInteractionAgentRunner) throws IOException
+    {
+        final PrintWriter out = new PrintWriter(System.out, true);
+        autoConnectCluster(adminClusterChannel, out);
+
+        try (BufferedReader reader = "-".equals(source) ?
+            new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)) :
+            Files.newBufferedReader(Paths.get(source)))
+        {
+            final long batchId = new BatchRunner(adminClusterChannel, out).run(reader, window);
+            final IdleStrategy idleStrategy = new SleepingMillisIdleStrategy();
+            while (clusterInteractionAgent.lastCompletedBatchId() < batchId)
+            {
+                idleStrategy.idle();
+            }
+        }
+        finally
+        {
+            CloseHelper.quietClose(clusterInteractionAgentRunner);
+        }
+    }
+
+    /**
+     * Loads an instrument file without a terminal, waiting until every bulk command has been confirmed or timed out
+     *
+     * @param file                          the instrument file
+     * @param window                        maximum number of bulk commands awaiting a response
+     * @param adminClusterChannel           the channel to the cluster interaction agent
+     * @param clusterInteractionAgent       the cluster interaction agent
+     * @param clusterInteractionAgentRunner the runner of the agent, closed when the load completes
+     */
+    private static void runLoad(
+        final String file,
+        final int window,
+        final OneToOneRingBuffer adminClusterChannel,
+        final ClusterInteractionAgent clusterInteractionAgent,
+        final AgentRunner clusterInteractionAgentRunner)
+    {
+        final PrintWriter out = new PrintWriter(System.out, true);
+        autoConnectCluster(adminClusterChannel, out);
+
+        try
+        {
+            final IdleStrategy idleStrategy = new SleepingMillisIdleStrategy();
+            final InstrumentFileLoader loader = new InstrumentFileLoader(adminClusterChannel, idleStrategy, out);
+            final long startNs = System.nanoTime();
+            final long batchId = loader.load(new File(file), window);
+            while (clusterInteractionAgent.lastCompletedBatchId() < batchId)
+            {
+                idleStrategy.idle();
+            }
+            final long elapsedNs = Math.max(1, System.nanoTime() - startNs);
+            out.println("Loaded " + loader.instrumentCount() + " instruments in " +
+                TimeUnit.NANOSECONDS.toMillis(elapsedNs) + "ms (" +
+                (loader.instrumentCount() * TimeUnit.SECONDS.toNanos(1) / elapsedNs) + " instruments/s)");
+        }
+        finally
+        {
+            CloseHelper.quietClose(clusterInteractionAgentRunner);
+        }
+    }
+
     private static void logMyUser(final PrintWriter writer)
     {
         final int myParticipantId = EnvironmentUtil.tryGetUserId();
@@ -174,6 +278,7 @@ public class Admin
         connectClusterEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
         connectClusterEncoder.baseport(9000);
         connectClusterEncoder.port(EnvironmentUtil.tryGetResponsePortFromEnv());
+        connectClusterEncoder.userId(EnvironmentUtil.tryGetUserId());
         connectClusterEncoder.clusterHosts(EnvironmentUtil.tryGetClusterHostsFromEnv());
         connectClusterEncoder.localhostName(EnvironmentUtil.getThisHostName());
         adminClusterChannel.write(10, buffer, 0,
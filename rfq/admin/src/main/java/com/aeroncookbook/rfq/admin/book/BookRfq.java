@@ -0,0 +1,132 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.admin.book;
+
+import com.aeroncookbook.cluster.rfq.sbe.RfqStatus;
+import com.aeroncookbook.cluster.rfq.sbe.Side;
+
+/**
+ * An RFQ as held in the client side RFQ book. Instances are pooled and reused by the book, so they must not be
+ * retained by listeners beyond the callback.
+ */
+public final class BookRfq
+{
+    private int rfqId;
+    private String cusip;
+    private RfqStatus status;
+    private Side requesterSide;
+    private long quantity;
+    private long expireTimeMs;
+    private long price;
+    private int requesterUserId;
+    private int responderUserId;
+
+    void set(
+        final int rfqId,
+        final String cusip,
+        final RfqStatus status,
+        final Side requesterSide,
+        final long quantity,
+        final long expireTimeMs,
+        final long price,
+        final int requesterUserId,
+        final int responderUserId)
+    {
+        this.rfqId = rfqId;
+        this.cusip = cusip;
+        this.status = status;
+        this.requesterSide = requesterSide;
+        this.quantity = quantity;
+        this.expireTimeMs = expireTimeMs;
+        this.price = price;
+        this.requesterUserId = requesterUserId;
+        this.responderUserId = responderUserId;
+    }
+
+    void reset()
+    {
+        set(0, null, null, null, 0, 0, 0, 0, 0);
+    }
+
+    void setStatus(final RfqStatus status)
+    {
+        this.status = status;
+    }
+
+    void setPrice(final long price)
+    {
+        this.price = price;
+    }
+
+    void setResponderUserId(final int responderUserId)
+    {
+        this.responderUserId = responderUserId;
+    }
+
+    public int getRfqId()
+    {
+        return rfqId;
+    }
+
+    public String getCusip()
+    {
+        return cusip;
+    }
+
+    public RfqStatus getStatus()
+    {
+        return status;
+    }
+
+    public Side getRequesterSide()
+    {
+        return requesterSide;
+    }
+
+    public long getQuantity()
+    {
+        return quantity;
+    }
+
+    public long getExpireTimeMs()
+    {
+        return expireTimeMs;
+    }
+
+    public long getPrice()
+    {
+        return price;
+    }
+
+    public int getRequesterUserId()
+    {
+        return requesterUserId;
+    }
+
+    public int getResponderUserId()
+    {
+        return responderUserId;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "id=" + rfqId + " cusip='" + cusip + "' status=" + status + " side=" + requesterSide +
+            " qty=" + quantity + " price=" + price + " requester=" + requesterUserId +
+            " responder=" + responderUserId + " expires=" + expireTimeMs;
+    }
+}
@@ -0,0 +1,561 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.admin.book;
+
+import com.aeroncookbook.cluster.rfq.RfqRouting;
+import com.aeroncookbook.cluster.rfq.sbe.BooleanType;
+import com.aeroncookbook.cluster.rfq.sbe.InstrumentUpdatedEventDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.RequestResult;
+import com.aeroncookbook.cluster.rfq.sbe.RfqAcceptedEventDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqBookSnapshotDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqCanceledEventDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqCounteredEventDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqCreatedEventDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqExpiredEventDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqQuotedEventDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqRejectedEventDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqStatus;
+import org.agrona.DirectBuffer;
+import org.agrona.collections.Int2ObjectHashMap;
+import org.agrona.collections.Object2IntHashMap;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * A client side view of the instruments and open RFQs held by the cluster, materialized from the sequenced
+ * broadcast events so that queries can be answered locally without a round trip through the cluster log.
+ * <p>
+ * The book is split into partitions, one for each RFQ service of every shard, and each partition sequences its own
+ * broadcasts. Every broadcast carries its partition and a sequence number within it. If a gap is detected the book
+ * stops applying that partition's events and requests an {@code RfqBookSnapshot} via the resync requester. Each
+ * partition answers with its own snapshot, which may arrive over several pages; the book rebuilds the partition from
+ * its snapshot and ignores the others. Events at or below the snapshot sequence are then ignored as duplicates.
+ * Instruments are sequenced by partition 0, and sent in its snapshot only.
+ * <p>
+ * Not thread safe; it is expected to be driven by the thread polling the cluster egress.
+ */
+public class RfqBook
+{
+    private static final int MISSING_INDEX = -1;
+    private static final int INITIAL_INSTRUMENT_CAPACITY = 64;
+    private static final int NO_SNAPSHOT_PAGE = -1;
+    private static final int UNKNOWN_PARTITION_COUNT = 0;
+
+    private final MessageHeaderDecoder messageHeaderDecoder = new MessageHeaderDecoder();
+    private final InstrumentUpdatedEventDecoder instrumentUpdatedEventDecoder = new InstrumentUpdatedEventDecoder();
+    private final RfqCreatedEventDecoder rfqCreatedEventDecoder = new RfqCreatedEventDecoder();
+    private final RfqQuotedEventDecoder rfqQuotedEventDecoder = new RfqQuotedEventDecoder();
+    private final RfqCounteredEventDecoder rfqCounteredEventDecoder = new RfqCounteredEventDecoder();
+    private final RfqAcceptedEventDecoder rfqAcceptedEventDecoder = new RfqAcceptedEventDecoder();
+    private final RfqRejectedEventDecoder rfqRejectedEventDecoder = new RfqRejectedEventDecoder();
+    private final RfqCanceledEventDecoder rfqCanceledEventDecoder = new RfqCanceledEventDecoder();
+    private final RfqExpiredEventDecoder rfqExpiredEventDecoder = new RfqExpiredEventDecoder();
+    private final RfqBookSnapshotDecoder rfqBookSnapshotDecoder = new RfqBookSnapshotDecoder();
+
+    private final Object2IntHashMap<String> instrumentIndexByCusip = new Object2IntHashMap<>(MISSING_INDEX);
+    private String[] cusips = new String[INITIAL_INSTRUMENT_CAPACITY];
+    private boolean[] enabledFlags = new boolean[INITIAL_INSTRUMENT_CAPACITY];
+    private int[] minSizes = new int[INITIAL_INSTRUMENT_CAPACITY];
+    private int instrumentCount = 0;
+
+    private final Int2ObjectHashMap<BookRfq> rfqsById = new Int2ObjectHashMap<>();
+    private final ArrayDeque<BookRfq> rfqPool = new ArrayDeque<>();
+
+    private final RfqBookListener listener;
+    private final Runnable resyncRequester;
+    private int partitionCount = UNKNOWN_PARTITION_COUNT;
+    private long[] lastSequences = new long[0];
+    private boolean[] resyncing = new boolean[0];
+    private int[] nextSnapshotPages = new int[0];
+    private int resyncingCount = 0;
+
+    /**
+     * Creates an empty book. The book is not live until {@link #resync()} has been called and the resulting
+     * snapshots have been received, which also tell the book how many partitions there are.
+     *
+     * @param listener        listener for changes applied to the book
+     * @param resyncRequester sends an {@code RfqBookSnapshotCommand} to the cluster
+     */
+    public RfqBook(final RfqBookListener listener, final Runnable resyncRequester)
+    {
+        this.listener = listener;
+        this.resyncRequester = resyncRequester;
+    }
+
+    /**
+     * Applies an egress message to the book if it is one the book tracks
+     *
+     * @param buffer the buffer containing the message
+     * @param offset the offset of the message
+     * @param length the length of the message
+     * @return true if the message was one the book tracks, whether or not it was applied
+     */
+    public boolean onMessage(final DirectBuffer buffer, final int offset, final int length)
+    {
+        if (length < MessageHeaderDecoder.ENCODED_LENGTH)
+        {
+            return false;
+        }
+
+        messageHeaderDecoder.wrap(buffer, offset);
+        switch (messageHeaderDecoder.templateId())
+        {
+            case InstrumentUpdatedEventDecoder.TEMPLATE_ID -> onInstrumentUpdated(buffer, offset);
+            case RfqCreatedEventDecoder.TEMPLATE_ID -> onRfqCreated(buffer, offset);
+            case RfqQuotedEventDecoder.TEMPLATE_ID -> onRfqQuoted(buffer, offset);
+            case RfqCounteredEventDecoder.TEMPLATE_ID -> onRfqCountered(buffer, offset);
+            case RfqAcceptedEventDecoder.TEMPLATE_ID -> onRfqAccepted(buffer, offset);
+            case RfqRejectedEventDecoder.TEMPLATE_ID -> onRfqRejected(buffer, offset);
+            case RfqCanceledEventDecoder.TEMPLATE_ID -> onRfqCanceled(buffer, offset);
+            case RfqExpiredEventDecoder.TEMPLATE_ID -> onRfqExpired(buffer, offset);
+            case RfqBookSnapshotDecoder.TEMPLATE_ID -> onSnapshot(buffer, offset);
+            default ->
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops applying events of every partition and requests a snapshot from the cluster. Called on connect.
+     */
+    public void resync()
+    {
+        partitionCount = UNKNOWN_PARTITION_COUNT;
+        resyncingCount = 0;
+        resyncRequester.run();
+    }
+
+    /**
+     * Indicates if the book is in sync with the cluster
+     *
+     * @return true if the book is applying the events of every partition, false while waiting for a snapshot
+     */
+    public boolean isLive()
+    {
+        return UNKNOWN_PARTITION_COUNT != partitionCount && 0 == resyncingCount;
+    }
+
+    /**
+     * The number of partitions of the book, learnt from the snapshots
+     *
+     * @return the partition count, or 0 before the first snapshot
+     */
+    public int partitionCount()
+    {
+        return partitionCount;
+    }
+
+    /**
+     * The sequence of the last broadcast of a partition applied to the book
+     *
+     * @param partition the partition, from 0 to {@link #partitionCount()} - 1
+     * @return the last applied sequence
+     */
+    public long lastSequence(final int partition)
+    {
+        return lastSequences[partition];
+    }
+
+    /**
+     * Looks up an open RFQ
+     *
+     * @param rfqId the RFQ id
+     * @return the RFQ or null if it is not open
+     */
+    public BookRfq rfq(final int rfqId)
+    {
+        return rfqsById.get(rfqId);
+    }
+
+    /**
+     * The number of open RFQs
+     *
+     * @return open RFQ count
+     */
+    public int openRfqCount()
+    {
+        return rfqsById.size();
+    }
+
+    /**
+     * Visits every open RFQ
+     *
+     * @param consumer the consumer to call for each RFQ
+     */
+    public void forEachRfq(final Consumer<BookRfq> consumer)
+    {
+        for (final BookRfq rfq : rfqsById.values())
+        {
+            consumer.accept(rfq);
+        }
+    }
+
+    /**
+     * The number of known instruments
+     *
+     * @return instrument count
+     */
+    public int instrumentCount()
+    {
+        return instrumentCount;
+    }
+
+    /**
+     * Indicates if the instrument is known to the book
+     *
+     * @param cusip the instrument CUSIP
+     * @return true if known
+     */
+    public boolean isKnownInstrument(final String cusip)
+    {
+        return instrumentIndexByCusip.containsKey(cusip);
+    }
+
+    /**
+     * Indicates if the instrument is known and enabled
+     *
+     * @param cusip the instrument CUSIP
+     * @return true if known and enabled
+     */
+    public boolean isInstrumentEnabled(final String cusip)
+    {
+        final int index = instrumentIndexByCusip.getValue(cusip);
+        return MISSING_INDEX != index && enabledFlags[index];
+    }
+
+    /**
+     * The minimum RFQ size for the instrument
+     *
+     * @param cusip the instrument CUSIP
+     * @return the minimum size or -1 if the instrument is unknown
+     */
+    public int minSize(final String cusip)
+    {
+        final int index = instrumentIndexByCusip.getValue(cusip);
+        return MISSING_INDEX == index ? -1 : minSizes[index];
+    }
+
+    /**
+     * The CUSIP of the instrument at the given index, from 0 to {@link #instrumentCount()} - 1
+     *
+     * @param index the instrument index
+     * @return the CUSIP
+     */
+    public String instrumentCusip(final int index)
+    {
+        return cusips[index];
+    }
+
+    private void onInstrumentUpdated(final DirectBuffer buffer, final int offset)
+    {
+        instrumentUpdatedEventDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        if (acceptSequence(instrumentUpdatedEventDecoder.partition(), instrumentUpdatedEventDecoder.sequence()))
+        {
+            final String cusip = instrumentUpdatedEventDecoder.cusip();
+            final boolean enabled = instrumentUpdatedEventDecoder.enabled() == BooleanType.TRUE;
+            final int minSize = instrumentUpdatedEventDecoder.minSize();
+            putInstrument(cusip, enabled, minSize);
+            listener.onInstrumentUpdated(cusip, enabled, minSize);
+        }
+    }
+
+    private void onRfqCreated(final DirectBuffer buffer, final int offset)
+    {
+        rfqCreatedEventDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        if (acceptSequence(rfqCreatedEventDecoder.partition(), rfqCreatedEventDecoder.sequence()))
+        {
+            final BookRfq rfq = newRfq();
+            rfq.set(
+                rfqCreatedEventDecoder.rfqId(),
+                rfqCreatedEventDecoder.cusip(),
+                RfqStatus.CREATED,
+                rfqCreatedEventDecoder.requesterSide(),
+                rfqCreatedEventDecoder.quantity(),
+                rfqCreatedEventDecoder.expireTimeMs(),
+                0,
+                rfqCreatedEventDecoder.requesterUserId(),
+                0);
+            rfqsById.put(rfq.getRfqId(), rfq);
+            listener.onRfqAdded(rfq);
+        }
+    }
+
+    private void onRfqQuoted(final DirectBuffer buffer, final int offset)
+    {
+        rfqQuotedEventDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        if (acceptSequence(rfqQuotedEventDecoder.partition(), rfqQuotedEventDecoder.sequence()))
+        {
+            final BookRfq rfq = rfqsById.get(rfqQuotedEventDecoder.rfqId());
+            if (null != rfq)
+            {
+                rfq.setStatus(RfqStatus.QUOTED);
+                rfq.setPrice(rfqQuotedEventDecoder.price());
+                rfq.setResponderUserId(rfqQuotedEventDecoder.responderUserId());
+                listener.onRfqUpdated(rfq);
+            }
+        }
+    }
+
+    private void onRfqCountered(final DirectBuffer buffer, final int offset)
+    {
+        rfqCounteredEventDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        if (acceptSequence(rfqCounteredEventDecoder.partition(), rfqCounteredEventDecoder.sequence()))
+        {
+            final BookRfq rfq = rfqsById.get(rfqCounteredEventDecoder.rfqId());
+            if (null != rfq)
+            {
+                rfq.setStatus(RfqStatus.COUNTERED);
+                rfq.setPrice(rfqCounteredEventDecoder.price());
+                listener.onRfqUpdated(rfq);
+            }
+        }
+    }
+
+    private void onRfqAccepted(final DirectBuffer buffer, final int offset)
+    {
+        rfqAcceptedEventDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        if (acceptSequence(rfqAcceptedEventDecoder.partition(), rfqAcceptedEventDecoder.sequence()))
+        {
+            removeRfq(rfqAcceptedEventDecoder.rfqId(), RfqStatus.ACCEPTED);
+        }
+    }
+
+    private void onRfqRejected(final DirectBuffer buffer, final int offset)
+    {
+        rfqRejectedEventDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        if (acceptSequence(rfqRejectedEventDecoder.partition(), rfqRejectedEventDecoder.sequence()))
+        {
+            removeRfq(rfqRejectedEventDecoder.rfqId(), RfqStatus.REJECTED);
+        }
+    }
+
+    private void onRfqCanceled(final DirectBuffer buffer, final int offset)
+    {
+        rfqCanceledEventDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        if (acceptSequence(rfqCanceledEventDecoder.partition(), rfqCanceledEventDecoder.sequence()))
+        {
+            removeRfq(rfqCanceledEventDecoder.rfqId(), RfqStatus.CANCELED);
+        }
+    }
+
+    private void onRfqExpired(final DirectBuffer buffer, final int offset)
+    {
+        rfqExpiredEventDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        if (acceptSequence(rfqExpiredEventDecoder.partition(), rfqExpiredEventDecoder.sequence()))
+        {
+            removeRfq(rfqExpiredEventDecoder.rfqId(), RfqStatus.EXPIRED);
+        }
+    }
+
+    private void onSnapshot(final DirectBuffer buffer, final int offset)
+    {
+        rfqBookSnapshotDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        if (rfqBookSnapshotDecoder.partitionCount() != partitionCount)
+        {
+            resetPartitions(rfqBookSnapshotDecoder.partitionCount());
+        }
+
+        final int partition = rfqBookSnapshotDecoder.partition();
+        if (partition < 0 || partition >= partitionCount || !resyncing[partition])
+        {
+            return;
+        }
+        if (RequestResult.THROTTLED == rfqBookSnapshotDecoder.result())
+        {
+            nextSnapshotPages[partition] = NO_SNAPSHOT_PAGE;
+            listener.onSnapshotThrottled(partition);
+            return;
+        }
+
+        final int page = rfqBookSnapshotDecoder.page();
+        if (0 == page)
+        {
+            clearPartition(partition);
+        }
+        else if (page != nextSnapshotPages[partition])
+        {
+            // a page of a snapshot whose first page was not seen; wait for the first page of the next one
+            return;
+        }
+
+        final RfqBookSnapshotDecoder.InstrumentsDecoder instruments = rfqBookSnapshotDecoder.instruments();
+        while (instruments.hasNext())
+        {
+            instruments.next();
+            putInstrument(instruments.cusip(), instruments.enabled() == BooleanType.TRUE, instruments.minSize());
+        }
+
+        final RfqBookSnapshotDecoder.RfqsDecoder rfqs = rfqBookSnapshotDecoder.rfqs();
+        while (rfqs.hasNext())
+        {
+            rfqs.next();
+            final BookRfq rfq = newRfq();
+            rfq.set(
+                rfqs.rfqId(),
+                rfqs.cusip(),
+                rfqs.status(),
+                rfqs.requesterSide(),
+                rfqs.quantity(),
+                rfqs.expireTimeMs(),
+                rfqs.price(),
+                rfqs.requesterUserId(),
+                rfqs.responderUserId());
+            rfqsById.put(rfq.getRfqId(), rfq);
+        }
+
+        if (rfqBookSnapshotDecoder.lastPage() != BooleanType.TRUE)
+        {
+            nextSnapshotPages[partition] = page + 1;
+            return;
+        }
+
+        nextSnapshotPages[partition] = NO_SNAPSHOT_PAGE;
+        lastSequences[partition] = rfqBookSnapshotDecoder.sequence();
+        resyncing[partition] = false;
+        resyncingCount--;
+        if (0 == resyncingCount)
+        {
+            listener.onResynced(this);
+        }
+    }
+
+    /**
+     * Checks the sequence of a broadcast against the last one applied for its partition
+     *
+     * @param partition the partition of the broadcast
+     * @param sequence  the sequence of the broadcast within its partition
+     * @return true if the broadcast should be applied
+     */
+    private boolean acceptSequence(final int partition, final long sequence)
+    {
+        if (partition < 0 || partition >= partitionCount || resyncing[partition] ||
+            sequence <= lastSequences[partition])
+        {
+            return false;
+        }
+
+        if (sequence != lastSequences[partition] + 1)
+        {
+            listener.onGap(partition, lastSequences[partition] + 1, sequence);
+            resyncing[partition] = true;
+            resyncingCount++;
+            resyncRequester.run();
+            return false;
+        }
+
+        lastSequences[partition] = sequence;
+        return true;
+    }
+
+    // a new partition count, on the first snapshot or after the cluster was reconfigured, starts the book afresh
+    private void resetPartitions(final int newPartitionCount)
+    {
+        clear();
+        partitionCount = newPartitionCount;
+        lastSequences = new long[partitionCount];
+        resyncing = new boolean[partitionCount];
+        nextSnapshotPages = new int[partitionCount];
+        Arrays.fill(resyncing, true);
+        Arrays.fill(nextSnapshotPages, NO_SNAPSHOT_PAGE);
+        resyncingCount = partitionCount;
+    }
+
+    private void putInstrument(final String cusip, final boolean enabled, final int minSize)
+    {
+        int index = instrumentIndexByCusip.getValue(cusip);
+        if (MISSING_INDEX == index)
+        {
+            index = instrumentCount++;
+            if (index == cusips.length)
+            {
+                final int newCapacity = cusips.length << 1;
+                cusips = Arrays.copyOf(cusips, newCapacity);
+                enabledFlags = Arrays.copyOf(enabledFlags, newCapacity);
+                minSizes = Arrays.copyOf(minSizes, newCapacity);
+            }
+            cusips[index] = cusip;
+            instrumentIndexByCusip.put(cusip, index);
+        }
+        enabledFlags[index] = enabled;
+        minSizes[index] = minSize;
+    }
+
+    private void removeRfq(final int rfqId, final RfqStatus finalStatus)
+    {
+        final BookRfq rfq = rfqsById.remove(rfqId);
+        if (null != rfq)
+        {
+            rfq.setStatus(finalStatus);
+            listener.onRfqRemoved(rfq);
+            releaseRfq(rfq);
+        }
+    }
+
+    private BookRfq newRfq()
+    {
+        final BookRfq rfq = rfqPool.pollFirst();
+        return null == rfq ? new BookRfq() : rfq;
+    }
+
+    private void releaseRfq(final BookRfq rfq)
+    {
+        rfq.reset();
+        rfqPool.addFirst(rfq);
+    }
+
+    // partition 0 also holds the instruments
+    private void clearPartition(final int partition)
+    {
+        final Iterator<BookRfq> rfqs = rfqsById.values().iterator();
+        while (rfqs.hasNext())
+        {
+            final BookRfq rfq = rfqs.next();
+            if (RfqRouting.bookPartitionOfRfq(rfq.getRfqId(), partitionCount) == partition)
+            {
+                rfqs.remove();
+                releaseRfq(rfq);
+            }
+        }
+        if (0 == partition)
+        {
+            clearInstruments();
+        }
+    }
+
+    private void clear()
+    {
+        for (final BookRfq rfq : rfqsById.values())
+        {
+            releaseRfq(rfq);
+        }
+        rfqsById.clear();
+        clearInstruments();
+    }
+
+    private void clearInstruments()
+    {
+        instrumentIndexByCusip.clear();
+        Arrays.fill(cusips, 0, instrumentCount, null);
+        instrumentCount = 0;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.admin.book;
+
+/**
+ * Callbacks for changes applied to the {@link RfqBook}. All methods are invoked on the thread polling the cluster
+ * egress.
+ */
+public interface RfqBookListener
+{
+    /**
+     * An instrument was added or had its enabled flag changed
+     *
+     * @param cusip   the instrument CUSIP
+     * @param enabled true if the instrument is enabled
+     * @param minSize the minimum RFQ size for the instrument
+     */
+    default void onInstrumentUpdated(final String cusip, final boolean enabled, final int minSize)
+    {
+    }
+
+    /**
+     * A new RFQ was added to the book
+     *
+     * @param rfq the RFQ, only valid for the duration of the callback
+     */
+    default void onRfqAdded(final BookRfq rfq)
+    {
+    }
+
+    /**
+     * An open RFQ was quoted or countered
+     *
+     * @param rfq the RFQ, only valid for the duration of the callback
+     */
+    default void onRfqUpdated(final BookRfq rfq)
+    {
+    }
+
+    /**
+     * An RFQ reached a terminal state and was removed from the book
+     *
+     * @param rfq the RFQ holding its final state, only valid for the duration of the callback
+     */
+    default void onRfqRemoved(final BookRfq rfq)
+    {
+    }
+
+    /**
+     * A gap was detected in the broadcast sequence of a partition. The book stops applying the partition's events
+     * and requests a resync.
+     *
+     * @param partition        the partition of the book
+     * @param expectedSequence the sequence the book expected next
+     * @param receivedSequence the sequence actually received
+     */
+    default void onGap(final int partition, final long expectedSequence, final long receivedSequence)
+    {
+    }
+
+    /**
+     * The cluster refused a snapshot request of a partition under its rate limit. The partition stays out of sync
+     * until a later request is served, so the listener should request a snapshot again after a delay.
+     *
+     * @param partition the partition of the book
+     */
+    default void onSnapshotThrottled(final int partition)
+    {
+    }
+
+    /**
+     * Every partition of the book was rebuilt from its snapshot, and the book is live again
+     *
+     * @param book the book
+     */
+    default void onResynced(final RfqBook book)
+    {
+    }
+}
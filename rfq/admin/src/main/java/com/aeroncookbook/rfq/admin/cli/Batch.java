@@ -0,0 +1,59 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aeroncookbook.rfq.admin.cli;
+
+import picocli.CommandLine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Streams commands from a file to the cluster as a pipelined batch
+ */
+@CommandLine.Command(name = "batch", mixinStandardHelpOptions = false,
+    description = "Streams commands from a file to the cluster, pipelined up to a window of outstanding requests")
+public class Batch implements Runnable
+{
+    @CommandLine.ParentCommand
+    CliCommands parent;
+
+    @SuppressWarnings("all")
+    @CommandLine.Option(names = "file", required = true,
+        description = "File of admin commands, one per line. Lines starting with # are ignored")
+    private String file = "";
+
+    @SuppressWarnings("all")
+    @CommandLine.Option(names = "window", description = "Maximum number of requests awaiting a cluster response")
+    private Integer window = BatchRunner.DEFAULT_WINDOW;
+
+    /**
+     * Streams the file into the admin channel; results are reported by the cluster interaction agent
+     */
+    public void run()
+    {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file)))
+        {
+            final long batchId = new BatchRunner(parent.adminChannel(), parent.out).run(reader, window);
+            parent.out.println("Batch " + batchId + " sent, results are reported once all responses are received");
+        }
+        catch (final IOException e)
+        {
+            parent.out.println("Failed to read batch file " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aeroncookbook.rfq.admin.cli;
+
+import com.aeroncookbook.rfq.cluster.admin.protocol.EndBatchEncoder;
+import com.aeroncookbook.rfq.cluster.admin.protocol.MessageHeaderEncoder;
+import com.aeroncookbook.rfq.cluster.admin.protocol.StartBatchEncoder;
+import org.agrona.ExpandableArrayBuffer;
+import org.agrona.concurrent.SleepingMillisIdleStrategy;
+import org.agrona.concurrent.ringbuffer.OneToOneRingBuffer;
+import picocli.CommandLine;
+import picocli.shell.jline3.PicocliCommands;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams admin commands, one per line, into the admin channel as a batch. The cluster interaction agent pipelines
+ * the batch with at most a window of requests awaiting a response, and reports throughput and latency when done.
+ */
+public final class BatchRunner
+{
+    /**
+     * Default number of requests that may be awaiting a response from the cluster
+     */
+    public static final int DEFAULT_WINDOW = 256;
+    private static final AtomicLong BATCH_IDS = new AtomicLong();
+
+    private final ExpandableArrayBuffer buffer = new ExpandableArrayBuffer(64);
+    private final MessageHeaderEncoder messageHeaderEncoder = new MessageHeaderEncoder();
+    private final StartBatchEncoder startBatchEncoder = new StartBatchEncoder();
+    private final EndBatchEncoder endBatchEncoder = new EndBatchEncoder();
+    private final CliCommands commands = new CliCommands();
+    private final CommandLine commandLine;
+    private final PrintWriter out;
+
+    /**
+     * Creates a batch runner
+     *
+     * @param adminChannel the channel to the cluster interaction agent
+     * @param out          the writer for errors in the batch
+     */
+    public BatchRunner(final OneToOneRingBuffer adminChannel, final PrintWriter out)
+    {
+        this.out = out;
+        commands.setAdminChannel(adminChannel);
+        commands.setOut(out);
+        commands.setFullBufferIdleStrategy(new SleepingMillisIdleStrategy());
+        commandLine = new CommandLine(commands, new PicocliCommands.PicocliCommandsFactory());
+    }
+
+    /**
+     * Allocates the id of a new batch
+     *
+     * @return the batch id
+     */
+    static long nextBatchId()
+    {
+        return BATCH_IDS.incrementAndGet();
+    }
+
+    /**
+     * Streams all commands from the reader into the admin channel, waiting for space when the channel is full.
+     * Blank lines and lines starting with # are ignored.
+     *
+     * @param reader the source of the commands
+     * @param window the maximum number of requests awaiting a response from the cluster
+     * @return the id of the batch, which the agent reports on completion
+     * @throws IOException if the commands cannot be read
+     */
+    public long run(final BufferedReader reader, final int window) throws IOException
+    {
+        final long batchId = nextBatchId();
+        startBatchEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+        startBatchEncoder.batchId(batchId);
+        startBatchEncoder.window(window);
+        commands.offerRingBufferMessage(buffer, 0, MessageHeaderEncoder.ENCODED_LENGTH +
+            startBatchEncoder.encodedLength());
+
+        String line;
+        int lineNumber = 0;
+        while (null != (line = reader.readLine()))
+        {
+            lineNumber++;
+            final String command = line.trim();
+            if (command.isEmpty() || command.startsWith("#"))
+            {
+                continue;
+            }
+
+            final String[] args = command.split("\\s+");
+            if ("batch".equals(args[0]) || "exit".equals(args[0]))
+            {
+                out.println("Line " + lineNumber + ": '" + args[0] + "' is not supported in a batch");
+                continue;
+            }
+
+            if (0 != commandLine.execute(args))
+            {
+                out.println("Line " + lineNumber + " failed: " + command);
+            }
+        }
+
+        endBatchEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+        endBatchEncoder.batchId(batchId);
+        commands.offerRingBufferMessage(buffer, 0, MessageHeaderEncoder.ENCODED_LENGTH +
+            endBatchEncoder.encodedLength());
+
+        return batchId;
+    }
+}
@@ -17,6 +17,7 @@
 package com.aeroncookbook.rfq.admin.cli;
 
 import org.agrona.ExpandableArrayBuffer;
+import org.agrona.concurrent.IdleStrategy;
 import org.agrona.concurrent.ringbuffer.OneToOneRingBuffer;
 import org.jline.reader.LineReader;
 import picocli.CommandLine;
@@ -35,13 +36,15 @@ import java.io.PrintWriter;
         ""},
     subcommands = {
         PicocliCommands.ClearScreen.class, CommandLine.HelpCommand.class,
-        ConnectCluster.class, DisconnectCluster.class, InstrumentAdd.class, InstrumentDisable.class,
-        InstrumentEnable.class, InstrumentList.class, RfqCreate.class, RfqCancel.class, RfqQuote.class,
-        RfqCounter.class, RfqAccept.class, RfqReject.class})
+        ConnectCluster.class, DisconnectCluster.class, InstrumentAdd.class, InstrumentAddBulk.class,
+        InstrumentDisable.class, InstrumentEnable.class, InstrumentList.class, RfqCreate.class, RfqCancel.class,
+        RfqQuote.class, RfqCounter.class, RfqAccept.class, RfqReject.class, RfqBookShow.class, Batch.class,
+        UserAdd.class, UserEnable.class, UserDisable.class, UserEntitle.class, RfqList.class})
 public class CliCommands implements Runnable
 {
     PrintWriter out;
     private OneToOneRingBuffer adminChannel;
+    private IdleStrategy fullBufferIdleStrategy;
 
     /**
      * Parent for all the commands
@@ -60,6 +63,37 @@ public class CliCommands implements Runnable
         out = reader.getTerminal().writer();
     }
 
+    /**
+     * Sets the writer used for output when running without a terminal
+     *
+     * @param out the writer
+     */
+    public void setOut(final PrintWriter out)
+    {
+        this.out = out;
+    }
+
+    /**
+     * Makes offers to the admin channel wait for space rather than fail when the buffer is full, as needed when
+     * streaming commands in a batch
+     *
+     * @param idleStrategy the idle strategy to use while waiting, or null to fail when full
+     */
+    public void setFullBufferIdleStrategy(final IdleStrategy idleStrategy)
+    {
+        this.fullBufferIdleStrategy = idleStrategy;
+    }
+
+    /**
+     * The admin channel
+     *
+     * @return the admin channel
+     */
+    OneToOneRingBuffer adminChannel()
+    {
+        return adminChannel;
+    }
+
     /**
      * Gets the usage of the commands
      */
@@ -87,7 +121,17 @@ public class CliCommands implements Runnable
      */
     public void offerRingBufferMessage(final ExpandableArrayBuffer buffer, final int offset, final int encodedLength)
     {
-        final boolean success = adminChannel.write(10, buffer, offset, encodedLength);
+        boolean success = adminChannel.write(10, buffer, offset, encodedLength);
+        if (null != fullBufferIdleStrategy)
+        {
+            fullBufferIdleStrategy.reset();
+            while (!success)
+            {
+                fullBufferIdleStrategy.idle();
+                success = adminChannel.write(10, buffer, offset, encodedLength);
+            }
+        }
+
         if (!success)
         {
             out.println("Failed to send message to cluster interaction agent. Buffer is full.");
@@ -47,6 +47,10 @@ public class ConnectCluster implements Runnable
     @CommandLine.Option(names = "port", description = "The port to use for communication. The default, 0," +
         " will auto-assign a port")
     private final Integer port = EnvironmentUtil.tryGetResponsePortFromEnv();
+    @SuppressWarnings("all")
+    @CommandLine.Option(names = "user", description = "The user id to authenticate as. Defaults to USER_ID env var; " +
+        "0 connects anonymously")
+    private Integer userId = EnvironmentUtil.tryGetUserId();
 
     /**
      * sends a connect cluster via the comms channel
@@ -56,6 +60,7 @@ public class ConnectCluster implements Runnable
         connectClusterEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
         connectClusterEncoder.baseport(baseport);
         connectClusterEncoder.port(port);
+        connectClusterEncoder.userId(userId);
         connectClusterEncoder.clusterHosts(hostnames);
         connectClusterEncoder.localhostName(localhost);
 
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aeroncookbook.rfq.admin.cli;
+
+import org.agrona.concurrent.SleepingMillisIdleStrategy;
+import picocli.CommandLine;
+
+import java.io.File;
+
+/**
+ * Adds the instruments in a reference data file to the cluster, many instruments per cluster command
+ */
+@CommandLine.Command(name = "instrument-add-bulk", mixinStandardHelpOptions = false,
+    description = "Loads the instruments in a CSV (cusip,enabled,min-quantity lines) or binary file in bulk commands")
+public class InstrumentAddBulk implements Runnable
+{
+    @CommandLine.ParentCommand
+    CliCommands parent;
+
+    @SuppressWarnings("all")
+    @CommandLine.Option(names = "file", required = true,
+        description = "Instrument file; .csv files are read as CSV, others as binary records")
+    private String file = "";
+
+    @SuppressWarnings("all")
+    @CommandLine.Option(names = "window", description = "Maximum number of bulk commands awaiting a cluster response")
+    private Integer window = InstrumentFileLoader.DEFAULT_WINDOW;
+
+    /**
+     * Streams the file into the admin channel; the load is reported by the cluster interaction agent
+     */
+    public void run()
+    {
+        try
+        {
+            final InstrumentFileLoader loader =
+                new InstrumentFileLoader(parent.adminChannel(), new SleepingMillisIdleStrategy(), parent.out);
+            final long batchId = loader.load(new File(file), window);
+            parent.out.println("Batch " + batchId + " sent, results are reported once all responses are received");
+        }
+        catch (final IllegalStateException e)
+        {
+            parent.out.println("Failed to load instrument file " + file + ": " + e.getMessage());
+        }
+    }
+}
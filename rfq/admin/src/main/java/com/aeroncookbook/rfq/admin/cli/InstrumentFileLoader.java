@@ -0,0 +1,381 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aeroncookbook.rfq.admin.cli;
+
+import com.aeroncookbook.rfq.cluster.admin.protocol.AddInstrumentsEncoder;
+import com.aeroncookbook.rfq.cluster.admin.protocol.BooleanType;
+import com.aeroncookbook.rfq.cluster.admin.protocol.EndBatchEncoder;
+import com.aeroncookbook.rfq.cluster.admin.protocol.MessageHeaderEncoder;
+import com.aeroncookbook.rfq.cluster.admin.protocol.StartBatchEncoder;
+import org.agrona.DirectBuffer;
+import org.agrona.IoUtil;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.ringbuffer.OneToOneRingBuffer;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads a reference data file of instruments into the cluster as a batch of bulk add commands.
+ * <p>
+ * The file is memory mapped and parsed in place, reusing the same buffers for every command, so no objects are
+ * allocated per instrument. Two formats are read:
+ * <ul>
+ *     <li>CSV, for files ending {@code .csv}: {@code cusip,enabled,min-quantity} lines, with blank lines and lines
+ *     starting with # ignored</li>
+ *     <li>binary, for any other file: fixed 17 byte little endian records holding the 9 byte ASCII cusip, the
+ *     enabled flag as an int32 of 0 or 1 (other values are read as 1), and the minimum quantity as an int32. This is
+ *     the layout of an entry in the {@code AddInstruments} group, so each command is filled with a single copy from
+ *     the file</li>
+ * </ul>
+ * Files are limited to 2GB, the size of a single mapping.
+ */
+public final class InstrumentFileLoader
+{
+    /**
+     * Default number of bulk commands that may be awaiting a response from the cluster
+     */
+    public static final int DEFAULT_WINDOW = 16;
+
+    /**
+     * Instruments per command. Each takes 17 bytes, keeping a command within the 8KB message limit of the admin's
+     * ingress channel
+     */
+    public static final int MAX_INSTRUMENTS_PER_COMMAND = 400;
+
+    /**
+     * Length of a record in a binary instrument file
+     */
+    public static final int BINARY_RECORD_LENGTH = 17;
+
+    private static final int CUSIP_LENGTH = 9;
+    private static final int MAX_MIN_SIZE_DIGITS = 9;
+
+    private final MutableDirectBuffer buffer = new UnsafeBuffer(ByteBuffer.allocateDirect(16 * 1024));
+    private final MessageHeaderEncoder messageHeaderEncoder = new MessageHeaderEncoder();
+    private final AddInstrumentsEncoder addInstrumentsEncoder = new AddInstrumentsEncoder();
+    private final StartBatchEncoder startBatchEncoder = new StartBatchEncoder();
+    private final EndBatchEncoder endBatchEncoder = new EndBatchEncoder();
+    private final byte[] cusip = new byte[CUSIP_LENGTH];
+    private final int[] lineStarts = new int[MAX_INSTRUMENTS_PER_COMMAND];
+    private final int[] lineEnds = new int[MAX_INSTRUMENTS_PER_COMMAND];
+    private final OneToOneRingBuffer adminChannel;
+    private final IdleStrategy fullBufferIdleStrategy;
+    private final PrintWriter out;
+    private long instrumentCount;
+    private long commandCount;
+    private long skippedCount;
+
+    /**
+     * Creates a loader
+     *
+     * @param adminChannel           the channel to the cluster interaction agent
+     * @param fullBufferIdleStrategy the idle strategy used while waiting for space in the channel
+     * @param out                    the writer for the load report and errors
+     */
+    public InstrumentFileLoader(
+        final OneToOneRingBuffer adminChannel,
+        final IdleStrategy fullBufferIdleStrategy,
+        final PrintWriter out)
+    {
+        if (BINARY_RECORD_LENGTH != AddInstrumentsEncoder.InstrumentsEncoder.sbeBlockLength())
+        {
+            throw new IllegalStateException("binary record length does not match the AddInstruments group");
+        }
+        this.adminChannel = adminChannel;
+        this.fullBufferIdleStrategy = fullBufferIdleStrategy;
+        this.out = out;
+    }
+
+    /**
+     * Streams the instruments in a file into the admin channel as a batch, waiting for space when the channel is full.
+     * The cluster interaction agent reports the end to end throughput once the cluster has confirmed every command.
+     *
+     * @param file   the instrument file
+     * @param window the maximum number of bulk commands awaiting a response from the cluster
+     * @return the id of the batch, which the agent reports on completion
+     * @throws IllegalStateException if the file cannot be mapped
+     */
+    public long load(final File file, final int window)
+    {
+        instrumentCount = 0;
+        commandCount = 0;
+        skippedCount = 0;
+        final long startNs = System.nanoTime();
+        final MappedByteBuffer mappedFile = IoUtil.mapExistingFile(file, "instruments");
+
+        final long batchId = BatchRunner.nextBatchId();
+        startBatchEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+        startBatchEncoder.batchId(batchId);
+        startBatchEncoder.window(window);
+        send(MessageHeaderEncoder.ENCODED_LENGTH + startBatchEncoder.encodedLength());
+        try
+        {
+            final UnsafeBuffer fileBuffer = new UnsafeBuffer(mappedFile);
+            if (file.getName().endsWith(".csv"))
+            {
+                loadCsv(fileBuffer);
+            }
+            else
+            {
+                loadBinary(fileBuffer);
+            }
+        }
+        finally
+        {
+            IoUtil.unmap(mappedFile);
+            endBatchEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+            endBatchEncoder.batchId(batchId);
+            send(MessageHeaderEncoder.ENCODED_LENGTH + endBatchEncoder.encodedLength());
+        }
+        final long elapsedNs = Math.max(1, System.nanoTime() - startNs);
+
+        out.println("Read " + instrumentCount + " instruments (" + file.length() + " bytes) from " + file +
+            " into " + commandCount + " commands in " + TimeUnit.NANOSECONDS.toMillis(elapsedNs) + "ms (" +
+            (instrumentCount * TimeUnit.SECONDS.toNanos(1) / elapsedNs) + " instruments/s)" +
+            (skippedCount > 0 ? ", " + skippedCount + " lines skipped" : ""));
+
+        return batchId;
+    }
+
+    /**
+     * The number of instruments read by the last load
+     *
+     * @return the number of instruments
+     */
+    public long instrumentCount()
+    {
+        return instrumentCount;
+    }
+
+    private void loadBinary(final DirectBuffer fileBuffer)
+    {
+        final int recordCount = fileBuffer.capacity() / BINARY_RECORD_LENGTH;
+        if (fileBuffer.capacity() % BINARY_RECORD_LENGTH != 0)
+        {
+            out.println("Binary instrument file has a partial record at the end, ignored");
+        }
+
+        int position = 0;
+        int remaining = recordCount;
+        while (remaining > 0)
+        {
+            final int count = Math.min(remaining, MAX_INSTRUMENTS_PER_COMMAND);
+            final int length = count * BINARY_RECORD_LENGTH;
+
+            addInstrumentsEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+            addInstrumentsEncoder.instrumentsCount(count);
+            final int limit = addInstrumentsEncoder.limit();
+            buffer.putBytes(limit, fileBuffer, position, length);
+            addInstrumentsEncoder.limit(limit + length);
+            for (int i = limit + CUSIP_LENGTH; i < limit + length; i += BINARY_RECORD_LENGTH)
+            {
+                if ((buffer.getInt(i, ByteOrder.LITTLE_ENDIAN) & ~1) != 0)
+                {
+                    buffer.putInt(i, 1, ByteOrder.LITTLE_ENDIAN);
+                }
+            }
+            sendAddInstruments(count);
+
+            position += length;
+            remaining -= count;
+        }
+    }
+
+    private void loadCsv(final DirectBuffer fileBuffer)
+    {
+        final int capacity = fileBuffer.capacity();
+        int count = 0;
+        int position = 0;
+        while (position < capacity)
+        {
+            int end = position;
+            while (end < capacity && fileBuffer.getByte(end) != '\n')
+            {
+                end++;
+            }
+
+            final int start = skipWhitespace(fileBuffer, position, end);
+            if (start < end && fileBuffer.getByte(start) != '#')
+            {
+                lineStarts[count] = start;
+                lineEnds[count] = end;
+                if (++count == MAX_INSTRUMENTS_PER_COMMAND)
+                {
+                    encodeCsvLines(fileBuffer, count);
+                    count = 0;
+                }
+            }
+            position = end + 1;
+        }
+
+        if (count > 0)
+        {
+            encodeCsvLines(fileBuffer, count);
+        }
+    }
+
+    private void encodeCsvLines(final DirectBuffer fileBuffer, final int lineCount)
+    {
+        int count = 0;
+        for (int i = 0; i < lineCount; i++)
+        {
+            if (isValidCsvLine(fileBuffer, lineStarts[i], lineEnds[i]))
+            {
+                lineStarts[count] = lineStarts[i];
+                lineEnds[count] = lineEnds[i];
+                count++;
+            }
+            else
+            {
+                skippedCount++;
+            }
+        }
+        if (0 == count)
+        {
+            return;
+        }
+
+        addInstrumentsEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+        final AddInstrumentsEncoder.InstrumentsEncoder instrumentsEncoder =
+            addInstrumentsEncoder.instrumentsCount(count);
+        for (int i = 0; i < count; i++)
+        {
+            final int end = lineEnds[i];
+            final int cusipEnd = indexOf(fileBuffer, lineStarts[i], end, ',');
+            final int enabledStart = skipWhitespace(fileBuffer, cusipEnd + 1, end);
+            final int enabledEnd = indexOf(fileBuffer, enabledStart, end, ',');
+
+            Arrays.fill(cusip, (byte)0);
+            fileBuffer.getBytes(lineStarts[i], cusip, 0, trimmedLength(fileBuffer, lineStarts[i], cusipEnd));
+            instrumentsEncoder.next()
+                .putCusip(cusip, 0)
+                .enabled(parseBoolean(fileBuffer, enabledStart) ? BooleanType.TRUE : BooleanType.FALSE)
+                .minSize(parseInt(fileBuffer, skipWhitespace(fileBuffer, enabledEnd + 1, end), end));
+        }
+        sendAddInstruments(count);
+    }
+
+    private boolean isValidCsvLine(final DirectBuffer fileBuffer, final int start, final int end)
+    {
+        final int cusipEnd = indexOf(fileBuffer, start, end, ',');
+        if (cusipEnd == end || trimmedLength(fileBuffer, start, cusipEnd) > CUSIP_LENGTH)
+        {
+            return false;
+        }
+
+        final int enabledEnd = indexOf(fileBuffer, cusipEnd + 1, end, ',');
+        if (enabledEnd == end)
+        {
+            return false;
+        }
+
+        final int minSizeStart = skipWhitespace(fileBuffer, enabledEnd + 1, end);
+        final int minSizeEnd = minSizeStart + trimmedLength(fileBuffer, minSizeStart, end);
+        if (minSizeStart == minSizeEnd || minSizeEnd - minSizeStart > MAX_MIN_SIZE_DIGITS)
+        {
+            return false;
+        }
+        for (int i = minSizeStart; i < minSizeEnd; i++)
+        {
+            final byte b = fileBuffer.getByte(i);
+            if (b < '0' || b > '9')
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void sendAddInstruments(final int count)
+    {
+        send(MessageHeaderEncoder.ENCODED_LENGTH + addInstrumentsEncoder.encodedLength());
+        instrumentCount += count;
+        commandCount++;
+    }
+
+    private void send(final int length)
+    {
+        fullBufferIdleStrategy.reset();
+        while (!adminChannel.write(10, buffer, 0, length))
+        {
+            fullBufferIdleStrategy.idle();
+        }
+    }
+
+    private static int indexOf(final DirectBuffer fileBuffer, final int start, final int end, final char value)
+    {
+        int i = start;
+        while (i < end && fileBuffer.getByte(i) != value)
+        {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipWhitespace(final DirectBuffer fileBuffer, final int start, final int end)
+    {
+        int i = start;
+        while (i < end && isWhitespace(fileBuffer.getByte(i)))
+        {
+            i++;
+        }
+        return i;
+    }
+
+    private static int trimmedLength(final DirectBuffer fileBuffer, final int start, final int end)
+    {
+        int i = end;
+        while (i > start && isWhitespace(fileBuffer.getByte(i - 1)))
+        {
+            i--;
+        }
+        return i - start;
+    }
+
+    private static boolean isWhitespace(final byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private static boolean parseBoolean(final DirectBuffer fileBuffer, final int start)
+    {
+        final byte b = fileBuffer.getByte(start);
+        return b == 't' || b == 'T' || b == '1';
+    }
+
+    private static int parseInt(final DirectBuffer fileBuffer, final int start, final int end)
+    {
+        int value = 0;
+        for (int i = start; i < end; i++)
+        {
+            final byte b = fileBuffer.getByte(i);
+            if (b < '0' || b > '9')
+            {
+                break;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+}
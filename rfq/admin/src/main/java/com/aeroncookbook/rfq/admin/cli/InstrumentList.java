@@ -35,6 +35,10 @@ public class InstrumentList implements Runnable
     @CommandLine.Option(names = "cusip", description = "Instrument CUSIP")
     private String cusip = "";
 
+    @SuppressWarnings("all")
+    @CommandLine.Option(names = "from", description = "List the instruments from this instrument ID, for the next page")
+    private Integer fromInstrumentId = 0;
+
     private final ExpandableArrayBuffer buffer = new ExpandableArrayBuffer(1024);
     private final MessageHeaderEncoder messageHeaderEncoder = new MessageHeaderEncoder();
     private final ListInstrumentsCommandEncoder listInstrumentsCommandEncoder = new ListInstrumentsCommandEncoder();
@@ -42,6 +46,7 @@ public class InstrumentList implements Runnable
     public void run()
     {
         listInstrumentsCommandEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+        listInstrumentsCommandEncoder.fromInstrumentId(fromInstrumentId);
         parent.offerRingBufferMessage(buffer, 0, MessageHeaderEncoder.ENCODED_LENGTH +
             listInstrumentsCommandEncoder.encodedLength());
     }
@@ -21,8 +21,6 @@ import com.aeroncookbook.rfq.cluster.admin.protocol.MessageHeaderEncoder;
 import org.agrona.ExpandableArrayBuffer;
 import picocli.CommandLine;
 
-import static com.aeroncookbook.rfq.admin.util.EnvironmentUtil.tryGetUserId;
-
 /**
  * Counter a quoted or countered RFQ
  */
@@ -38,15 +36,11 @@ public class RfqAccept implements Runnable
     @SuppressWarnings("all")
     @CommandLine.Option(names = "rfq-id", description = "RFQ ID")
     private int rfqId = 0;
-    @SuppressWarnings("all")
-    @CommandLine.Option(names = "accepted-by", description = "Accepted by user id. Defaults to USER_ID env var.")
-    private Integer userId = tryGetUserId();
 
     public void run()
     {
         acceptRfqCommandEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
         acceptRfqCommandEncoder.rfqId(rfqId);
-        acceptRfqCommandEncoder.userId(userId);
 
         parent.offerRingBufferMessage(buffer, 0, MessageHeaderEncoder.ENCODED_LENGTH +
             acceptRfqCommandEncoder.encodedLength());
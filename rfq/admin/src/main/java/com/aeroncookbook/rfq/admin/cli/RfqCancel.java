@@ -21,8 +21,6 @@ import com.aeroncookbook.rfq.cluster.admin.protocol.MessageHeaderEncoder;
 import org.agrona.ExpandableArrayBuffer;
 import picocli.CommandLine;
 
-import static com.aeroncookbook.rfq.admin.util.EnvironmentUtil.tryGetUserId;
-
 /**
  * Cancels an RFQ
  */
@@ -39,15 +37,10 @@ public class RfqCancel implements Runnable
     @CommandLine.Option(names = "rfq-id", description = "RFQ ID")
     private Integer rfqId = Integer.MIN_VALUE;
 
-    @SuppressWarnings("all")
-    @CommandLine.Option(names = "canceled-by", description = "Canceled by user id. Default is USER_ID env var.")
-    private Integer canceledBy = tryGetUserId();
-
     public void run()
     {
         cancelRfqCommandEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
         cancelRfqCommandEncoder.rfqId(rfqId);
-        cancelRfqCommandEncoder.userId(canceledBy);
 
         parent.offerRingBufferMessage(buffer, 0, MessageHeaderEncoder.ENCODED_LENGTH +
             cancelRfqCommandEncoder.encodedLength());
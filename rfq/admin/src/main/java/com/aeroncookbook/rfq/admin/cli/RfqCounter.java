@@ -21,8 +21,6 @@ import com.aeroncookbook.rfq.cluster.admin.protocol.MessageHeaderEncoder;
 import org.agrona.ExpandableArrayBuffer;
 import picocli.CommandLine;
 
-import static com.aeroncookbook.rfq.admin.util.EnvironmentUtil.tryGetUserId;
-
 /**
  * Counter a quoted or countered RFQ
  */
@@ -41,15 +39,11 @@ public class RfqCounter implements Runnable
     @SuppressWarnings("all")
     @CommandLine.Option(names = "price", description = "Price for this RFQ. Default 100")
     private Integer price = 100;
-    @SuppressWarnings("all")
-    @CommandLine.Option(names = "countered-by", description = "Quoted by user id. Defaults to USER_ID env var.")
-    private Integer userId = tryGetUserId();
 
     public void run()
     {
         counterRfqCommandEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
         counterRfqCommandEncoder.rfqId(rfqId);
-        counterRfqCommandEncoder.userId(userId);
         counterRfqCommandEncoder.price(price);
 
         parent.offerRingBufferMessage(buffer, 0, MessageHeaderEncoder.ENCODED_LENGTH +
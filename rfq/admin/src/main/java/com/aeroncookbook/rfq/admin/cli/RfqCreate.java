@@ -25,8 +25,6 @@ import picocli.CommandLine;
 
 import java.util.concurrent.TimeUnit;
 
-import static com.aeroncookbook.rfq.admin.util.EnvironmentUtil.tryGetUserId;
-
 /**
  * Creates a new RFQ
  */
@@ -49,10 +47,6 @@ public class RfqCreate implements Runnable
     @CommandLine.Option(names = "side", description = "Buy or Sell. Default buy")
     private String side = "buy";
 
-    @SuppressWarnings("all")
-    @CommandLine.Option(names = "created-by", description = "Created by user id. Defaults to USER_ID env var.")
-    private Integer userId = tryGetUserId();
-
     private long expireTime;
 
     private final ExpandableArrayBuffer buffer = new ExpandableArrayBuffer(1024);
@@ -67,7 +61,6 @@ public class RfqCreate implements Runnable
         createRfqCommandEncoder.expireTimeMs(expireTime);
         createRfqCommandEncoder.quantity(quantity);
         createRfqCommandEncoder.requesterSide(parseSide(side));
-        createRfqCommandEncoder.requesterUserId(userId);
         createRfqCommandEncoder.cusip(cusip);
 
         parent.offerRingBufferMessage(buffer, 0, MessageHeaderEncoder.ENCODED_LENGTH +
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aeroncookbook.rfq.admin.cli;
+
+import com.aeroncookbook.rfq.cluster.admin.protocol.ListRfqsEncoder;
+import com.aeroncookbook.rfq.cluster.admin.protocol.MessageHeaderEncoder;
+import com.aeroncookbook.rfq.cluster.admin.protocol.RfqStatus;
+import org.agrona.ExpandableArrayBuffer;
+import picocli.CommandLine;
+
+/**
+ * Queries the RFQs held by the cluster, one page at a time
+ */
+@CommandLine.Command(name = "rfq-list", mixinStandardHelpOptions = false,
+    description = "Lists the cluster's RFQs by user, instrument and state, one page at a time")
+public class RfqList implements Runnable
+{
+    @CommandLine.ParentCommand
+    CliCommands parent;
+
+    @SuppressWarnings("all")
+    @CommandLine.Option(names = "user-id", description = "Requester or responder user ID. Default any user")
+    private Integer userId = 0;
+
+    @SuppressWarnings("all")
+    @CommandLine.Option(names = "cusip", description = "Instrument CUSIP. Default any instrument")
+    private String cusip = "";
+
+    @SuppressWarnings("all")
+    @CommandLine.Option(names = "state", description = "RFQ state, e.g. CREATED or ACCEPTED. Default any state")
+    private String state = "";
+
+    @SuppressWarnings("all")
+    @CommandLine.Option(names = "after", description = "List the RFQs after this RFQ ID, for the next page")
+    private Integer afterRfqId = 0;
+
+    @SuppressWarnings("all")
+    @CommandLine.Option(names = "limit", description = "Maximum RFQs in the page, at most 100. Default 20")
+    private Integer limit = 20;
+
+    private final ExpandableArrayBuffer buffer = new ExpandableArrayBuffer(1024);
+    private final MessageHeaderEncoder messageHeaderEncoder = new MessageHeaderEncoder();
+    private final ListRfqsEncoder listRfqsEncoder = new ListRfqsEncoder();
+
+    public void run()
+    {
+        final RfqStatus status;
+        try
+        {
+            status = state.isEmpty() ? RfqStatus.NULL_VAL : RfqStatus.valueOf(state.toUpperCase());
+        }
+        catch (final IllegalArgumentException e)
+        {
+            parent.out.println("Unknown RFQ state " + state);
+            return;
+        }
+
+        listRfqsEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+        listRfqsEncoder.userId(userId);
+        listRfqsEncoder.cusip(cusip);
+        listRfqsEncoder.status(status);
+        listRfqsEncoder.afterRfqId(afterRfqId);
+        listRfqsEncoder.limit(limit);
+        parent.offerRingBufferMessage(buffer, 0, MessageHeaderEncoder.ENCODED_LENGTH +
+            listRfqsEncoder.encodedLength());
+    }
+}
@@ -21,8 +21,6 @@ import com.aeroncookbook.rfq.cluster.admin.protocol.QuoteRfqCommandEncoder;
 import org.agrona.ExpandableArrayBuffer;
 import picocli.CommandLine;
 
-import static com.aeroncookbook.rfq.admin.util.EnvironmentUtil.tryGetUserId;
-
 /**
  * Quote an RFQ
  */
@@ -41,15 +39,11 @@ public class RfqQuote implements Runnable
     @SuppressWarnings("all")
     @CommandLine.Option(names = "price", description = "Price for this RFQ. Default 100")
     private Integer price = 100;
-    @SuppressWarnings("all")
-    @CommandLine.Option(names = "quoted-by", description = "Quoted by user id. Defaults to USER_ID env var.")
-    private Integer userId = tryGetUserId();
 
     public void run()
     {
         quoteRfqCommandEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
         quoteRfqCommandEncoder.rfqId(rfqId);
-        quoteRfqCommandEncoder.userId(userId);
         quoteRfqCommandEncoder.price(price);
 
         parent.offerRingBufferMessage(buffer, 0, MessageHeaderEncoder.ENCODED_LENGTH +
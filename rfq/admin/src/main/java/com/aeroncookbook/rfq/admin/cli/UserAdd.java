@@ -0,0 +1,71 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.admin.cli;
+
+import com.aeroncookbook.rfq.cluster.admin.protocol.AddUserEncoder;
+import com.aeroncookbook.rfq.cluster.admin.protocol.BooleanType;
+import com.aeroncookbook.rfq.cluster.admin.protocol.MessageHeaderEncoder;
+import com.aeroncookbook.rfq.cluster.admin.protocol.UserClassType;
+import org.agrona.ExpandableArrayBuffer;
+import picocli.CommandLine;
+
+/**
+ * Adds a user to the cluster's user registry
+ */
+@CommandLine.Command(name = "user-add", mixinStandardHelpOptions = false,
+    description = "Adds a user to the cluster. Requires an admin session")
+public class UserAdd implements Runnable
+{
+    @CommandLine.ParentCommand
+    CliCommands parent;
+
+    @SuppressWarnings("all")
+    @CommandLine.Option(names = "user-id", description = "User ID")
+    private Integer userId = 0;
+
+    @SuppressWarnings("all")
+    @CommandLine.Option(names = "class", description = "trader, market-maker or admin. Default trader")
+    private String userClass = "trader";
+
+    @SuppressWarnings("all")
+    @CommandLine.Option(names = "all-instruments", description = "True if entitled to all instruments. Default false")
+    private String entitledToAll = "false";
+
+    private final ExpandableArrayBuffer buffer = new ExpandableArrayBuffer(1024);
+    private final MessageHeaderEncoder messageHeaderEncoder = new MessageHeaderEncoder();
+    private final AddUserEncoder addUserEncoder = new AddUserEncoder();
+
+    public void run()
+    {
+        addUserEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+        addUserEncoder.userId(userId);
+        addUserEncoder.userClass(parseUserClass(userClass));
+        addUserEncoder.entitledToAll(Boolean.parseBoolean(entitledToAll) ? BooleanType.TRUE : BooleanType.FALSE);
+        parent.offerRingBufferMessage(buffer, 0, MessageHeaderEncoder.ENCODED_LENGTH +
+            addUserEncoder.encodedLength());
+    }
+
+    private UserClassType parseUserClass(final String value)
+    {
+        return switch (value.toLowerCase())
+        {
+            case "market-maker" -> UserClassType.MARKET_MAKER;
+            case "admin" -> UserClassType.ADMIN;
+            default -> UserClassType.TRADER;
+        };
+    }
+}
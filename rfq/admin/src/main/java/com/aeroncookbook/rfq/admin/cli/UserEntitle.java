@@ -0,0 +1,60 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.admin.cli;
+
+import com.aeroncookbook.rfq.cluster.admin.protocol.BooleanType;
+import com.aeroncookbook.rfq.cluster.admin.protocol.MessageHeaderEncoder;
+import com.aeroncookbook.rfq.cluster.admin.protocol.SetUserEntitlementEncoder;
+import org.agrona.ExpandableArrayBuffer;
+import picocli.CommandLine;
+
+/**
+ * Grants or revokes a user's entitlement to an instrument
+ */
+@CommandLine.Command(name = "user-entitle", mixinStandardHelpOptions = false,
+    description = "Grants or revokes a user's entitlement to request or quote an instrument")
+public class UserEntitle implements Runnable
+{
+    @CommandLine.ParentCommand
+    CliCommands parent;
+
+    @SuppressWarnings("all")
+    @CommandLine.Option(names = "user-id", description = "User ID")
+    private Integer userId = 0;
+
+    @SuppressWarnings("all")
+    @CommandLine.Option(names = "cusip", description = "Instrument CUSIP")
+    private String cusip = "";
+
+    @SuppressWarnings("all")
+    @CommandLine.Option(names = "entitled", description = "True to grant, false to revoke. Default true")
+    private String entitled = "true";
+
+    private final ExpandableArrayBuffer buffer = new ExpandableArrayBuffer(1024);
+    private final MessageHeaderEncoder messageHeaderEncoder = new MessageHeaderEncoder();
+    private final SetUserEntitlementEncoder setUserEntitlement = new SetUserEntitlementEncoder();
+
+    public void run()
+    {
+        setUserEntitlement.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+        setUserEntitlement.userId(userId);
+        setUserEntitlement.cusip(cusip);
+        setUserEntitlement.entitled(Boolean.parseBoolean(entitled) ? BooleanType.TRUE : BooleanType.FALSE);
+        parent.offerRingBufferMessage(buffer, 0, MessageHeaderEncoder.ENCODED_LENGTH +
+            setUserEntitlement.encodedLength());
+    }
+}
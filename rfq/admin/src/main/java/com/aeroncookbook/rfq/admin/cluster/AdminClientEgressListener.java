@@ -19,6 +19,7 @@ package com.aeroncookbook.rfq.admin.cluster;
 import com.aeroncookbook.cluster.rfq.sbe.AcceptRfqConfirmEventDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.AcceptRfqResult;
 import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentResultDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentsResultDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.BooleanType;
 import com.aeroncookbook.cluster.rfq.sbe.CancelRfqConfirmEventDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.CancelRfqResult;
@@ -26,6 +27,7 @@ import com.aeroncookbook.cluster.rfq.sbe.CounterRfqConfirmEventDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.CounterRfqResult;
 import com.aeroncookbook.cluster.rfq.sbe.CreateRfqConfirmEventDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.CreateRfqResult;
+import com.aeroncookbook.cluster.rfq.sbe.InstrumentUpdatedEventDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.InstrumentsListDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.ListInstrumentsResultDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderDecoder;
@@ -41,8 +43,12 @@ import com.aeroncookbook.cluster.rfq.sbe.RfqCreatedEventDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.RfqExpiredEventDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.RfqQuotedEventDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.RfqRejectedEventDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqsListDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.SetInstrumentEnabledFlagResultDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.Side;
+import com.aeroncookbook.cluster.rfq.sbe.UserCommandResultDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.UserResult;
+import com.aeroncookbook.rfq.admin.book.RfqBook;
 import io.aeron.cluster.client.EgressListener;
 import io.aeron.cluster.codecs.EventCode;
 import io.aeron.logbuffer.Header;
@@ -54,7 +60,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Admin client egress listener
+ * Admin client egress listener. AeronCluster polls egress through a fragment assembler, so messages longer than the
+ * MTU, such as large instrument lists or book snapshots, are reassembled before they reach this listener.
  */
 public class AdminClientEgressListener implements EgressListener
 {
@@ -62,8 +69,10 @@ public class AdminClientEgressListener implements EgressListener
     private final MessageHeaderDecoder messageHeaderDecoder = new MessageHeaderDecoder();
     private final RfqCanceledEventDecoder rfqCanceledEventDecoder = new RfqCanceledEventDecoder();
     private final AddInstrumentResultDecoder addInstrumentResultDecoder = new AddInstrumentResultDecoder();
+    private final AddInstrumentsResultDecoder addInstrumentsResultDecoder = new AddInstrumentsResultDecoder();
     private final SetInstrumentEnabledFlagResultDecoder setInstrumentEnabledFlagResultDecoder =
         new SetInstrumentEnabledFlagResultDecoder();
+    private final UserCommandResultDecoder userCommandResultDecoder = new UserCommandResultDecoder();
     private final CreateRfqConfirmEventDecoder createRfqConfirmEventDecoder = new CreateRfqConfirmEventDecoder();
     private final ListInstrumentsResultDecoder listInstrumentsResultDecoder = new ListInstrumentsResultDecoder();
     private final RfqCreatedEventDecoder rfqCreatedEventDecoder = new RfqCreatedEventDecoder();
@@ -78,18 +87,29 @@ public class AdminClientEgressListener implements EgressListener
     private final RejectRfqConfirmEventDecoder rejectRfqConfirmEventDecoder = new RejectRfqConfirmEventDecoder();
     private final RfqAcceptedEventDecoder rfqAcceptedEventDecoder = new RfqAcceptedEventDecoder();
     private final RfqRejectedEventDecoder rfqRejectedEventDecoder = new RfqRejectedEventDecoder();
+    private final InstrumentUpdatedEventDecoder instrumentUpdatedEventDecoder = new InstrumentUpdatedEventDecoder();
+    private final RfqsListDecoder rfqsListDecoder = new RfqsListDecoder();
 
     private final PendingMessageManager pendingMessageManager;
+    private final RfqBook rfqBook;
+    private final ClusterSessionListener sessionListener;
 
     private LineReader lineReader;
 
     /**
      * Constructor
      * @param pendingMessageManager the manager for pending messages
+     * @param rfqBook               the local RFQ book to apply broadcast events to
+     * @param sessionListener       the listener for leader changes and session loss
      */
-    public AdminClientEgressListener(final PendingMessageManager pendingMessageManager)
+    AdminClientEgressListener(
+        final PendingMessageManager pendingMessageManager,
+        final RfqBook rfqBook,
+        final ClusterSessionListener sessionListener)
     {
         this.pendingMessageManager = pendingMessageManager;
+        this.rfqBook = rfqBook;
+        this.sessionListener = sessionListener;
     }
 
     @Override
@@ -106,6 +126,7 @@ public class AdminClientEgressListener implements EgressListener
             LOGGER.warn("Message too short");
             return;
         }
+        final boolean bookMessage = rfqBook.onMessage(buffer, offset, length);
         messageHeaderDecoder.wrap(buffer, offset);
 
         switch (messageHeaderDecoder.templateId())
@@ -118,19 +139,38 @@ public class AdminClientEgressListener implements EgressListener
             case QuoteRfqConfirmEventDecoder.TEMPLATE_ID -> quotedRfqConfirmEvent(buffer, offset);
             case RfqQuotedEventDecoder.TEMPLATE_ID -> rfqQuotedEvent(buffer, offset);
             case AddInstrumentResultDecoder.TEMPLATE_ID -> addInstrumentResult(buffer, offset);
+            case AddInstrumentsResultDecoder.TEMPLATE_ID -> addInstrumentsResult(buffer, offset);
             case SetInstrumentEnabledFlagResultDecoder.TEMPLATE_ID -> setInstrumentEnabledFlag(buffer, offset);
             case ListInstrumentsResultDecoder.TEMPLATE_ID -> listInstruments(buffer, offset);
             case InstrumentsListDecoder.TEMPLATE_ID -> displayInstruments(buffer, offset);
+            case RfqsListDecoder.TEMPLATE_ID -> displayRfqs(buffer, offset);
             case CounterRfqConfirmEventDecoder.TEMPLATE_ID -> counterRfqConfirmEvent(buffer, offset);
             case RfqCounteredEventDecoder.TEMPLATE_ID -> rfqCounteredEvent(buffer, offset);
             case AcceptRfqConfirmEventDecoder.TEMPLATE_ID -> acceptRfqConfirmEvent(buffer, offset);
             case RfqAcceptedEventDecoder.TEMPLATE_ID -> rfqAcceptedEvent(buffer, offset);
             case RejectRfqConfirmEventDecoder.TEMPLATE_ID -> rejectRfqConfirmEvent(buffer, offset);
             case RfqRejectedEventDecoder.TEMPLATE_ID -> rfqRejectedEvent(buffer, offset);
-            default -> log("unknown message type: " + messageHeaderDecoder.templateId(), AttributedStyle.RED);
+            case InstrumentUpdatedEventDecoder.TEMPLATE_ID -> instrumentUpdatedEvent(buffer, offset);
+            case UserCommandResultDecoder.TEMPLATE_ID -> userCommandResult(buffer, offset);
+            default ->
+            {
+                if (!bookMessage)
+                {
+                    log("unknown message type: " + messageHeaderDecoder.templateId(), AttributedStyle.RED);
+                }
+            }
         }
     }
 
+    private void instrumentUpdatedEvent(final DirectBuffer buffer, final int offset)
+    {
+        instrumentUpdatedEventDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        final String cusip = instrumentUpdatedEventDecoder.cusip();
+        final boolean enabled = instrumentUpdatedEventDecoder.enabled() == BooleanType.TRUE;
+        log("Instrument updated: " + cusip + " minSize: " + instrumentUpdatedEventDecoder.minSize() +
+            " enabled: " + enabled, AttributedStyle.CYAN);
+    }
+
     private void rfqRejectedEvent(final DirectBuffer buffer, final int offset)
     {
         rfqRejectedEventDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
@@ -141,7 +181,7 @@ public class AdminClientEgressListener implements EgressListener
     private void rejectRfqConfirmEvent(final DirectBuffer buffer, final int offset)
     {
         rejectRfqConfirmEventDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
-        final String correlation = rejectRfqConfirmEventDecoder.correlation();
+        final long correlation = rejectRfqConfirmEventDecoder.correlation();
         final int rfqId = rejectRfqConfirmEventDecoder.rfqId();
         final RejectRfqResult result = rejectRfqConfirmEventDecoder.result();
         if (result == RejectRfqResult.SUCCESS)
@@ -165,7 +205,7 @@ public class AdminClientEgressListener implements EgressListener
     private void acceptRfqConfirmEvent(final DirectBuffer buffer, final int offset)
     {
         acceptRfqConfirmEventDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
-        final String correlation = acceptRfqConfirmEventDecoder.correlation();
+        final long correlation = acceptRfqConfirmEventDecoder.correlation();
         final int rfqId = acceptRfqConfirmEventDecoder.rfqId();
         final AcceptRfqResult result = acceptRfqConfirmEventDecoder.result();
         if (result == AcceptRfqResult.SUCCESS)
@@ -190,7 +230,7 @@ public class AdminClientEgressListener implements EgressListener
     private void counterRfqConfirmEvent(final DirectBuffer buffer, final int offset)
     {
         counterRfqConfirmEventDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
-        final String correlation = counterRfqConfirmEventDecoder.correlation();
+        final long correlation = counterRfqConfirmEventDecoder.correlation();
         final int rfqId = counterRfqConfirmEventDecoder.rfqId();
         final CounterRfqResult result = counterRfqConfirmEventDecoder.result();
         if (result == CounterRfqResult.SUCCESS)
@@ -207,7 +247,7 @@ public class AdminClientEgressListener implements EgressListener
     private void rfqQuotedEvent(final DirectBuffer buffer, final int offset)
     {
         rfqQuotedEventDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
-        final String correlation = rfqQuotedEventDecoder.correlation();
+        final long correlation = rfqQuotedEventDecoder.correlation();
         final int rfqId = rfqQuotedEventDecoder.rfqId();
         final long price = rfqQuotedEventDecoder.price();
         log("RFQ Quoted: id=" + rfqId + " price=" + price, AttributedStyle.GREEN);
@@ -217,7 +257,7 @@ public class AdminClientEgressListener implements EgressListener
     private void quotedRfqConfirmEvent(final DirectBuffer buffer, final int offset)
     {
         quoteRfqConfirmEventDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
-        final String correlation = quoteRfqConfirmEventDecoder.correlation();
+        final long correlation = quoteRfqConfirmEventDecoder.correlation();
         final int rfqId = quoteRfqConfirmEventDecoder.rfqId();
         final QuoteRfqResult result = quoteRfqConfirmEventDecoder.result();
         if (result != QuoteRfqResult.SUCCESS)
@@ -241,7 +281,7 @@ public class AdminClientEgressListener implements EgressListener
     private void cancelRfqResult(final DirectBuffer buffer, final int offset)
     {
         cancelRfqConfirmEventDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
-        final String correlation = cancelRfqConfirmEventDecoder.correlation();
+        final long correlation = cancelRfqConfirmEventDecoder.correlation();
         final int rfqId = cancelRfqConfirmEventDecoder.rfqId();
         final CancelRfqResult result = cancelRfqConfirmEventDecoder.result();
         if (result != CancelRfqResult.SUCCESS)
@@ -278,7 +318,7 @@ public class AdminClientEgressListener implements EgressListener
     private void createRfqConfirmEvent(final DirectBuffer buffer, final int offset)
     {
         createRfqConfirmEventDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
-        final String correlation = createRfqConfirmEventDecoder.correlation();
+        final long correlation = createRfqConfirmEventDecoder.correlation();
         final int rfqId = createRfqConfirmEventDecoder.rfqId();
         final CreateRfqResult result = createRfqConfirmEventDecoder.result();
 
@@ -297,7 +337,7 @@ public class AdminClientEgressListener implements EgressListener
     private void listInstruments(final DirectBuffer buffer, final int offset)
     {
         listInstrumentsResultDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
-        final String correlation = listInstrumentsResultDecoder.correlation();
+        final long correlation = listInstrumentsResultDecoder.correlation();
         final RequestResult result = listInstrumentsResultDecoder.result();
         log("List instruments result: " + result.name(), AttributedStyle.GREEN);
         pendingMessageManager.markMessageAsReceived(correlation);
@@ -306,26 +346,54 @@ public class AdminClientEgressListener implements EgressListener
     private void setInstrumentEnabledFlag(final DirectBuffer buffer, final int offset)
     {
         setInstrumentEnabledFlagResultDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
-        final String correlation = setInstrumentEnabledFlagResultDecoder.correlation();
+        final long correlation = setInstrumentEnabledFlagResultDecoder.correlation();
         final RequestResult result = setInstrumentEnabledFlagResultDecoder.result();
         log("Set instrument enabled flag result: " + result.name(), AttributedStyle.GREEN);
         pendingMessageManager.markMessageAsReceived(correlation);
     }
 
+    private void userCommandResult(final DirectBuffer buffer, final int offset)
+    {
+        userCommandResultDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        final long correlation = userCommandResultDecoder.correlation();
+        final int userId = userCommandResultDecoder.userId();
+        final UserResult result = userCommandResultDecoder.result();
+        if (result != UserResult.SUCCESS)
+        {
+            log("User " + userId + " command result: " + result.name(), AttributedStyle.RED);
+        }
+        else
+        {
+            log("User " + userId + " updated", AttributedStyle.GREEN);
+        }
+        pendingMessageManager.markMessageAsReceived(correlation);
+    }
+
     private void addInstrumentResult(final DirectBuffer buffer, final int offset)
     {
         addInstrumentResultDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
-        final String correlation = addInstrumentResultDecoder.correlation();
+        final long correlation = addInstrumentResultDecoder.correlation();
         final RequestResult result = addInstrumentResultDecoder.result();
         log("Add instrument result: " + result.name(), AttributedStyle.GREEN);
         pendingMessageManager.markMessageAsReceived(correlation);
     }
 
+    private void addInstrumentsResult(final DirectBuffer buffer, final int offset)
+    {
+        addInstrumentsResultDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        final long correlation = addInstrumentsResultDecoder.correlation();
+        final RequestResult result = addInstrumentsResultDecoder.result();
+        log("Add instruments result: " + result.name() + ", " + addInstrumentsResultDecoder.count() + " added",
+            AttributedStyle.GREEN);
+        pendingMessageManager.markMessageAsReceived(correlation);
+    }
+
 
     private void displayInstruments(final DirectBuffer buffer, final int offset)
     {
         instrumentsListDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
         pendingMessageManager.markMessageAsReceived(instrumentsListDecoder.correlation());
+        final int nextFromInstrumentId = instrumentsListDecoder.nextFromInstrumentId();
         final InstrumentsListDecoder.ValuesDecoder values = instrumentsListDecoder.values();
         final int count = values.count();
         if (0 == count)
@@ -345,6 +413,44 @@ public class AdminClientEgressListener implements EgressListener
                 log("Instrument: " + participantId + " minSize: " + minSize + " enabled: " + enabled,
                     AttributedStyle.GREEN);
             }
+            if (0 != nextFromInstrumentId)
+            {
+                log("More instruments, list the next page with from " + nextFromInstrumentId,
+                    AttributedStyle.YELLOW);
+            }
+        }
+    }
+
+    private void displayRfqs(final DirectBuffer buffer, final int offset)
+    {
+        rfqsListDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        pendingMessageManager.markMessageAsReceived(rfqsListDecoder.correlation());
+        if (rfqsListDecoder.result() != RequestResult.SUCCESS)
+        {
+            log("RFQ query failed: " + rfqsListDecoder.result().name(), AttributedStyle.RED);
+            return;
+        }
+
+        final int nextAfterRfqId = rfqsListDecoder.nextAfterRfqId();
+        final RfqsListDecoder.RfqsDecoder rfqs = rfqsListDecoder.rfqs();
+        if (0 == rfqs.count())
+        {
+            log("No RFQs match the query.", AttributedStyle.YELLOW);
+            return;
+        }
+
+        log("RFQ count: " + rfqs.count(), AttributedStyle.YELLOW);
+        while (rfqs.hasNext())
+        {
+            rfqs.next();
+            log("RFQ " + rfqs.rfqId() + " " + rfqs.cusip() + " " + rfqs.requesterSide().name() + " " +
+                rfqs.quantity() + " @ " + rfqs.price() + " " + rfqs.status().name() + " requester: " +
+                rfqs.requesterUserId() + " responder: " + rfqs.responderUserId() + " expires: " +
+                rfqs.expireTimeMs(), AttributedStyle.GREEN);
+        }
+        if (0 != nextAfterRfqId)
+        {
+            log("More RFQs match, list the next page with after " + nextAfterRfqId, AttributedStyle.YELLOW);
         }
     }
 
@@ -362,6 +468,10 @@ public class AdminClientEgressListener implements EgressListener
             log("Session event: " + code.name() + " " + detail + ". leadershipTermId=" + leadershipTermId,
                 AttributedStyle.YELLOW);
         }
+        if (code == EventCode.CLOSED)
+        {
+            sessionListener.onSessionClosed(detail);
+        }
     }
 
     @Override
@@ -371,7 +481,7 @@ public class AdminClientEgressListener implements EgressListener
         final int leaderMemberId,
         final String ingressEndpoints)
     {
-        log("New Leader: " + leaderMemberId + ". leadershipTermId=" + leadershipTermId, AttributedStyle.YELLOW);
+        sessionListener.onNewLeader(leadershipTermId, leaderMemberId);
     }
 
     /**
@@ -16,35 +16,57 @@
 
 package com.aeroncookbook.rfq.admin.cluster;
 
+import com.aeroncookbook.cluster.rfq.Correlations;
+import com.aeroncookbook.cluster.rfq.UserCredentialsSupplier;
 import com.aeroncookbook.cluster.rfq.sbe.AcceptRfqCommandEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentsEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.AddUserCommandEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.BooleanType;
 import com.aeroncookbook.cluster.rfq.sbe.CancelRfqCommandEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.CounterRfqCommandEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.CreateRfqCommandEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.ListInstrumentsCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.ListRfqsCommandEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.QuoteRfqCommandEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.RejectRfqCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqBookSnapshotCommandEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.SetInstrumentEnabledFlagEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.SetUserEnabledFlagCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.SetUserEntitlementCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.UserClassType;
+import com.aeroncookbook.rfq.admin.book.RfqBook;
+import com.aeroncookbook.rfq.admin.book.RfqBookListener;
 import com.aeroncookbook.rfq.cluster.admin.protocol.AcceptRfqCommandDecoder;
 import com.aeroncookbook.rfq.cluster.admin.protocol.AddInstrumentDecoder;
+import com.aeroncookbook.rfq.cluster.admin.protocol.AddInstrumentsDecoder;
+import com.aeroncookbook.rfq.cluster.admin.protocol.AddUserDecoder;
 import com.aeroncookbook.rfq.cluster.admin.protocol.CancelRfqCommandDecoder;
 import com.aeroncookbook.rfq.cluster.admin.protocol.ConnectClusterDecoder;
 import com.aeroncookbook.rfq.cluster.admin.protocol.CounterRfqCommandDecoder;
 import com.aeroncookbook.rfq.cluster.admin.protocol.CreateRfqCommandDecoder;
 import com.aeroncookbook.rfq.cluster.admin.protocol.DisconnectClusterDecoder;
+import com.aeroncookbook.rfq.cluster.admin.protocol.EndBatchDecoder;
 import com.aeroncookbook.rfq.cluster.admin.protocol.ListInstrumentsCommandDecoder;
+import com.aeroncookbook.rfq.cluster.admin.protocol.ListRfqsDecoder;
 import com.aeroncookbook.rfq.cluster.admin.protocol.MessageHeaderDecoder;
 import com.aeroncookbook.rfq.cluster.admin.protocol.QuoteRfqCommandDecoder;
 import com.aeroncookbook.rfq.cluster.admin.protocol.RejectRfqCommandDecoder;
 import com.aeroncookbook.rfq.cluster.admin.protocol.SetInstrumentEnabledFlagDecoder;
+import com.aeroncookbook.rfq.cluster.admin.protocol.SetUserEnabledFlagDecoder;
+import com.aeroncookbook.rfq.cluster.admin.protocol.SetUserEntitlementDecoder;
+import com.aeroncookbook.rfq.cluster.admin.protocol.ShowRfqBookCommandDecoder;
 import com.aeroncookbook.rfq.cluster.admin.protocol.Side;
+import com.aeroncookbook.rfq.cluster.admin.protocol.StartBatchDecoder;
 import io.aeron.Publication;
 import io.aeron.cluster.client.AeronCluster;
 import io.aeron.driver.MediaDriver;
 import io.aeron.driver.ThreadingMode;
 import io.aeron.samples.cluster.ClusterConfig;
+import io.aeron.security.NullCredentialsSupplier;
+import org.HdrHistogram.Histogram;
+import org.agrona.CloseHelper;
 import org.agrona.DirectBuffer;
 import org.agrona.ExpandableDirectByteBuffer;
 import org.agrona.MutableDirectBuffer;
@@ -52,23 +74,30 @@ import org.agrona.concurrent.Agent;
 import org.agrona.concurrent.IdleStrategy;
 import org.agrona.concurrent.MessageHandler;
 import org.agrona.concurrent.SystemEpochClock;
+import org.agrona.concurrent.SystemNanoClock;
 import org.agrona.concurrent.ringbuffer.OneToOneRingBuffer;
 import org.jline.reader.LineReader;
 import org.jline.utils.AttributedStyle;
 
 import java.util.Arrays;
 import java.util.List;
-import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Agent to interact with the cluster
  */
-public class ClusterInteractionAgent implements Agent, MessageHandler
+public class ClusterInteractionAgent implements Agent, MessageHandler, RfqBookListener, ClusterSessionListener
 {
     private static final long HEARTBEAT_INTERVAL = 250;
     private static final long RETRY_COUNT = 10;
     private static final String INGRESS_CHANNEL = "aeron:udp?term-length=64k";
+    private static final long NO_BATCH = -1;
+    private static final long LEADER_WAIT_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+    private static final long INITIAL_RECONNECT_BACKOFF_MS = 10;
+    private static final long MAX_RECONNECT_BACKOFF_MS = TimeUnit.SECONDS.toMillis(2);
+    private static final long SNAPSHOT_RETRY_DELAY_MS = TimeUnit.SECONDS.toMillis(1);
+    private static final long NO_SNAPSHOT_RETRY = Long.MAX_VALUE;
     private final MutableDirectBuffer sendBuffer = new ExpandableDirectByteBuffer(1024);
     private final OneToOneRingBuffer adminClusterComms;
     private final IdleStrategy idleStrategy;
@@ -77,6 +106,7 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
     private final MessageHeaderDecoder messageHeaderDecoder = new MessageHeaderDecoder();
     private final ConnectClusterDecoder connectClusterDecoder = new ConnectClusterDecoder();
     private final AddInstrumentDecoder addInstrumentDecoder = new AddInstrumentDecoder();
+    private final AddInstrumentsDecoder addInstrumentsDecoder = new AddInstrumentsDecoder();
     private final CreateRfqCommandDecoder createRfqCommandDecoder = new CreateRfqCommandDecoder();
     private final SetInstrumentEnabledFlagDecoder setInstrumentEnabledDecoder = new SetInstrumentEnabledFlagDecoder();
     private final CancelRfqCommandDecoder cancelRfqCommandDecoder = new CancelRfqCommandDecoder();
@@ -86,6 +116,8 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
     private final RejectRfqCommandDecoder rejectRfqCommandDecoder = new RejectRfqCommandDecoder();
     private final MessageHeaderEncoder messageHeaderEncoder = new MessageHeaderEncoder();
     private final AddInstrumentEncoder addInstrumentEncoder = new AddInstrumentEncoder();
+    private final AddInstrumentsEncoder addInstrumentsEncoder = new AddInstrumentsEncoder();
+    private final byte[] cusipBytes = new byte[AddInstrumentsEncoder.InstrumentsEncoder.cusipLength()];
     private final ListInstrumentsCommandEncoder listInstrumentsCommandEncoder = new ListInstrumentsCommandEncoder();
     private final SetInstrumentEnabledFlagEncoder setInstrumentEnabledEncoder = new SetInstrumentEnabledFlagEncoder();
     private final CreateRfqCommandEncoder createRfqCommandEncoder = new CreateRfqCommandEncoder();
@@ -94,9 +126,47 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
     private final CounterRfqCommandEncoder counterRfqCommandEncoder = new CounterRfqCommandEncoder();
     private final AcceptRfqCommandEncoder acceptRfqCommandEncoder = new AcceptRfqCommandEncoder();
     private final RejectRfqCommandEncoder rejectRfqCommandEncoder = new RejectRfqCommandEncoder();
+    private final RfqBookSnapshotCommandEncoder rfqBookSnapshotCommandEncoder = new RfqBookSnapshotCommandEncoder();
+    private final AddUserDecoder addUserDecoder = new AddUserDecoder();
+    private final SetUserEnabledFlagDecoder setUserEnabledFlagDecoder = new SetUserEnabledFlagDecoder();
+    private final SetUserEntitlementDecoder setUserEntitlementDecoder = new SetUserEntitlementDecoder();
+    private final AddUserCommandEncoder addUserCommandEncoder = new AddUserCommandEncoder();
+    private final SetUserEnabledFlagCommandEncoder setUserEnabledFlagCommandEncoder =
+        new SetUserEnabledFlagCommandEncoder();
+    private final SetUserEntitlementCommandEncoder setUserEntitlementCommandEncoder =
+        new SetUserEntitlementCommandEncoder();
+    private final RfqBook rfqBook;
+    private final ListRfqsDecoder listRfqsDecoder = new ListRfqsDecoder();
+    private final ListInstrumentsCommandDecoder listInstrumentsDecoder = new ListInstrumentsCommandDecoder();
+    private final ListRfqsCommandEncoder listRfqsCommandEncoder = new ListRfqsCommandEncoder();
+    private final StartBatchDecoder startBatchDecoder = new StartBatchDecoder();
+    private final EndBatchDecoder endBatchDecoder = new EndBatchDecoder();
+    private final Histogram batchLatencies = new Histogram(TimeUnit.SECONDS.toNanos(10), 3);
+    private long batchId = NO_BATCH;
+    private int batchWindow;
+    private boolean batchEnding;
+    private long batchStartNs;
+    private long batchCommandCount;
+    private volatile long lastCompletedBatchId = NO_BATCH;
     private long lastHeartbeatTime = Long.MIN_VALUE;
+    private long lastCorrelationId = Correlations.initialCorrelation(SystemEpochClock.INSTANCE.time());
+    private final PendingMessageManager.ReplayHandler replayHandler = this::retryingClusterOffer;
     private AdminClientEgressListener adminClientEgressListener;
     private AeronCluster aeronCluster;
+    private AeronCluster.AsyncConnect asyncConnect;
+    private String ingressEndpoints;
+    private int userId;
+    private String egressChannel;
+    private String sessionLostReason;
+    private long awaitingLeaderSinceMs;
+    private long reconnectBackoffMs;
+    private long nextReconnectTimeMs;
+    private long disruptionStartNs;
+    private long lastEgressNs;
+    private long failoverCount;
+    private long maxFailoverPauseNs;
+    private int replayedCount;
+    private long snapshotRetryTimeMs = NO_SNAPSHOT_RETRY;
     private ConnectionState connectionState = ConnectionState.NOT_CONNECTED;
     private LineReader lineReader;
     private MediaDriver mediaDriver;
@@ -116,7 +186,8 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
         this.adminClusterComms = adminClusterChannel;
         this.idleStrategy = idleStrategy;
         this.runningFlag = runningFlag;
-        this.pendingMessageManager = new PendingMessageManager(SystemEpochClock.INSTANCE);
+        this.pendingMessageManager = new PendingMessageManager(SystemEpochClock.INSTANCE, SystemNanoClock.INSTANCE);
+        this.rfqBook = new RfqBook(this, this::requestRfqBookSnapshot);
     }
 
     @Override
@@ -127,26 +198,68 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
         if (now >= (lastHeartbeatTime + HEARTBEAT_INTERVAL))
         {
             lastHeartbeatTime = now;
-            if (connectionState == ConnectionState.CONNECTED)
+            if (connectionState == ConnectionState.CONNECTED && !aeronCluster.sendKeepAlive())
             {
-                aeronCluster.sendKeepAlive();
+                onDisruption("keep alive could not be sent");
             }
         }
 
-        //poll inbound to this agent messages (from the REPL)
-        adminClusterComms.read(this);
+        int workCount = pollConnection(now);
+
+        //poll inbound to this agent messages (from the REPL), limited to the free window when running a batch
+        if (NO_BATCH == batchId)
+        {
+            workCount += adminClusterComms.read(this);
+        }
+        else
+        {
+            final int credit = batchWindow - pendingMessageManager.pendingCount();
+            if (credit > 0)
+            {
+                workCount += adminClusterComms.read(this, credit);
+            }
+        }
 
         //poll outbound messages from the cluster
         if (null != aeronCluster && !aeronCluster.isClosed())
         {
-            aeronCluster.pollEgress();
+            final int fragments = aeronCluster.pollEgress();
+            if (fragments > 0)
+            {
+                lastEgressNs = System.nanoTime();
+            }
+            workCount += fragments;
+        }
+        else if (connectionState == ConnectionState.CONNECTED || connectionState == ConnectionState.REPLAYING)
+        {
+            sessionLostReason = "cluster client closed";
         }
 
-        //check for timed-out messages
-        pendingMessageManager.doWork();
+        if (null != sessionLostReason)
+        {
+            onSessionLost(sessionLostReason);
+        }
 
-        //always sleep
-        return 0;
+        //request the RFQ book snapshot again once a throttled request has backed off
+        if (now >= snapshotRetryTimeMs && connectionState == ConnectionState.CONNECTED)
+        {
+            snapshotRetryTimeMs = NO_SNAPSHOT_RETRY;
+            requestRfqBookSnapshot();
+            workCount++;
+        }
+
+        //check for timed-out messages; messages are not timed out while failing over as they will be replayed
+        if (!isFailingOver())
+        {
+            workCount += pendingMessageManager.doWork();
+        }
+
+        if (batchEnding && 0 == pendingMessageManager.pendingCount())
+        {
+            completeBatch();
+        }
+
+        return workCount;
     }
 
     @Override
@@ -159,8 +272,15 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
     public void onMessage(final int msgTypeId, final MutableDirectBuffer buffer, final int offset, final int length)
     {
         messageHeaderDecoder.wrap(buffer, offset);
+        if (NO_BATCH != batchId)
+        {
+            batchCommandCount++;
+        }
+
         switch (messageHeaderDecoder.templateId())
         {
+            case StartBatchDecoder.TEMPLATE_ID -> processStartBatch(buffer, offset);
+            case EndBatchDecoder.TEMPLATE_ID -> processEndBatch(buffer, offset);
             case CancelRfqCommandEncoder.TEMPLATE_ID -> processCancelRfqCommand(messageHeaderDecoder, buffer, offset);
             case CreateRfqCommandDecoder.TEMPLATE_ID -> processCreateRfqCommand(messageHeaderDecoder, buffer, offset);
             case QuoteRfqCommandDecoder.TEMPLATE_ID -> processQuoteRfqCommand(messageHeaderDecoder, buffer, offset);
@@ -169,8 +289,16 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
             case RejectRfqCommandDecoder.TEMPLATE_ID -> processRejectRfqCommand(messageHeaderDecoder, buffer, offset);
             case ConnectClusterDecoder.TEMPLATE_ID -> processConnectCluster(buffer, offset);
             case DisconnectClusterDecoder.TEMPLATE_ID -> processDisconnectCluster();
-            case ListInstrumentsCommandDecoder.TEMPLATE_ID -> processInstrumentListCommand();
+            case ListInstrumentsCommandDecoder.TEMPLATE_ID ->
+                processInstrumentListCommand(messageHeaderDecoder, buffer, offset);
+            case ShowRfqBookCommandDecoder.TEMPLATE_ID -> processShowRfqBook();
+            case ListRfqsDecoder.TEMPLATE_ID -> processListRfqs(messageHeaderDecoder, buffer, offset);
             case AddInstrumentDecoder.TEMPLATE_ID -> processAddInstrument(messageHeaderDecoder, buffer, offset);
+            case AddInstrumentsDecoder.TEMPLATE_ID -> processAddInstruments(messageHeaderDecoder, buffer, offset);
+            case AddUserDecoder.TEMPLATE_ID -> processAddUser(messageHeaderDecoder, buffer, offset);
+            case SetUserEnabledFlagDecoder.TEMPLATE_ID -> processSetUserEnabled(messageHeaderDecoder, buffer, offset);
+            case SetUserEntitlementDecoder.TEMPLATE_ID ->
+                processSetUserEntitlement(messageHeaderDecoder, buffer, offset);
             case SetInstrumentEnabledFlagDecoder.TEMPLATE_ID ->
                 processSetInstrumentEnabled(messageHeaderDecoder, buffer, offset);
             default -> log("Unknown message type: " + messageHeaderDecoder.templateId(), AttributedStyle.RED);
@@ -182,20 +310,16 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
         final MutableDirectBuffer buffer,
         final int offset)
     {
-        final String correlationId = UUID.randomUUID().toString();
+        final long correlationId = ++lastCorrelationId;
         rejectRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
         final int rfqId = rejectRfqCommandDecoder.rfqId();
-        final int userId = rejectRfqCommandDecoder.userId();
 
         rejectRfqCommandEncoder.wrapAndApplyHeader(sendBuffer, 0, messageHeaderEncoder);
         rejectRfqCommandEncoder.correlation(correlationId);
         rejectRfqCommandEncoder.rfqId(rfqId);
-        rejectRfqCommandEncoder.responderUserId(userId);
 
-        retryingClusterOffer(sendBuffer, MessageHeaderEncoder.ENCODED_LENGTH +
+        sendTrackedMessage(correlationId, "reject-rfq", MessageHeaderEncoder.ENCODED_LENGTH +
             rejectRfqCommandEncoder.encodedLength());
-
-        pendingMessageManager.addMessage(correlationId, "reject-rfq");
     }
 
     private void processAcceptRfqCommand(
@@ -203,20 +327,16 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
         final MutableDirectBuffer buffer,
         final int offset)
     {
-        final String correlationId = UUID.randomUUID().toString();
+        final long correlationId = ++lastCorrelationId;
         acceptRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
         final int rfqId = acceptRfqCommandDecoder.rfqId();
-        final int userId = acceptRfqCommandDecoder.userId();
 
         acceptRfqCommandEncoder.wrapAndApplyHeader(sendBuffer, 0, messageHeaderEncoder);
         acceptRfqCommandEncoder.correlation(correlationId);
         acceptRfqCommandEncoder.rfqId(rfqId);
-        acceptRfqCommandEncoder.acceptUserId(userId);
 
-        retryingClusterOffer(sendBuffer, MessageHeaderEncoder.ENCODED_LENGTH +
+        sendTrackedMessage(correlationId, "accept-rfq", MessageHeaderEncoder.ENCODED_LENGTH +
             acceptRfqCommandEncoder.encodedLength());
-
-        pendingMessageManager.addMessage(correlationId, "accept-rfq");
     }
 
     private void processCounterRfqCommand(
@@ -224,23 +344,19 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
         final MutableDirectBuffer buffer,
         final int offset)
     {
-        final String correlationId = UUID.randomUUID().toString();
+        final long correlationId = ++lastCorrelationId;
         counterRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
         final int rfqId = counterRfqCommandDecoder.rfqId();
-        final int responderId = counterRfqCommandDecoder.userId();
         final long price = counterRfqCommandDecoder.price();
 
         counterRfqCommandEncoder.wrapAndApplyHeader(sendBuffer, 0, messageHeaderEncoder);
         counterRfqCommandEncoder.correlation(correlationId);
         counterRfqCommandEncoder.rfqId(rfqId);
-        counterRfqCommandEncoder.counterUserId(responderId);
         counterRfqCommandEncoder.price(price);
 
-        retryingClusterOffer(sendBuffer, MessageHeaderEncoder.ENCODED_LENGTH +
+        sendTrackedMessage(correlationId, "counter-rfq", MessageHeaderEncoder.ENCODED_LENGTH +
             counterRfqCommandEncoder.encodedLength());
 
-        pendingMessageManager.addMessage(correlationId, "counter-rfq");
-
     }
 
     private void processQuoteRfqCommand(
@@ -248,22 +364,18 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
         final MutableDirectBuffer buffer,
         final int offset)
     {
-        final String correlationId = UUID.randomUUID().toString();
+        final long correlationId = ++lastCorrelationId;
         quoteRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
         final int rfqId = quoteRfqCommandDecoder.rfqId();
-        final int responderId = quoteRfqCommandDecoder.userId();
         final long price = quoteRfqCommandDecoder.price();
 
         quoteRfqCommandEncoder.wrapAndApplyHeader(sendBuffer, 0, messageHeaderEncoder);
         quoteRfqCommandEncoder.correlation(correlationId);
         quoteRfqCommandEncoder.rfqId(rfqId);
-        quoteRfqCommandEncoder.responderUserId(responderId);
         quoteRfqCommandEncoder.price(price);
 
-        retryingClusterOffer(sendBuffer, MessageHeaderEncoder.ENCODED_LENGTH +
+        sendTrackedMessage(correlationId, "quote-rfq", MessageHeaderEncoder.ENCODED_LENGTH +
             quoteRfqCommandEncoder.encodedLength());
-
-        pendingMessageManager.addMessage(correlationId, "quote-rfq");
     }
 
     private void processCancelRfqCommand(
@@ -271,22 +383,18 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
         final MutableDirectBuffer buffer,
         final int offset)
     {
-        final String correlationId = UUID.randomUUID().toString();
+        final long correlationId = ++lastCorrelationId;
         cancelRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
         final int rfqId = cancelRfqCommandDecoder.rfqId();
-        final int userId = cancelRfqCommandDecoder.userId();
 
         cancelRfqCommandEncoder.wrapAndApplyHeader(sendBuffer, 0, messageHeaderEncoder);
         cancelRfqCommandEncoder.correlation(correlationId);
         cancelRfqCommandEncoder.rfqId(rfqId);
-        cancelRfqCommandEncoder.cancelUserId(userId);
 
 
-        retryingClusterOffer(sendBuffer, MessageHeaderEncoder.ENCODED_LENGTH +
+        sendTrackedMessage(correlationId, "cancel-rfq", MessageHeaderEncoder.ENCODED_LENGTH +
             cancelRfqCommandEncoder.encodedLength());
 
-        pendingMessageManager.addMessage(correlationId, "cancel-rfq");
-
     }
 
     private void processCreateRfqCommand(
@@ -294,13 +402,12 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
         final MutableDirectBuffer buffer,
         final int offset)
     {
-        final String correlationId = UUID.randomUUID().toString();
+        final long correlationId = ++lastCorrelationId;
         createRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
         final long expireTimeMs = createRfqCommandDecoder.expireTimeMs();
         final int quantity = createRfqCommandDecoder.quantity();
         final Side side = createRfqCommandDecoder.requesterSide();
         final String cusip = createRfqCommandDecoder.cusip();
-        final int userId = createRfqCommandDecoder.requesterUserId();
 
         createRfqCommandEncoder.wrapAndApplyHeader(sendBuffer, 0, messageHeaderEncoder);
         createRfqCommandEncoder.correlation(correlationId);
@@ -308,12 +415,9 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
         createRfqCommandEncoder.quantity(quantity);
         createRfqCommandEncoder.requesterSide(mapSide(side));
         createRfqCommandEncoder.cusip(cusip);
-        createRfqCommandEncoder.requesterUserId(userId);
 
-        retryingClusterOffer(sendBuffer, MessageHeaderEncoder.ENCODED_LENGTH +
+        sendTrackedMessage(correlationId, "create-rfq", MessageHeaderEncoder.ENCODED_LENGTH +
             createRfqCommandEncoder.encodedLength());
-
-        pendingMessageManager.addMessage(correlationId, "create-rfq");
     }
 
     private com.aeroncookbook.cluster.rfq.sbe.Side mapSide(final Side side)
@@ -335,17 +439,363 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
         }
     }
 
-    private void processInstrumentListCommand()
+    private void processInstrumentListCommand(
+        final MessageHeaderDecoder messageHeaderDecoder,
+        final MutableDirectBuffer buffer,
+        final int offset)
     {
-        final String correlationId = UUID.randomUUID().toString();
-
+        final long correlationId = ++lastCorrelationId;
+        listInstrumentsDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
         listInstrumentsCommandEncoder.wrapAndApplyHeader(sendBuffer, 0, messageHeaderEncoder);
         listInstrumentsCommandEncoder.correlation(correlationId);
+        listInstrumentsCommandEncoder.fromInstrumentId(listInstrumentsDecoder.fromInstrumentId());
 
-        retryingClusterOffer(sendBuffer, MessageHeaderEncoder.ENCODED_LENGTH +
+        sendTrackedMessage(correlationId, "instrument-list", MessageHeaderEncoder.ENCODED_LENGTH +
             listInstrumentsCommandEncoder.encodedLength());
+    }
+
+    /**
+     * Starts a batch: commands are then read from the REPL channel only while fewer than the window are awaiting a
+     * response from the cluster, and response latencies are captured
+     *
+     * @param buffer the buffer containing the message
+     * @param offset the offset of the message
+     */
+    private void processStartBatch(final MutableDirectBuffer buffer, final int offset)
+    {
+        startBatchDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        batchId = startBatchDecoder.batchId();
+        batchWindow = Math.max(1, startBatchDecoder.window());
+        batchEnding = false;
+        batchCommandCount = 0;
+        batchLatencies.reset();
+        batchStartNs = System.nanoTime();
+        pendingMessageManager.startLatencyCapture(batchLatencies);
+        log("Batch " + batchId + " started with window " + batchWindow, AttributedStyle.WHITE);
+    }
+
+    /**
+     * Marks the end of the batch commands; the batch completes once all responses are in or timed out
+     *
+     * @param buffer the buffer containing the message
+     * @param offset the offset of the message
+     */
+    private void processEndBatch(final MutableDirectBuffer buffer, final int offset)
+    {
+        endBatchDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        if (endBatchDecoder.batchId() == batchId)
+        {
+            batchCommandCount--;
+            batchEnding = true;
+        }
+    }
+
+    private void completeBatch()
+    {
+        final long elapsedNs = System.nanoTime() - batchStartNs;
+        final long elapsedMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(elapsedNs));
+        pendingMessageManager.stopLatencyCapture();
+
+        log("Batch " + batchId + " complete: " + batchCommandCount + " commands in " + elapsedMs + "ms (" +
+            (batchCommandCount * 1000 / elapsedMs) + "/s), " + pendingMessageManager.timedOutCount() + " timed out",
+            AttributedStyle.GREEN);
+        log("Latency (us): p50=" + toMicros(batchLatencies.getValueAtPercentile(50)) +
+            " p90=" + toMicros(batchLatencies.getValueAtPercentile(90)) +
+            " p99=" + toMicros(batchLatencies.getValueAtPercentile(99)) +
+            " p99.9=" + toMicros(batchLatencies.getValueAtPercentile(99.9)) +
+            " max=" + toMicros(batchLatencies.getMaxValue()) +
+            " count=" + batchLatencies.getTotalCount(), AttributedStyle.GREEN);
+
+        lastCompletedBatchId = batchId;
+        batchId = NO_BATCH;
+        batchEnding = false;
+    }
+
+    private static long toMicros(final long nanos)
+    {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /**
+     * The id of the last batch for which all responses have been received or timed out
+     *
+     * @return the batch id, or -1 if no batch has completed
+     */
+    public long lastCompletedBatchId()
+    {
+        return lastCompletedBatchId;
+    }
+
+    /**
+     * Prints the locally held RFQ book; no message is sent to the cluster
+     */
+    private void processShowRfqBook()
+    {
+        if (!rfqBook.isLive())
+        {
+            log("RFQ book is not in sync with the cluster", AttributedStyle.YELLOW);
+            return;
+        }
+
+        log("RFQ book over " + rfqBook.partitionCount() + " partitions: " + rfqBook.instrumentCount() +
+            " instruments, " + rfqBook.openRfqCount() + " open RFQs", AttributedStyle.YELLOW);
+        for (int partition = 0; partition < rfqBook.partitionCount(); partition++)
+        {
+            log("Partition " + partition + " at sequence " + rfqBook.lastSequence(partition), AttributedStyle.GREEN);
+        }
+        for (int i = 0; i < rfqBook.instrumentCount(); i++)
+        {
+            final String cusip = rfqBook.instrumentCusip(i);
+            log("Instrument: " + cusip + " minSize: " + rfqBook.minSize(cusip) + " enabled: " +
+                rfqBook.isInstrumentEnabled(cusip), AttributedStyle.GREEN);
+        }
+        rfqBook.forEachRfq(rfq -> log("RFQ: " + rfq, AttributedStyle.GREEN));
+    }
+
+    /**
+     * Requests the instruments and open RFQs from the cluster so the RFQ book can be rebuilt
+     */
+    private void requestRfqBookSnapshot()
+    {
+        rfqBookSnapshotCommandEncoder.wrapAndApplyHeader(sendBuffer, 0, messageHeaderEncoder);
+        rfqBookSnapshotCommandEncoder.correlation(++lastCorrelationId);
+
+        retryingClusterOffer(sendBuffer, 0, MessageHeaderEncoder.ENCODED_LENGTH +
+            rfqBookSnapshotCommandEncoder.encodedLength());
+    }
+
+    @Override
+    public void onGap(final int partition, final long expectedSequence, final long receivedSequence)
+    {
+        log("RFQ book gap detected in partition " + partition + ": expected sequence " + expectedSequence +
+            " but received " + receivedSequence + ", resyncing", AttributedStyle.YELLOW);
+    }
+
+    @Override
+    public void onSnapshotThrottled(final int partition)
+    {
+        if (NO_SNAPSHOT_RETRY == snapshotRetryTimeMs)
+        {
+            log("RFQ book snapshot of partition " + partition + " throttled, retrying in " + SNAPSHOT_RETRY_DELAY_MS +
+                "ms", AttributedStyle.YELLOW);
+            snapshotRetryTimeMs = SystemEpochClock.INSTANCE.time() + SNAPSHOT_RETRY_DELAY_MS;
+        }
+    }
+
+    @Override
+    public void onResynced(final RfqBook book)
+    {
+        log("RFQ book in sync over " + book.partitionCount() + " partitions: " + book.instrumentCount() +
+            " instruments, " + book.openRfqCount() + " open RFQs", AttributedStyle.GREEN);
+    }
+
+    /**
+     * Sends a message to the cluster that expects a response, tracking it for timeout and for replay after a
+     * failover. While failing over the message is only tracked, and is sent by the replay once connected.
+     *
+     * @param correlationId the correlation id of the message
+     * @param messageType   the type of message
+     * @param length        the length of the message in the send buffer
+     */
+    private void sendTrackedMessage(final long correlationId, final String messageType, final int length)
+    {
+        if (connectionState == ConnectionState.NOT_CONNECTED)
+        {
+            log("Not connected to cluster. Connect first", AttributedStyle.RED);
+            return;
+        }
+
+        pendingMessageManager.addMessage(correlationId, messageType, sendBuffer, length);
+        if (connectionState == ConnectionState.CONNECTED)
+        {
+            retryingClusterOffer(sendBuffer, 0, length);
+        }
+    }
+
+    private boolean isFailingOver()
+    {
+        return connectionState == ConnectionState.AWAITING_LEADER ||
+            connectionState == ConnectionState.RECONNECTING ||
+            connectionState == ConnectionState.REPLAYING;
+    }
+
+    /**
+     * Drives the connection through a failover: waiting for a new leader, reconnecting a lost session with backoff,
+     * and replaying in-flight messages once the ingress to the leader is connected
+     *
+     * @param nowMs the current time in milliseconds
+     * @return the work count
+     */
+    private int pollConnection(final long nowMs)
+    {
+        switch (connectionState)
+        {
+            case AWAITING_LEADER ->
+            {
+                if (nowMs - awaitingLeaderSinceMs > LEADER_WAIT_TIMEOUT_MS)
+                {
+                    sessionLostReason = "no new leader within " + LEADER_WAIT_TIMEOUT_MS + "ms";
+                }
+                return 0;
+            }
+            case RECONNECTING ->
+            {
+                return pollReconnect(nowMs);
+            }
+            case REPLAYING ->
+            {
+                return pollReplay();
+            }
+            default ->
+            {
+                return 0;
+            }
+        }
+    }
+
+    private int pollReconnect(final long nowMs)
+    {
+        if (null == asyncConnect)
+        {
+            if (nowMs < nextReconnectTimeMs)
+            {
+                return 0;
+            }
+            asyncConnect = AeronCluster.asyncConnect(newClusterContext());
+        }
 
-        pendingMessageManager.addMessage(correlationId, "instrument-list");
+        try
+        {
+            final AeronCluster cluster = asyncConnect.poll();
+            if (null == cluster)
+            {
+                return 0;
+            }
+
+            asyncConnect = null;
+            aeronCluster = cluster;
+            startReplay();
+            log("Reconnected to cluster leader, node " + cluster.leaderMemberId(), AttributedStyle.GREEN);
+            return 1;
+        }
+        catch (final RuntimeException ex)
+        {
+            CloseHelper.quietClose(asyncConnect);
+            asyncConnect = null;
+            nextReconnectTimeMs = nowMs + reconnectBackoffMs;
+            log("Reconnect failed: " + ex.getMessage() + ". Retrying in " + reconnectBackoffMs + "ms",
+                AttributedStyle.YELLOW);
+            reconnectBackoffMs = Math.min(reconnectBackoffMs << 1, MAX_RECONNECT_BACKOFF_MS);
+            return 0;
+        }
+    }
+
+    private int pollReplay()
+    {
+        if (!aeronCluster.ingressPublication().isConnected())
+        {
+            return 0;
+        }
+
+        final int replayed = pendingMessageManager.replay(replayHandler);
+        replayedCount += replayed;
+        if (connectionState != ConnectionState.REPLAYING)
+        {
+            //disrupted again during the replay; everything is replayed again once the next leader is connected
+            return replayed;
+        }
+        if (!pendingMessageManager.isReplayComplete())
+        {
+            //back pressured; the replay resumes from the unsent message on the next duty cycle
+            return replayed;
+        }
+
+        connectionState = ConnectionState.CONNECTED;
+        final long pauseNs = System.nanoTime() - disruptionStartNs;
+        disruptionStartNs = 0;
+        failoverCount++;
+        maxFailoverPauseNs = Math.max(maxFailoverPauseNs, pauseNs);
+        log("Failover " + failoverCount + " complete: pause " + TimeUnit.NANOSECONDS.toMillis(pauseNs) + "ms (max " +
+            TimeUnit.NANOSECONDS.toMillis(maxFailoverPauseNs) + "ms), replayed " + replayedCount +
+            " in-flight commands", AttributedStyle.GREEN);
+        rfqBook.resync();
+
+        return replayed + 1;
+    }
+
+    /**
+     * The leader can no longer be reached over the current session; wait for the cluster to elect a new one
+     *
+     * @param reason the reason for the disruption
+     */
+    private void onDisruption(final String reason)
+    {
+        if (connectionState == ConnectionState.CONNECTED || connectionState == ConnectionState.REPLAYING)
+        {
+            markDisruptionStart(System.nanoTime());
+            awaitingLeaderSinceMs = SystemEpochClock.INSTANCE.time();
+            connectionState = ConnectionState.AWAITING_LEADER;
+            log("Cluster leader unreachable (" + reason + "), awaiting new leader", AttributedStyle.YELLOW);
+        }
+    }
+
+    /**
+     * The session is gone; close the client and reconnect, keeping the media driver
+     *
+     * @param reason the reason the session was lost
+     */
+    private void onSessionLost(final String reason)
+    {
+        sessionLostReason = null;
+        if (connectionState == ConnectionState.NOT_CONNECTED || connectionState == ConnectionState.RECONNECTING)
+        {
+            return;
+        }
+
+        markDisruptionStart(System.nanoTime());
+        log("Cluster session lost (" + reason + "), reconnecting", AttributedStyle.YELLOW);
+        CloseHelper.quietClose(aeronCluster);
+        aeronCluster = null;
+        reconnectBackoffMs = INITIAL_RECONNECT_BACKOFF_MS;
+        nextReconnectTimeMs = 0;
+        connectionState = ConnectionState.RECONNECTING;
+    }
+
+    // replays every pending command from the start, on a new leader or session
+    private void startReplay()
+    {
+        connectionState = ConnectionState.REPLAYING;
+        replayedCount = 0;
+        pendingMessageManager.startReplay();
+    }
+
+    private void markDisruptionStart(final long nowNs)
+    {
+        if (0 == disruptionStartNs)
+        {
+            disruptionStartNs = nowNs;
+        }
+    }
+
+    @Override
+    public void onNewLeader(final long leadershipTermId, final int leaderMemberId)
+    {
+        if (connectionState == ConnectionState.NOT_CONNECTED || connectionState == ConnectionState.RECONNECTING)
+        {
+            return;
+        }
+
+        //no disruption was seen before the election, so the pause is measured from the last message received
+        markDisruptionStart(0 == lastEgressNs ? System.nanoTime() : lastEgressNs);
+        startReplay();
+        log("New leader: node " + leaderMemberId + ", leadershipTermId=" + leadershipTermId +
+            ". Replaying in-flight commands", AttributedStyle.YELLOW);
+    }
+
+    @Override
+    public void onSessionClosed(final String detail)
+    {
+        sessionLostReason = "session closed by cluster: " + detail;
     }
 
     /**
@@ -357,9 +807,13 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
     private void processConnectCluster(final MutableDirectBuffer buffer, final int offset)
     {
         connectClusterDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        userId = connectClusterDecoder.userId();
         connectCluster(connectClusterDecoder.baseport(), connectClusterDecoder.port(),
             connectClusterDecoder.clusterHosts(), connectClusterDecoder.localhostName());
         connectionState = ConnectionState.CONNECTED;
+        disruptionStartNs = 0;
+        lastEgressNs = 0;
+        rfqBook.resync();
     }
 
     /**
@@ -385,7 +839,7 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
         final MutableDirectBuffer buffer,
         final int offset)
     {
-        final String correlationId = UUID.randomUUID().toString();
+        final long correlationId = ++lastCorrelationId;
 
         addInstrumentDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
         addInstrumentEncoder.wrapAndApplyHeader(sendBuffer, 0, messageHeaderEncoder);
@@ -394,10 +848,42 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
         addInstrumentEncoder.enabled(mapBoolean(addInstrumentDecoder.enabled()));
         addInstrumentEncoder.minSize(addInstrumentDecoder.minSize());
 
-        retryingClusterOffer(sendBuffer, MessageHeaderEncoder.ENCODED_LENGTH +
+        sendTrackedMessage(correlationId, "instrument-add", MessageHeaderEncoder.ENCODED_LENGTH +
             addInstrumentEncoder.encodedLength());
+    }
 
-        pendingMessageManager.addMessage(correlationId, "instrument-add");
+    /**
+     * Marshals the CLI protocol to cluster protocol for adding a batch of instruments in one command. Cusips are
+     * copied as bytes, so a bulk load allocates nothing per instrument.
+     *
+     * @param messageHeaderDecoder the message header decoder
+     * @param buffer               the buffer containing the message
+     * @param offset               the offset of the message
+     */
+    private void processAddInstruments(
+        final MessageHeaderDecoder messageHeaderDecoder,
+        final MutableDirectBuffer buffer,
+        final int offset)
+    {
+        final long correlationId = ++lastCorrelationId;
+
+        addInstrumentsDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        addInstrumentsEncoder.wrapAndApplyHeader(sendBuffer, 0, messageHeaderEncoder);
+        addInstrumentsEncoder.correlation(correlationId);
+        final AddInstrumentsDecoder.InstrumentsDecoder instrumentsDecoder = addInstrumentsDecoder.instruments();
+        final AddInstrumentsEncoder.InstrumentsEncoder instrumentsEncoder =
+            addInstrumentsEncoder.instrumentsCount(instrumentsDecoder.count());
+        for (final AddInstrumentsDecoder.InstrumentsDecoder instrument : instrumentsDecoder)
+        {
+            instrument.getCusip(cusipBytes, 0);
+            instrumentsEncoder.next()
+                .putCusip(cusipBytes, 0)
+                .enabled(mapBoolean(instrument.enabled()))
+                .minSize(instrument.minSize());
+        }
+
+        sendTrackedMessage(correlationId, "instrument-add-bulk", MessageHeaderEncoder.ENCODED_LENGTH +
+            addInstrumentsEncoder.encodedLength());
     }
 
 
@@ -413,7 +899,7 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
         final MutableDirectBuffer buffer,
         final int offset)
     {
-        final String correlationId = UUID.randomUUID().toString();
+        final long correlationId = ++lastCorrelationId;
         setInstrumentEnabledDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
         setInstrumentEnabledEncoder.wrapAndApplyHeader(sendBuffer, 0, messageHeaderEncoder);
 
@@ -421,12 +907,101 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
         setInstrumentEnabledEncoder.cusip(setInstrumentEnabledDecoder.cusip());
         setInstrumentEnabledEncoder.enabled(mapBoolean(setInstrumentEnabledDecoder.enabled()));
 
-        retryingClusterOffer(sendBuffer, MessageHeaderEncoder.ENCODED_LENGTH +
+        sendTrackedMessage(correlationId, "instrument-set-enabled", MessageHeaderEncoder.ENCODED_LENGTH +
             setInstrumentEnabledEncoder.encodedLength());
+    }
 
-        pendingMessageManager.addMessage(correlationId, "instrument-set-enabled");
+
+    /**
+     * Marshals the CLI protocol to cluster protocol for Adding a User
+     *
+     * @param messageHeaderDecoder the message header decoder
+     * @param buffer               the buffer containing the message
+     * @param offset               the offset of the message
+     */
+    private void processAddUser(
+        final MessageHeaderDecoder messageHeaderDecoder,
+        final MutableDirectBuffer buffer,
+        final int offset)
+    {
+        final long correlationId = ++lastCorrelationId;
+        addUserDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        addUserCommandEncoder.wrapAndApplyHeader(sendBuffer, 0, messageHeaderEncoder);
+        addUserCommandEncoder.correlation(correlationId);
+        addUserCommandEncoder.userId(addUserDecoder.userId());
+        addUserCommandEncoder.userClass(mapUserClass(addUserDecoder.userClass()));
+        addUserCommandEncoder.entitledToAll(mapBoolean(addUserDecoder.entitledToAll()));
+
+        sendTrackedMessage(correlationId, "user-add", MessageHeaderEncoder.ENCODED_LENGTH +
+            addUserCommandEncoder.encodedLength());
+    }
+
+    /**
+     * Marshals the CLI protocol to cluster protocol for Enabling or Disabling a User
+     *
+     * @param messageHeaderDecoder the message header decoder
+     * @param buffer               the buffer containing the message
+     * @param offset               the offset of the message
+     */
+    private void processSetUserEnabled(
+        final MessageHeaderDecoder messageHeaderDecoder,
+        final MutableDirectBuffer buffer,
+        final int offset)
+    {
+        final long correlationId = ++lastCorrelationId;
+        setUserEnabledFlagDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        setUserEnabledFlagCommandEncoder.wrapAndApplyHeader(sendBuffer, 0, messageHeaderEncoder);
+        setUserEnabledFlagCommandEncoder.correlation(correlationId);
+        setUserEnabledFlagCommandEncoder.userId(setUserEnabledFlagDecoder.userId());
+        setUserEnabledFlagCommandEncoder.enabled(mapBoolean(setUserEnabledFlagDecoder.enabled()));
+
+        sendTrackedMessage(correlationId, "user-set-enabled", MessageHeaderEncoder.ENCODED_LENGTH +
+            setUserEnabledFlagCommandEncoder.encodedLength());
+    }
+
+    /**
+     * Marshals the CLI protocol to cluster protocol for Granting or Revoking a User Entitlement
+     *
+     * @param messageHeaderDecoder the message header decoder
+     * @param buffer               the buffer containing the message
+     * @param offset               the offset of the message
+     */
+    private void processSetUserEntitlement(
+        final MessageHeaderDecoder messageHeaderDecoder,
+        final MutableDirectBuffer buffer,
+        final int offset)
+    {
+        final long correlationId = ++lastCorrelationId;
+        setUserEntitlementDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        setUserEntitlementCommandEncoder.wrapAndApplyHeader(sendBuffer, 0, messageHeaderEncoder);
+        setUserEntitlementCommandEncoder.correlation(correlationId);
+        setUserEntitlementCommandEncoder.userId(setUserEntitlementDecoder.userId());
+        setUserEntitlementCommandEncoder.cusip(setUserEntitlementDecoder.cusip());
+        setUserEntitlementCommandEncoder.entitled(mapBoolean(setUserEntitlementDecoder.entitled()));
+
+        sendTrackedMessage(correlationId, "user-set-entitlement", MessageHeaderEncoder.ENCODED_LENGTH +
+            setUserEntitlementCommandEncoder.encodedLength());
     }
 
+    private void processListRfqs(
+        final MessageHeaderDecoder messageHeaderDecoder,
+        final MutableDirectBuffer buffer,
+        final int offset)
+    {
+        final long correlationId = ++lastCorrelationId;
+        listRfqsDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        listRfqsCommandEncoder.wrapAndApplyHeader(sendBuffer, 0, messageHeaderEncoder);
+        listRfqsCommandEncoder.correlation(correlationId);
+        listRfqsCommandEncoder.userId(listRfqsDecoder.userId());
+        listRfqsCommandEncoder.cusip(listRfqsDecoder.cusip());
+        listRfqsCommandEncoder.status(
+            com.aeroncookbook.cluster.rfq.sbe.RfqStatus.get(listRfqsDecoder.statusRaw()));
+        listRfqsCommandEncoder.afterRfqId(listRfqsDecoder.afterRfqId());
+        listRfqsCommandEncoder.limit(listRfqsDecoder.limit());
+
+        sendTrackedMessage(correlationId, "rfq-list", MessageHeaderEncoder.ENCODED_LENGTH +
+            listRfqsCommandEncoder.encodedLength());
+    }
 
     /**
      * Disconnects from the cluster
@@ -434,6 +1009,9 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
     private void disconnectCluster()
     {
         adminClientEgressListener = null;
+        sessionLostReason = null;
+        CloseHelper.quietClose(asyncConnect);
+        asyncConnect = null;
         if (aeronCluster != null)
         {
             aeronCluster.close();
@@ -459,26 +1037,32 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
         final String localHostName)
     {
         final List<String> hostnames = Arrays.asList(clusterHosts.split(","));
-        final String ingressEndpoints = ClusterConfig.ingressEndpoints(
+        ingressEndpoints = ClusterConfig.ingressEndpoints(
             hostnames, basePort, ClusterConfig.CLIENT_FACING_PORT_OFFSET);
-        final String egressChannel = "aeron:udp?endpoint=" + localHostName + ":" + port;
-        adminClientEgressListener = new AdminClientEgressListener(pendingMessageManager);
+        egressChannel = "aeron:udp?endpoint=" + localHostName + ":" + port;
+        adminClientEgressListener = new AdminClientEgressListener(pendingMessageManager, rfqBook, this);
         adminClientEgressListener.setLineReader(lineReader);
         mediaDriver = MediaDriver.launch(new MediaDriver.Context()
             .threadingMode(ThreadingMode.SHARED)
             .dirDeleteOnStart(true)
             .errorHandler(this::logError)
             .dirDeleteOnShutdown(true));
-        aeronCluster = AeronCluster.connect(
-            new AeronCluster.Context()
-                .egressListener(adminClientEgressListener)
-                .egressChannel(egressChannel)
-                .ingressChannel(INGRESS_CHANNEL)
-                .ingressEndpoints(ingressEndpoints)
-                .errorHandler(this::logError)
-                .aeronDirectoryName(mediaDriver.aeronDirectoryName()));
+        aeronCluster = AeronCluster.connect(newClusterContext());
 
-        log("Connected to cluster leader, node " + aeronCluster.leaderMemberId(), AttributedStyle.GREEN);
+        log("Connected to cluster leader, node " + aeronCluster.leaderMemberId() + " as user " + userId,
+            AttributedStyle.GREEN);
+    }
+
+    private AeronCluster.Context newClusterContext()
+    {
+        return new AeronCluster.Context()
+            .egressListener(adminClientEgressListener)
+            .egressChannel(egressChannel)
+            .ingressChannel(INGRESS_CHANNEL)
+            .ingressEndpoints(ingressEndpoints)
+            .credentialsSupplier(0 == userId ? new NullCredentialsSupplier() : new UserCredentialsSupplier(userId))
+            .errorHandler(this::logError)
+            .aeronDirectoryName(mediaDriver.aeronDirectoryName());
     }
 
     private void logError(final Throwable throwable)
@@ -509,52 +1093,63 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
     }
 
     /**
-     * sends to cluster with retry as needed, up to the limit
+     * sends to cluster with retry as needed, up to the limit. If the ingress is not connected a failover is assumed;
+     * if the publication is closed the session is reconnected.
      *
      * @param buffer buffer containing the message
+     * @param offset offset of the message
      * @param length length of the message
+     * @return true if the message was sent
      */
-    private void retryingClusterOffer(final DirectBuffer buffer, final int length)
+    private boolean retryingClusterOffer(final DirectBuffer buffer, final int offset, final int length)
     {
-        if (connectionState == ConnectionState.CONNECTED)
+        if (connectionState != ConnectionState.CONNECTED && connectionState != ConnectionState.REPLAYING)
         {
-            int retries = 0;
-            do
+            if (connectionState == ConnectionState.NOT_CONNECTED)
             {
-                final long result = aeronCluster.offer(buffer, 0, length);
-                if (result > 0L)
-                {
-                    return;
-                }
-                else if (result == Publication.ADMIN_ACTION || result == Publication.BACK_PRESSURED)
-                {
-                    log("backpressure or admin action on cluster offer", AttributedStyle.YELLOW);
-                }
-                else if (result == Publication.NOT_CONNECTED || result == Publication.MAX_POSITION_EXCEEDED)
-                {
-                    log("Cluster is not connected, or maximum position has been exceeded. Message lost.",
-                        AttributedStyle.RED);
-                    return;
-                }
-
-                idleStrategy.idle();
-                retries += 1;
-                log("failed to send message to cluster. Retrying (" + retries + " of " + RETRY_COUNT + ")",
-                    AttributedStyle.YELLOW);
+                log("Not connected to cluster. Connect first", AttributedStyle.RED);
             }
-            while (retries < RETRY_COUNT);
-
-            log("Failed to send message to cluster. Message lost.", AttributedStyle.RED);
+            return false;
         }
-        else
+
+        int retries = 0;
+        do
         {
-            log("Not connected to cluster. Connect first", AttributedStyle.RED);
+            final long result = aeronCluster.offer(buffer, offset, length);
+            if (result > 0L)
+            {
+                return true;
+            }
+            else if (result == Publication.ADMIN_ACTION || result == Publication.BACK_PRESSURED)
+            {
+                log("backpressure or admin action on cluster offer", AttributedStyle.YELLOW);
+            }
+            else if (result == Publication.NOT_CONNECTED)
+            {
+                onDisruption("ingress not connected");
+                return false;
+            }
+            else if (result == Publication.CLOSED || result == Publication.MAX_POSITION_EXCEEDED)
+            {
+                sessionLostReason = "ingress publication closed or maximum position exceeded";
+                return false;
+            }
+
+            idleStrategy.idle();
+            retries += 1;
+            log("failed to send message to cluster. Retrying (" + retries + " of " + RETRY_COUNT + ")",
+                AttributedStyle.YELLOW);
         }
+        while (retries < RETRY_COUNT);
+
+        log("Failed to send message to cluster. Message lost.", AttributedStyle.RED);
+        return false;
     }
 
     @Override
     public void onClose()
     {
+        CloseHelper.quietClose(asyncConnect);
         if (aeronCluster != null)
         {
             aeronCluster.close();
@@ -566,6 +1161,16 @@ public class ClusterInteractionAgent implements Agent, MessageHandler
         runningFlag.set(false);
     }
 
+    private UserClassType mapUserClass(final com.aeroncookbook.rfq.cluster.admin.protocol.UserClassType userClass)
+    {
+        return switch (userClass)
+        {
+            case MARKET_MAKER -> UserClassType.MARKET_MAKER;
+            case ADMIN -> UserClassType.ADMIN;
+            default -> UserClassType.TRADER;
+        };
+    }
+
     private BooleanType mapBoolean(final com.aeroncookbook.rfq.cluster.admin.protocol.BooleanType flag)
     {
         return flag == com.aeroncookbook.rfq.cluster.admin.protocol.BooleanType.TRUE ?
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aeroncookbook.rfq.admin.cluster;
+
+/**
+ * Session level events from the cluster egress, used to drive failover
+ */
+interface ClusterSessionListener
+{
+    /**
+     * A new leader has been elected and the client has been pointed at it
+     *
+     * @param leadershipTermId the new leadership term
+     * @param leaderMemberId   the member id of the new leader
+     */
+    void onNewLeader(long leadershipTermId, int leaderMemberId);
+
+    /**
+     * The cluster has closed the session, so the client must reconnect with a new one
+     *
+     * @param detail the detail given by the cluster
+     */
+    void onSessionClosed(String detail);
+}
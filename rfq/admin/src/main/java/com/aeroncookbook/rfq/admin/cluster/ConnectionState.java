@@ -23,4 +23,16 @@ public enum ConnectionState
 {
     NOT_CONNECTED,
     CONNECTED,
+    /**
+     * The session is open but the leader is unreachable; waiting for a new leader to be elected
+     */
+    AWAITING_LEADER,
+    /**
+     * The session has been lost; reconnecting with backoff
+     */
+    RECONNECTING,
+    /**
+     * Connected to the new leader; replaying in-flight messages
+     */
+    REPLAYING,
 }
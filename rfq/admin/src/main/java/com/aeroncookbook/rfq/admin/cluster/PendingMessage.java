@@ -18,7 +18,23 @@ package com.aeroncookbook.rfq.admin.cluster;
 
 /**
  * A message that has been sent to the cluster but has not yet been received by the client.
+ *
+ * @param correlationId the correlation id of the message
+ * @param timerId       the id of the timeout timer in the timer wheel
+ * @param messageType   the type of message
+ * @param sentNs        the nano clock time the message was sent
+ * @param encoded       a copy of the encoded message, kept so that it can be replayed after a failover
  */
-public record PendingMessage(long timeoutAt, String correlationId, String messageType)
+public record PendingMessage(long correlationId, long timerId, String messageType, long sentNs, byte[] encoded)
 {
+    /**
+     * Copy of the message with a new timeout timer, used when the message is replayed
+     *
+     * @param timerId the id of the new timeout timer
+     * @return the copy
+     */
+    public PendingMessage withTimerId(final long timerId)
+    {
+        return new PendingMessage(correlationId, timerId, messageType, sentNs, encoded);
+    }
 }
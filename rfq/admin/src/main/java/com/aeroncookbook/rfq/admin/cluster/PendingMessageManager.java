@@ -16,85 +16,257 @@
 
 package com.aeroncookbook.rfq.admin.cluster;
 
+import org.HdrHistogram.Histogram;
+import org.agrona.DeadlineTimerWheel;
+import org.agrona.DirectBuffer;
+import org.agrona.collections.Long2LongHashMap;
+import org.agrona.collections.Long2ObjectHashMap;
 import org.agrona.concurrent.EpochClock;
+import org.agrona.concurrent.NanoClock;
+import org.agrona.concurrent.UnsafeBuffer;
 import org.jline.reader.LineReader;
 import org.jline.utils.AttributedStyle;
 
-import java.util.Deque;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Responsible for keeping track of pending messages and their timeouts
+ * Responsible for keeping track of pending messages and their timeouts. Messages are keyed by correlation id and
+ * timeouts are held in a timer wheel, so adding, receiving and expiring a message are all O(1).
  */
 public class PendingMessageManager
 {
     private static final long TIMEOUT_MS = TimeUnit.SECONDS.toMillis(5);
-    private final Deque<PendingMessage> trackedMessages = new LinkedList<>();
+    private static final long TICK_RESOLUTION_MS = 16;
+    private static final int TICKS_PER_WHEEL = 512;
+    private static final int EXPIRY_LIMIT = 1024;
+    private final Long2ObjectHashMap<PendingMessage> pendingByCorrelationId = new Long2ObjectHashMap<>();
+    private final Long2LongHashMap correlationIdByTimerId = new Long2LongHashMap(Long.MIN_VALUE);
+    private final DeadlineTimerWheel timerWheel;
+    private final DeadlineTimerWheel.TimerHandler timeoutHandler = this::onTimeout;
+    private final UnsafeBuffer replayBuffer = new UnsafeBuffer();
+    private long[] replayCorrelationIds = new long[64];
+    private long replayedUpToCorrelationId;
+    private boolean replayComplete;
     private final EpochClock current;
+    private final NanoClock nanoClock;
+    private Histogram latencyHistogram;
+    private long timedOutCount;
     private LineReader lineReader;
 
     /**
      * Constructor
-     * @param current the clock to use for timeouts
+     * @param current   the clock to use for timeouts
+     * @param nanoClock the clock to use for response latency
      */
-    public PendingMessageManager(final EpochClock current)
+    public PendingMessageManager(final EpochClock current, final NanoClock nanoClock)
     {
         this.current = current;
+        this.nanoClock = nanoClock;
+        this.timerWheel = new DeadlineTimerWheel(
+            TimeUnit.MILLISECONDS, current.time(), TICK_RESOLUTION_MS, TICKS_PER_WHEEL);
     }
 
     /**
-     * Add a message to the list of pending messages
-     * @param correlationId the correlation id of the message
-     * @param messageType  the type of message
+     * Handler for messages being replayed
      */
-    public void addMessage(final String correlationId, final String messageType)
+    @FunctionalInterface
+    public interface ReplayHandler
     {
-        final long timeoutAt = current.time() + TIMEOUT_MS;
-        trackedMessages.add(new PendingMessage(timeoutAt, correlationId, messageType));
+        /**
+         * Replays a pending message
+         *
+         * @param buffer the buffer containing the encoded message
+         * @param offset the offset of the message
+         * @param length the length of the message
+         * @return true if the message was sent and the replay should continue
+         */
+        boolean replay(DirectBuffer buffer, int offset, int length);
     }
 
     /**
-     * Mark a message as received
+     * Add a message to the list of pending messages, keeping a copy of it for replay
      * @param correlationId the correlation id of the message
+     * @param messageType   the type of message
+     * @param buffer        the buffer containing the encoded message
+     * @param length        the length of the encoded message, starting at offset 0
      */
-    public void markMessageAsReceived(final String correlationId)
+    public void addMessage(
+        final long correlationId,
+        final String messageType,
+        final DirectBuffer buffer,
+        final int length)
     {
-        trackedMessages.removeIf(pendingMessage -> pendingMessage.correlationId().equals(correlationId));
+        final byte[] encoded = new byte[length];
+        buffer.getBytes(0, encoded);
+        final long timerId = timerWheel.scheduleTimer(current.time() + TIMEOUT_MS);
+        correlationIdByTimerId.put(timerId, correlationId);
+        pendingByCorrelationId.put(
+            correlationId, new PendingMessage(correlationId, timerId, messageType, nanoClock.nanoTime(), encoded));
     }
 
     /**
-     * Duty cycle in which the pending messages are checked for timeout; if a message is found to be timed out,
-     * only a single message per duty cycle is checked.
+     * Starts a replay of all pending messages, for a new leader or session. Any replay in progress starts over, as
+     * what it sent may have been lost with the old leader.
      */
-    public void doWork()
+    public void startReplay()
     {
-        final long currentTime = current.time();
-        if (null == trackedMessages.peek())
+        replayedUpToCorrelationId = 0;
+    }
+
+    /**
+     * Re-sends the pending messages not yet replayed since {@link #startReplay()}, in the order they were first
+     * sent, with their original correlation ids, and restarts their timeouts. Used after a leader failover or
+     * reconnect, when messages in flight may have been lost. If the handler fails to send a message the replay stops,
+     * and the next call resumes from that message.
+     *
+     * @param handler the handler sending each message
+     * @return the number of messages replayed by this call
+     */
+    public int replay(final ReplayHandler handler)
+    {
+        int count = 0;
+        final Long2ObjectHashMap<PendingMessage>.KeyIterator keys = pendingByCorrelationId.keySet().iterator();
+        while (keys.hasNext())
         {
-            return;
+            final long correlationId = keys.nextLong();
+            if (correlationId > replayedUpToCorrelationId)
+            {
+                if (replayCorrelationIds.length == count)
+                {
+                    replayCorrelationIds = Arrays.copyOf(replayCorrelationIds, count << 1);
+                }
+                replayCorrelationIds[count++] = correlationId;
+            }
         }
+        Arrays.sort(replayCorrelationIds, 0, count);
 
-        //not yet at timeout
-        if (currentTime < trackedMessages.peek().timeoutAt())
+        final long deadline = current.time() + TIMEOUT_MS;
+        int replayed = 0;
+        replayComplete = false;
+        for (int i = 0; i < count; i++)
         {
-            return;
+            final PendingMessage pendingMessage = pendingByCorrelationId.get(replayCorrelationIds[i]);
+            timerWheel.cancelTimer(pendingMessage.timerId());
+            correlationIdByTimerId.remove(pendingMessage.timerId());
+            final long timerId = timerWheel.scheduleTimer(deadline);
+            correlationIdByTimerId.put(timerId, pendingMessage.correlationId());
+            pendingByCorrelationId.put(pendingMessage.correlationId(), pendingMessage.withTimerId(timerId));
+
+            replayBuffer.wrap(pendingMessage.encoded());
+            if (!handler.replay(replayBuffer, 0, pendingMessage.encoded().length))
+            {
+                return replayed;
+            }
+            replayedUpToCorrelationId = pendingMessage.correlationId();
+            replayed++;
         }
 
-        final PendingMessage timedOut = trackedMessages.poll();
+        replayComplete = true;
+        return replayed;
+    }
 
-        if (null == timedOut)
+    /**
+     * Indicates if the last call to {@link #replay(ReplayHandler)} sent every pending message
+     *
+     * @return true if nothing is left to replay
+     */
+    public boolean isReplayComplete()
+    {
+        return replayComplete;
+    }
+
+    /**
+     * Mark a message as received
+     * @param correlationId the correlation id of the message
+     */
+    public void markMessageAsReceived(final long correlationId)
+    {
+        final PendingMessage pendingMessage = pendingByCorrelationId.remove(correlationId);
+        if (null != pendingMessage)
         {
-            return;
+            timerWheel.cancelTimer(pendingMessage.timerId());
+            correlationIdByTimerId.remove(pendingMessage.timerId());
+            if (null != latencyHistogram)
+            {
+                final long latencyNs = nanoClock.nanoTime() - pendingMessage.sentNs();
+                latencyHistogram.recordValue(Math.min(latencyNs, latencyHistogram.getHighestTrackableValue()));
+            }
         }
+    }
 
-        //after timeout
-        if (currentTime >= timedOut.timeoutAt())
+    /**
+     * Starts recording the request to response latency of every message received, and counting timeouts
+     * @param histogram the histogram to record latencies in nanoseconds to
+     */
+    public void startLatencyCapture(final Histogram histogram)
+    {
+        this.latencyHistogram = histogram;
+        this.timedOutCount = 0;
+    }
+
+    /**
+     * Stops recording latencies
+     */
+    public void stopLatencyCapture()
+    {
+        this.latencyHistogram = null;
+    }
+
+    /**
+     * The number of messages timed out since latency capture was started
+     * @return timed out message count
+     */
+    public long timedOutCount()
+    {
+        return timedOutCount;
+    }
+
+    /**
+     * The number of messages awaiting a response
+     * @return the pending message count
+     */
+    public int pendingCount()
+    {
+        return pendingByCorrelationId.size();
+    }
+
+    /**
+     * Duty cycle in which timed out messages are expired. All ticks of the timer wheel up to the current time are
+     * processed, expiring at most {@link #EXPIRY_LIMIT} messages per duty cycle.
+     *
+     * @return the number of messages timed out
+     */
+    public int doWork()
+    {
+        final long currentTime = current.time();
+        if (0 == timerWheel.timerCount())
+        {
+            timerWheel.resetStartTime(currentTime);
+            return 0;
+        }
+
+        int expired = 0;
+        do
+        {
+            expired += timerWheel.poll(currentTime, timeoutHandler, EXPIRY_LIMIT - expired);
+        }
+        while (expired < EXPIRY_LIMIT && timerWheel.currentTickTime() <= currentTime);
+
+        return expired;
+    }
+
+    private boolean onTimeout(final TimeUnit timeUnit, final long now, final long timerId)
+    {
+        final long correlationId = correlationIdByTimerId.remove(timerId);
+        final PendingMessage timedOut = pendingByCorrelationId.remove(correlationId);
+        if (null != timedOut)
         {
+            timedOutCount++;
             log("Message with correlation id " + timedOut.correlationId() + " and type " +
                 timedOut.messageType() + " timed out.", AttributedStyle.RED);
-            trackedMessages.remove(timedOut);
         }
+        return true;
     }
 
     /**
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.admin.book;
+
+import com.aeroncookbook.cluster.rfq.sbe.BooleanType;
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.RequestResult;
+import com.aeroncookbook.cluster.rfq.sbe.RfqBookSnapshotEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqCreatedEventEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqStatus;
+import com.aeroncookbook.cluster.rfq.sbe.Side;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RfqBookTests
+{
+    private static final int PARTITIONS = 2;
+    private static final String CUSIP = "037833100";
+
+    private final UnsafeBuffer buffer = new UnsafeBuffer(new byte[1024]);
+    private final MessageHeaderEncoder headerEncoder = new MessageHeaderEncoder();
+    private final RfqBookSnapshotEncoder snapshotEncoder = new RfqBookSnapshotEncoder();
+    private final RfqCreatedEventEncoder createdEncoder = new RfqCreatedEventEncoder();
+    private final List<String> gaps = new ArrayList<>();
+    private int resyncRequests = 0;
+    private int resyncedCount = 0;
+    private int throttledCount = 0;
+    private final RfqBook book = new RfqBook(new RfqBookListener()
+    {
+        @Override
+        public void onGap(final int partition, final long expectedSequence, final long receivedSequence)
+        {
+            gaps.add(partition + ":" + expectedSequence + ":" + receivedSequence);
+        }
+
+        @Override
+        public void onSnapshotThrottled(final int partition)
+        {
+            throttledCount++;
+        }
+
+        @Override
+        public void onResynced(final RfqBook resyncedBook)
+        {
+            resyncedCount++;
+        }
+    }, () -> resyncRequests++);
+
+    @Test
+    public void canGoLiveOnceEveryPartitionIsLoaded()
+    {
+        book.resync();
+        snapshot(0, 0, true, 5);
+        Assertions.assertFalse(book.isLive());
+
+        snapshot(1, 0, true, 7);
+        Assertions.assertTrue(book.isLive());
+        Assertions.assertEquals(PARTITIONS, book.partitionCount());
+        Assertions.assertEquals(5, book.lastSequence(0));
+        Assertions.assertEquals(7, book.lastSequence(1));
+        Assertions.assertEquals(1, resyncedCount);
+        Assertions.assertEquals(1, resyncRequests);
+    }
+
+    @Test
+    public void canApplyInterleavedPartitionSequences()
+    {
+        goLive();
+        created(0, 1, 1);
+        created(1, 1, 2);
+        created(0, 2, 3);
+
+        Assertions.assertTrue(book.isLive());
+        Assertions.assertTrue(gaps.isEmpty());
+        Assertions.assertEquals(3, book.openRfqCount());
+        Assertions.assertEquals(2, book.lastSequence(0));
+        Assertions.assertEquals(1, book.lastSequence(1));
+    }
+
+    @Test
+    public void canResyncOnlyTheGappedPartition()
+    {
+        goLive();
+        created(0, 1, 1);
+        created(1, 1, 2);
+        created(1, 3, 4);
+
+        Assertions.assertEquals(List.of("1:2:3"), gaps);
+        Assertions.assertFalse(book.isLive());
+        Assertions.assertEquals(2, resyncRequests);
+
+        created(0, 2, 3);
+        Assertions.assertNotNull(book.rfq(3));
+        created(1, 4, 6);
+        Assertions.assertNull(book.rfq(6));
+
+        snapshot(0, 0, true, 2);
+        snapshot(1, 0, false, 3, 2);
+        Assertions.assertFalse(book.isLive());
+        snapshot(1, 1, true, 4, 4, 6);
+
+        Assertions.assertTrue(book.isLive());
+        Assertions.assertEquals(2, resyncedCount);
+        Assertions.assertEquals(4, book.lastSequence(1));
+        Assertions.assertEquals(2, book.lastSequence(0));
+        Assertions.assertNotNull(book.rfq(1));
+        Assertions.assertNotNull(book.rfq(3));
+        Assertions.assertNotNull(book.rfq(6));
+        Assertions.assertEquals(5, book.openRfqCount());
+    }
+
+    @Test
+    public void canIgnoreEventsUpToSnapshotSequence()
+    {
+        book.resync();
+        snapshot(0, 0, true, 3, 1);
+        snapshot(1, 0, true, 0);
+        created(0, 3, 1);
+        created(0, 4, 3);
+
+        Assertions.assertTrue(gaps.isEmpty());
+        Assertions.assertEquals(4, book.lastSequence(0));
+        Assertions.assertEquals(2, book.openRfqCount());
+    }
+
+    @Test
+    public void canIgnorePagesOfUnseenSnapshot()
+    {
+        book.resync();
+        snapshot(0, 1, true, 3, 1);
+        snapshot(1, 0, true, 0);
+        Assertions.assertFalse(book.isLive());
+        Assertions.assertNull(book.rfq(1));
+
+        snapshot(0, 0, true, 3, 1);
+        Assertions.assertTrue(book.isLive());
+        Assertions.assertNotNull(book.rfq(1));
+    }
+
+    @Test
+    public void canStayResyncingWhenSnapshotIsThrottled()
+    {
+        book.resync();
+        snapshot(0, 0, true, 5);
+        throttledSnapshot(1);
+
+        Assertions.assertFalse(book.isLive());
+        Assertions.assertEquals(1, throttledCount);
+
+        snapshot(1, 0, true, 7);
+        Assertions.assertTrue(book.isLive());
+        Assertions.assertEquals(7, book.lastSequence(1));
+    }
+
+    private void goLive()
+    {
+        book.resync();
+        for (int partition = 0; partition < PARTITIONS; partition++)
+        {
+            snapshot(partition, 0, true, 0);
+        }
+    }
+
+    private void created(final int partition, final long sequence, final int rfqId)
+    {
+        createdEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder)
+            .cusip(CUSIP)
+            .expireTimeMs(Long.MAX_VALUE)
+            .quantity(1000)
+            .requesterSide(Side.BUY)
+            .rfqId(rfqId)
+            .requesterUserId(500)
+            .sequence(sequence)
+            .partition(partition);
+        book.onMessage(buffer, 0, MessageHeaderEncoder.ENCODED_LENGTH + createdEncoder.encodedLength());
+    }
+
+    private void throttledSnapshot(final int partition)
+    {
+        snapshotEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder)
+            .correlation(1)
+            .sequence(0)
+            .page(0)
+            .lastPage(BooleanType.TRUE)
+            .partition(partition)
+            .partitionCount(PARTITIONS)
+            .result(RequestResult.THROTTLED);
+        snapshotEncoder.instrumentsCount(0);
+        snapshotEncoder.rfqsCount(0);
+        book.onMessage(buffer, 0, MessageHeaderEncoder.ENCODED_LENGTH + snapshotEncoder.encodedLength());
+    }
+
+    private void snapshot(
+        final int partition,
+        final int page,
+        final boolean lastPage,
+        final long sequence,
+        final int... rfqIds)
+    {
+        snapshotEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder)
+            .correlation(1)
+            .sequence(sequence)
+            .page(page)
+            .lastPage(lastPage ? BooleanType.TRUE : BooleanType.FALSE)
+            .partition(partition)
+            .partitionCount(PARTITIONS)
+            .result(RequestResult.SUCCESS);
+        snapshotEncoder.instrumentsCount(0);
+        final RfqBookSnapshotEncoder.RfqsEncoder rfqs = snapshotEncoder.rfqsCount(rfqIds.length);
+        for (final int rfqId : rfqIds)
+        {
+            rfqs.next()
+                .rfqId(rfqId)
+                .cusip(CUSIP)
+                .status(RfqStatus.CREATED)
+                .requesterSide(Side.BUY)
+                .quantity(1000)
+                .expireTimeMs(Long.MAX_VALUE)
+                .price(0)
+                .requesterUserId(500)
+                .responderUserId(0);
+        }
+        book.onMessage(buffer, 0, MessageHeaderEncoder.ENCODED_LENGTH + snapshotEncoder.encodedLength());
+    }
+}
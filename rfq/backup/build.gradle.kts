@@ -0,0 +1,63 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+plugins {
+    application
+    checkstyle
+}
+
+repositories {
+    mavenCentral()
+}
+
+dependencies {
+    checkstyle(libs.checkstyle)
+    implementation(libs.agrona)
+    implementation(libs.aeron.samples)
+    implementation(libs.slf4j)
+    implementation(libs.logback)
+    implementation(project(":rfq:cluster-protocol"))
+    implementation(project(":rfq:cluster"))
+    testImplementation(libs.bundles.testing)
+}
+
+application {
+    mainClass.set("com.aeroncookbook.rfq.backup.BackupApp")
+}
+
+tasks {
+    task("runClusterBackup", JavaExec::class) {
+        group = "run"
+        classpath = sourceSets.main.get().runtimeClasspath
+        mainClass.set("com.aeroncookbook.rfq.backup.BackupApp")
+        jvmArgs("--add-opens=java.base/sun.nio.ch=ALL-UNNAMED")
+    }
+
+    task ("uberJar", Jar::class) {
+        group = "uber"
+        manifest {
+            attributes["Main-Class"]="com.aeroncookbook.rfq.backup.BackupApp"
+            attributes["Add-Opens"]="java.base/sun.nio.ch"
+        }
+        archiveClassifier.set("uber")
+        from(sourceSets.main.get().output)
+        duplicatesStrategy = DuplicatesStrategy.EXCLUDE
+        dependsOn(configurations.runtimeClasspath)
+        from({
+            configurations.runtimeClasspath.get().filter { it.name.endsWith("jar") }.map { zipTree(it) }
+        })
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.backup;
+
+import io.aeron.Aeron;
+import io.aeron.CommonContext;
+import io.aeron.archive.Archive;
+import io.aeron.archive.ArchiveThreadingMode;
+import io.aeron.archive.ArchivingMediaDriver;
+import io.aeron.archive.client.AeronArchive;
+import io.aeron.cluster.ClusterBackup;
+import io.aeron.driver.MediaDriver;
+import io.aeron.driver.ThreadingMode;
+import io.aeron.samples.cluster.ClusterConfig;
+import org.agrona.concurrent.ShutdownSignalBarrier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.List;
+import java.util.StringJoiner;
+
+import static java.lang.Integer.parseInt;
+
+/**
+ * Warm standby for the RFQ cluster. Runs a ClusterBackup that continuously pulls the cluster's snapshots and log into
+ * a local archive, by default from a follower so the leader is not loaded, and exports its progress as counters (see
+ * {@link BackupMetrics}).
+ * <p>
+ * With {@code seed <member cluster dir> <member archive dir>}, seeds a new cluster member from the stopped backup
+ * instead (see {@link BackupSeeder}).
+ */
+public class BackupApp
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(BackupApp.class);
+    private static final int CONSENSUS_PORT_OFFSET = 1;
+    private static final int CATCHUP_PORT_OFFSET = 2;
+    private static final int ARCHIVE_CONTROL_PORT_OFFSET = 3;
+
+    /**
+     * The main method.
+     * @param args command line args
+     */
+    public static void main(final String[] args)
+    {
+        final File backupDir = new File(getSetting("BACKUP_DIR", "backup.dir",
+            new File(System.getProperty("user.dir"), "aeron-cluster-backup").getPath()));
+        final File clusterDir = new File(backupDir, "cluster");
+        final File archiveDir = new File(backupDir, "archive");
+
+        if (args.length > 0 && "seed".equals(args[0]))
+        {
+            if (args.length != 3)
+            {
+                LOGGER.error("usage: seed <member cluster dir> <member archive dir>");
+                System.exit(-1);
+            }
+            BackupSeeder.seed(clusterDir, archiveDir, new File(args[1]), new File(args[2]));
+            return;
+        }
+
+        final ShutdownSignalBarrier barrier = new ShutdownSignalBarrier();
+        final int clusterPortBase = parseInt(getSetting("CLUSTER_PORT_BASE", "port.base", "9000"));
+        final List<String> clusterHosts = List.of(getSetting("CLUSTER_ADDRESSES", "cluster.addresses", "localhost")
+            .split(","));
+        final String backupHost = getSetting("BACKUP_HOST", "backup.host", "localhost");
+        final int backupPortBase = parseInt(getSetting("BACKUP_PORT_BASE", "backup.port.base", "9500"));
+        final ClusterBackup.SourceType sourceType =
+            ClusterBackup.SourceType.valueOf(getSetting("BACKUP_SOURCE", "backup.source", "FOLLOWER"));
+
+        final String aeronDirectoryName = CommonContext.getAeronDirectoryName() + "-backup";
+        final MediaDriver.Context mediaDriverContext = new MediaDriver.Context()
+            .aeronDirectoryName(aeronDirectoryName)
+            .threadingMode(ThreadingMode.SHARED)
+            .dirDeleteOnStart(true)
+            .dirDeleteOnShutdown(true);
+        final Archive.Context archiveContext = new Archive.Context()
+            .aeronDirectoryName(aeronDirectoryName)
+            .archiveDir(archiveDir)
+            .controlChannel(udpChannel(backupHost, backupPortBase + ARCHIVE_CONTROL_PORT_OFFSET))
+            .replicationChannel(udpChannel(backupHost, 0))
+            .recordingEventsEnabled(false)
+            .threadingMode(ArchiveThreadingMode.SHARED);
+
+        try (
+            ArchivingMediaDriver ignored = ArchivingMediaDriver.launch(mediaDriverContext, archiveContext);
+            Aeron aeron = Aeron.connect(new Aeron.Context().aeronDirectoryName(aeronDirectoryName));
+            BackupMetrics metrics = new BackupMetrics(aeron);
+            ClusterBackup ignored2 = ClusterBackup.launch(new ClusterBackup.Context()
+                .aeronDirectoryName(aeronDirectoryName)
+                .aeron(aeron)
+                .ownsAeronClient(false)
+                .clusterDir(clusterDir)
+                .sourceType(sourceType)
+                .clusterConsensusEndpoints(consensusEndpoints(clusterHosts, clusterPortBase))
+                .consensusChannel("aeron:udp?term-length=64k|endpoint=" + backupHost + ":" +
+                    (backupPortBase + CONSENSUS_PORT_OFFSET))
+                .catchupEndpoint(backupHost + ":" + (backupPortBase + CATCHUP_PORT_OFFSET))
+                .clusterArchiveContext(new AeronArchive.Context()
+                    .controlRequestChannel("aeron:udp?term-length=64k")
+                    .controlResponseChannel(udpChannel(backupHost, 0)))
+                .archiveContext(new AeronArchive.Context()
+                    .controlRequestChannel(archiveContext.localControlChannel())
+                    .controlRequestStreamId(archiveContext.localControlStreamId())
+                    .controlResponseChannel(archiveContext.localControlChannel()))
+                .eventsListener(metrics)
+                .errorHandler(Throwable::printStackTrace)))
+        {
+            LOGGER.info("Started cluster backup of {} from a {} member into {}", clusterHosts, sourceType, backupDir);
+            barrier.await();
+            LOGGER.info("Exiting");
+        }
+    }
+
+    /**
+     * Gets the consensus endpoints of the cluster members, using the cluster's port layout
+     * @param clusterHosts the cluster addresses, in member id order
+     * @param portBase the cluster's CLUSTER_PORT_BASE
+     * @return the comma separated consensus endpoints
+     */
+    private static String consensusEndpoints(final List<String> clusterHosts, final int portBase)
+    {
+        final StringJoiner endpoints = new StringJoiner(",");
+        for (int memberId = 0; memberId < clusterHosts.size(); memberId++)
+        {
+            endpoints.add(clusterHosts.get(memberId) + ":" +
+                ClusterConfig.calculatePort(memberId, portBase, ClusterConfig.MEMBER_FACING_PORT_OFFSET));
+        }
+        return endpoints.toString();
+    }
+
+    /**
+     * Gets a UDP channel on an endpoint
+     * @param host the host
+     * @param port the port, or 0 for any
+     * @return the channel
+     */
+    private static String udpChannel(final String host, final int port)
+    {
+        return "aeron:udp?endpoint=" + host + ":" + port;
+    }
+
+    /**
+     * Reads a setting from an environment variable, then a system property
+     * @param environmentVariable the environment variable
+     * @param property the system property
+     * @param defaultValue the value if neither is set
+     * @return the setting
+     */
+    private static String getSetting(final String environmentVariable, final String property, final String defaultValue)
+    {
+        final String value = System.getenv(environmentVariable);
+        if (null == value || value.isEmpty())
+        {
+            return System.getProperty(property, defaultValue);
+        }
+        return value;
+    }
+}
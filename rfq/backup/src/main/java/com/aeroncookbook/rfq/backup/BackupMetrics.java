@@ -0,0 +1,120 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.backup;
+
+import io.aeron.Aeron;
+import io.aeron.Counter;
+import io.aeron.cluster.ClusterBackupEventsListener;
+import io.aeron.cluster.ClusterMember;
+import io.aeron.cluster.RecordingLog;
+import org.agrona.CloseHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Follows the progress of the cluster backup, exporting it as Aeron counters (type id 1102, labels starting
+ * {@code rfq-backup-}) visible with AeronStat. The backup's lag is the cluster's commit position less the
+ * {@code rfq-backup-live-log-position} counter.
+ */
+public class BackupMetrics implements ClusterBackupEventsListener, AutoCloseable
+{
+    /**
+     * Aeron counter type id for the backup counters
+     */
+    public static final int BACKUP_COUNTER_TYPE_ID = 1102;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BackupMetrics.class);
+
+    private final Counter liveLogPosition;
+    private final Counter liveLogProgressTimeMs;
+    private final Counter retrievedSnapshots;
+    private final Counter backupQueries;
+    private final Counter possibleFailures;
+    private final Counter logSourceMemberId;
+
+    /**
+     * Constructor
+     *
+     * @param aeron the Aeron client of the backup node
+     */
+    public BackupMetrics(final Aeron aeron)
+    {
+        liveLogPosition = aeron.addCounter(BACKUP_COUNTER_TYPE_ID, "rfq-backup-live-log-position");
+        liveLogProgressTimeMs = aeron.addCounter(BACKUP_COUNTER_TYPE_ID, "rfq-backup-live-log-progress-time-ms");
+        retrievedSnapshots = aeron.addCounter(BACKUP_COUNTER_TYPE_ID, "rfq-backup-snapshots-retrieved");
+        backupQueries = aeron.addCounter(BACKUP_COUNTER_TYPE_ID, "rfq-backup-queries");
+        possibleFailures = aeron.addCounter(BACKUP_COUNTER_TYPE_ID, "rfq-backup-possible-failures");
+        logSourceMemberId = aeron.addCounter(BACKUP_COUNTER_TYPE_ID, "rfq-backup-log-source-member-id");
+        logSourceMemberId.set(-1);
+    }
+
+    @Override
+    public void onBackupQuery()
+    {
+        backupQueries.increment();
+    }
+
+    @Override
+    public void onPossibleFailure(final Exception ex)
+    {
+        possibleFailures.increment();
+        LOGGER.warn("Cluster backup possible failure: {}", ex.getMessage());
+    }
+
+    @Override
+    public void onBackupResponse(
+        final ClusterMember[] clusterMembers,
+        final ClusterMember logSourceMember,
+        final List<RecordingLog.Snapshot> snapshotsToRetrieve)
+    {
+        logSourceMemberId.set(logSourceMember.id());
+        if (!snapshotsToRetrieve.isEmpty())
+        {
+            LOGGER.info("Backing up from member {}, retrieving {} snapshots", logSourceMember.id(),
+                snapshotsToRetrieve.size());
+        }
+    }
+
+    @Override
+    public void onUpdatedRecordingLog(
+        final RecordingLog recordingLog,
+        final List<RecordingLog.Snapshot> snapshotsRetrieved)
+    {
+        if (!snapshotsRetrieved.isEmpty())
+        {
+            retrievedSnapshots.getAndAdd(snapshotsRetrieved.size());
+            LOGGER.info("Retrieved snapshots at log position {}", snapshotsRetrieved.get(0).logPosition);
+        }
+    }
+
+    @Override
+    public void onLiveLogProgress(final long recordingId, final long recordingPosCounterId, final long logPosition)
+    {
+        liveLogPosition.set(logPosition);
+        liveLogProgressTimeMs.set(System.currentTimeMillis());
+    }
+
+    @Override
+    public void close()
+    {
+        CloseHelper.closeAll(
+            liveLogPosition, liveLogProgressTimeMs, retrievedSnapshots, backupQueries, possibleFailures,
+            logSourceMemberId);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.backup;
+
+import com.aeroncookbook.cluster.rfq.sbe.SnapshotType;
+import com.aeroncookbook.rfq.infra.SnapshotCompaction;
+import com.aeroncookbook.rfq.infra.SnapshotTypeReader;
+import io.aeron.Aeron;
+import io.aeron.ChannelUri;
+import io.aeron.CommonContext;
+import io.aeron.Image;
+import io.aeron.Subscription;
+import io.aeron.archive.Archive;
+import io.aeron.archive.ArchiveThreadingMode;
+import io.aeron.archive.ArchivingMediaDriver;
+import io.aeron.archive.client.AeronArchive;
+import io.aeron.cluster.RecordingLog;
+import io.aeron.driver.MediaDriver;
+import io.aeron.driver.ThreadingMode;
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.YieldingIdleStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.stream.Stream;
+
+/**
+ * Seeds the directories of a new or replacement cluster member from a stopped cluster backup. The member starts from
+ * the backup's latest snapshot and log, held in its archive and recording log, and only catches up the log since the
+ * backup from the leader, rather than replicating everything.
+ * <p>
+ * The backup's mark files are not copied, and the backup must be stopped while seeding, so the files are not changing
+ * as they are copied.
+ * <p>
+ * A delta snapshot names its base by a recording id in the archive of the node that wrote it, so cannot be loaded
+ * from the backup's archive. Seeding is refused unless the latest snapshot of every service is full.
+ */
+public final class BackupSeeder
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(BackupSeeder.class);
+    private static final String REPLAY_CHANNEL = "aeron:ipc?alias=rfq-seed-snapshot";
+    private static final int REPLAY_STREAM_ID = 3002;
+
+    private BackupSeeder()
+    {
+    }
+
+    /**
+     * Copies the backup's recording log and archive to the member's cluster and archive directories, once the
+     * backup's latest snapshots are found to be full
+     *
+     * @param backupClusterDir  the cluster directory of the backup
+     * @param backupArchiveDir  the archive directory of the backup
+     * @param memberClusterDir  the cluster directory of the member to seed, which must not hold a recording log
+     * @param memberArchiveDir  the archive directory of the member to seed
+     */
+    public static void seed(
+        final File backupClusterDir,
+        final File backupArchiveDir,
+        final File memberClusterDir,
+        final File memberArchiveDir)
+    {
+        final File recordingLog = new File(backupClusterDir, RecordingLog.RECORDING_LOG_FILE_NAME);
+        if (!recordingLog.exists())
+        {
+            throw new IllegalStateException("no recording log in " + backupClusterDir + ", nothing to seed from");
+        }
+        if (new File(memberClusterDir, RecordingLog.RECORDING_LOG_FILE_NAME).exists())
+        {
+            throw new IllegalStateException(memberClusterDir + " already holds a recording log");
+        }
+        checkFullSnapshots(backupClusterDir, backupArchiveDir);
+
+        try
+        {
+            Files.createDirectories(memberClusterDir.toPath());
+            Files.copy(recordingLog.toPath(), memberClusterDir.toPath().resolve(RecordingLog.RECORDING_LOG_FILE_NAME));
+            final long copied = copyArchive(backupArchiveDir.toPath(), memberArchiveDir.toPath());
+            LOGGER.info("Seeded {} and {} from the backup, copying {} archive files", memberClusterDir,
+                memberArchiveDir, copied);
+        }
+        catch (final IOException ex)
+        {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    // replays the latest snapshot of each service from the backup's archive, refusing deltas
+    private static void checkFullSnapshots(final File backupClusterDir, final File backupArchiveDir)
+    {
+        final String aeronDirectoryName = CommonContext.getAeronDirectoryName() + "-seed";
+        final MediaDriver.Context mediaDriverContext = new MediaDriver.Context()
+            .aeronDirectoryName(aeronDirectoryName)
+            .threadingMode(ThreadingMode.SHARED)
+            .dirDeleteOnStart(true)
+            .dirDeleteOnShutdown(true);
+        final Archive.Context archiveContext = new Archive.Context()
+            .aeronDirectoryName(aeronDirectoryName)
+            .archiveDir(backupArchiveDir)
+            .controlChannelEnabled(false)
+            .replicationChannel("aeron:udp?endpoint=localhost:0")
+            .recordingEventsEnabled(false)
+            .threadingMode(ArchiveThreadingMode.SHARED);
+
+        try (
+            RecordingLog recordingLog = new RecordingLog(backupClusterDir, false);
+            ArchivingMediaDriver ignored = ArchivingMediaDriver.launch(mediaDriverContext, archiveContext);
+            Aeron aeron = Aeron.connect(new Aeron.Context().aeronDirectoryName(aeronDirectoryName));
+            AeronArchive archive = AeronArchive.connect(new AeronArchive.Context()
+                .aeron(aeron)
+                .controlRequestChannel(archiveContext.localControlChannel())
+                .controlRequestStreamId(archiveContext.localControlStreamId())
+                .controlResponseChannel(archiveContext.localControlChannel())))
+        {
+            final SnapshotTypeReader reader = new SnapshotTypeReader();
+            final IdleStrategy idleStrategy = new YieldingIdleStrategy();
+            RecordingLog.Entry snapshot;
+            for (int serviceId = 0; null != (snapshot = recordingLog.getLatestSnapshot(serviceId)); serviceId++)
+            {
+                final SnapshotType snapshotType = readSnapshotType(aeron, archive, snapshot.recordingId, reader,
+                    idleStrategy);
+                if (SnapshotType.DELTA == snapshotType)
+                {
+                    throw new IllegalStateException("the latest snapshot of service " + serviceId + " in the " +
+                        "backup, recording " + snapshot.recordingId + ", is a delta, which cannot be loaded " +
+                        "without its base; create " + SnapshotCompaction.FULL_SNAPSHOT_FILE + " in the cluster " +
+                        "directory of each node, take a snapshot, and seed once the backup holds it");
+                }
+                LOGGER.info("Latest snapshot of service {} in the backup is {}", serviceId, snapshotType);
+            }
+        }
+    }
+
+    private static SnapshotType readSnapshotType(
+        final Aeron aeron,
+        final AeronArchive archive,
+        final long recordingId,
+        final SnapshotTypeReader reader,
+        final IdleStrategy idleStrategy)
+    {
+        final long startPosition = archive.getStartPosition(recordingId);
+        final long stopPosition = archive.getStopPosition(recordingId);
+        final int replaySessionId = (int)archive.startReplay(
+            recordingId, startPosition, stopPosition - startPosition, REPLAY_CHANNEL, REPLAY_STREAM_ID);
+        try (Subscription subscription = aeron.addSubscription(
+            ChannelUri.addSessionId(REPLAY_CHANNEL, replaySessionId), REPLAY_STREAM_ID))
+        {
+            idleStrategy.reset();
+            Image image;
+            while (null == (image = subscription.imageBySessionId(replaySessionId)))
+            {
+                idleStrategy.idle();
+            }
+            return reader.read(image, idleStrategy);
+        }
+    }
+
+    // copies the catalog and recording segments, skipping the archive mark file
+    private static long copyArchive(final Path from, final Path to) throws IOException
+    {
+        Files.createDirectories(to);
+        long copied = 0;
+        try (Stream<Path> files = Files.list(from))
+        {
+            for (final Path file : (Iterable<Path>)files::iterator)
+            {
+                final String name = file.getFileName().toString();
+                if (Files.isRegularFile(file) && !name.contains("mark"))
+                {
+                    Files.copy(file, to.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+                    copied++;
+                }
+            }
+        }
+        return copied;
+    }
+}
@@ -25,6 +25,7 @@ val codecGeneration = configurations.create("codecGeneration")
 dependencies {
     "codecGeneration"(libs.sbe)
     implementation(libs.agrona)
+    implementation(libs.aeron.client)
     testImplementation(libs.bundles.testing)
 }
 
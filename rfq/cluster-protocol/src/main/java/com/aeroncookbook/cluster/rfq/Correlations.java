@@ -0,0 +1,42 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.cluster.rfq;
+
+/**
+ * Correlation ids for client commands. The cluster deduplicates commands by user and correlation id for a retention
+ * window, so a client restarted within that window must not reuse the ids of its previous run. Starting from the wall
+ * clock, with room for a million commands per millisecond of run time, keeps ids increasing across restarts.
+ */
+public final class Correlations
+{
+    private static final int COMMANDS_PER_MS_SHIFT = 20;
+
+    private Correlations()
+    {
+    }
+
+    /**
+     * Gets the id to count a client's correlation ids up from
+     *
+     * @param epochMs the current wall clock time in milliseconds
+     * @return the correlation id before the client's first
+     */
+    public static long initialCorrelation(final long epochMs)
+    {
+        return epochMs << COMMANDS_PER_MS_SHIFT;
+    }
+}
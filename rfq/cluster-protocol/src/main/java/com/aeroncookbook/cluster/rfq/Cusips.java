@@ -0,0 +1,92 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aeroncookbook.cluster.rfq;
+
+/**
+ * Cusips packed into a long, seven bits per ASCII character, so a client can look up an instrument by the cusip of
+ * a message without decoding it into a string. Cusips shorter than nine characters are padded with zeros, as the
+ * protocol's character arrays are, so a cusip packs the same from a string and from a message.
+ */
+public final class Cusips
+{
+    /**
+     * Length of a cusip
+     */
+    public static final int CUSIP_LENGTH = 9;
+
+    private static final int BITS_PER_CHAR = 7;
+    private static final int CHAR_MASK = 0x7F;
+
+    private Cusips()
+    {
+    }
+
+    /**
+     * Packs the characters of a cusip, as copied from a message
+     *
+     * @param cusip the cusip's characters, of which the first nine are packed
+     * @return the packed cusip
+     */
+    public static long pack(final byte[] cusip)
+    {
+        long packed = 0;
+        for (int i = 0; i < CUSIP_LENGTH; i++)
+        {
+            packed = packed << BITS_PER_CHAR | (i < cusip.length ? cusip[i] & CHAR_MASK : 0);
+        }
+        return packed;
+    }
+
+    /**
+     * Gets the hash code of a cusip's characters, as copied from a message, which is that of the cusip decoded into
+     * a string, so a cusip is routed the same whether decoded or not
+     *
+     * @param cusip the cusip's characters, up to the first zero or the first nine
+     * @return the hash code of the cusip as a string
+     */
+    public static int hashCode(final byte[] cusip)
+    {
+        int hash = 0;
+        for (int i = 0; i < CUSIP_LENGTH && i < cusip.length && 0 != cusip[i]; i++)
+        {
+            hash = 31 * hash + (cusip[i] & 0xFF);
+        }
+        return hash;
+    }
+
+    /**
+     * Packs a cusip
+     *
+     * @param cusip the cusip
+     * @return the packed cusip
+     * @throws IllegalArgumentException if the cusip is longer than nine characters
+     */
+    public static long pack(final CharSequence cusip)
+    {
+        if (cusip.length() > CUSIP_LENGTH)
+        {
+            throw new IllegalArgumentException("cusip longer than " + CUSIP_LENGTH + " characters: " + cusip);
+        }
+        long packed = 0;
+        for (int i = 0; i < CUSIP_LENGTH; i++)
+        {
+            packed = packed << BITS_PER_CHAR | (i < cusip.length() ? cusip.charAt(i) & CHAR_MASK : 0);
+        }
+        return packed;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.cluster.rfq;
+
+/**
+ * Placement of RFQs over shards, each an independent RFQ cluster, and over the partitions of the RFQ book within
+ * each shard. Shared by the clustered service, which owns and numbers RFQs with it, and the gateway, which routes
+ * commands with it, so both always agree.
+ * <p>
+ * An instrument's RFQs are placed by the hash of its cusip: the shard is the hash modulo the shard count, and the
+ * partition the remaining quotient modulo the partition count. RFQ ids are interleaved over every partition of every
+ * shard, so the owner of an RFQ is known from its id alone. With a single shard, placement is the same as for a
+ * standalone cluster.
+ * <p>
+ * Taken together, the partitions of every shard are the book partitions, numbered p * S + s, each broadcasting its
+ * own sequence of RFQ events. The book partition of an RFQ is its id less one, modulo the book partition count.
+ */
+public final class RfqRouting
+{
+    private RfqRouting()
+    {
+    }
+
+    /**
+     * Gets the shard owning the RFQs on an instrument. String.hashCode is specified by the language, so every
+     * process agrees on it.
+     *
+     * @param cusip      the cusip of the instrument
+     * @param shardCount the number of shards
+     * @return the owning shard, from 0
+     */
+    public static int shardOfCusip(final String cusip, final int shardCount)
+    {
+        return Math.floorMod(cusip.hashCode(), shardCount);
+    }
+
+    /**
+     * Gets the partition, within its shard, owning the RFQs on an instrument
+     *
+     * @param cusip          the cusip of the instrument
+     * @param shardCount     the number of shards
+     * @param partitionCount the number of partitions in each shard
+     * @return the owning partition, from 0
+     */
+    public static int partitionOfCusip(final String cusip, final int shardCount, final int partitionCount)
+    {
+        return partitionOfCusipHash(cusip.hashCode(), shardCount, partitionCount);
+    }
+
+    /**
+     * Gets the partition, within its shard, owning the RFQs on an instrument, from the cusip's characters as copied
+     * from a message, without decoding them into a string
+     *
+     * @param cusip          the cusip's characters, up to the first zero or the first nine
+     * @param shardCount     the number of shards
+     * @param partitionCount the number of partitions in each shard
+     * @return the owning partition, from 0
+     */
+    public static int partitionOfCusip(final byte[] cusip, final int shardCount, final int partitionCount)
+    {
+        return partitionOfCusipHash(Cusips.hashCode(cusip), shardCount, partitionCount);
+    }
+
+    private static int partitionOfCusipHash(final int hash, final int shardCount, final int partitionCount)
+    {
+        return Math.floorMod(Math.floorDiv(hash, shardCount), partitionCount);
+    }
+
+    /**
+     * Gets the shard owning an RFQ
+     *
+     * @param rfqId      the RFQ id
+     * @param shardCount the number of shards
+     * @return the owning shard, from 0
+     */
+    public static int shardOfRfq(final int rfqId, final int shardCount)
+    {
+        return Math.floorMod(rfqId - 1, shardCount);
+    }
+
+    /**
+     * Gets the partition, within its shard, owning an RFQ
+     *
+     * @param rfqId          the RFQ id
+     * @param shardCount     the number of shards
+     * @param partitionCount the number of partitions in each shard
+     * @return the owning partition, from 0
+     */
+    public static int partitionOfRfq(final int rfqId, final int shardCount, final int partitionCount)
+    {
+        return Math.floorMod(Math.floorDiv(rfqId - 1, shardCount), partitionCount);
+    }
+
+    /**
+     * Gets the book partition of a partition of a shard, numbering the partitions of every shard together
+     *
+     * @param shard      the shard, from 0
+     * @param shardCount the number of shards
+     * @param partition  the partition within the shard, from 0
+     * @return the book partition, from 0
+     */
+    public static int bookPartition(final int shard, final int shardCount, final int partition)
+    {
+        return partition * shardCount + shard;
+    }
+
+    /**
+     * Gets the book partition owning an RFQ
+     *
+     * @param rfqId              the RFQ id
+     * @param bookPartitionCount the number of book partitions, the shard count times the partitions in each shard
+     * @return the owning book partition, from 0
+     */
+    public static int bookPartitionOfRfq(final int rfqId, final int bookPartitionCount)
+    {
+        return Math.floorMod(rfqId - 1, bookPartitionCount);
+    }
+
+    /**
+     * Assigns the RFQ id following the last one assigned by a partition of a shard. With S shards of P partitions,
+     * partition p of shard s assigns p * S + s + 1, then steps by S * P.
+     *
+     * @param lastRfqId      the last RFQ id assigned by the partition, or 0 if none
+     * @param shard          the shard, from 0
+     * @param shardCount     the number of shards
+     * @param partition      the partition, from 0
+     * @param partitionCount the number of partitions in each shard
+     * @return the next RFQ id
+     */
+    public static int nextRfqId(
+        final int lastRfqId,
+        final int shard,
+        final int shardCount,
+        final int partition,
+        final int partitionCount)
+    {
+        return 0 == lastRfqId ? partition * shardCount + shard + 1 : lastRfqId + shardCount * partitionCount;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.cluster.rfq;
+
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.UserCredentialsEncoder;
+import io.aeron.security.CredentialsSupplier;
+import org.agrona.concurrent.UnsafeBuffer;
+
+/**
+ * Supplies the {@code UserCredentials} of the user a client connects to the cluster as. Shared by the admin, the
+ * gateway and the market maker. Credentials are always sent, so a user id of 0, or an unknown user, is refused by
+ * the cluster; a client meaning to connect anonymously sends no credentials instead.
+ */
+public class UserCredentialsSupplier implements CredentialsSupplier
+{
+    private static final byte[] NO_CREDENTIALS = new byte[0];
+    private final int userId;
+
+    /**
+     * Constructor
+     * @param userId the user to connect as
+     */
+    public UserCredentialsSupplier(final int userId)
+    {
+        this.userId = userId;
+    }
+
+    @Override
+    public byte[] encodedCredentials()
+    {
+        final byte[] credentials = new byte[MessageHeaderEncoder.ENCODED_LENGTH + UserCredentialsEncoder.BLOCK_LENGTH];
+        new UserCredentialsEncoder()
+            .wrapAndApplyHeader(new UnsafeBuffer(credentials), 0, new MessageHeaderEncoder())
+            .userId(userId);
+        return credentials;
+    }
+
+    @Override
+    public byte[] onChallenge(final byte[] encodedChallenge)
+    {
+        return NO_CREDENTIALS;
+    }
+}
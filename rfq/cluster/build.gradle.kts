@@ -23,6 +23,17 @@ repositories {
     mavenCentral()
 }
 
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+}
+
+val jmhImplementation by configurations.getting {
+    extendsFrom(configurations.implementation.get())
+}
+
 dependencies {
     checkstyle(libs.checkstyle)
     implementation(libs.agrona)
@@ -31,6 +42,8 @@ dependencies {
     implementation(libs.logback)
     implementation(project(":rfq:cluster-protocol"))
     testImplementation(libs.bundles.testing)
+    jmhImplementation(libs.jmhcore)
+    "jmhAnnotationProcessor"(libs.jmhannprocess)
 }
 
 testing {
@@ -62,6 +75,24 @@ tasks {
         jvmArgs("--add-opens=java.base/sun.nio.ch=ALL-UNNAMED")
     }
 
+    for (shard in 0..1) {
+        task("runShard${shard}Cluster", JavaExec::class) {
+            group = "run"
+            classpath = sourceSets.main.get().runtimeClasspath
+            mainClass.set("com.aeroncookbook.rfq.ClusterApp")
+            jvmArgs("--add-opens=java.base/sun.nio.ch=ALL-UNNAMED")
+            environment("RFQ_SHARD", "$shard")
+            environment("RFQ_SHARD_COUNT", "2")
+            environment("CLUSTER_PORT_BASE", "${9000 + shard * 100}")
+        }
+    }
+
+    task("runSnapshotBenchmarks", JavaExec::class) {
+        group = "benchmark"
+        classpath = sourceSets["jmh"].runtimeClasspath
+        mainClass.set("org.openjdk.jmh.Main")
+        args("SnapshotCompressionBenchmark")
+    }
 
     task ("uberJar", Jar::class) {
         group = "uber"
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.infra;
+
+import com.aeroncookbook.cluster.rfq.sbe.Side;
+import com.aeroncookbook.rfq.domain.instrument.InstrumentAddType;
+import com.aeroncookbook.rfq.domain.instrument.Instruments;
+import com.aeroncookbook.rfq.domain.rfq.Rfq;
+import com.aeroncookbook.rfq.domain.rfq.Rfqs;
+import com.aeroncookbook.rfq.domain.users.UserClass;
+import com.aeroncookbook.rfq.domain.users.Users;
+import io.aeron.Aeron;
+import io.aeron.ExclusivePublication;
+import io.aeron.Image;
+import io.aeron.Subscription;
+import io.aeron.driver.MediaDriver;
+import io.aeron.driver.ThreadingMode;
+import io.aeron.logbuffer.Header;
+import org.agrona.CloseHelper;
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.YieldingIdleStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the time taken to write and to load a snapshot, with and without compression, and reports the bytes each
+ * snapshot takes on the stream, which is what the archive records. Each measurement writes or loads one whole
+ * snapshot of a book with the given numbers of instruments and RFQs, over IPC.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+public class SnapshotCompressionBenchmark
+{
+    private static final String CHANNEL = "aeron:ipc?term-length=64m";
+    private static final int STREAM_ID = 1;
+
+    /**
+     * The book snapshotted, shared by the write and load benchmarks of a compression setting
+     */
+    @State(Scope.Benchmark)
+    public static class Book
+    {
+        @Param({"NONE", "LZ4"})
+        public SnapshotCompression compression;
+
+        @Param({"50000"})
+        public int instrumentCount;
+
+        @Param({"100000"})
+        public int rfqCount;
+
+        private MediaDriver mediaDriver;
+        private Aeron aeron;
+        private Subscription subscription;
+        private ServiceState source;
+        private long snapshotBytes;
+
+        /**
+         * Starts a media driver and fills the book, with a third of the RFQs quoted and a third canceled
+         */
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            mediaDriver = MediaDriver.launchEmbedded(new MediaDriver.Context()
+                .threadingMode(ThreadingMode.SHARED)
+                .dirDeleteOnStart(true)
+                .dirDeleteOnShutdown(true));
+            aeron = Aeron.connect(new Aeron.Context().aeronDirectoryName(mediaDriver.aeronDirectoryName()));
+            subscription = aeron.addSubscription(CHANNEL, STREAM_ID);
+
+            source = new ServiceState(compression);
+            for (int i = 0; i < instrumentCount; i++)
+            {
+                source.instruments.addInstrument(InstrumentAddType.SNAPSHOT_LOAD, 0, cusip(i), i % 10 != 0, 100);
+            }
+            source.users.restoreUser(500, UserClass.TRADER, true, true);
+            source.users.restoreUser(501, UserClass.TRADER, true, true);
+            source.users.restoreUser(502, UserClass.MARKET_MAKER, true, true);
+            for (int rfqId = 1; rfqId <= rfqCount; rfqId++)
+            {
+                final Rfq rfq = new Rfq(rfqId, rfqId, Long.MAX_VALUE, 100 * (1 + rfqId % 50),
+                    rfqId % 2 == 0 ? Side.BUY : Side.SELL, cusip(rfqId % instrumentCount), 500 + rfqId % 2);
+                if (rfqId % 3 == 1)
+                {
+                    rfq.quote(502, 10_000 + rfqId % 100);
+                }
+                else if (rfqId % 3 == 2)
+                {
+                    rfq.cancel();
+                }
+                source.rfqs.restoreRfq(rfq);
+            }
+            source.rfqs.restoreLastRfqId(rfqCount);
+
+            final Image image = takeSnapshot();
+            drain(image);
+        }
+
+        /**
+         * Reports the length of the snapshot and stops the media driver
+         */
+        @TearDown(Level.Trial)
+        public void tearDown()
+        {
+            System.out.printf("%nsnapshot of %d instruments and %d RFQs, compression %s: %,d bytes%n",
+                instrumentCount, rfqCount, compression, snapshotBytes);
+            CloseHelper.quietCloseAll(subscription, aeron, mediaDriver);
+        }
+
+        ExclusivePublication addPublication()
+        {
+            return aeron.addExclusivePublication(CHANNEL, STREAM_ID);
+        }
+
+        Image image(final ExclusivePublication publication)
+        {
+            Image image = null;
+            while (null == image)
+            {
+                Thread.yield();
+                image = subscription.imageBySessionId(publication.sessionId());
+            }
+            return image;
+        }
+
+        Image takeSnapshot()
+        {
+            try (ExclusivePublication publication = addPublication())
+            {
+                final Image image = image(publication);
+                source.snapshotManager.takeSnapshot(publication);
+                snapshotBytes = publication.position();
+                return image;
+            }
+        }
+    }
+
+    /**
+     * A publication for one snapshot to be written to
+     */
+    @State(Scope.Thread)
+    public static class WriteTarget
+    {
+        private ExclusivePublication publication;
+        private Image image;
+
+        /**
+         * Adds the publication, and waits for its image so that the snapshot is not written before it is connected
+         *
+         * @param book the book to be written
+         */
+        @Setup(Level.Iteration)
+        public void setUp(final Book book)
+        {
+            publication = book.addPublication();
+            image = book.image(publication);
+        }
+
+        /**
+         * Closes the publication, consuming what was written so its buffers are released
+         */
+        @TearDown(Level.Iteration)
+        public void tearDown()
+        {
+            CloseHelper.quietClose(publication);
+            drain(image);
+        }
+    }
+
+    /**
+     * A written snapshot, and an empty service to load it into
+     */
+    @State(Scope.Thread)
+    public static class LoadTarget
+    {
+        private Image image;
+        private ServiceState target;
+
+        /**
+         * Writes the snapshot to be loaded
+         *
+         * @param book the book to be written
+         */
+        @Setup(Level.Iteration)
+        public void setUp(final Book book)
+        {
+            image = book.takeSnapshot();
+            target = new ServiceState(SnapshotCompression.NONE);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the book
+     *
+     * @param book   the book to write
+     * @param writer the publication to write to
+     */
+    @Benchmark
+    public void writeSnapshot(final Book book, final WriteTarget writer)
+    {
+        book.source.snapshotManager.takeSnapshot(writer.publication);
+    }
+
+    /**
+     * Loads a snapshot of the book, compressed or not as written
+     *
+     * @param loader the snapshot to load and the service to load it into
+     */
+    @Benchmark
+    public void loadSnapshot(final LoadTarget loader)
+    {
+        loader.target.snapshotManager.loadSnapshot(loader.image);
+    }
+
+    private static void drain(final Image image)
+    {
+        while (!image.isEndOfStream())
+        {
+            image.poll(SnapshotCompressionBenchmark::discard, 1000);
+        }
+    }
+
+    private static void discard(final DirectBuffer buffer, final int offset, final int length, final Header header)
+    {
+    }
+
+    private static String cusip(final int index)
+    {
+        return String.format("%09d", index);
+    }
+
+    private static final class ServiceState
+    {
+        final ClientSessions clientSessions = new ClientSessions(RateLimits.defaults());
+        final SessionMessageContextImpl context = new SessionMessageContextImpl(clientSessions);
+        final ProcessedRequests processedRequests = new ProcessedRequests();
+        final DropCopyPublisher dropCopyPublisher =
+            new DropCopyPublisher(DropCopyPublisher.DEFAULT_CHANNEL, DropCopyPublisher.DEFAULT_STREAM_ID);
+        final ClusterClientResponderImpl responder =
+            new ClusterClientResponderImpl(context, processedRequests, dropCopyPublisher);
+        final TimerManager timerManager = new TimerManager(context);
+        final Instruments instruments = new Instruments(responder);
+        final Users users = new Users(context, instruments, responder);
+        final Rfqs rfqs = new Rfqs(context, instruments, users, responder, timerManager, Partitions.SINGLE);
+        final SnapshotManager snapshotManager;
+
+        ServiceState(final SnapshotCompression compression)
+        {
+            snapshotManager = new SnapshotManager(instruments, users, rfqs, timerManager, responder, processedRequests,
+                clientSessions, dropCopyPublisher, Partitions.SINGLE, SnapshotCompaction.FULL_ONLY, compression);
+            snapshotManager.setIdleStrategy(new YieldingIdleStrategy());
+        }
+    }
+}
@@ -17,16 +17,28 @@
 package com.aeroncookbook.rfq;
 
 import com.aeroncookbook.rfq.infra.AppClusteredService;
+import com.aeroncookbook.rfq.infra.DropCopyPublisher;
+import com.aeroncookbook.rfq.infra.Partitions;
+import com.aeroncookbook.rfq.infra.PerformanceProfile;
+import com.aeroncookbook.rfq.infra.RateLimits;
+import com.aeroncookbook.rfq.infra.SnapshotCompaction;
+import com.aeroncookbook.rfq.infra.SnapshotCompression;
+import com.aeroncookbook.rfq.infra.UserAuthenticator;
+import io.aeron.archive.Archive;
 import io.aeron.cluster.ClusteredMediaDriver;
+import io.aeron.cluster.ConsensusModule;
 import io.aeron.cluster.service.ClusteredServiceContainer;
 import io.aeron.samples.cluster.ClusterConfig;
+import org.agrona.CloseHelper;
 import org.agrona.concurrent.ShutdownSignalBarrier;
 import org.agrona.concurrent.SystemEpochClock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -50,29 +62,124 @@ public class ClusterApp
         final int nodeId = getClusterNode();
         final String hosts = getClusterAddresses();
 
+        final RateLimits rateLimits = RateLimits.fromEnvironment();
+        LOGGER.info("Ingress rate limits {}", rateLimits);
+        final SnapshotCompaction compaction = SnapshotCompaction.fromEnvironment();
+        final SnapshotCompression compression = SnapshotCompression.fromEnvironment();
+        LOGGER.info("Snapshots: {}, compression {}", compaction, compression);
+
         final List<String> hostAddresses = List.of(hosts.split(","));
+        final int partitionCount = Partitions.partitionCountFromEnvironment();
+        final DropCopyPublisher dropCopyPublisher = DropCopyPublisher.fromEnvironment();
+        final Partitions coordinator = new Partitions(Partitions.shardFromEnvironment(),
+            Partitions.shardCountFromEnvironment(), Partitions.COORDINATOR, partitionCount);
         final ClusterConfig clusterConfig = ClusterConfig.create(nodeId, hostAddresses, hostAddresses, portBase,
-            new AppClusteredService());
+            new AppClusteredService(rateLimits, dropCopyPublisher, coordinator, compaction, compression));
         clusterConfig.consensusModuleContext().ingressChannel("aeron:udp");
+        clusterConfig.consensusModuleContext().authenticatorSupplier(UserAuthenticator::new);
+        clusterConfig.consensusModuleContext().serviceCount(partitionCount);
 
         //this may need tuning for your environment.
-        clusterConfig.consensusModuleContext().leaderHeartbeatTimeoutNs(TimeUnit.SECONDS.toNanos(3));
+        final PerformanceProfile performanceProfile = PerformanceProfile.fromEnvironment();
+        performanceProfile.validate(partitionCount, Runtime.getRuntime().availableProcessors());
+        performanceProfile.apply(clusterConfig);
+        LOGGER.info("Performance profile {}, leader heartbeat timeout {}ms", performanceProfile,
+            TimeUnit.NANOSECONDS.toMillis(clusterConfig.consensusModuleContext().leaderHeartbeatTimeoutNs()));
         clusterConfig.errorHandler(Throwable::printStackTrace);
+        if (coordinator.shardCount() > 1)
+        {
+            useShardDirectories(clusterConfig, coordinator.shard());
+        }
+
+        final List<ClusteredServiceContainer.Context> serviceContexts =
+            serviceContexts(clusterConfig, rateLimits, dropCopyPublisher, coordinator, compaction, compression);
 
         awaitDnsResolution(hostAddresses, nodeId);
 
         try (
-            ClusteredMediaDriver ignored = ClusteredMediaDriver.launch(
+            ClusteredMediaDriver clusteredMediaDriver = ClusteredMediaDriver.launch(
                 clusterConfig.mediaDriverContext(),
                 clusterConfig.archiveContext(),
-                clusterConfig.consensusModuleContext());
-            ClusteredServiceContainer ignored1 = ClusteredServiceContainer.launch(
-                clusterConfig.clusteredServiceContext()))
+                clusterConfig.consensusModuleContext()))
+        {
+            performanceProfile.report(clusteredMediaDriver);
+            final List<ClusteredServiceContainer> containers = new ArrayList<>(partitionCount);
+            try
+            {
+                for (final ClusteredServiceContainer.Context serviceContext : serviceContexts)
+                {
+                    containers.add(ClusteredServiceContainer.launch(serviceContext));
+                }
+                LOGGER.info("Started Cluster Node with {} RFQ partitions, shard {} of {}...", partitionCount,
+                    coordinator.shard(), coordinator.shardCount());
+                barrier.await();
+                LOGGER.info("Exiting");
+            }
+            finally
+            {
+                CloseHelper.closeAll(containers);
+            }
+        }
+    }
+
+    /**
+     * Creates the contexts of the clustered services, one per partition of the RFQ book. The first is the one
+     * created by the cluster config; the others are copies with their own service id, archive client and service.
+     * @param clusterConfig the cluster config holding the first service context
+     * @param rateLimits the ingress rate limits
+     * @param dropCopyPublisher the drop copy publisher of the first partition
+     * @param coordinator the partitions of the first service
+     * @param compaction the snapshot compaction settings
+     * @param compression the snapshot compression
+     * @return the service contexts, in service id order
+     */
+    private static List<ClusteredServiceContainer.Context> serviceContexts(
+        final ClusterConfig clusterConfig,
+        final RateLimits rateLimits,
+        final DropCopyPublisher dropCopyPublisher,
+        final Partitions coordinator,
+        final SnapshotCompaction compaction,
+        final SnapshotCompression compression)
+    {
+        final int partitionCount = coordinator.partitionCount();
+        final ClusteredServiceContainer.Context first = clusterConfig.clusteredServiceContext();
+        final List<ClusteredServiceContainer.Context> contexts = new ArrayList<>(partitionCount);
+        contexts.add(first);
+        for (int partition = 1; partition < partitionCount; partition++)
         {
-            LOGGER.info("Started Cluster Node...");
-            barrier.await();
-            LOGGER.info("Exiting");
+            contexts.add(first.clone()
+                .serviceId(partition)
+                .archiveContext(first.archiveContext().clone())
+                .clusteredService(new AppClusteredService(rateLimits, dropCopyPublisher.forPartition(partition),
+                    coordinator.withPartition(partition), compaction, compression)));
         }
+        return contexts;
+    }
+
+    /**
+     * Gives the shard its own media driver, archive and cluster directories, so several shards can run on one host,
+     * each on its own CLUSTER_PORT_BASE.
+     * @param clusterConfig the cluster config, before the service contexts are copied from it
+     * @param shard the shard of the cluster
+     */
+    private static void useShardDirectories(final ClusterConfig clusterConfig, final int shard)
+    {
+        final String suffix = "-shard" + shard;
+        final String aeronDirectoryName = clusterConfig.mediaDriverContext().aeronDirectoryName() + suffix;
+        final ConsensusModule.Context consensusModuleContext = clusterConfig.consensusModuleContext();
+        final File clusterDir = new File((null != consensusModuleContext.clusterDir() ?
+            consensusModuleContext.clusterDir().getPath() : consensusModuleContext.clusterDirectoryName()) + suffix);
+        final Archive.Context archiveContext = clusterConfig.archiveContext();
+        final File archiveDir = new File((null != archiveContext.archiveDir() ?
+            archiveContext.archiveDir().getPath() : archiveContext.archiveDirectoryName()) + suffix);
+
+        clusterConfig.mediaDriverContext().aeronDirectoryName(aeronDirectoryName);
+        archiveContext.aeronDirectoryName(aeronDirectoryName).archiveDir(archiveDir);
+        clusterConfig.aeronArchiveContext().aeronDirectoryName(aeronDirectoryName);
+        consensusModuleContext.aeronDirectoryName(aeronDirectoryName).clusterDir(clusterDir);
+        consensusModuleContext.archiveContext().aeronDirectoryName(aeronDirectoryName);
+        clusterConfig.clusteredServiceContext().aeronDirectoryName(aeronDirectoryName).clusterDir(clusterDir);
+        clusterConfig.clusteredServiceContext().archiveContext().aeronDirectoryName(aeronDirectoryName);
     }
 
     /**
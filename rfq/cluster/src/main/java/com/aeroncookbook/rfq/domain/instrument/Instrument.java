@@ -18,17 +18,30 @@ package com.aeroncookbook.rfq.domain.instrument;
 
 public class Instrument
 {
+    private final int instrumentId;
     private final String cusip;
     private final int minSize;
     private boolean enabled;
 
-    public Instrument(final String cusip, final boolean enabled, final int minSize)
+    public Instrument(final int instrumentId, final String cusip, final boolean enabled, final int minSize)
     {
+        this.instrumentId = instrumentId;
         this.cusip = cusip;
         this.enabled = enabled;
         this.minSize = minSize;
     }
 
+    /**
+     * Gets the dense id of the instrument, used to index user entitlement bitsets. Ids are assigned in order of
+     * addition on each node and are not part of the protocol.
+     *
+     * @return the instrument id
+     */
+    public int getInstrumentId()
+    {
+        return instrumentId;
+    }
+
     public String getCusip()
     {
         return cusip;
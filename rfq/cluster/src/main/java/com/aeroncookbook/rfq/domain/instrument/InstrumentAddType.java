@@ -19,5 +19,6 @@ package com.aeroncookbook.rfq.domain.instrument;
 public enum InstrumentAddType
 {
     INTERACTIVE,
+    BULK,
     SNAPSHOT_LOAD
 }
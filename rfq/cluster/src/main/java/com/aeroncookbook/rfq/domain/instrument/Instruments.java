@@ -16,21 +16,44 @@
 
 package com.aeroncookbook.rfq.domain.instrument;
 
+import com.aeroncookbook.cluster.rfq.Cusips;
+import com.aeroncookbook.rfq.infra.ChangeSet;
 import com.aeroncookbook.rfq.infra.ClusterClientResponder;
-import org.agrona.collections.Object2ObjectHashMap;
+import org.agrona.collections.Hashing;
+import org.agrona.collections.Long2ObjectHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
- * The instrument domain model.
+ * The instrument domain model. Instruments are found by their cusip packed into a long (see {@link Cusips}), so
+ * commands can look one up from the cusip of a message without decoding it into a string.
  */
 public class Instruments
 {
+    /**
+     * Instrument id returned for an unknown cusip
+     */
+    public static final int UNKNOWN_INSTRUMENT_ID = -1;
+
+    /**
+     * Maximum number of instruments in one page of an instrument list
+     */
+    public static final int MAX_LIST_INSTRUMENTS = 400;
+
     private static final int DEFAULT_MIN_VALUE = 0;
+    //packs of cusips are never negative, so this finds no instrument
+    private static final long NO_CUSIP = -1;
     private static final Logger LOGGER = LoggerFactory.getLogger(Instruments.class);
     private final ClusterClientResponder clusterClientResponder;
 
-    private final Object2ObjectHashMap<String, Instrument> instrumentByCusip = new Object2ObjectHashMap<>();
+    private final ArrayList<Instrument> instrumentById = new ArrayList<>();
+    private final ChangeSet changedInstrumentIds = new ChangeSet();
+    private Long2ObjectHashMap<Instrument> instrumentByCusip = new Long2ObjectHashMap<>();
+    private final List<Instrument> listPage = new ArrayList<>(MAX_LIST_INSTRUMENTS);
+    private int presizedCount = 0;
 
     /**
      * Constructor for instrument domain model object.
@@ -53,21 +76,78 @@ public class Instruments
      */
     public void addInstrument(
         final InstrumentAddType addType,
-        final String correlation,
+        final long correlation,
         final String cusip,
         final boolean enabled,
         final int minSize)
     {
-        final Instrument instrument = new Instrument(cusip, enabled, minSize);
-        instrumentByCusip.put(cusip, instrument);
+        final long packedCusip = pack(cusip);
+        final Instrument existing = instrumentByCusip.get(packedCusip);
+        final int instrumentId = existing != null ? existing.getInstrumentId() : instrumentByCusip.size();
+        final Instrument instrument = new Instrument(instrumentId, cusip, enabled, minSize);
+        instrumentByCusip.put(packedCusip, instrument);
+        if (existing != null)
+        {
+            instrumentById.set(instrumentId, instrument);
+        }
+        else
+        {
+            instrumentById.add(instrument);
+        }
 
+        if (addType != InstrumentAddType.SNAPSHOT_LOAD)
+        {
+            changedInstrumentIds.add(instrumentId);
+        }
         if (addType == InstrumentAddType.INTERACTIVE)
         {
             LOGGER.info("Added instrument {} to domain model", cusip);
             clusterClientResponder.sendInstrumentAdded(correlation);
+            clusterClientResponder.broadcastInstrumentUpdated(instrument);
+        }
+        else if (addType == InstrumentAddType.BULK)
+        {
+            clusterClientResponder.broadcastInstrumentUpdated(instrument);
         }
     }
 
+    /**
+     * Prepares for a bulk add, growing the indexes once up front so that adding many instruments does not rehash
+     * the cusip map repeatedly. The cusip map at least doubles when it grows, so a load sent as many small batches
+     * copies it a logarithmic number of times rather than once per batch.
+     *
+     * @param count the number of instruments about to be added
+     */
+    public void ensureCapacity(final int count)
+    {
+        final int required = instrumentByCusip.size() + count;
+        instrumentById.ensureCapacity(required);
+        if (required > presizedCount)
+        {
+            presizedCount = Math.max(required, presizedCount * 2);
+            final Long2ObjectHashMap<Instrument> presized =
+                new Long2ObjectHashMap<>(presizedCount * 2, Hashing.DEFAULT_LOAD_FACTOR);
+            for (final Instrument instrument : instrumentById)
+            {
+                presized.put(pack(instrument.getCusip()), instrument);
+            }
+            instrumentByCusip = presized;
+        }
+    }
+
+    /**
+     * Completes a bulk add of instruments, each added with {@link InstrumentAddType#BULK}, sending a single
+     * confirm for the batch.
+     *
+     * @param correlation the correlation id of the request
+     * @param count       the number of instruments added
+     */
+    public void completeBulkAdd(final long correlation, final int count)
+    {
+        LOGGER.info("Added {} instruments to domain model, {} held", count, instrumentByCusip.size());
+        clusterClientResponder.sendInstrumentsAdded(correlation, count);
+    }
+
     /**
      * Sets the enabled flag for an instrument.
      *
@@ -75,14 +155,28 @@ public class Instruments
      * @param cusip   the cusip of the instrument
      * @param enabled the enabled flag of the instrument
      */
-    public void setEnabledFlagForCusip(final String correlation, final String cusip, final boolean enabled)
+    public void setEnabledFlagForCusip(final long correlation, final String cusip, final boolean enabled)
     {
-        final Instrument instrument = instrumentByCusip.get(cusip);
+        setEnabledFlagForCusip(correlation, pack(cusip), enabled);
+    }
+
+    /**
+     * Sets the enabled flag for an instrument.
+     *
+     * @param correlation the correlation id of the request
+     * @param packedCusip the cusip of the instrument, packed
+     * @param enabled     the enabled flag of the instrument
+     */
+    public void setEnabledFlagForCusip(final long correlation, final long packedCusip, final boolean enabled)
+    {
+        final Instrument instrument = instrumentByCusip.get(packedCusip);
         if (instrument != null)
         {
             instrument.setEnabled(enabled);
-            LOGGER.info("Set enabled flag for instrument {} to {}", cusip, enabled);
+            changedInstrumentIds.add(instrument.getInstrumentId());
+            LOGGER.info("Set enabled flag for instrument {} to {}", instrument.getCusip(), enabled);
             clusterClientResponder.sendInstrumentEnabledFlagSet(correlation, true);
+            clusterClientResponder.broadcastInstrumentUpdated(instrument);
         }
         else
         {
@@ -98,7 +192,7 @@ public class Instruments
      */
     public boolean isInstrumentEnabled(final String cusip)
     {
-        final Instrument instrument = instrumentByCusip.get(cusip);
+        final Instrument instrument = instrumentByCusip.get(pack(cusip));
         if (instrument == null)
         {
             return false;
@@ -114,7 +208,49 @@ public class Instruments
      */
     public boolean isValidCusip(final String cusip)
     {
-        return instrumentByCusip.containsKey(cusip);
+        return instrumentByCusip.containsKey(pack(cusip));
+    }
+
+    /**
+     * Returns the dense id of an instrument, used to index user entitlements.
+     *
+     * @param cusip the cusip of the instrument
+     * @return the instrument id, or UNKNOWN_INSTRUMENT_ID if the instrument is unknown
+     */
+    public int getInstrumentId(final String cusip)
+    {
+        return getInstrumentId(pack(cusip));
+    }
+
+    /**
+     * Returns the dense id of an instrument, used to index user entitlements.
+     *
+     * @param packedCusip the cusip of the instrument, packed
+     * @return the instrument id, or UNKNOWN_INSTRUMENT_ID if the instrument is unknown
+     */
+    public int getInstrumentId(final long packedCusip)
+    {
+        final Instrument instrument = instrumentByCusip.get(packedCusip);
+        if (instrument == null)
+        {
+            return UNKNOWN_INSTRUMENT_ID;
+        }
+        return instrument.getInstrumentId();
+    }
+
+    /**
+     * Returns the instrument with a given id.
+     *
+     * @param instrumentId the id of the instrument
+     * @return the instrument, or null if the id is unknown
+     */
+    public Instrument getInstrument(final int instrumentId)
+    {
+        if (instrumentId < 0 || instrumentId >= instrumentById.size())
+        {
+            return null;
+        }
+        return instrumentById.get(instrumentId);
     }
 
     /**
@@ -125,7 +261,7 @@ public class Instruments
      */
     public int getMinSize(final String cusip)
     {
-        final Instrument instrument = instrumentByCusip.get(cusip);
+        final Instrument instrument = instrumentByCusip.get(pack(cusip));
         if (instrument == null)
         {
             return DEFAULT_MIN_VALUE;
@@ -144,12 +280,45 @@ public class Instruments
     }
 
     /**
-     * Emits a list of instruments to the session.
+     * Emits a page of the instruments to the session, in instrument id order.
      *
-     * @param correlation the correlation id of the request
+     * @param correlation      the correlation id of the request
+     * @param fromInstrumentId the instrument id the page starts at, 0 for the first page
+     */
+    public void listInstruments(final long correlation, final int fromInstrumentId)
+    {
+        final int from = Math.max(0, fromInstrumentId);
+        final int to = Math.min(instrumentById.size(), from + MAX_LIST_INSTRUMENTS);
+        listPage.clear();
+        for (int instrumentId = from; instrumentId < to; instrumentId++)
+        {
+            listPage.add(instrumentById.get(instrumentId));
+        }
+        clusterClientResponder.sendInstruments(correlation, listPage, to < instrumentById.size() ? to : 0);
+    }
+
+    /**
+     * Returns all instruments held in the domain model, in instrument id order.
+     *
+     * @return the instruments, which must not be modified
+     */
+    public List<Instrument> getInstruments()
+    {
+        return instrumentById;
+    }
+
+    /**
+     * Returns the instruments added or changed since the last full snapshot, for a delta snapshot.
+     *
+     * @return the ids of the changed instruments
      */
-    public void listInstruments(final String correlation)
+    public ChangeSet getChangedInstrumentIds()
+    {
+        return changedInstrumentIds;
+    }
+
+    private static long pack(final String cusip)
     {
-        clusterClientResponder.sendInstruments(correlation, instrumentByCusip.values().stream().toList());
+        return cusip.length() > Cusips.CUSIP_LENGTH ? NO_CUSIP : Cusips.pack(cusip);
     }
 }
@@ -23,7 +23,7 @@ import com.aeroncookbook.rfq.domain.rfq.states.RfqStates;
 
 public class Rfq
 {
-    private final String correlation;
+    private final long correlation;
     private final long expireTimeMs;
     private final int rfqId;
     private final long quantity;
@@ -36,10 +36,11 @@ public class Rfq
     private int acceptUser = Integer.MIN_VALUE;
     private int rejectUser = Integer.MIN_VALUE;
     private long price = Long.MIN_VALUE;
+    private long expiryTimerId = Long.MIN_VALUE;
 
     public Rfq(
         final int rfqId,
-        final String correlation,
+        final long correlation,
         final long expireTimeMs,
         final long quantity,
         final Side requesterSide,
@@ -60,7 +61,7 @@ public class Rfq
      * Get the correlation id of the RFQ.
      * @return the correlation id from the creation
      */
-    public String getCorrelation()
+    public long getCorrelation()
     {
         return correlation;
     }
@@ -182,11 +183,82 @@ public class Rfq
         this.lastCounterUser = lastCounterUser;
     }
 
+    /**
+     * Get the user id of the user that accepted the RFQ.
+     * @return the accepting user id, or Integer.MIN_VALUE if not accepted
+     */
+    public int getAcceptUser()
+    {
+        return acceptUser;
+    }
+
+    /**
+     * Get the user id of the user that rejected the RFQ.
+     * @return the rejecting user id, or Integer.MIN_VALUE if not rejected
+     */
+    public int getRejectUser()
+    {
+        return rejectUser;
+    }
+
+    /**
+     * Check if the RFQ is still open, i.e. it has not reached a terminal state.
+     * @return true if the RFQ is created, quoted or countered
+     */
+    public boolean isOpen()
+    {
+        final RfqStates state = currentState.getCurrentState();
+        return state == RfqStates.CREATED || state == RfqStates.QUOTED || state == RfqStates.COUNTERED;
+    }
+
+    /**
+     * Get the id of the timer which expires the RFQ.
+     * @return the cluster timer correlation id
+     */
+    public long getExpiryTimerId()
+    {
+        return expiryTimerId;
+    }
+
+    /**
+     * Set the id of the timer which expires the RFQ.
+     * @param expiryTimerId the cluster timer correlation id
+     */
+    public void setExpiryTimerId(final long expiryTimerId)
+    {
+        this.expiryTimerId = expiryTimerId;
+    }
+
+    /**
+     * Restore the mutable state of the RFQ from a snapshot.
+     * @param stateId the id of the current state
+     * @param responderUserId the responder user id
+     * @param lastCounterUser the last user to counter
+     * @param acceptUser the accepting user id
+     * @param rejectUser the rejecting user id
+     * @param price the current price
+     */
+    public void restore(
+        final short stateId,
+        final int responderUserId,
+        final int lastCounterUser,
+        final int acceptUser,
+        final int rejectUser,
+        final long price)
+    {
+        this.currentState = RfqStateHelper.getState(stateId);
+        this.responderUserId = responderUserId;
+        this.lastCounterUser = lastCounterUser;
+        this.acceptUser = acceptUser;
+        this.rejectUser = rejectUser;
+        this.price = price;
+    }
+
     @Override
     public String toString()
     {
         return "Rfq{" +
-            "correlation='" + correlation + '\'' +
+            "correlation=" + correlation +
             ", expireTimeMs=" + expireTimeMs +
             ", rfqId=" + rfqId +
             ", quantity=" + quantity +
@@ -16,6 +16,7 @@
 
 package com.aeroncookbook.rfq.domain.rfq;
 
+import com.aeroncookbook.cluster.rfq.Cusips;
 import com.aeroncookbook.cluster.rfq.sbe.AcceptRfqResult;
 import com.aeroncookbook.cluster.rfq.sbe.CounterRfqResult;
 import com.aeroncookbook.cluster.rfq.sbe.CreateRfqResult;
@@ -26,9 +27,14 @@ import com.aeroncookbook.cluster.rfq.sbe.Side;
 import com.aeroncookbook.rfq.domain.instrument.Instruments;
 import com.aeroncookbook.rfq.domain.rfq.states.RfqStates;
 import com.aeroncookbook.rfq.domain.users.Users;
+import com.aeroncookbook.rfq.infra.ChangeSet;
 import com.aeroncookbook.rfq.infra.ClusterClientResponder;
+import com.aeroncookbook.rfq.infra.Partitions;
 import com.aeroncookbook.rfq.infra.SessionMessageContextImpl;
 import com.aeroncookbook.rfq.infra.TimerManager;
+import org.agrona.collections.Int2IntHashMap;
+import org.agrona.collections.Int2ObjectHashMap;
+import org.agrona.collections.IntArrayList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,13 +43,37 @@ import java.util.List;
 
 public class Rfqs
 {
+    /**
+     * Maximum number of RFQs returned in one page of a query
+     */
+    public static final int MAX_QUERY_RESULTS = 100;
+
+    /**
+     * User id matching any user in a query
+     */
+    public static final int ANY_USER = 0;
+
+    /**
+     * Packed cusip matching any instrument in a query, that of an empty cusip
+     */
+    public static final long ANY_INSTRUMENT = 0;
+
     private static final Logger LOGGER = LoggerFactory.getLogger(Rfqs.class);
+    private static final int NOT_OPEN = -1;
     private final SessionMessageContextImpl context;
     private final Instruments instruments;
     private final Users users;
     private final ClusterClientResponder clusterClientResponder;
     private final TimerManager timerManager;
+    private final Partitions partitions;
     private final List<Rfq> rfqs = new ArrayList<>();
+    private final Int2ObjectHashMap<Rfq> rfqById = new Int2ObjectHashMap<>();
+    private final ChangeSet changedRfqIds = new ChangeSet();
+    private final Int2ObjectHashMap<IntArrayList> rfqIdsByUser = new Int2ObjectHashMap<>();
+    private final Int2ObjectHashMap<IntArrayList> rfqIdsByInstrument = new Int2ObjectHashMap<>();
+    private final List<Rfq> queryResults = new ArrayList<>(MAX_QUERY_RESULTS);
+    private final List<Rfq> openRfqs = new ArrayList<>();
+    private final Int2IntHashMap openPositionByRfqId = new Int2IntHashMap(NOT_OPEN);
     private int rfqId = 0;
 
     public Rfqs(
@@ -51,13 +81,15 @@ public class Rfqs
         final Instruments instruments,
         final Users users,
         final ClusterClientResponder clusterClientResponder,
-        final TimerManager timerManager)
+        final TimerManager timerManager,
+        final Partitions partitions)
     {
         this.context = context;
         this.instruments = instruments;
         this.users = users;
         this.clusterClientResponder = clusterClientResponder;
         this.timerManager = timerManager;
+        this.partitions = partitions;
     }
 
     /**
@@ -68,19 +100,19 @@ public class Rfqs
      * @param quantity the quantity of the RFQ
      * @param side the side of the RFQ
      * @param cusip the cusip of the instrument
-     * @param userId the user id of the user creating the RFQ
+     * @param userId the user the requesting session is authenticated as
      */
     public void createRfq(
-        final String correlation,
+        final long correlation,
         final long expireTimeMs,
         final long quantity,
         final Side side,
         final String cusip,
         final int userId)
     {
-        if (!users.isValidUser(userId))
+        if (!users.isEnabled(userId))
         {
-            LOGGER.info("Cannot create RFQ: Invalid user id {} for RFQ", userId);
+            LOGGER.info("Cannot create RFQ: user is not authenticated or is disabled");
             clusterClientResponder.createRfqConfirm(correlation, null, CreateRfqResult.UNKNOWN_USER);
             return;
         }
@@ -92,6 +124,13 @@ public class Rfqs
             return;
         }
 
+        if (!users.isEntitled(userId, instruments.getInstrumentId(cusip)))
+        {
+            LOGGER.info("Cannot create RFQ: user {} is not entitled to {}", userId, cusip);
+            clusterClientResponder.createRfqConfirm(correlation, null, CreateRfqResult.NOT_ENTITLED);
+            return;
+        }
+
         if (expireTimeMs <= context.getClusterTime())
         {
             LOGGER.info("Cannot create RFQ: RFQ expires in the past");
@@ -113,8 +152,10 @@ public class Rfqs
             return;
         }
 
-        final Rfq rfq = new Rfq(++rfqId, correlation, expireTimeMs, quantity, side, cusip, userId);
-        rfqs.add(rfq);
+        rfqId = partitions.nextRfqId(rfqId);
+        final Rfq rfq = new Rfq(rfqId, correlation, expireTimeMs, quantity, side, cusip, userId);
+        addRfq(rfq);
+        changedRfqIds.add(rfqId);
         LOGGER.info("Created RFQ {}", rfq);
 
         //send a confirmation to the client that created the RFQ
@@ -124,12 +165,328 @@ public class Rfqs
         clusterClientResponder.broadcastNewRfq(rfq);
 
         //schedule the RFQ to expire
-        timerManager.scheduleTimer(rfq.getExpireTimeMs(), () -> expireRfq(rfq.getRfqId()));
+        rfq.setExpiryTimerId(timerManager.scheduleTimer(rfq.getExpireTimeMs(), () -> expireRfq(rfq.getRfqId())));
+    }
+
+    /**
+     * Returns all RFQs, including those in a terminal state.
+     *
+     * @return the RFQs in creation order
+     */
+    public List<Rfq> getRfqs()
+    {
+        return rfqs;
+    }
+
+    /**
+     * Returns the RFQs not yet in a terminal state, in no particular order. Kept as RFQs change state, so that book
+     * snapshots do not walk every RFQ ever created.
+     *
+     * @return the open RFQs
+     */
+    public List<Rfq> getOpenRfqs()
+    {
+        return openRfqs;
+    }
+
+    /**
+     * Returns the id assigned to the most recently created RFQ of this partition.
+     *
+     * @return the last RFQ id
+     */
+    public int getLastRfqId()
+    {
+        return rfqId;
+    }
+
+    /**
+     * Restores the last RFQ id from a snapshot, so that new RFQs continue the sequence.
+     *
+     * @param lastRfqId the last RFQ id
+     */
+    public void restoreLastRfqId(final int lastRfqId)
+    {
+        this.rfqId = lastRfqId;
+    }
+
+    /**
+     * Returns the RFQs created or changed since the last full snapshot, for a delta snapshot.
+     *
+     * @return the ids of the changed RFQs
+     */
+    public ChangeSet getChangedRfqIds()
+    {
+        return changedRfqIds;
+    }
+
+    /**
+     * Returns an RFQ by id.
+     *
+     * @param rfqId the RFQ id
+     * @return the RFQ, or null if unknown
+     */
+    public Rfq getRfq(final int rfqId)
+    {
+        return rfqById.get(rfqId);
+    }
+
+    /**
+     * Restores an RFQ from a snapshot. The expiry timer of an open RFQ is still held by the cluster, so only the
+     * task it runs is restored. An RFQ already restored from a full snapshot is replaced by its state in a delta.
+     *
+     * @param rfq the restored RFQ
+     */
+    public void restoreRfq(final Rfq rfq)
+    {
+        final Rfq existing = rfqById.get(rfq.getRfqId());
+        if (null != existing)
+        {
+            replaceRfq(existing, rfq);
+            return;
+        }
+
+        addRfq(rfq);
+        if (rfq.hasResponder())
+        {
+            index(rfqIdsByUser, rfq.getResponderUserId(), rfq.getRfqId());
+        }
+        if (rfq.canExpire())
+        {
+            final int restoredRfqId = rfq.getRfqId();
+            timerManager.restoreTimer(rfq.getExpiryTimerId(), () -> expireRfq(restoredRfqId));
+        }
+    }
+
+    /**
+     * Sends the current instruments and open RFQs to the caller, so that a client side book can be
+     * (re)built from the broadcast sequence at which the snapshot was taken.
+     *
+     * @param correlation the correlation id
+     */
+    public void sendBookSnapshot(final long correlation)
+    {
+        clusterClientResponder.sendRfqBookSnapshot(correlation, instruments.getInstruments(), openRfqs);
+    }
+
+    /**
+     * Sends a page of the RFQs matching a query, in RFQ id order. Each filter narrows the query, and the query is
+     * served from the smaller of the per-user and per-instrument indexes where either filter is given.
+     *
+     * @param correlation the correlation id
+     * @param userId      the requester or responder of the RFQs, or ANY_USER
+     * @param packedCusip the packed cusip of the instrument of the RFQs, or ANY_INSTRUMENT
+     * @param state       the current state of the RFQs, or null for any
+     * @param afterRfqId  the RFQ id the page starts after, 0 for the first page
+     * @param limit       the maximum number of RFQs in the page, capped at MAX_QUERY_RESULTS
+     */
+    public void listRfqs(
+        final long correlation,
+        final int userId,
+        final long packedCusip,
+        final RfqStates state,
+        final int afterRfqId,
+        final int limit)
+    {
+        final int pageSize = Math.max(1, Math.min(limit, MAX_QUERY_RESULTS));
+        final boolean anyInstrument = packedCusip == ANY_INSTRUMENT;
+        IntArrayList candidates = null;
+        if (userId != ANY_USER)
+        {
+            candidates = rfqIdsByUser.get(userId);
+        }
+        if (!anyInstrument && (userId == ANY_USER || null != candidates))
+        {
+            final IntArrayList byInstrument = rfqIdsByInstrument.get(instruments.getInstrumentId(packedCusip));
+            if (null == byInstrument || null == candidates || byInstrument.size() < candidates.size())
+            {
+                candidates = byInstrument;
+            }
+        }
+
+        queryResults.clear();
+        int nextAfterRfqId = 0;
+        if (userId == ANY_USER && anyInstrument)
+        {
+            for (int i = firstAfter(rfqs, afterRfqId), size = rfqs.size(); i < size; i++)
+            {
+                final Rfq rfq = rfqs.get(i);
+                if (null == state || rfq.getCurrentState().getCurrentState() == state)
+                {
+                    if (queryResults.size() == pageSize)
+                    {
+                        nextAfterRfqId = queryResults.get(pageSize - 1).getRfqId();
+                        break;
+                    }
+                    queryResults.add(rfq);
+                }
+            }
+        }
+        else if (null != candidates)
+        {
+            for (int i = firstAfter(candidates, afterRfqId), size = candidates.size(); i < size; i++)
+            {
+                final Rfq rfq = rfqById.get(candidates.getInt(i));
+                if (matches(rfq, userId, packedCusip, state))
+                {
+                    if (queryResults.size() == pageSize)
+                    {
+                        nextAfterRfqId = queryResults.get(pageSize - 1).getRfqId();
+                        break;
+                    }
+                    queryResults.add(rfq);
+                }
+            }
+        }
+
+        clusterClientResponder.sendRfqs(correlation, queryResults, nextAfterRfqId);
+    }
+
+    //rfqs is in id order, as ids are assigned in creation order, so the RFQ replaced is found by binary search
+    private void replaceRfq(final Rfq existing, final Rfq rfq)
+    {
+        int low = 0;
+        int high = rfqs.size() - 1;
+        while (low <= high)
+        {
+            final int middle = (low + high) >>> 1;
+            final int middleRfqId = rfqs.get(middle).getRfqId();
+            if (middleRfqId < rfq.getRfqId())
+            {
+                low = middle + 1;
+            }
+            else if (middleRfqId > rfq.getRfqId())
+            {
+                high = middle - 1;
+            }
+            else
+            {
+                rfqs.set(middle, rfq);
+                break;
+            }
+        }
+        rfqById.put(rfq.getRfqId(), rfq);
+        final int openPosition = openPositionByRfqId.get(rfq.getRfqId());
+        if (NOT_OPEN != openPosition && rfq.isOpen())
+        {
+            openRfqs.set(openPosition, rfq);
+        }
+        else
+        {
+            updateOpen(rfq);
+        }
+        if (rfq.hasResponder())
+        {
+            index(rfqIdsByUser, rfq.getResponderUserId(), rfq.getRfqId());
+        }
+        if (existing.canExpire() && !rfq.canExpire())
+        {
+            timerManager.discardTimer(existing.getExpiryTimerId());
+        }
+    }
+
+    private void addRfq(final Rfq rfq)
+    {
+        rfqs.add(rfq);
+        rfqById.put(rfq.getRfqId(), rfq);
+        updateOpen(rfq);
+        index(rfqIdsByUser, rfq.getRequesterUserId(), rfq.getRfqId());
+        index(rfqIdsByInstrument, instruments.getInstrumentId(rfq.getCusip()), rfq.getRfqId());
+    }
+
+    //adds an RFQ to the open RFQs, or removes it once terminal, moving the last open RFQ into its place
+    private void updateOpen(final Rfq rfq)
+    {
+        final int position = openPositionByRfqId.get(rfq.getRfqId());
+        if (rfq.isOpen())
+        {
+            if (NOT_OPEN == position)
+            {
+                openPositionByRfqId.put(rfq.getRfqId(), openRfqs.size());
+                openRfqs.add(rfq);
+            }
+        }
+        else if (NOT_OPEN != position)
+        {
+            openPositionByRfqId.remove(rfq.getRfqId());
+            final Rfq last = openRfqs.remove(openRfqs.size() - 1);
+            if (last != rfq)
+            {
+                openRfqs.set(position, last);
+                openPositionByRfqId.put(last.getRfqId(), position);
+            }
+        }
+    }
+
+    //keeps each index entry in id order; ids are mostly added in order, so the insertion point is found from the end
+    private static void index(final Int2ObjectHashMap<IntArrayList> index, final int key, final int rfqId)
+    {
+        IntArrayList rfqIds = index.get(key);
+        if (null == rfqIds)
+        {
+            rfqIds = new IntArrayList();
+            index.put(key, rfqIds);
+        }
+
+        int position = rfqIds.size();
+        while (position > 0 && rfqIds.getInt(position - 1) >= rfqId)
+        {
+            if (rfqIds.getInt(position - 1) == rfqId)
+            {
+                return;
+            }
+            position--;
+        }
+        rfqIds.addInt(position, rfqId);
+    }
+
+    private static int firstAfter(final IntArrayList rfqIds, final int afterRfqId)
+    {
+        int low = 0;
+        int high = rfqIds.size();
+        while (low < high)
+        {
+            final int mid = (low + high) >>> 1;
+            if (rfqIds.getInt(mid) <= afterRfqId)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int firstAfter(final List<Rfq> rfqsInIdOrder, final int afterRfqId)
+    {
+        int low = 0;
+        int high = rfqsInIdOrder.size();
+        while (low < high)
+        {
+            final int mid = (low + high) >>> 1;
+            if (rfqsInIdOrder.get(mid).getRfqId() <= afterRfqId)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static boolean matches(final Rfq rfq, final int userId, final long packedCusip, final RfqStates state)
+    {
+        return (userId == ANY_USER || rfq.getRequesterUserId() == userId || rfq.getResponderUserId() == userId) &&
+            (packedCusip == ANY_INSTRUMENT || packedCusip == Cusips.pack(rfq.getCusip())) &&
+            (null == state || rfq.getCurrentState().getCurrentState() == state);
     }
 
     private void expireRfq(final int rfqId)
     {
-        final Rfq rfq = rfqs.stream().filter(r -> r.getRfqId() == rfqId).findFirst().orElse(null);
+        final Rfq rfq = rfqById.get(rfqId);
         if (rfq == null)
         {
             LOGGER.info("Cannot expire RFQ: RFQ {} not found", rfqId);
@@ -143,6 +500,8 @@ public class Rfqs
         }
 
         rfq.expire();
+        updateOpen(rfq);
+        changedRfqIds.add(rfqId);
         LOGGER.info("Expired RFQ {}", rfq);
         clusterClientResponder.broadcastRfqExpired(rfq);
     }
@@ -154,9 +513,9 @@ public class Rfqs
      * @param rfqId the id of the RFQ to cancel
      * @param cancelUserId the user id of the user cancelling the RFQ
      */
-    public void cancelRfq(final String correlation, final int rfqId, final int cancelUserId)
+    public void cancelRfq(final long correlation, final int rfqId, final int cancelUserId)
     {
-        final Rfq rfq = rfqs.stream().filter(r -> r.getRfqId() == rfqId).findFirst().orElse(null);
+        final Rfq rfq = rfqById.get(rfqId);
         if (rfq == null)
         {
             LOGGER.info("Cannot cancel RFQ: RFQ {} not found", rfqId);
@@ -180,21 +539,23 @@ public class Rfqs
         }
 
         rfq.cancel();
+        updateOpen(rfq);
+        changedRfqIds.add(rfqId);
         LOGGER.info("Cancelled RFQ {}", rfq);
         clusterClientResponder.cancelRfqConfirm(correlation, rfq, CancelRfqResult.SUCCESS);
         clusterClientResponder.broadcastRfqCanceled(rfq);
     }
 
-    public void quoteRfq(final String correlation, final int rfqId, final int responderUserId, final long price)
+    public void quoteRfq(final long correlation, final int rfqId, final int responderUserId, final long price)
     {
-        if (!users.isValidUser(responderUserId))
+        if (!users.isEnabled(responderUserId))
         {
-            LOGGER.info("Cannot quote RFQ: Invalid user id {} for RFQ", responderUserId);
+            LOGGER.info("Cannot quote RFQ: user is not authenticated or is disabled");
             clusterClientResponder.quoteRfqConfirm(correlation, null, QuoteRfqResult.UNKNOWN_USER);
             return;
         }
 
-        final Rfq rfq = rfqs.stream().filter(r -> r.getRfqId() == rfqId).findFirst().orElse(null);
+        final Rfq rfq = rfqById.get(rfqId);
         if (rfq == null)
         {
             LOGGER.info("Cannot cancel RFQ: RFQ {} not found", rfqId);
@@ -216,6 +577,13 @@ public class Rfqs
             return;
         }
 
+        if (!users.isEntitled(responderUserId, instruments.getInstrumentId(rfq.getCusip())))
+        {
+            LOGGER.info("Cannot quote RFQ: user {} is not entitled to {}", responderUserId, rfq.getCusip());
+            clusterClientResponder.quoteRfqConfirm(correlation, null, QuoteRfqResult.NOT_ENTITLED);
+            return;
+        }
+
         if (!rfq.canQuote())
         {
             LOGGER.info("Cannot quote RFQ: RFQ {} invalid transition", rfqId);
@@ -224,22 +592,24 @@ public class Rfqs
         }
 
         rfq.quote(responderUserId, price);
+        changedRfqIds.add(rfqId);
+        index(rfqIdsByUser, responderUserId, rfqId);
         LOGGER.info("Quoted RFQ {}", rfq);
         clusterClientResponder.quoteRfqConfirm(correlation, rfq, QuoteRfqResult.SUCCESS);
         clusterClientResponder.broadcastRfqQuoted(rfq);
     }
 
-    public void counterRfq(final String correlation, final int rfqId, final int counterUserId, final long price)
+    public void counterRfq(final long correlation, final int rfqId, final int counterUserId, final long price)
     {
 
-        if (!users.isValidUser(counterUserId))
+        if (!users.isEnabled(counterUserId))
         {
-            LOGGER.info("Cannot counter RFQ: Invalid user id {} for RFQ", counterUserId);
+            LOGGER.info("Cannot counter RFQ: user is not authenticated or is disabled");
             clusterClientResponder.counterRfqConfirm(correlation, null, CounterRfqResult.UNKNOWN_USER);
             return;
         }
 
-        final Rfq rfq = rfqs.stream().filter(r -> r.getRfqId() == rfqId).findFirst().orElse(null);
+        final Rfq rfq = rfqById.get(rfqId);
         if (rfq == null)
         {
             LOGGER.info("Cannot counter RFQ: RFQ {} not found", rfqId);
@@ -277,21 +647,22 @@ public class Rfqs
         }
 
         rfq.counter(counterUserId, price);
+        changedRfqIds.add(rfqId);
         LOGGER.info("Countered RFQ {}", rfq);
         clusterClientResponder.counterRfqConfirm(correlation, rfq, CounterRfqResult.SUCCESS);
         clusterClientResponder.broadcastRfqCountered(rfq);
     }
 
-    public void acceptRfq(final String correlation, final int rfqId, final int acceptUserId)
+    public void acceptRfq(final long correlation, final int rfqId, final int acceptUserId)
     {
-        if (!users.isValidUser(acceptUserId))
+        if (!users.isEnabled(acceptUserId))
         {
-            LOGGER.info("Cannot accept RFQ: Invalid user id {} for RFQ", acceptUserId);
+            LOGGER.info("Cannot accept RFQ: user is not authenticated or is disabled");
             clusterClientResponder.acceptRfqConfirm(correlation, null, AcceptRfqResult.UNKNOWN_USER);
             return;
         }
 
-        final Rfq rfq = rfqs.stream().filter(r -> r.getRfqId() == rfqId).findFirst().orElse(null);
+        final Rfq rfq = rfqById.get(rfqId);
         if (rfq == null)
         {
             LOGGER.info("Cannot accept RFQ: RFQ {} not found", rfqId);
@@ -322,21 +693,24 @@ public class Rfqs
         }
 
         rfq.accept(acceptUserId);
+        updateOpen(rfq);
+        changedRfqIds.add(rfqId);
         LOGGER.info("Accepted RFQ {}", rfq);
         clusterClientResponder.acceptRfqConfirm(correlation, rfq, AcceptRfqResult.SUCCESS);
         clusterClientResponder.broadcastRfqAccepted(rfq);
+        clusterClientResponder.dropCopyTrade(rfq);
     }
 
-    public void rejectRfq(final String correlation, final int rfqId, final int rejectUserId)
+    public void rejectRfq(final long correlation, final int rfqId, final int rejectUserId)
     {
-        if (!users.isValidUser(rejectUserId))
+        if (!users.isEnabled(rejectUserId))
         {
-            LOGGER.info("Cannot reject RFQ: Invalid user id {} for RFQ", rejectUserId);
+            LOGGER.info("Cannot reject RFQ: user is not authenticated or is disabled");
             clusterClientResponder.rejectRfqConfirm(correlation, null, RejectRfqResult.UNKNOWN_USER);
             return;
         }
 
-        final Rfq rfq = rfqs.stream().filter(r -> r.getRfqId() == rfqId).findFirst().orElse(null);
+        final Rfq rfq = rfqById.get(rfqId);
         if (rfq == null)
         {
             LOGGER.info("Cannot reject RFQ: RFQ {} not found", rfqId);
@@ -373,6 +747,8 @@ public class Rfqs
         }
 
         rfq.reject(rejectUserId);
+        updateOpen(rfq);
+        changedRfqIds.add(rfqId);
         LOGGER.info("Rejected RFQ {}", rfq);
         clusterClientResponder.rejectRfqConfirm(correlation, rfq, RejectRfqResult.SUCCESS);
         clusterClientResponder.broadcastRfqRejected(rfq);
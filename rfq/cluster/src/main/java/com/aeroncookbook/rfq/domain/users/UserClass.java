@@ -0,0 +1,37 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aeroncookbook.rfq.domain.users;
+
+/**
+ * The class of a user, used to pick the ingress rate limits applied to their sessions.
+ */
+public enum UserClass
+{
+    /**
+     * Requests and accepts RFQs. Sessions not yet bound to a user are treated as traders.
+     */
+    TRADER,
+
+    /**
+     * Quotes RFQs, and so sends far more requests than a trader.
+     */
+    MARKET_MAKER,
+
+    /**
+     * Manages instruments.
+     */
+    ADMIN
+}
@@ -1,26 +1,467 @@
 package com.aeroncookbook.rfq.domain.users;
 
-import org.agrona.collections.IntHashSet;
+import com.aeroncookbook.cluster.rfq.sbe.UserResult;
+import com.aeroncookbook.rfq.domain.instrument.Instruments;
+import com.aeroncookbook.rfq.infra.ChangeSet;
+import com.aeroncookbook.rfq.infra.ClusterClientResponder;
+import com.aeroncookbook.rfq.infra.SessionMessageContextImpl;
+import org.agrona.collections.Int2IntHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
 
 /**
- * A collection of hardcoded users.
+ * The replicated registry of users, holding the class, enabled flag and instrument entitlements of each user.
+ * <p>
+ * Users are held in parallel arrays, with a user id to index map. Entitlements are a bitset per user indexed by
+ * instrument id, so checking whether a user may trade an instrument is one map lookup and one bit test, however many
+ * users and instruments there are. An admin user, 1 unless configured otherwise, and users 500 and 501 (traders) and
+ * 502 (a market maker) are registered at start, entitled to all instruments. Only enabled admin users may manage users.
+ * <p>
+ * Revoking an instrument from a user entitled to all instruments turns the user into one holding a bitset of every
+ * current instrument but that one, so instruments added later are not granted to it.
  */
 public class Users
 {
-    private final IntHashSet users = new IntHashSet();
+    /**
+     * User id of a session that is not bound to a user
+     */
+    public static final int NO_USER = Integer.MIN_VALUE;
+
+    /**
+     * User id of the admin user registered at start, unless configured otherwise
+     */
+    public static final int DEFAULT_ADMIN_USER_ID = 1;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Users.class);
+    private static final int NOT_FOUND = -1;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long[] NO_ENTITLEMENTS = new long[0];
+
+    private final SessionMessageContextImpl context;
+    private final Instruments instruments;
+    private final ClusterClientResponder clusterClientResponder;
+    private final Int2IntHashMap indexByUserId = new Int2IntHashMap(NOT_FOUND);
+    private final ChangeSet changedUserIds = new ChangeSet();
+    private int[] userIds = new int[INITIAL_CAPACITY];
+    private UserClass[] userClasses = new UserClass[INITIAL_CAPACITY];
+    private boolean[] enabled = new boolean[INITIAL_CAPACITY];
+    private boolean[] entitledToAll = new boolean[INITIAL_CAPACITY];
+    private long[][] entitlements = new long[INITIAL_CAPACITY][];
+    private int size;
+
+    /**
+     * Create a new registry holding the default users, with the default admin user.
+     *
+     * @param context                the session message context, giving the user sending a command
+     * @param instruments            the instruments users are entitled to
+     * @param clusterClientResponder the responder to which command results are sent
+     */
+    public Users(
+        final SessionMessageContextImpl context,
+        final Instruments instruments,
+        final ClusterClientResponder clusterClientResponder)
+    {
+        this(context, instruments, clusterClientResponder, DEFAULT_ADMIN_USER_ID);
+    }
+
+    /**
+     * Create a new registry holding the default users.
+     *
+     * @param context                the session message context, giving the user sending a command
+     * @param instruments            the instruments users are entitled to
+     * @param clusterClientResponder the responder to which command results are sent
+     * @param adminUserId            the id of the admin user registered at start, which must be the same on every node
+     */
+    public Users(
+        final SessionMessageContextImpl context,
+        final Instruments instruments,
+        final ClusterClientResponder clusterClientResponder,
+        final int adminUserId)
+    {
+        this.context = context;
+        this.instruments = instruments;
+        this.clusterClientResponder = clusterClientResponder;
+        add(adminUserId, UserClass.ADMIN, true);
+        add(500, UserClass.TRADER, true);
+        add(501, UserClass.TRADER, true);
+        add(502, UserClass.MARKET_MAKER, true);
+    }
+
+    /**
+     * Reads the id of the admin user registered at start from RFQ_ADMIN_USER_ID, or the rfq.admin.user.id property.
+     *
+     * @return the admin user id, {@link #DEFAULT_ADMIN_USER_ID} if not set
+     */
+    public static int adminUserIdFromEnvironment()
+    {
+        String value = System.getenv("RFQ_ADMIN_USER_ID");
+        if (null == value || value.isEmpty())
+        {
+            value = System.getProperty("rfq.admin.user.id", Integer.toString(DEFAULT_ADMIN_USER_ID));
+        }
+        return Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Adds a user. Only enabled admin users may manage users.
+     *
+     * @param correlation   the correlation id of the request
+     * @param userId        the id of the new user
+     * @param userClass     the class of the new user
+     * @param entitledToAll true if the user may trade every instrument, rather than only those granted
+     */
+    public void addUser(
+        final long correlation,
+        final int userId,
+        final UserClass userClass,
+        final boolean entitledToAll)
+    {
+        final UserResult result;
+        if (!mayManageUsers(context.getUserId()))
+        {
+            result = UserResult.NOT_PERMITTED;
+        }
+        else if (userId <= 0)
+        {
+            result = UserResult.UNKNOWN_USER;
+        }
+        else if (indexByUserId.containsKey(userId))
+        {
+            result = UserResult.USER_ALREADY_EXISTS;
+        }
+        else
+        {
+            add(userId, userClass, entitledToAll);
+            changedUserIds.add(userId);
+            LOGGER.info("Added user {} as {}", userId, userClass);
+            result = UserResult.SUCCESS;
+        }
+        clusterClientResponder.userCommandResult(correlation, userId, result);
+    }
+
+    /**
+     * Enables or disables a user. The sessions of a disabled user are closed, and it can no longer connect.
+     *
+     * @param correlation the correlation id of the request
+     * @param userId      the id of the user
+     * @param enable      the new enabled flag
+     */
+    public void setUserEnabled(final long correlation, final int userId, final boolean enable)
+    {
+        final int index = indexByUserId.get(userId);
+        final UserResult result;
+        if (!mayManageUsers(context.getUserId()))
+        {
+            result = UserResult.NOT_PERMITTED;
+        }
+        else if (index == NOT_FOUND)
+        {
+            result = UserResult.UNKNOWN_USER;
+        }
+        else
+        {
+            enabled[index] = enable;
+            changedUserIds.add(userId);
+            if (LOGGER.isInfoEnabled())
+            {
+                LOGGER.info("Set enabled flag for user {} to {}", userId, enable);
+            }
+            if (!enable)
+            {
+                context.closeUserSessions(userId);
+            }
+            result = UserResult.SUCCESS;
+        }
+        clusterClientResponder.userCommandResult(correlation, userId, result);
+    }
+
+    /**
+     * Grants or revokes a user's entitlement to an instrument. Granting to a user entitled to all instruments changes
+     * nothing; revoking from one leaves it entitled to every current instrument but the one revoked.
+     *
+     * @param correlation the correlation id of the request
+     * @param userId      the id of the user
+     * @param cusip       the cusip of the instrument
+     * @param entitle     true to grant, false to revoke
+     */
+    public void setUserEntitlement(final long correlation, final int userId, final String cusip, final boolean entitle)
+    {
+        applyEntitlement(correlation, userId, instruments.getInstrumentId(cusip), entitle);
+    }
+
+    /**
+     * Grants or revokes a user's entitlement to an instrument, found by its packed cusip, as decoded from a command.
+     *
+     * @param correlation the correlation id of the request
+     * @param userId      the id of the user
+     * @param packedCusip the cusip of the instrument, packed
+     * @param entitle     true to grant, false to revoke
+     */
+    public void setUserEntitlement(
+        final long correlation,
+        final int userId,
+        final long packedCusip,
+        final boolean entitle)
+    {
+        applyEntitlement(correlation, userId, instruments.getInstrumentId(packedCusip), entitle);
+    }
+
+    private void applyEntitlement(
+        final long correlation,
+        final int userId,
+        final int instrumentId,
+        final boolean entitle)
+    {
+        final int index = indexByUserId.get(userId);
+        final UserResult result;
+        if (!mayManageUsers(context.getUserId()))
+        {
+            result = UserResult.NOT_PERMITTED;
+        }
+        else if (index == NOT_FOUND)
+        {
+            result = UserResult.UNKNOWN_USER;
+        }
+        else if (instrumentId == Instruments.UNKNOWN_INSTRUMENT_ID)
+        {
+            result = UserResult.UNKNOWN_CUSIP;
+        }
+        else
+        {
+            if (!entitle && entitledToAll[index])
+            {
+                entitleToEveryInstrument(index);
+            }
+            setEntitlement(index, instrumentId, entitle);
+            changedUserIds.add(userId);
+            if (LOGGER.isInfoEnabled())
+            {
+                LOGGER.info("Set entitlement of user {} to {} to {}",
+                    userId, instruments.getInstrument(instrumentId).getCusip(), entitle);
+            }
+            result = UserResult.SUCCESS;
+        }
+        clusterClientResponder.userCommandResult(correlation, userId, result);
+    }
+
+    /**
+     * Returns true if the user is registered and enabled.
+     *
+     * @param userId the user id
+     * @return true if the user may act
+     */
+    public boolean isEnabled(final int userId)
+    {
+        final int index = indexByUserId.get(userId);
+        return index != NOT_FOUND && enabled[index];
+    }
 
     /**
-     * Create a new collection of users.
+     * Returns true if the user is registered, enabled and entitled to the instrument.
+     *
+     * @param userId       the user id
+     * @param instrumentId the instrument id
+     * @return true if the user may trade the instrument
      */
-    public Users()
+    public boolean isEntitled(final int userId, final int instrumentId)
     {
-        users.add(500);
-        users.add(501);
-        users.add(502);
+        final int index = indexByUserId.get(userId);
+        if (index == NOT_FOUND || !enabled[index] || instrumentId < 0)
+        {
+            return false;
+        }
+        if (entitledToAll[index])
+        {
+            return true;
+        }
+        final long[] words = entitlements[index];
+        final int word = instrumentId >>> 6;
+        return word < words.length && (words[word] & (1L << instrumentId)) != 0;
     }
 
-    public boolean isValidUser(final int userId)
+    /**
+     * Get the class of a user, which sets the rate limits of their sessions.
+     *
+     * @param userId the user id
+     * @return the user class, or TRADER for an unknown user
+     */
+    public UserClass getUserClass(final int userId)
+    {
+        final int index = indexByUserId.get(userId);
+        return index == NOT_FOUND ? UserClass.TRADER : userClasses[index];
+    }
+
+    /**
+     * Visits every user. Used when writing a snapshot.
+     *
+     * @param consumer the consumer of each user
+     */
+    public void forEach(final UserConsumer consumer)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            consumer.accept(userIds[i], userClasses[i], enabled[i], entitledToAll[i], entitlements[i]);
+        }
+    }
+
+    /**
+     * Visits a single user. Used when writing a delta snapshot.
+     *
+     * @param userId   the user id
+     * @param consumer the consumer of the user, not called if the user is unknown
+     */
+    public void forUser(final int userId, final UserConsumer consumer)
+    {
+        final int index = indexByUserId.get(userId);
+        if (index != NOT_FOUND)
+        {
+            consumer.accept(userIds[index], userClasses[index], enabled[index], entitledToAll[index],
+                entitlements[index]);
+        }
+    }
+
+    /**
+     * Returns the number of users registered.
+     *
+     * @return the number of users
+     */
+    public int userCount()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the users added or changed since the last full snapshot, for a delta snapshot.
+     *
+     * @return the ids of the changed users
+     */
+    public ChangeSet getChangedUserIds()
+    {
+        return changedUserIds;
+    }
+
+    /**
+     * Restores a user from a snapshot, replacing any user with the same id.
+     *
+     * @param userId        the user id
+     * @param userClass     the user class
+     * @param enable        the enabled flag
+     * @param entitledToAll true if the user may trade every instrument
+     */
+    public void restoreUser(
+        final int userId,
+        final UserClass userClass,
+        final boolean enable,
+        final boolean entitledToAll)
+    {
+        int index = indexByUserId.get(userId);
+        if (index == NOT_FOUND)
+        {
+            index = add(userId, userClass, entitledToAll);
+        }
+        userClasses[index] = userClass;
+        this.entitledToAll[index] = entitledToAll;
+        entitlements[index] = NO_ENTITLEMENTS;
+        enabled[index] = enable;
+    }
+
+    /**
+     * Restores an entitlement from a snapshot. The user must have been restored first.
+     *
+     * @param userId       the user id
+     * @param instrumentId the id of the instrument the user is entitled to
+     */
+    public void restoreEntitlement(final int userId, final int instrumentId)
+    {
+        final int index = indexByUserId.get(userId);
+        if (index != NOT_FOUND && instrumentId != Instruments.UNKNOWN_INSTRUMENT_ID)
+        {
+            setEntitlement(index, instrumentId, true);
+        }
+    }
+
+    // anonymous sessions are refused, as anyone may connect without credentials
+    private boolean mayManageUsers(final int callerUserId)
+    {
+        final int index = indexByUserId.get(callerUserId);
+        return index != NOT_FOUND && enabled[index] && userClasses[index] == UserClass.ADMIN;
+    }
+
+    private int add(final int userId, final UserClass userClass, final boolean entitledToAll)
+    {
+        if (size == userIds.length)
+        {
+            final int capacity = size * 2;
+            userIds = Arrays.copyOf(userIds, capacity);
+            userClasses = Arrays.copyOf(userClasses, capacity);
+            enabled = Arrays.copyOf(enabled, capacity);
+            this.entitledToAll = Arrays.copyOf(this.entitledToAll, capacity);
+            entitlements = Arrays.copyOf(entitlements, capacity);
+        }
+
+        final int index = size++;
+        userIds[index] = userId;
+        userClasses[index] = userClass;
+        enabled[index] = true;
+        this.entitledToAll[index] = entitledToAll;
+        entitlements[index] = NO_ENTITLEMENTS;
+        indexByUserId.put(userId, index);
+        return index;
+    }
+
+    private void entitleToEveryInstrument(final int index)
+    {
+        final int instrumentCount = instruments.instrumentCount();
+        final long[] words = new long[(instrumentCount + 63) >>> 6];
+        for (int instrumentId = 0; instrumentId < instrumentCount; instrumentId++)
+        {
+            words[instrumentId >>> 6] |= 1L << instrumentId;
+        }
+        entitlements[index] = words;
+        entitledToAll[index] = false;
+    }
+
+    private void setEntitlement(final int index, final int instrumentId, final boolean entitle)
+    {
+        final int word = instrumentId >>> 6;
+        long[] words = entitlements[index];
+        if (word >= words.length)
+        {
+            if (!entitle)
+            {
+                return;
+            }
+            words = Arrays.copyOf(words, Math.max(word + 1, words.length * 2));
+            entitlements[index] = words;
+        }
+
+        if (entitle)
+        {
+            words[word] |= 1L << instrumentId;
+        }
+        else
+        {
+            words[word] &= ~(1L << instrumentId);
+        }
+    }
+
+    /**
+     * Receives the users of the registry
+     */
+    @FunctionalInterface
+    public interface UserConsumer
     {
-        return users.contains(userId);
+        /**
+         * Accepts a user
+         *
+         * @param userId        the user id
+         * @param userClass     the user class
+         * @param enabled       the enabled flag
+         * @param entitledToAll true if the user may trade every instrument
+         * @param entitlements  the entitlement bitset, indexed by instrument id; must not be modified
+         */
+        void accept(int userId, UserClass userClass, boolean enabled, boolean entitledToAll, long[] entitlements);
     }
 }
@@ -26,35 +26,116 @@ import io.aeron.cluster.service.ClientSession;
 import io.aeron.cluster.service.Cluster;
 import io.aeron.cluster.service.ClusteredService;
 import io.aeron.logbuffer.Header;
+import org.agrona.CloseHelper;
 import org.agrona.DirectBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+
 /**
  * The clustered service for the auction application.
  */
 public class AppClusteredService implements ClusteredService
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(AppClusteredService.class);
-    private final ClientSessions clientSessions = new ClientSessions();
-    private final SessionMessageContextImpl context = new SessionMessageContextImpl(clientSessions);
-    private final ClusterClientResponder clusterClientResponder = new ClusterClientResponderImpl(context);
-    private final TimerManager timerManager = new TimerManager(context);
-    private final Instruments instruments = new Instruments(clusterClientResponder);
-    private final Users users = new Users();
-    private final Rfqs rfqs = new Rfqs(context, instruments, users, clusterClientResponder, timerManager);
-    private final SnapshotManager snapshotManager = new SnapshotManager(context);
-    private final SbeAdapter sbeAdapter = new SbeAdapter(instruments, rfqs, clusterClientResponder);
+    private final ClientSessions clientSessions;
+    private final SessionMessageContextImpl context;
+    private final ProcessedRequests processedRequests = new ProcessedRequests();
+    private final ClusterClientResponderImpl clusterClientResponder;
+    private final TimerManager timerManager;
+    private final Instruments instruments;
+    private final Users users;
+    private final Rfqs rfqs;
+    private final SnapshotManager snapshotManager;
+    private final SbeAdapter sbeAdapter;
+    private final DropCopyPublisher dropCopyPublisher;
+    private final Partitions partitions;
+    private SnapshotRecordingsImpl snapshotRecordings;
+    private File fullSnapshotFile;
+
+    /**
+     * Constructor using the default rate limits and drop copy stream
+     */
+    public AppClusteredService()
+    {
+        this(RateLimits.defaults(),
+            new DropCopyPublisher(DropCopyPublisher.DEFAULT_CHANNEL, DropCopyPublisher.DEFAULT_STREAM_ID));
+    }
+
+    /**
+     * Constructor
+     *
+     * @param rateLimits        the ingress rate limits per user class, which must be the same on every node
+     * @param dropCopyPublisher the publisher of the trade drop copy stream
+     */
+    public AppClusteredService(final RateLimits rateLimits, final DropCopyPublisher dropCopyPublisher)
+    {
+        this(rateLimits, dropCopyPublisher, Partitions.SINGLE);
+    }
+
+    /**
+     * Constructor for one of several services partitioning the RFQ book
+     *
+     * @param rateLimits        the ingress rate limits per user class, which must be the same on every node
+     * @param dropCopyPublisher the publisher of the partition's trade drop copy stream
+     * @param partitions        the partition of the RFQ book held by the service
+     */
+    public AppClusteredService(
+        final RateLimits rateLimits,
+        final DropCopyPublisher dropCopyPublisher,
+        final Partitions partitions)
+    {
+        this(rateLimits, dropCopyPublisher, partitions, SnapshotCompaction.FULL_ONLY, SnapshotCompression.NONE);
+    }
+
+    /**
+     * Constructor for one of several services partitioning the RFQ book, with its snapshot settings
+     *
+     * @param rateLimits        the ingress rate limits per user class, which must be the same on every node
+     * @param dropCopyPublisher the publisher of the partition's trade drop copy stream
+     * @param partitions        the partition of the RFQ book held by the service
+     * @param compaction        decides when snapshots are written in full rather than as deltas
+     * @param compression       the compression of the snapshots written
+     */
+    public AppClusteredService(
+        final RateLimits rateLimits,
+        final DropCopyPublisher dropCopyPublisher,
+        final Partitions partitions,
+        final SnapshotCompaction compaction,
+        final SnapshotCompression compression)
+    {
+        this.dropCopyPublisher = dropCopyPublisher;
+        this.partitions = partitions;
+        clientSessions = new ClientSessions(rateLimits);
+        context = new SessionMessageContextImpl(clientSessions);
+        clusterClientResponder =
+            new ClusterClientResponderImpl(context, processedRequests, dropCopyPublisher, partitions);
+        timerManager = new TimerManager(context);
+        instruments = new Instruments(clusterClientResponder);
+        users = new Users(context, instruments, clusterClientResponder, Users.adminUserIdFromEnvironment());
+        rfqs = new Rfqs(context, instruments, users, clusterClientResponder, timerManager, partitions);
+        snapshotManager = new SnapshotManager(
+            instruments, users, rfqs, timerManager, clusterClientResponder, processedRequests, clientSessions,
+            dropCopyPublisher, partitions, compaction, compression);
+        sbeAdapter = new SbeAdapter(instruments, rfqs, users, clusterClientResponder, context, partitions);
+    }
 
     @Override
     public void onStart(final Cluster cluster, final Image snapshotImage)
     {
         snapshotManager.setIdleStrategy(cluster.idleStrategy());
+        snapshotRecordings = new SnapshotRecordingsImpl(cluster);
+        snapshotManager.setSnapshotRecordings(snapshotRecordings);
+        fullSnapshotFile = new File(cluster.context().clusterDir(), SnapshotCompaction.FULL_SNAPSHOT_FILE);
         context.setIdleStrategy(cluster.idleStrategy());
         timerManager.setCluster(cluster);
+        clientSessions.allocateCounters(cluster.aeron());
+        dropCopyPublisher.onStart(cluster);
+        cluster.forEachClientSession(session -> clientSessions.addSession(session, cluster.time()));
         if (snapshotImage != null)
         {
-            LOGGER.info("Snapshotting not supported");
+            snapshotManager.loadSnapshot(snapshotImage);
         }
     }
 
@@ -63,7 +144,7 @@ public class AppClusteredService implements ClusteredService
     {
         LOGGER.info("Client session with id {} opened", session.id());
         context.setClusterTime(timestamp);
-        clientSessions.addSession(session, timestamp);
+        openSession(session, timestamp);
     }
 
     @Override
@@ -72,6 +153,7 @@ public class AppClusteredService implements ClusteredService
         LOGGER.info("Client session with id {} closed", session.id());
         context.setClusterTime(timestamp);
         clientSessions.removeSession(session, timestamp);
+        processedRequests.removeSession(session.id());
     }
 
     @Override
@@ -84,7 +166,14 @@ public class AppClusteredService implements ClusteredService
         final Header header)
     {
         context.setSessionContext(session, timestamp);
-        sbeAdapter.dispatch(buffer, offset, length);
+        if (clientSessions.tryAcquire(session.id(), timestamp))
+        {
+            sbeAdapter.dispatch(buffer, offset, length);
+        }
+        else
+        {
+            sbeAdapter.dispatchThrottled(buffer, offset, length);
+        }
     }
 
     @Override
@@ -97,18 +186,46 @@ public class AppClusteredService implements ClusteredService
     @Override
     public void onTakeSnapshot(final ExclusivePublication snapshotPublication)
     {
-        LOGGER.info("Snapshottting not implemented");
+        if (fullSnapshotFile.exists())
+        {
+            snapshotManager.requestFullSnapshot();
+        }
+        snapshotManager.takeSnapshot(snapshotPublication);
     }
 
     @Override
     public void onRoleChange(final Cluster.Role newRole)
     {
         LOGGER.info("Role change: {}", newRole);
+        dropCopyPublisher.onRoleChange(newRole);
     }
 
     @Override
     public void onTerminate(final Cluster cluster)
     {
         LOGGER.info("Terminating");
+        dropCopyPublisher.close();
+        CloseHelper.quietClose(snapshotRecordings);
+    }
+
+    private void openSession(final ClientSession session, final long timestamp)
+    {
+        clientSessions.addSession(session, timestamp);
+        final int userId = UserAuthenticator.decodePrincipal(session.encodedPrincipal());
+        if (userId == Users.NO_USER)
+        {
+            return;
+        }
+
+        if (users.isEnabled(userId))
+        {
+            LOGGER.info("Client session with id {} bound to user {}", session.id(), userId);
+            clientSessions.bindUser(session.id(), userId, users.getUserClass(userId), timestamp);
+        }
+        else if (partitions.isCoordinator())
+        {
+            LOGGER.info("Client session with id {} closed, user {} is unknown or disabled", session.id(), userId);
+            session.close();
+        }
     }
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.infra;
+
+import org.agrona.collections.IntHashSet;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * The ids of the records of a domain model changed since its last full snapshot, written by delta snapshots
+ */
+public class ChangeSet
+{
+    private final IntHashSet ids = new IntHashSet();
+    private int[] sortedIds = new int[16];
+
+    /**
+     * Records that a record has changed
+     *
+     * @param id the id of the record
+     */
+    public void add(final int id)
+    {
+        ids.add(id);
+    }
+
+    /**
+     * The number of records changed
+     *
+     * @return the number of ids held
+     */
+    public int size()
+    {
+        return ids.size();
+    }
+
+    /**
+     * Forgets all changes, once a full snapshot holds them
+     */
+    public void clear()
+    {
+        ids.clear();
+    }
+
+    /**
+     * Visits the ids of the changed records in ascending order, so records are written in the order they were
+     * created
+     *
+     * @param consumer the consumer of each id
+     */
+    public void forEachInOrder(final IntConsumer consumer)
+    {
+        final int size = ids.size();
+        if (sortedIds.length < size)
+        {
+            sortedIds = new int[Math.max(size, sortedIds.length * 2)];
+        }
+
+        int count = 0;
+        final IntHashSet.IntIterator iterator = ids.iterator();
+        while (iterator.hasNext())
+        {
+            sortedIds[count++] = iterator.nextValue();
+        }
+        Arrays.sort(sortedIds, 0, count);
+
+        for (int i = 0; i < count; i++)
+        {
+            consumer.accept(sortedIds[i]);
+        }
+    }
+}
@@ -16,22 +16,72 @@
 
 package com.aeroncookbook.rfq.infra;
 
+import com.aeroncookbook.rfq.domain.users.UserClass;
+import com.aeroncookbook.rfq.domain.users.Users;
+import io.aeron.Aeron;
 import io.aeron.cluster.service.ClientSession;
-import org.agrona.collections.Long2ObjectHashMap;
+import org.agrona.collections.Long2LongHashMap;
+import org.agrona.concurrent.status.AtomicCounter;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
- * Manages client sessions within the cluster
+ * Manages client sessions within the cluster.
+ * <p>
+ * Sessions are held in a dense table of parallel arrays, with a session id to index map. Sessions are removed by
+ * moving the last entry into the freed slot, so add and remove are O(1), and fan-out iterates the arrays by index
+ * without allocating. Each entry carries the session's bound user and ingress rate limit. Egress totals across all
+ * sessions are kept in Aeron counters. Indexes are only stable until the next removal.
  */
 public class ClientSessions
 {
-    private final List<ClientSession> allSessions = new ArrayList<>();
-    private final Long2ObjectHashMap<ClientSession> sessionsById = new Long2ObjectHashMap<>();
+    /**
+     * Aeron counter type id for the per user class admitted and throttled command counters
+     */
+    public static final int RATE_LIMIT_COUNTER_TYPE_ID = 1101;
+
+    /**
+     * Aeron counter type id for the egress message, byte and failed offer counters
+     */
+    public static final int EGRESS_COUNTER_TYPE_ID = 1104;
+
+    /**
+     * User id of a session not yet bound to a user
+     */
+    public static final int NULL_USER_ID = Users.NO_USER;
+
+    /**
+     * Index returned for an unknown session
+     */
+    public static final int NOT_FOUND = -1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Long2LongHashMap indexBySessionId = new Long2LongHashMap(NOT_FOUND);
+    private final AtomicCounter[] admittedCounters = new AtomicCounter[UserClass.values().length];
+    private final AtomicCounter[] throttledCounters = new AtomicCounter[UserClass.values().length];
+    private final RateLimits rateLimits;
+    private AtomicCounter messagesSentCounter;
+    private AtomicCounter bytesSentCounter;
+    private AtomicCounter failedOffersCounter;
+
+    private ClientSession[] sessions = new ClientSession[INITIAL_CAPACITY];
+    private int[] userIds = new int[INITIAL_CAPACITY];
+    private UserClass[] userClasses = new UserClass[INITIAL_CAPACITY];
+    private TokenBucket[] buckets = new TokenBucket[INITIAL_CAPACITY];
+    private int size = 0;
 
     private ClientSessionListener clientSessionListener;
 
+    /**
+     * Constructor
+     * @param rateLimits the ingress rate limits per user class
+     */
+    public ClientSessions(final RateLimits rateLimits)
+    {
+        this.rateLimits = rateLimits;
+    }
+
     /**
      * Sets the client session listener
      * @param clientSessionListener the listener
@@ -41,6 +91,31 @@ public class ClientSessions
         this.clientSessionListener = clientSessionListener;
     }
 
+    /**
+     * Allocates the admitted and throttled counters for each user class, and the egress counters, so they can be read
+     * with AeronStat
+     * @param aeron the Aeron client of the clustered service
+     */
+    public void allocateCounters(final Aeron aeron)
+    {
+        for (final UserClass userClass : UserClass.values())
+        {
+            if (admittedCounters[userClass.ordinal()] == null)
+            {
+                admittedCounters[userClass.ordinal()] =
+                    aeron.addCounter(RATE_LIMIT_COUNTER_TYPE_ID, "rfq-admitted-commands: " + userClass);
+                throttledCounters[userClass.ordinal()] =
+                    aeron.addCounter(RATE_LIMIT_COUNTER_TYPE_ID, "rfq-throttled-commands: " + userClass);
+            }
+        }
+        if (messagesSentCounter == null)
+        {
+            messagesSentCounter = aeron.addCounter(EGRESS_COUNTER_TYPE_ID, "rfq-egress-messages");
+            bytesSentCounter = aeron.addCounter(EGRESS_COUNTER_TYPE_ID, "rfq-egress-bytes");
+            failedOffersCounter = aeron.addCounter(EGRESS_COUNTER_TYPE_ID, "rfq-egress-failed-offers");
+        }
+    }
+
     /**
      * Adds a client session
      * @param session the session to add
@@ -48,8 +123,32 @@ public class ClientSessions
      */
     public void addSession(final ClientSession session, final long timestamp)
     {
-        allSessions.add(session);
-        sessionsById.put(session.id(), session);
+        if (indexBySessionId.containsKey(session.id()))
+        {
+            return;
+        }
+
+        if (size == sessions.length)
+        {
+            grow();
+        }
+
+        final int index = size++;
+        sessions[index] = session;
+        userIds[index] = NULL_USER_ID;
+        userClasses[index] = UserClass.TRADER;
+        if (buckets[index] == null)
+        {
+            buckets[index] = new TokenBucket(
+                rateLimits.ratePerSecond(UserClass.TRADER), rateLimits.burst(UserClass.TRADER), timestamp);
+        }
+        else
+        {
+            buckets[index].reset(
+                rateLimits.ratePerSecond(UserClass.TRADER), rateLimits.burst(UserClass.TRADER), timestamp);
+        }
+        indexBySessionId.put(session.id(), index);
+
         if (clientSessionListener != null)
         {
             clientSessionListener.onSessionOpen(session, timestamp);
@@ -60,12 +159,30 @@ public class ClientSessions
      * Removes a client session
      *
      * @param session   the session to remove
-     * @param timestamp
+     * @param timestamp the timestamp of the event
      */
     public void removeSession(final ClientSession session, final long timestamp)
     {
-        allSessions.remove(session);
-        sessionsById.remove(session.id());
+        final int index = (int)indexBySessionId.remove(session.id());
+        if (index == NOT_FOUND)
+        {
+            return;
+        }
+
+        final int last = --size;
+        if (index != last)
+        {
+            final TokenBucket freedBucket = buckets[index];
+            sessions[index] = sessions[last];
+            userIds[index] = userIds[last];
+            userClasses[index] = userClasses[last];
+            buckets[index] = buckets[last];
+            buckets[last] = freedBucket;
+            indexBySessionId.put(sessions[index].id(), index);
+        }
+        sessions[last] = null;
+        userClasses[last] = null;
+
         if (clientSessionListener != null)
         {
             clientSessionListener.onSessionClose(session, timestamp);
@@ -73,12 +190,32 @@ public class ClientSessions
     }
 
     /**
-     * Gets all client sessions known
-     * @return the list of client sessions
+     * The number of sessions held
+     * @return the number of sessions
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Gets the index of a session, valid until the next removal
+     * @param sessionId the id of the session
+     * @return the index, or {@link #NOT_FOUND}
+     */
+    public int indexOf(final long sessionId)
+    {
+        return (int)indexBySessionId.get(sessionId);
+    }
+
+    /**
+     * Gets the session at an index
+     * @param index the index, from 0 to {@link #size()} exclusive
+     * @return the session
      */
-    public List<ClientSession> getAllSessions()
+    public ClientSession sessionAt(final int index)
     {
-        return allSessions;
+        return sessions[index];
     }
 
     /**
@@ -88,10 +225,159 @@ public class ClientSessions
      */
     public ClientSession getById(final long id)
     {
-        if (sessionsById.containsKey(id))
+        final int index = indexOf(id);
+        return index == NOT_FOUND ? null : sessions[index];
+    }
+
+    /**
+     * Binds a session to a user, applying the rate limits of the user's class from now on
+     * @param sessionId the session
+     * @param userId    the user id
+     * @param userClass the user class
+     * @param timestamp the cluster time of the binding
+     */
+    public void bindUser(final long sessionId, final int userId, final UserClass userClass, final long timestamp)
+    {
+        final int index = indexOf(sessionId);
+        if (index != NOT_FOUND)
+        {
+            userIds[index] = userId;
+            userClasses[index] = userClass;
+            buckets[index].reset(rateLimits.ratePerSecond(userClass), rateLimits.burst(userClass), timestamp);
+        }
+    }
+
+    /**
+     * Gets the user bound to the session at an index
+     * @param index the index
+     * @return the user id, or {@link #NULL_USER_ID} if not bound
+     */
+    public int userIdAt(final int index)
+    {
+        return userIds[index];
+    }
+
+    /**
+     * Gets the user class of the session at an index
+     * @param index the index
+     * @return the user class
+     */
+    public UserClass userClassAt(final int index)
+    {
+        return userClasses[index];
+    }
+
+    /**
+     * Records a message sent to a session
+     * @param length the length of the message
+     */
+    public void onMessageSent(final int length)
+    {
+        if (messagesSentCounter != null)
+        {
+            messagesSentCounter.increment();
+            bytesSentCounter.getAndAdd(length);
+        }
+    }
+
+    /**
+     * Records an offer to a session that was back pressured or failed
+     */
+    public void onOfferFailed()
+    {
+        if (failedOffersCounter != null)
+        {
+            failedOffersCounter.increment();
+        }
+    }
+
+    /**
+     * Takes one command of credit from the session's token bucket
+     * @param sessionId the session sending the command
+     * @param timestamp the cluster time of the command
+     * @return true if the command may be processed, false if it must be rejected as throttled
+     */
+    public boolean tryAcquire(final long sessionId, final long timestamp)
+    {
+        final int index = indexOf(sessionId);
+        if (index == NOT_FOUND)
         {
-            return sessionsById.get(id);
+            return true;
         }
-        return null;
+
+        final boolean admitted = buckets[index].tryAcquire(timestamp);
+        final int classIndex = userClasses[index].ordinal();
+        final AtomicCounter counter = admitted ? admittedCounters[classIndex] : throttledCounters[classIndex];
+        if (counter != null)
+        {
+            counter.increment();
+        }
+        return admitted;
+    }
+
+    /**
+     * Visits the rate limit state of every session. Used when writing a snapshot, as the token buckets decide which
+     * commands are applied and so must be identical on every node.
+     * @param consumer the consumer of each session's state
+     */
+    public void forEachRateLimit(final RateLimitConsumer consumer)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            consumer.accept(
+                sessions[i].id(), userIds[i], userClasses[i], buckets[i].getTokens(), buckets[i].getLastRefillMs());
+        }
+    }
+
+    /**
+     * Restores the bound user and rate limit state of a session from a snapshot. The session must already have been
+     * added.
+     * @param sessionId    the session
+     * @param userId       the user bound to the session
+     * @param userClass    the user class of the session
+     * @param tokens       the tokens held, in thousandths
+     * @param lastRefillMs the cluster time of the last refill
+     */
+    public void restoreRateLimit(
+        final long sessionId,
+        final int userId,
+        final UserClass userClass,
+        final long tokens,
+        final long lastRefillMs)
+    {
+        final int index = indexOf(sessionId);
+        if (index != NOT_FOUND)
+        {
+            userIds[index] = userId;
+            userClasses[index] = userClass;
+            buckets[index].reset(rateLimits.ratePerSecond(userClass), rateLimits.burst(userClass), lastRefillMs);
+            buckets[index].restore(tokens, lastRefillMs);
+        }
+    }
+
+    private void grow()
+    {
+        final int capacity = sessions.length << 1;
+        sessions = Arrays.copyOf(sessions, capacity);
+        userIds = Arrays.copyOf(userIds, capacity);
+        userClasses = Arrays.copyOf(userClasses, capacity);
+        buckets = Arrays.copyOf(buckets, capacity);
+    }
+
+    /**
+     * Receives the bound user and rate limit state of a session
+     */
+    @FunctionalInterface
+    public interface RateLimitConsumer
+    {
+        /**
+         * Accepts the state of one session
+         * @param sessionId    the session
+         * @param userId       the user bound to the session
+         * @param userClass    the user class of the session
+         * @param tokens       the tokens held, in thousandths
+         * @param lastRefillMs the cluster time of the last refill
+         */
+        void accept(long sessionId, int userId, UserClass userClass, long tokens, long lastRefillMs);
     }
 }
@@ -22,6 +22,7 @@ import com.aeroncookbook.cluster.rfq.sbe.CounterRfqResult;
 import com.aeroncookbook.cluster.rfq.sbe.CreateRfqResult;
 import com.aeroncookbook.cluster.rfq.sbe.QuoteRfqResult;
 import com.aeroncookbook.cluster.rfq.sbe.RejectRfqResult;
+import com.aeroncookbook.cluster.rfq.sbe.UserResult;
 import com.aeroncookbook.rfq.domain.instrument.Instrument;
 import com.aeroncookbook.rfq.domain.rfq.Rfq;
 
@@ -33,35 +34,95 @@ import java.util.List;
 public interface ClusterClientResponder
 {
 
-    void sendInstrumentAdded(String correlation);
+    void sendInstrumentAdded(long correlation);
 
-    void sendInstrumentEnabledFlagSet(String correlation, boolean success);
+    void sendInstrumentsAdded(long correlation, int count);
 
-    void sendInstruments(String correlation, List<Instrument> values);
+    void sendInstrumentEnabledFlagSet(long correlation, boolean success);
+
+    /**
+     * Replies with one page of the instrument list
+     *
+     * @param correlation          the correlation id of the list command
+     * @param values               the instruments in the page, in instrument id order
+     * @param nextFromInstrumentId the instrument id the next page starts at, or 0 if this is the last page
+     */
+    void sendInstruments(long correlation, List<Instrument> values, int nextFromInstrumentId);
 
     void broadcastNewRfq(Rfq rfq);
 
-    void createRfqConfirm(String correlation, Rfq rfq, CreateRfqResult result);
+    void createRfqConfirm(long correlation, Rfq rfq, CreateRfqResult result);
 
     void broadcastRfqExpired(Rfq rfq);
 
-    void cancelRfqConfirm(String correlation, Rfq rfq, CancelRfqResult result);
+    void cancelRfqConfirm(long correlation, Rfq rfq, CancelRfqResult result);
 
     void broadcastRfqCanceled(Rfq rfq);
 
-    void quoteRfqConfirm(String correlation, Rfq rfq, QuoteRfqResult result);
+    void quoteRfqConfirm(long correlation, Rfq rfq, QuoteRfqResult result);
 
     void broadcastRfqQuoted(Rfq rfq);
 
-    void counterRfqConfirm(String correlation, Rfq rfq, CounterRfqResult result);
+    void counterRfqConfirm(long correlation, Rfq rfq, CounterRfqResult result);
 
     void broadcastRfqCountered(Rfq rfq);
 
-    void acceptRfqConfirm(String correlation, Rfq rfq, AcceptRfqResult result);
+    void acceptRfqConfirm(long correlation, Rfq rfq, AcceptRfqResult result);
 
     void broadcastRfqAccepted(Rfq rfq);
 
-    void rejectRfqConfirm(String correlation, Rfq rfq, RejectRfqResult result);
+    void dropCopyTrade(Rfq rfq);
+
+    void rejectRfqConfirm(long correlation, Rfq rfq, RejectRfqResult result);
 
     void broadcastRfqRejected(Rfq rfq);
+
+    void broadcastInstrumentUpdated(Instrument instrument);
+
+    /**
+     * Replies with the instruments and open RFQs as of the current broadcast sequence, split over as many pages as
+     * needed to keep each group well within its count limit. All pages are sent in reply to the one command, so no
+     * event can be broadcast between them.
+     *
+     * @param correlation the correlation id of the snapshot command
+     * @param instruments the instruments
+     * @param openRfqs    the open RFQs
+     */
+    void sendRfqBookSnapshot(long correlation, List<Instrument> instruments, List<Rfq> openRfqs);
+
+    /**
+     * Replies with one page of an RFQ query
+     *
+     * @param correlation    the correlation id of the query
+     * @param rfqs           the RFQs in the page, in RFQ id order
+     * @param nextAfterRfqId the RFQ id to query after for the next page, or 0 if this is the last page
+     */
+    void sendRfqs(long correlation, List<Rfq> rfqs, int nextAfterRfqId);
+
+    /**
+     * Replies with the result of a user registry command
+     *
+     * @param correlation the correlation id of the command
+     * @param userId      the user the command applied to
+     * @param result      the result
+     */
+    void userCommandResult(long correlation, int userId, UserResult result);
+
+    /**
+     * Resends the original confirm if the current user, or the current session of an anonymous client, already sent
+     * a request with this correlation id
+     *
+     * @param correlation the correlation id of the request
+     * @return true if the request was a duplicate and must not be applied again
+     */
+    boolean resendConfirmIfProcessed(long correlation);
+
+    /**
+     * Rejects a command from a session that exceeded its rate limit, using the command's own confirm with a
+     * THROTTLED result. The rejection is not remembered, so the command may be retried with the same correlation id.
+     *
+     * @param commandTemplateId the SBE template id of the rejected command
+     * @param correlation       the correlation id of the rejected command
+     */
+    void sendThrottled(int commandTemplateId, long correlation);
 }
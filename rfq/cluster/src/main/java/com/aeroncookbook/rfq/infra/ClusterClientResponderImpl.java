@@ -16,33 +16,57 @@
 
 package com.aeroncookbook.rfq.infra;
 
+import com.aeroncookbook.cluster.rfq.sbe.AcceptRfqCommandDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.AcceptRfqConfirmEventEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.AcceptRfqResult;
+import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentsDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentsResultEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentResultEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.AddUserCommandDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.BooleanType;
+import com.aeroncookbook.cluster.rfq.sbe.CancelRfqCommandDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.CancelRfqConfirmEventEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.CancelRfqResult;
+import com.aeroncookbook.cluster.rfq.sbe.CounterRfqCommandDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.CounterRfqConfirmEventEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.CounterRfqResult;
+import com.aeroncookbook.cluster.rfq.sbe.CreateRfqCommandDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.CreateRfqConfirmEventEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.CreateRfqResult;
+import com.aeroncookbook.cluster.rfq.sbe.InstrumentUpdatedEventEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.InstrumentsListEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.ListInstrumentsCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.ListInstrumentsResultEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.ListRfqsCommandDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.QuoteRfqCommandDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.QuoteRfqConfirmEventEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.QuoteRfqResult;
+import com.aeroncookbook.cluster.rfq.sbe.RejectRfqCommandDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.RejectRfqConfirmEventEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.RejectRfqResult;
 import com.aeroncookbook.cluster.rfq.sbe.RequestResult;
 import com.aeroncookbook.cluster.rfq.sbe.RfqAcceptedEventEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqBookSnapshotCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqBookSnapshotEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.RfqCanceledEventEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.RfqCounteredEventEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.RfqCreatedEventEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.RfqExpiredEventEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.RfqQuotedEventEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.RfqRejectedEventEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqStatus;
+import com.aeroncookbook.cluster.rfq.sbe.RfqsListEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.SetInstrumentEnabledFlagDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.SetInstrumentEnabledFlagResultEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.SetUserEnabledFlagCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.SetUserEntitlementCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.UserCommandResultEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.UserResult;
 import com.aeroncookbook.rfq.domain.instrument.Instrument;
 import com.aeroncookbook.rfq.domain.rfq.Rfq;
+import com.aeroncookbook.rfq.domain.users.Users;
 import org.agrona.ExpandableDirectByteBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,15 +79,18 @@ import java.util.List;
 public class ClusterClientResponderImpl implements ClusterClientResponder
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(ClusterClientResponderImpl.class);
+    private static final int SNAPSHOT_PAGE_ENTRIES = 100;
     private final SessionMessageContextImpl context;
     private final MessageHeaderEncoder messageHeaderEncoder = new MessageHeaderEncoder();
     private final ExpandableDirectByteBuffer buffer = new ExpandableDirectByteBuffer(1024);
     private final RfqExpiredEventEncoder rfqExpiredEventEncoder = new RfqExpiredEventEncoder();
     private final RfqCanceledEventEncoder rfqCanceledEventEncoder = new RfqCanceledEventEncoder();
     private final AddInstrumentResultEncoder addInstrumentResultEncoder = new AddInstrumentResultEncoder();
+    private final AddInstrumentsResultEncoder addInstrumentsResultEncoder = new AddInstrumentsResultEncoder();
     private final SetInstrumentEnabledFlagResultEncoder setInstrumentEnabledFlagResultEncoder =
         new SetInstrumentEnabledFlagResultEncoder();
     private final InstrumentsListEncoder instrumentsListEncoder = new InstrumentsListEncoder();
+    private final ListInstrumentsResultEncoder listInstrumentsResultEncoder = new ListInstrumentsResultEncoder();
     private final CreateRfqConfirmEventEncoder createRfqConfirmEventEncoder = new CreateRfqConfirmEventEncoder();
     private final RfqCreatedEventEncoder rfqCreatedEventEncoder = new RfqCreatedEventEncoder();
     private final CancelRfqConfirmEventEncoder cancelRfqConfirmEventEncoder = new CancelRfqConfirmEventEncoder();
@@ -75,41 +102,197 @@ public class ClusterClientResponderImpl implements ClusterClientResponder
     private final RfqRejectedEventEncoder rfqRejectedEventEncoder = new RfqRejectedEventEncoder();
     private final AcceptRfqConfirmEventEncoder acceptRfqConfirmEventEncoder = new AcceptRfqConfirmEventEncoder();
     private final RejectRfqConfirmEventEncoder rejectRfqConfirmEventEncoder = new RejectRfqConfirmEventEncoder();
+    private final InstrumentUpdatedEventEncoder instrumentUpdatedEventEncoder = new InstrumentUpdatedEventEncoder();
+    private final RfqBookSnapshotEncoder rfqBookSnapshotEncoder = new RfqBookSnapshotEncoder();
+    private final RfqsListEncoder rfqsListEncoder = new RfqsListEncoder();
+    private final UserCommandResultEncoder userCommandResultEncoder = new UserCommandResultEncoder();
+    private final ProcessedRequests processedRequests;
+    private final DropCopyPublisher dropCopyPublisher;
+    private final Partitions partitions;
+    private long broadcastSequence = 0;
 
-    public ClusterClientResponderImpl(final SessionMessageContextImpl context)
+    public ClusterClientResponderImpl(
+        final SessionMessageContextImpl context,
+        final ProcessedRequests processedRequests,
+        final DropCopyPublisher dropCopyPublisher)
+    {
+        this(context, processedRequests, dropCopyPublisher, Partitions.SINGLE);
+    }
+
+    /**
+     * Constructor for one partition of the RFQ book, whose broadcasts are sequenced separately from the others
+     *
+     * @param context           the session message context
+     * @param processedRequests the confirms sent, for answering retried commands
+     * @param dropCopyPublisher the publisher of the trade drop copy stream
+     * @param partitions        the partition of the RFQ book held by the service, tagging each broadcast
+     */
+    public ClusterClientResponderImpl(
+        final SessionMessageContextImpl context,
+        final ProcessedRequests processedRequests,
+        final DropCopyPublisher dropCopyPublisher,
+        final Partitions partitions)
     {
         this.context = context;
+        this.processedRequests = processedRequests;
+        this.dropCopyPublisher = dropCopyPublisher;
+        this.partitions = partitions;
     }
 
     @Override
-    public void sendInstrumentAdded(final String correlation)
+    public boolean resendConfirmIfProcessed(final long correlation)
     {
-        addInstrumentResultEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
-        addInstrumentResultEncoder.correlation(correlation);
-        addInstrumentResultEncoder.result(RequestResult.SUCCESS);
-        context.reply(buffer, 0, messageHeaderEncoder.encodedLength() +
-            addInstrumentResultEncoder.encodedLength());
+        if (!processedRequests.find(requesterKey(), correlation, context.getClusterTime()))
+        {
+            return false;
+        }
+
+        final int rfqId = processedRequests.rfqId();
+        final int result = processedRequests.result();
+        switch (processedRequests.confirmTemplateId())
+        {
+            case AddInstrumentResultEncoder.TEMPLATE_ID -> sendInstrumentAdded(correlation, RequestResult.get(result));
+            case AddInstrumentsResultEncoder.TEMPLATE_ID ->
+                sendInstrumentsAdded(correlation, rfqId, RequestResult.get(result));
+            case SetInstrumentEnabledFlagResultEncoder.TEMPLATE_ID ->
+                sendInstrumentEnabledFlagSet(correlation, RequestResult.get(result));
+            case CreateRfqConfirmEventEncoder.TEMPLATE_ID ->
+                sendCreateRfqConfirm(correlation, rfqId, CreateRfqResult.get(result));
+            case CancelRfqConfirmEventEncoder.TEMPLATE_ID ->
+                sendCancelRfqConfirm(correlation, rfqId, CancelRfqResult.get(result));
+            case QuoteRfqConfirmEventEncoder.TEMPLATE_ID ->
+                sendQuoteRfqConfirm(correlation, rfqId, QuoteRfqResult.get(result));
+            case CounterRfqConfirmEventEncoder.TEMPLATE_ID ->
+                sendCounterRfqConfirm(correlation, rfqId, CounterRfqResult.get(result));
+            case AcceptRfqConfirmEventEncoder.TEMPLATE_ID ->
+                sendAcceptRfqConfirm(correlation, rfqId, AcceptRfqResult.get(result));
+            case RejectRfqConfirmEventEncoder.TEMPLATE_ID ->
+                sendRejectRfqConfirm(correlation, rfqId, RejectRfqResult.get(result));
+            case UserCommandResultEncoder.TEMPLATE_ID ->
+                sendUserCommandResult(correlation, rfqId, UserResult.get(result));
+            default -> LOGGER.error("Unknown confirm template {} for processed request",
+                processedRequests.confirmTemplateId());
+        }
+        //guarded, as boxing the correlation would allocate on every retried command even with info logging off
+        if (LOGGER.isInfoEnabled())
+        {
+            LOGGER.info("Request {} already processed, resent original confirm", correlation);
+        }
+        return true;
     }
 
     @Override
-    public void sendInstrumentEnabledFlagSet(final String correlation, final boolean success)
+    public void sendThrottled(final int commandTemplateId, final long correlation)
     {
-        setInstrumentEnabledFlagResultEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
-        setInstrumentEnabledFlagResultEncoder.correlation(correlation);
-        setInstrumentEnabledFlagResultEncoder.result(success ? RequestResult.SUCCESS : RequestResult.ERROR);
-        context.reply(buffer, 0, messageHeaderEncoder.encodedLength() +
-            setInstrumentEnabledFlagResultEncoder.encodedLength());
+        switch (commandTemplateId)
+        {
+            case AddInstrumentDecoder.TEMPLATE_ID -> sendInstrumentAdded(correlation, RequestResult.THROTTLED);
+            case AddInstrumentsDecoder.TEMPLATE_ID -> sendInstrumentsAdded(correlation, 0, RequestResult.THROTTLED);
+            case SetInstrumentEnabledFlagDecoder.TEMPLATE_ID ->
+                sendInstrumentEnabledFlagSet(correlation, RequestResult.THROTTLED);
+            case ListInstrumentsCommandDecoder.TEMPLATE_ID ->
+            {
+                listInstrumentsResultEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+                listInstrumentsResultEncoder.correlation(correlation);
+                listInstrumentsResultEncoder.result(RequestResult.THROTTLED);
+                context.reply(buffer, 0, messageHeaderEncoder.encodedLength() +
+                    listInstrumentsResultEncoder.encodedLength());
+            }
+            case RfqBookSnapshotCommandDecoder.TEMPLATE_ID ->
+            {
+                rfqBookSnapshotEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder)
+                    .correlation(correlation)
+                    .sequence(broadcastSequence)
+                    .page(0)
+                    .lastPage(BooleanType.TRUE)
+                    .partition(partitions.bookPartition())
+                    .partitionCount(partitions.bookPartitionCount())
+                    .result(RequestResult.THROTTLED);
+                rfqBookSnapshotEncoder.instrumentsCount(0);
+                rfqBookSnapshotEncoder.rfqsCount(0);
+                context.reply(buffer, 0, messageHeaderEncoder.encodedLength() +
+                    rfqBookSnapshotEncoder.encodedLength());
+            }
+            case ListRfqsCommandDecoder.TEMPLATE_ID ->
+            {
+                rfqsListEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder)
+                    .correlation(correlation)
+                    .result(RequestResult.THROTTLED)
+                    .nextAfterRfqId(0)
+                    .rfqsCount(0);
+                context.reply(buffer, 0, messageHeaderEncoder.encodedLength() + rfqsListEncoder.encodedLength());
+            }
+            case CreateRfqCommandDecoder.TEMPLATE_ID ->
+                sendCreateRfqConfirm(correlation, -1, CreateRfqResult.THROTTLED);
+            case CancelRfqCommandDecoder.TEMPLATE_ID ->
+                sendCancelRfqConfirm(correlation, -1, CancelRfqResult.THROTTLED);
+            case QuoteRfqCommandDecoder.TEMPLATE_ID -> sendQuoteRfqConfirm(correlation, -1, QuoteRfqResult.THROTTLED);
+            case CounterRfqCommandDecoder.TEMPLATE_ID ->
+                sendCounterRfqConfirm(correlation, -1, CounterRfqResult.THROTTLED);
+            case AcceptRfqCommandDecoder.TEMPLATE_ID ->
+                sendAcceptRfqConfirm(correlation, -1, AcceptRfqResult.THROTTLED);
+            case RejectRfqCommandDecoder.TEMPLATE_ID ->
+                sendRejectRfqConfirm(correlation, -1, RejectRfqResult.THROTTLED);
+            case AddUserCommandDecoder.TEMPLATE_ID, SetUserEnabledFlagCommandDecoder.TEMPLATE_ID,
+                SetUserEntitlementCommandDecoder.TEMPLATE_ID ->
+                sendUserCommandResult(correlation, Users.NO_USER, UserResult.THROTTLED);
+            default -> LOGGER.warn("No throttled response for command template {}", commandTemplateId);
+        }
+    }
+
+    /**
+     * Gets the sequence of the last broadcast event
+     *
+     * @return the last broadcast sequence
+     */
+    public long getBroadcastSequence()
+    {
+        return broadcastSequence;
+    }
+
+    /**
+     * Restores the broadcast sequence from a snapshot
+     *
+     * @param broadcastSequence the last broadcast sequence
+     */
+    public void restoreBroadcastSequence(final long broadcastSequence)
+    {
+        this.broadcastSequence = broadcastSequence;
     }
 
     @Override
-    public void sendInstruments(final String correlation, final List<Instrument> values)
+    public void sendInstrumentAdded(final long correlation)
+    {
+        sendInstrumentAdded(correlation, RequestResult.SUCCESS);
+        recordConfirm(correlation, AddInstrumentResultEncoder.TEMPLATE_ID, -1, RequestResult.SUCCESS.value());
+    }
+
+    @Override
+    public void sendInstrumentsAdded(final long correlation, final int count)
+    {
+        sendInstrumentsAdded(correlation, count, RequestResult.SUCCESS);
+        recordConfirm(correlation, AddInstrumentsResultEncoder.TEMPLATE_ID, count, RequestResult.SUCCESS.value());
+    }
+
+    @Override
+    public void sendInstrumentEnabledFlagSet(final long correlation, final boolean success)
+    {
+        final RequestResult result = success ? RequestResult.SUCCESS : RequestResult.ERROR;
+        sendInstrumentEnabledFlagSet(correlation, result);
+        recordConfirm(correlation, SetInstrumentEnabledFlagResultEncoder.TEMPLATE_ID, -1, result.value());
+    }
+
+    @Override
+    public void sendInstruments(final long correlation, final List<Instrument> values, final int nextFromInstrumentId)
     {
         instrumentsListEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
         instrumentsListEncoder.correlation(correlation);
+        instrumentsListEncoder.nextFromInstrumentId(nextFromInstrumentId);
         final InstrumentsListEncoder.ValuesEncoder valuesEncoder = instrumentsListEncoder.valuesCount(values.size());
 
-        for (final Instrument instrument : values)
+        for (int i = 0, size = values.size(); i < size; i++)
         {
+            final Instrument instrument = values.get(i);
             valuesEncoder
                 .next()
                 .cusip(instrument.getCusip())
@@ -130,28 +313,20 @@ public class ClusterClientResponderImpl implements ClusterClientResponder
         rfqCreatedEventEncoder.quantity(rfq.getQuantity());
         rfqCreatedEventEncoder.requesterSide(rfq.getRequesterSide());
         rfqCreatedEventEncoder.rfqId(rfq.getRfqId());
+        rfqCreatedEventEncoder.requesterUserId(rfq.getRequesterUserId());
+        rfqCreatedEventEncoder.sequence(++broadcastSequence);
+        rfqCreatedEventEncoder.partition(partitions.bookPartition());
 
         context.broadcast(buffer, 0, messageHeaderEncoder.encodedLength() +
             rfqCreatedEventEncoder.encodedLength());
     }
 
     @Override
-    public void createRfqConfirm(final String correlation, final Rfq rfq, final CreateRfqResult result)
+    public void createRfqConfirm(final long correlation, final Rfq rfq, final CreateRfqResult result)
     {
-        createRfqConfirmEventEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
-        createRfqConfirmEventEncoder.correlation(correlation);
-        if (rfq != null)
-        {
-            createRfqConfirmEventEncoder.rfqId(rfq.getRfqId());
-        }
-        else
-        {
-            createRfqConfirmEventEncoder.rfqId(-1);
-        }
-        createRfqConfirmEventEncoder.result(result);
-
-        context.reply(buffer, 0, messageHeaderEncoder.encodedLength() +
-            createRfqConfirmEventEncoder.encodedLength());
+        final int rfqId = rfqIdOf(rfq);
+        sendCreateRfqConfirm(correlation, rfqId, result);
+        recordConfirm(correlation, CreateRfqConfirmEventEncoder.TEMPLATE_ID, rfqId, result.value());
     }
 
     @Override
@@ -159,28 +334,20 @@ public class ClusterClientResponderImpl implements ClusterClientResponder
     {
         rfqExpiredEventEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
         rfqExpiredEventEncoder.rfqId(rfq.getRfqId());
-        rfqExpiredEventEncoder.requesterUserId(rfq.getRfqId());
-        rfqExpiredEventEncoder.responderUserId(rfq.getRfqId());
+        rfqExpiredEventEncoder.requesterUserId(rfq.getRequesterUserId());
+        rfqExpiredEventEncoder.responderUserId(rfq.getResponderUserId());
+        rfqExpiredEventEncoder.sequence(++broadcastSequence);
+        rfqExpiredEventEncoder.partition(partitions.bookPartition());
         context.broadcast(buffer, 0, messageHeaderEncoder.encodedLength() +
             rfqExpiredEventEncoder.encodedLength());
     }
 
     @Override
-    public void cancelRfqConfirm(final String correlation, final Rfq rfq, final CancelRfqResult result)
+    public void cancelRfqConfirm(final long correlation, final Rfq rfq, final CancelRfqResult result)
     {
-        cancelRfqConfirmEventEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
-        cancelRfqConfirmEventEncoder.correlation(correlation);
-        if (rfq != null)
-        {
-            cancelRfqConfirmEventEncoder.rfqId(rfq.getRfqId());
-        }
-        else
-        {
-            cancelRfqConfirmEventEncoder.rfqId(-1);
-        }
-        cancelRfqConfirmEventEncoder.result(result);
-        context.reply(buffer, 0, messageHeaderEncoder.encodedLength() +
-            cancelRfqConfirmEventEncoder.encodedLength());
+        final int rfqId = rfqIdOf(rfq);
+        sendCancelRfqConfirm(correlation, rfqId, result);
+        recordConfirm(correlation, CancelRfqConfirmEventEncoder.TEMPLATE_ID, rfqId, result.value());
     }
 
     @Override
@@ -188,28 +355,20 @@ public class ClusterClientResponderImpl implements ClusterClientResponder
     {
         rfqCanceledEventEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
         rfqCanceledEventEncoder.rfqId(rfq.getRfqId());
-        rfqCanceledEventEncoder.requesterUserId(rfq.getRfqId());
-        rfqCanceledEventEncoder.responderUserId(rfq.getRfqId());
+        rfqCanceledEventEncoder.requesterUserId(rfq.getRequesterUserId());
+        rfqCanceledEventEncoder.responderUserId(rfq.getResponderUserId());
+        rfqCanceledEventEncoder.sequence(++broadcastSequence);
+        rfqCanceledEventEncoder.partition(partitions.bookPartition());
         context.broadcast(buffer, 0, messageHeaderEncoder.encodedLength() +
             rfqCanceledEventEncoder.encodedLength());
     }
 
     @Override
-    public void quoteRfqConfirm(final String correlation, final Rfq rfq, final QuoteRfqResult result)
+    public void quoteRfqConfirm(final long correlation, final Rfq rfq, final QuoteRfqResult result)
     {
-        quoteRfqConfirmEventEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
-        quoteRfqConfirmEventEncoder.correlation(correlation);
-        if (rfq != null)
-        {
-            quoteRfqConfirmEventEncoder.rfqId(rfq.getRfqId());
-        }
-        else
-        {
-            quoteRfqConfirmEventEncoder.rfqId(-1);
-        }
-        quoteRfqConfirmEventEncoder.result(result);
-        context.reply(buffer, 0, messageHeaderEncoder.encodedLength() +
-            quoteRfqConfirmEventEncoder.encodedLength());
+        final int rfqId = rfqIdOf(rfq);
+        sendQuoteRfqConfirm(correlation, rfqId, result);
+        recordConfirm(correlation, QuoteRfqConfirmEventEncoder.TEMPLATE_ID, rfqId, result.value());
     }
 
     @Override
@@ -218,28 +377,20 @@ public class ClusterClientResponderImpl implements ClusterClientResponder
         rfqQuotedEventEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
         rfqQuotedEventEncoder.rfqId(rfq.getRfqId());
         rfqQuotedEventEncoder.price(rfq.getPrice());
-        rfqQuotedEventEncoder.requesterUserId(rfq.getRfqId());
-        rfqQuotedEventEncoder.responderUserId(rfq.getRfqId());
+        rfqQuotedEventEncoder.requesterUserId(rfq.getRequesterUserId());
+        rfqQuotedEventEncoder.responderUserId(rfq.getResponderUserId());
+        rfqQuotedEventEncoder.sequence(++broadcastSequence);
+        rfqQuotedEventEncoder.partition(partitions.bookPartition());
         context.broadcast(buffer, 0, messageHeaderEncoder.encodedLength() +
             rfqQuotedEventEncoder.encodedLength());
     }
 
     @Override
-    public void counterRfqConfirm(final String correlation, final Rfq rfq, final CounterRfqResult result)
+    public void counterRfqConfirm(final long correlation, final Rfq rfq, final CounterRfqResult result)
     {
-        counterRfqConfirmEventEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
-        counterRfqConfirmEventEncoder.correlation(correlation);
-        if (rfq != null)
-        {
-            counterRfqConfirmEventEncoder.rfqId(rfq.getRfqId());
-        }
-        else
-        {
-            counterRfqConfirmEventEncoder.rfqId(-1);
-        }
-        counterRfqConfirmEventEncoder.result(result);
-        context.reply(buffer, 0, messageHeaderEncoder.encodedLength() +
-            counterRfqConfirmEventEncoder.encodedLength());
+        final int rfqId = rfqIdOf(rfq);
+        sendCounterRfqConfirm(correlation, rfqId, result);
+        recordConfirm(correlation, CounterRfqConfirmEventEncoder.TEMPLATE_ID, rfqId, result.value());
     }
 
     @Override
@@ -248,26 +399,19 @@ public class ClusterClientResponderImpl implements ClusterClientResponder
         rfqCounteredEventEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
         rfqCounteredEventEncoder.rfqId(rfq.getRfqId());
         rfqCounteredEventEncoder.price(rfq.getPrice());
+        rfqCounteredEventEncoder.counterUserId(rfq.getLastCounterUser());
+        rfqCounteredEventEncoder.sequence(++broadcastSequence);
+        rfqCounteredEventEncoder.partition(partitions.bookPartition());
         context.broadcast(buffer, 0, messageHeaderEncoder.encodedLength() +
             rfqCounteredEventEncoder.encodedLength());
     }
 
     @Override
-    public void acceptRfqConfirm(final String correlation, final Rfq rfq, final AcceptRfqResult result)
+    public void acceptRfqConfirm(final long correlation, final Rfq rfq, final AcceptRfqResult result)
     {
-        acceptRfqConfirmEventEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
-        acceptRfqConfirmEventEncoder.correlation(correlation);
-        if (rfq != null)
-        {
-            acceptRfqConfirmEventEncoder.rfqId(rfq.getRfqId());
-        }
-        else
-        {
-            acceptRfqConfirmEventEncoder.rfqId(-1);
-        }
-        acceptRfqConfirmEventEncoder.result(result);
-        context.reply(buffer, 0, messageHeaderEncoder.encodedLength() +
-            acceptRfqConfirmEventEncoder.encodedLength());
+        final int rfqId = rfqIdOf(rfq);
+        sendAcceptRfqConfirm(correlation, rfqId, result);
+        recordConfirm(correlation, AcceptRfqConfirmEventEncoder.TEMPLATE_ID, rfqId, result.value());
     }
 
     @Override
@@ -276,26 +420,27 @@ public class ClusterClientResponderImpl implements ClusterClientResponder
         rfqAcceptedEventEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
         rfqAcceptedEventEncoder.rfqId(rfq.getRfqId());
         rfqAcceptedEventEncoder.price(rfq.getPrice());
+        rfqAcceptedEventEncoder.acceptedByUserId(rfq.getAcceptUser());
+        rfqAcceptedEventEncoder.requesterUserId(rfq.getRequesterUserId());
+        rfqAcceptedEventEncoder.responderUserId(rfq.getResponderUserId());
+        rfqAcceptedEventEncoder.sequence(++broadcastSequence);
+        rfqAcceptedEventEncoder.partition(partitions.bookPartition());
         context.broadcast(buffer, 0, messageHeaderEncoder.encodedLength() +
             rfqAcceptedEventEncoder.encodedLength());
     }
 
     @Override
-    public void rejectRfqConfirm(final String correlation, final Rfq rfq, final RejectRfqResult result)
+    public void dropCopyTrade(final Rfq rfq)
     {
-        rejectRfqConfirmEventEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
-        rejectRfqConfirmEventEncoder.correlation(correlation);
-        if (rfq != null)
-        {
-            rejectRfqConfirmEventEncoder.rfqId(rfq.getRfqId());
-        }
-        else
-        {
-            rejectRfqConfirmEventEncoder.rfqId(-1);
-        }
-        rejectRfqConfirmEventEncoder.result(result);
-        context.reply(buffer, 0, messageHeaderEncoder.encodedLength() +
-            rejectRfqConfirmEventEncoder.encodedLength());
+        dropCopyPublisher.publishTrade(rfq, context.getClusterTime());
+    }
+
+    @Override
+    public void rejectRfqConfirm(final long correlation, final Rfq rfq, final RejectRfqResult result)
+    {
+        final int rfqId = rfqIdOf(rfq);
+        sendRejectRfqConfirm(correlation, rfqId, result);
+        recordConfirm(correlation, RejectRfqConfirmEventEncoder.TEMPLATE_ID, rfqId, result.value());
     }
 
     @Override
@@ -304,7 +449,247 @@ public class ClusterClientResponderImpl implements ClusterClientResponder
         rfqRejectedEventEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
         rfqRejectedEventEncoder.rfqId(rfq.getRfqId());
         rfqRejectedEventEncoder.price(rfq.getPrice());
+        rfqRejectedEventEncoder.rejectedByUserId(rfq.getRejectUser());
+        rfqRejectedEventEncoder.requesterUserId(rfq.getRequesterUserId());
+        rfqRejectedEventEncoder.responderUserId(rfq.getResponderUserId());
+        rfqRejectedEventEncoder.sequence(++broadcastSequence);
+        rfqRejectedEventEncoder.partition(partitions.bookPartition());
         context.broadcast(buffer, 0, messageHeaderEncoder.encodedLength() +
             rfqRejectedEventEncoder.encodedLength());
     }
+
+    @Override
+    public void broadcastInstrumentUpdated(final Instrument instrument)
+    {
+        if (!partitions.isFirstBookPartition())
+        {
+            // every partition applies instrument commands, but only one sequences the events
+            return;
+        }
+        instrumentUpdatedEventEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+        instrumentUpdatedEventEncoder.cusip(instrument.getCusip());
+        instrumentUpdatedEventEncoder.enabled(instrument.isEnabled() ? BooleanType.TRUE : BooleanType.FALSE);
+        instrumentUpdatedEventEncoder.minSize(instrument.getMinSize());
+        instrumentUpdatedEventEncoder.sequence(++broadcastSequence);
+        instrumentUpdatedEventEncoder.partition(partitions.bookPartition());
+        context.broadcast(buffer, 0, messageHeaderEncoder.encodedLength() +
+            instrumentUpdatedEventEncoder.encodedLength());
+    }
+
+    @Override
+    public void sendRfqBookSnapshot(
+        final long correlation,
+        final List<Instrument> instruments,
+        final List<Rfq> openRfqs)
+    {
+        // the instruments are sequenced by the first book partition, so are only sent with its RFQs
+        final List<Instrument> bookInstruments = partitions.isFirstBookPartition() ? instruments : List.of();
+        int instrumentIndex = 0;
+        int rfqIndex = 0;
+        int page = 0;
+        boolean lastPage = false;
+        while (!lastPage)
+        {
+            final int instrumentCount = Math.min(bookInstruments.size() - instrumentIndex, SNAPSHOT_PAGE_ENTRIES);
+            final int rfqCount = Math.min(openRfqs.size() - rfqIndex, SNAPSHOT_PAGE_ENTRIES - instrumentCount);
+            lastPage = instrumentIndex + instrumentCount == bookInstruments.size() &&
+                rfqIndex + rfqCount == openRfqs.size();
+
+            rfqBookSnapshotEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+            rfqBookSnapshotEncoder.correlation(correlation);
+            rfqBookSnapshotEncoder.sequence(broadcastSequence);
+            rfqBookSnapshotEncoder.page(page++);
+            rfqBookSnapshotEncoder.lastPage(lastPage ? BooleanType.TRUE : BooleanType.FALSE);
+            rfqBookSnapshotEncoder.partition(partitions.bookPartition());
+            rfqBookSnapshotEncoder.partitionCount(partitions.bookPartitionCount());
+            rfqBookSnapshotEncoder.result(RequestResult.SUCCESS);
+
+            final RfqBookSnapshotEncoder.InstrumentsEncoder instrumentsEncoder =
+                rfqBookSnapshotEncoder.instrumentsCount(instrumentCount);
+            for (int i = 0; i < instrumentCount; i++)
+            {
+                final Instrument instrument = bookInstruments.get(instrumentIndex++);
+                instrumentsEncoder
+                    .next()
+                    .cusip(instrument.getCusip())
+                    .enabled(instrument.isEnabled() ? BooleanType.TRUE : BooleanType.FALSE)
+                    .minSize(instrument.getMinSize());
+            }
+
+            final RfqBookSnapshotEncoder.RfqsEncoder rfqsEncoder = rfqBookSnapshotEncoder.rfqsCount(rfqCount);
+            for (int i = 0; i < rfqCount; i++)
+            {
+                final Rfq rfq = openRfqs.get(rfqIndex++);
+                rfqsEncoder
+                    .next()
+                    .rfqId(rfq.getRfqId())
+                    .cusip(rfq.getCusip())
+                    .status(RfqStatus.get(rfq.getCurrentState().getCurrentStateId()))
+                    .requesterSide(rfq.getRequesterSide())
+                    .quantity(rfq.getQuantity())
+                    .expireTimeMs(rfq.getExpireTimeMs())
+                    .price(rfq.getPrice())
+                    .requesterUserId(rfq.getRequesterUserId())
+                    .responderUserId(rfq.getResponderUserId());
+            }
+
+            context.reply(buffer, 0, messageHeaderEncoder.encodedLength() +
+                rfqBookSnapshotEncoder.encodedLength());
+        }
+    }
+
+    @Override
+    public void sendRfqs(final long correlation, final List<Rfq> rfqs, final int nextAfterRfqId)
+    {
+        rfqsListEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+        rfqsListEncoder.correlation(correlation);
+        rfqsListEncoder.result(RequestResult.SUCCESS);
+        rfqsListEncoder.nextAfterRfqId(nextAfterRfqId);
+
+        final RfqsListEncoder.RfqsEncoder rfqsEncoder = rfqsListEncoder.rfqsCount(rfqs.size());
+        for (int i = 0, size = rfqs.size(); i < size; i++)
+        {
+            final Rfq rfq = rfqs.get(i);
+            rfqsEncoder
+                .next()
+                .rfqId(rfq.getRfqId())
+                .cusip(rfq.getCusip())
+                .requesterSide(rfq.getRequesterSide())
+                .quantity(rfq.getQuantity())
+                .price(rfq.getPrice())
+                .status(RfqStatus.get(rfq.getCurrentState().getCurrentStateId()))
+                .requesterUserId(rfq.getRequesterUserId())
+                .responderUserId(rfq.getResponderUserId())
+                .expireTimeMs(rfq.getExpireTimeMs());
+        }
+
+        context.reply(buffer, 0, messageHeaderEncoder.encodedLength() + rfqsListEncoder.encodedLength());
+    }
+
+    @Override
+    public void userCommandResult(final long correlation, final int userId, final UserResult result)
+    {
+        sendUserCommandResult(correlation, userId, result);
+        recordConfirm(correlation, UserCommandResultEncoder.TEMPLATE_ID, userId, result.value());
+    }
+
+    private void sendInstrumentAdded(final long correlation, final RequestResult result)
+    {
+        addInstrumentResultEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+        addInstrumentResultEncoder.correlation(correlation);
+        addInstrumentResultEncoder.result(result);
+        context.reply(buffer, 0, messageHeaderEncoder.encodedLength() +
+            addInstrumentResultEncoder.encodedLength());
+    }
+
+    private void sendInstrumentsAdded(final long correlation, final int count, final RequestResult result)
+    {
+        addInstrumentsResultEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+        addInstrumentsResultEncoder.correlation(correlation);
+        addInstrumentsResultEncoder.count(count);
+        addInstrumentsResultEncoder.result(result);
+        context.reply(buffer, 0, messageHeaderEncoder.encodedLength() +
+            addInstrumentsResultEncoder.encodedLength());
+    }
+
+    private void sendUserCommandResult(final long correlation, final int userId, final UserResult result)
+    {
+        userCommandResultEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+        userCommandResultEncoder.correlation(correlation);
+        userCommandResultEncoder.userId(userId);
+        userCommandResultEncoder.result(result);
+        context.reply(buffer, 0, messageHeaderEncoder.encodedLength() +
+            userCommandResultEncoder.encodedLength());
+    }
+
+    private void sendInstrumentEnabledFlagSet(final long correlation, final RequestResult result)
+    {
+        setInstrumentEnabledFlagResultEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+        setInstrumentEnabledFlagResultEncoder.correlation(correlation);
+        setInstrumentEnabledFlagResultEncoder.result(result);
+        context.reply(buffer, 0, messageHeaderEncoder.encodedLength() +
+            setInstrumentEnabledFlagResultEncoder.encodedLength());
+    }
+
+    private void sendCreateRfqConfirm(final long correlation, final int rfqId, final CreateRfqResult result)
+    {
+        createRfqConfirmEventEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+        createRfqConfirmEventEncoder.correlation(correlation);
+        createRfqConfirmEventEncoder.rfqId(rfqId);
+        createRfqConfirmEventEncoder.result(result);
+        context.reply(buffer, 0, messageHeaderEncoder.encodedLength() +
+            createRfqConfirmEventEncoder.encodedLength());
+    }
+
+    private void sendCancelRfqConfirm(final long correlation, final int rfqId, final CancelRfqResult result)
+    {
+        cancelRfqConfirmEventEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+        cancelRfqConfirmEventEncoder.correlation(correlation);
+        cancelRfqConfirmEventEncoder.rfqId(rfqId);
+        cancelRfqConfirmEventEncoder.result(result);
+        context.reply(buffer, 0, messageHeaderEncoder.encodedLength() +
+            cancelRfqConfirmEventEncoder.encodedLength());
+    }
+
+    private void sendQuoteRfqConfirm(final long correlation, final int rfqId, final QuoteRfqResult result)
+    {
+        quoteRfqConfirmEventEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+        quoteRfqConfirmEventEncoder.correlation(correlation);
+        quoteRfqConfirmEventEncoder.rfqId(rfqId);
+        quoteRfqConfirmEventEncoder.result(result);
+        context.reply(buffer, 0, messageHeaderEncoder.encodedLength() +
+            quoteRfqConfirmEventEncoder.encodedLength());
+    }
+
+    private void sendCounterRfqConfirm(final long correlation, final int rfqId, final CounterRfqResult result)
+    {
+        counterRfqConfirmEventEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+        counterRfqConfirmEventEncoder.correlation(correlation);
+        counterRfqConfirmEventEncoder.rfqId(rfqId);
+        counterRfqConfirmEventEncoder.result(result);
+        context.reply(buffer, 0, messageHeaderEncoder.encodedLength() +
+            counterRfqConfirmEventEncoder.encodedLength());
+    }
+
+    private void sendAcceptRfqConfirm(final long correlation, final int rfqId, final AcceptRfqResult result)
+    {
+        acceptRfqConfirmEventEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+        acceptRfqConfirmEventEncoder.correlation(correlation);
+        acceptRfqConfirmEventEncoder.rfqId(rfqId);
+        acceptRfqConfirmEventEncoder.result(result);
+        context.reply(buffer, 0, messageHeaderEncoder.encodedLength() +
+            acceptRfqConfirmEventEncoder.encodedLength());
+    }
+
+    private void sendRejectRfqConfirm(final long correlation, final int rfqId, final RejectRfqResult result)
+    {
+        rejectRfqConfirmEventEncoder.wrapAndApplyHeader(buffer, 0, messageHeaderEncoder);
+        rejectRfqConfirmEventEncoder.correlation(correlation);
+        rejectRfqConfirmEventEncoder.rfqId(rfqId);
+        rejectRfqConfirmEventEncoder.result(result);
+        context.reply(buffer, 0, messageHeaderEncoder.encodedLength() +
+            rejectRfqConfirmEventEncoder.encodedLength());
+    }
+
+    private void recordConfirm(final long correlation, final int confirmTemplateId, final int rfqId, final int result)
+    {
+        processedRequests.record(
+            requesterKey(),
+            correlation,
+            context.getClusterTime(),
+            confirmTemplateId,
+            rfqId,
+            result);
+    }
+
+    // retries are matched per user, or per session for anonymous clients
+    private long requesterKey()
+    {
+        return ProcessedRequests.requesterKey(context.getSessionId(), context.getUserId());
+    }
+
+    private static int rfqIdOf(final Rfq rfq)
+    {
+        return rfq != null ? rfq.getRfqId() : -1;
+    }
 }
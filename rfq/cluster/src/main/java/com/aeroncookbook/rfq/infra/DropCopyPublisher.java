@@ -0,0 +1,262 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.infra;
+
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.TradeRecordEncoder;
+import com.aeroncookbook.rfq.domain.rfq.Rfq;
+import io.aeron.ExclusivePublication;
+import io.aeron.Publication;
+import io.aeron.archive.client.AeronArchive;
+import io.aeron.archive.codecs.SourceLocation;
+import io.aeron.cluster.service.Cluster;
+import org.agrona.CloseHelper;
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static java.lang.Integer.parseInt;
+
+/**
+ * Publishes a drop copy of every accepted RFQ as a {@link TradeRecordEncoder trade record} on a dedicated stream,
+ * recorded by the node's archive, so that booking systems can replay and tail trades from an archive position
+ * without holding a cluster session.
+ * <p>
+ * Every node assigns the trade sequence, which is service state held in snapshots, but only the leader publishes.
+ * Each node also retains the most recent trade records, and a new leader publishes those again when it takes over,
+ * covering trades the old leader accepted but did not get into its archive. Consumers drop sequences already seen,
+ * and treat a gap in the sequence as a loss.
+ */
+public class DropCopyPublisher
+{
+    /**
+     * Default channel of the drop copy stream
+     */
+    public static final String DEFAULT_CHANNEL = "aeron:ipc?term-length=4m";
+
+    /**
+     * Default stream id of the drop copy stream
+     */
+    public static final int DEFAULT_STREAM_ID = 2001;
+
+    /**
+     * Number of recent trade records retained for publishing again after a leader change
+     */
+    public static final int RETAINED_TRADES = 1024;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DropCopyPublisher.class);
+    private static final int RETRY_COUNT = 3;
+    private static final int SLOT_LENGTH = MessageHeaderEncoder.ENCODED_LENGTH + TradeRecordEncoder.BLOCK_LENGTH;
+
+    private final String channel;
+    private final int streamId;
+    private final UnsafeBuffer retained = new UnsafeBuffer(ByteBuffer.allocateDirect(RETAINED_TRADES * SLOT_LENGTH));
+    private final MessageHeaderEncoder messageHeaderEncoder = new MessageHeaderEncoder();
+    private final TradeRecordEncoder tradeRecordEncoder = new TradeRecordEncoder();
+    private Cluster cluster;
+    private IdleStrategy idleStrategy;
+    private AeronArchive archive;
+    private ExclusivePublication publication;
+    private long tradeSequence = 0;
+    private long firstRetainedSequence = 1;
+
+    /**
+     * Constructor
+     *
+     * @param channel  the channel of the drop copy stream
+     * @param streamId the stream id of the drop copy stream
+     */
+    public DropCopyPublisher(final String channel, final int streamId)
+    {
+        this.channel = channel;
+        this.streamId = streamId;
+    }
+
+    /**
+     * Reads the drop copy stream from the environment variables DROP_COPY_CHANNEL and DROP_COPY_STREAM_ID, or the
+     * system properties drop.copy.channel and drop.copy.stream.id, falling back to the defaults
+     *
+     * @return the publisher
+     */
+    public static DropCopyPublisher fromEnvironment()
+    {
+        final String streamId = read("DROP_COPY_STREAM_ID", "drop.copy.stream.id");
+        final String channel = read("DROP_COPY_CHANNEL", "drop.copy.channel");
+        return new DropCopyPublisher(
+            null == channel ? DEFAULT_CHANNEL : channel,
+            null == streamId ? DEFAULT_STREAM_ID : parseInt(streamId));
+    }
+
+    /**
+     * Gets the publisher for one partition of the RFQ book, which has a drop copy stream of its own, on the same
+     * channel with the partition added to the stream id
+     *
+     * @param partition the partition of the RFQ book
+     * @return the publisher of the partition
+     */
+    public DropCopyPublisher forPartition(final int partition)
+    {
+        return new DropCopyPublisher(channel, streamId + partition);
+    }
+
+    /**
+     * Starts recording the drop copy stream in the node's archive. The recording only holds data while this node is
+     * the leader, as only the leader publishes.
+     *
+     * @param cluster the cluster the service runs in
+     */
+    public void onStart(final Cluster cluster)
+    {
+        this.cluster = cluster;
+        this.idleStrategy = cluster.idleStrategy();
+        archive = AeronArchive.connect(cluster.context().archiveContext().clone()
+            .aeron(cluster.aeron())
+            .ownsAeronClient(false));
+        archive.startRecording(channel, streamId, SourceLocation.LOCAL, true);
+        LOGGER.info("Recording drop copy stream {} on {}", streamId, channel);
+    }
+
+    /**
+     * Publishes the drop copy while this node is the leader. A new leader first publishes the retained trades again.
+     *
+     * @param role the new role of the node
+     */
+    public void onRoleChange(final Cluster.Role role)
+    {
+        if (role == Cluster.Role.LEADER && null == publication && null != cluster)
+        {
+            publication = cluster.aeron().addExclusivePublication(channel, streamId);
+            final long from = Math.max(firstRetainedSequence, tradeSequence - RETAINED_TRADES + 1);
+            for (long sequence = from; sequence <= tradeSequence; sequence++)
+            {
+                offer(slotOffset(sequence));
+            }
+            LOGGER.info("Publishing drop copy, republished trades {} to {}", from, tradeSequence);
+        }
+        else if (role != Cluster.Role.LEADER && null != publication)
+        {
+            CloseHelper.quietClose(publication);
+            publication = null;
+        }
+    }
+
+    /**
+     * Assigns the next trade sequence to an accepted RFQ, retains its trade record, and publishes it if this node is
+     * the leader
+     *
+     * @param rfq       the accepted RFQ
+     * @param timestamp the cluster time the RFQ was accepted at
+     */
+    public void publishTrade(final Rfq rfq, final long timestamp)
+    {
+        final long sequence = ++tradeSequence;
+        final int offset = slotOffset(sequence);
+        tradeRecordEncoder.wrapAndApplyHeader(retained, offset, messageHeaderEncoder)
+            .sequence(sequence)
+            .timestamp(timestamp)
+            .rfqId(rfq.getRfqId())
+            .cusip(rfq.getCusip())
+            .requesterSide(rfq.getRequesterSide())
+            .quantity(rfq.getQuantity())
+            .price(rfq.getPrice())
+            .requesterUserId(rfq.getRequesterUserId())
+            .responderUserId(rfq.getResponderUserId())
+            .acceptedByUserId(rfq.getAcceptUser());
+
+        if (null != publication)
+        {
+            offer(offset);
+        }
+    }
+
+    /**
+     * Gets the sequence of the last trade
+     *
+     * @return the last trade sequence
+     */
+    public long getTradeSequence()
+    {
+        return tradeSequence;
+    }
+
+    /**
+     * Restores the trade sequence from a snapshot. Trades before the snapshot are not retained.
+     *
+     * @param tradeSequence the last trade sequence
+     */
+    public void restoreTradeSequence(final long tradeSequence)
+    {
+        this.tradeSequence = tradeSequence;
+        this.firstRetainedSequence = tradeSequence + 1;
+    }
+
+    /**
+     * Closes the publication and the archive client
+     */
+    public void close()
+    {
+        CloseHelper.quietCloseAll(publication, archive);
+        publication = null;
+        archive = null;
+    }
+
+    private void offer(final int offset)
+    {
+        int retries = 0;
+        do
+        {
+            final long result = publication.offer(retained, offset, SLOT_LENGTH);
+            if (result > 0L)
+            {
+                return;
+            }
+
+            if (result == Publication.NOT_CONNECTED || result == Publication.MAX_POSITION_EXCEEDED ||
+                result == Publication.CLOSED)
+            {
+                break;
+            }
+
+            idleStrategy.idle();
+            retries += 1;
+        }
+        while (retries < RETRY_COUNT);
+
+        LOGGER.error("failed to publish drop copy trade {}", retained.getLong(
+            offset + MessageHeaderEncoder.ENCODED_LENGTH + TradeRecordEncoder.sequenceEncodingOffset(),
+            ByteOrder.LITTLE_ENDIAN));
+    }
+
+    private static int slotOffset(final long sequence)
+    {
+        return (int)(sequence % RETAINED_TRADES) * SLOT_LENGTH;
+    }
+
+    private static String read(final String envName, final String propertyName)
+    {
+        String value = System.getenv(envName);
+        if (null == value || value.isEmpty())
+        {
+            value = System.getProperty(propertyName);
+        }
+        return null == value || value.isEmpty() ? null : value.trim();
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.infra;
+
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Compresses blocks of bytes in the LZ4 block format: a sequence of literal runs, each followed by a match copied
+ * from up to 64KB earlier in the block. Matches are found with a single hash table of 4 byte sequences, trading
+ * some ratio for speed. A codec holds its hash table, so it is not thread safe.
+ */
+public class Lz4BlockCodec
+{
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_DISTANCE = 0xFFFF;
+    private static final int RUN_MASK = 0xF;
+    private static final int HASH_LOG = 14;
+    private static final int NO_POSITION = -1;
+    private final int[] hashTable = new int[1 << HASH_LOG];
+
+    /**
+     * The largest a block may become when compressed, for bytes that do not compress
+     *
+     * @param length the uncompressed length
+     * @return the compressed length bound
+     */
+    public static int maxCompressedLength(final int length)
+    {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses a block
+     *
+     * @param src       the buffer holding the block
+     * @param srcOffset the offset of the block
+     * @param length    the length of the block
+     * @param dst       the buffer to write the compressed block to, with room for
+     *                  {@link #maxCompressedLength(int)} bytes
+     * @param dstOffset the offset to write at
+     * @return the compressed length
+     */
+    public int compress(
+        final DirectBuffer src,
+        final int srcOffset,
+        final int length,
+        final MutableDirectBuffer dst,
+        final int dstOffset)
+    {
+        int op = dstOffset;
+        int anchor = 0;
+        if (length > MATCH_FIND_LIMIT)
+        {
+            Arrays.fill(hashTable, NO_POSITION);
+            final int matchFindLimit = length - MATCH_FIND_LIMIT;
+            final int matchEndLimit = length - LAST_LITERALS;
+            int ip = 0;
+            while (ip < matchFindLimit)
+            {
+                final int sequence = src.getInt(srcOffset + ip, ByteOrder.LITTLE_ENDIAN);
+                final int hash = (sequence * -1640531535) >>> (32 - HASH_LOG);
+                int ref = hashTable[hash];
+                hashTable[hash] = ip;
+                if (NO_POSITION == ref || ip - ref > MAX_DISTANCE ||
+                    src.getInt(srcOffset + ref, ByteOrder.LITTLE_ENDIAN) != sequence)
+                {
+                    ip++;
+                    continue;
+                }
+
+                while (ip > anchor && ref > 0 && src.getByte(srcOffset + ip - 1) == src.getByte(srcOffset + ref - 1))
+                {
+                    ip--;
+                    ref--;
+                }
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < matchEndLimit &&
+                    src.getByte(srcOffset + ip + matchLength) == src.getByte(srcOffset + ref + matchLength))
+                {
+                    matchLength++;
+                }
+
+                op = writeSequence(src, srcOffset + anchor, ip - anchor, ip - ref, matchLength, dst, op);
+                ip += matchLength;
+                anchor = ip;
+            }
+        }
+
+        op = writeLastLiterals(src, srcOffset + anchor, length - anchor, dst, op);
+        return op - dstOffset;
+    }
+
+    /**
+     * Decompresses a block
+     *
+     * @param src       the buffer holding the compressed block
+     * @param srcOffset the offset of the compressed block
+     * @param length    the compressed length
+     * @param dst       the buffer to write the block to
+     * @param dstOffset the offset to write at
+     * @param dstLength the uncompressed length of the block
+     * @throws IllegalStateException if the compressed block is corrupt or does not decompress to dstLength bytes
+     */
+    public static void decompress(
+        final DirectBuffer src,
+        final int srcOffset,
+        final int length,
+        final MutableDirectBuffer dst,
+        final int dstOffset,
+        final int dstLength)
+    {
+        final int srcEnd = srcOffset + length;
+        final int dstEnd = dstOffset + dstLength;
+        int ip = srcOffset;
+        int op = dstOffset;
+        while (ip < srcEnd)
+        {
+            final int token = src.getByte(ip++) & 0xFF;
+            int literalLength = token >>> 4;
+            if (RUN_MASK == literalLength)
+            {
+                int next;
+                do
+                {
+                    checkBounds(ip < srcEnd);
+                    next = src.getByte(ip++) & 0xFF;
+                    literalLength += next;
+                }
+                while (255 == next);
+            }
+            checkBounds(ip + literalLength <= srcEnd && op + literalLength <= dstEnd);
+            dst.putBytes(op, src, ip, literalLength);
+            ip += literalLength;
+            op += literalLength;
+            if (ip == srcEnd)
+            {
+                break;
+            }
+
+            checkBounds(ip + 2 <= srcEnd);
+            final int distance = src.getShort(ip, ByteOrder.LITTLE_ENDIAN) & 0xFFFF;
+            ip += 2;
+            checkBounds(distance > 0 && op - distance >= dstOffset);
+            int matchLength = token & RUN_MASK;
+            if (RUN_MASK == matchLength)
+            {
+                int next;
+                do
+                {
+                    checkBounds(ip < srcEnd);
+                    next = src.getByte(ip++) & 0xFF;
+                    matchLength += next;
+                }
+                while (255 == next);
+            }
+            matchLength += MIN_MATCH;
+            checkBounds(op + matchLength <= dstEnd);
+            if (distance >= matchLength)
+            {
+                dst.putBytes(op, dst, op - distance, matchLength);
+            }
+            else
+            {
+                //an overlapping match repeats the bytes it has just written
+                for (int i = 0; i < matchLength; i++)
+                {
+                    dst.putByte(op + i, dst.getByte(op - distance + i));
+                }
+            }
+            op += matchLength;
+        }
+        checkBounds(op == dstEnd);
+    }
+
+    private static int writeSequence(
+        final DirectBuffer src,
+        final int literalOffset,
+        final int literalLength,
+        final int distance,
+        final int matchLength,
+        final MutableDirectBuffer dst,
+        final int dstOffset)
+    {
+        final int tokenOffset = dstOffset;
+        final int extraMatchLength = matchLength - MIN_MATCH;
+        int op = writeLength(literalLength, dst, dstOffset + 1);
+        dst.putBytes(op, src, literalOffset, literalLength);
+        op += literalLength;
+        dst.putShort(op, (short)distance, ByteOrder.LITTLE_ENDIAN);
+        op = writeLength(extraMatchLength, dst, op + 2);
+        final int token = (Math.min(literalLength, RUN_MASK) << 4) | Math.min(extraMatchLength, RUN_MASK);
+        dst.putByte(tokenOffset, (byte)token);
+        return op;
+    }
+
+    private static int writeLastLiterals(
+        final DirectBuffer src,
+        final int literalOffset,
+        final int literalLength,
+        final MutableDirectBuffer dst,
+        final int dstOffset)
+    {
+        dst.putByte(dstOffset, (byte)(Math.min(literalLength, RUN_MASK) << 4));
+        final int op = writeLength(literalLength, dst, dstOffset + 1);
+        dst.putBytes(op, src, literalOffset, literalLength);
+        return op + literalLength;
+    }
+
+    //a length of 15 or more is held as 15 in the token, and the rest in bytes of 255 and a final byte below it
+    private static int writeLength(final int length, final MutableDirectBuffer dst, final int dstOffset)
+    {
+        int op = dstOffset;
+        if (length >= RUN_MASK)
+        {
+            int remaining = length - RUN_MASK;
+            while (remaining >= 255)
+            {
+                dst.putByte(op++, (byte)255);
+                remaining -= 255;
+            }
+            dst.putByte(op++, (byte)remaining);
+        }
+        return op;
+    }
+
+    private static void checkBounds(final boolean valid)
+    {
+        if (!valid)
+        {
+            throw new IllegalStateException("corrupt compressed block");
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.infra;
+
+import com.aeroncookbook.cluster.rfq.RfqRouting;
+
+/**
+ * The partition of the RFQ book held by one clustered service. A node may run several RFQ services, each owning the
+ * RFQs on a deterministic hash partition of the cusips, so that RFQ processing uses one core per partition.
+ * <p>
+ * Every service reads the whole log. Instruments and users are replicated: every partition applies their commands,
+ * and the coordinator, partition 0, answers them. RFQ commands are applied and answered only by the partition owning
+ * the RFQ. RFQ ids are interleaved across partitions, so the owner of an RFQ is known from its id alone. Every node
+ * must run the same number of partitions, and the number cannot change while snapshots taken with another number are
+ * in use.
+ * <p>
+ * The cluster may also be one shard of several independent RFQ clusters behind the gateway. Each shard holds the
+ * RFQs on its own cusips, and RFQ ids are interleaved over the partitions of every shard, as set out in
+ * {@link RfqRouting}.
+ */
+public final class Partitions
+{
+    /**
+     * The partition answering replicated commands
+     */
+    public static final int COORDINATOR = 0;
+
+    /**
+     * A single partition owning every RFQ
+     */
+    public static final Partitions SINGLE = new Partitions(COORDINATOR, 1);
+
+    private final int shard;
+    private final int shardCount;
+    private final int partition;
+    private final int partitionCount;
+
+    /**
+     * Constructor
+     *
+     * @param partition      the partition held by the service, from 0
+     * @param partitionCount the number of partitions
+     */
+    public Partitions(final int partition, final int partitionCount)
+    {
+        this(0, 1, partition, partitionCount);
+    }
+
+    /**
+     * Constructor for a partition of one shard of several RFQ clusters
+     *
+     * @param shard          the shard of the cluster, from 0
+     * @param shardCount     the number of shards
+     * @param partition      the partition held by the service, from 0
+     * @param partitionCount the number of partitions in each shard
+     */
+    public Partitions(final int shard, final int shardCount, final int partition, final int partitionCount)
+    {
+        if (shardCount < 1 || shard < 0 || shard >= shardCount)
+        {
+            throw new IllegalArgumentException("invalid shard " + shard + " of " + shardCount);
+        }
+        if (partitionCount < 1 || partition < 0 || partition >= partitionCount)
+        {
+            throw new IllegalArgumentException("invalid partition " + partition + " of " + partitionCount);
+        }
+        this.shard = shard;
+        this.shardCount = shardCount;
+        this.partition = partition;
+        this.partitionCount = partitionCount;
+    }
+
+    /**
+     * Reads the number of partitions from the environment variable RFQ_PARTITIONS or the system property
+     * rfq.partitions, defaulting to 1
+     *
+     * @return the number of partitions
+     */
+    public static int partitionCountFromEnvironment()
+    {
+        String value = System.getenv("RFQ_PARTITIONS");
+        if (null == value || value.isEmpty())
+        {
+            value = System.getProperty("rfq.partitions", "1");
+        }
+        return Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Reads the shard of the cluster from the environment variable RFQ_SHARD or the system property rfq.shard,
+     * defaulting to 0
+     *
+     * @return the shard, from 0
+     */
+    public static int shardFromEnvironment()
+    {
+        String value = System.getenv("RFQ_SHARD");
+        if (null == value || value.isEmpty())
+        {
+            value = System.getProperty("rfq.shard", "0");
+        }
+        return Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Reads the number of shards from the environment variable RFQ_SHARD_COUNT or the system property
+     * rfq.shard.count, defaulting to 1
+     *
+     * @return the number of shards
+     */
+    public static int shardCountFromEnvironment()
+    {
+        String value = System.getenv("RFQ_SHARD_COUNT");
+        if (null == value || value.isEmpty())
+        {
+            value = System.getProperty("rfq.shard.count", "1");
+        }
+        return Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Gets another partition of the same shard
+     *
+     * @param partition the partition, from 0
+     * @return the partitions of the other service
+     */
+    public Partitions withPartition(final int partition)
+    {
+        return new Partitions(shard, shardCount, partition, partitionCount);
+    }
+
+    /**
+     * Gets the shard of the cluster
+     *
+     * @return the shard, from 0
+     */
+    public int shard()
+    {
+        return shard;
+    }
+
+    /**
+     * Gets the number of shards
+     *
+     * @return the number of shards
+     */
+    public int shardCount()
+    {
+        return shardCount;
+    }
+
+    /**
+     * Gets the partition held by the service
+     *
+     * @return the partition, from 0
+     */
+    public int partition()
+    {
+        return partition;
+    }
+
+    /**
+     * Gets the number of partitions
+     *
+     * @return the number of partitions
+     */
+    public int partitionCount()
+    {
+        return partitionCount;
+    }
+
+    /**
+     * Gets the partition's number among the partitions of every shard, which tags the sequence of its RFQ events
+     *
+     * @return the book partition, from 0
+     */
+    public int bookPartition()
+    {
+        return RfqRouting.bookPartition(shard, shardCount, partition);
+    }
+
+    /**
+     * Gets the number of partitions over every shard
+     *
+     * @return the book partition count
+     */
+    public int bookPartitionCount()
+    {
+        return shardCount * partitionCount;
+    }
+
+    /**
+     * Checks if the service broadcasts instrument events, and sends the instruments in book snapshots. Only the
+     * coordinator of the first shard does, as the gateway passes back instrument events from the first shard only.
+     *
+     * @return true for book partition 0
+     */
+    public boolean isFirstBookPartition()
+    {
+        return 0 == shard && isCoordinator();
+    }
+
+    /**
+     * Checks if the service answers replicated commands
+     *
+     * @return true for partition 0
+     */
+    public boolean isCoordinator()
+    {
+        return partition == COORDINATOR;
+    }
+
+    /**
+     * Gets the partition owning the RFQs on an instrument. String.hashCode is specified by the language, so every
+     * node agrees on it.
+     *
+     * @param cusip the cusip of the instrument
+     * @return the owning partition
+     */
+    public int partitionOfCusip(final String cusip)
+    {
+        return RfqRouting.partitionOfCusip(cusip, shardCount, partitionCount);
+    }
+
+    /**
+     * Gets the partition owning the RFQs on an instrument, from the cusip's characters as copied from a message
+     *
+     * @param cusip the cusip's characters, up to the first zero or the first nine
+     * @return the owning partition
+     */
+    public int partitionOfCusip(final byte[] cusip)
+    {
+        return RfqRouting.partitionOfCusip(cusip, shardCount, partitionCount);
+    }
+
+    /**
+     * Gets the partition owning an RFQ
+     *
+     * @param rfqId the RFQ id
+     * @return the owning partition
+     */
+    public int partitionOfRfq(final int rfqId)
+    {
+        return RfqRouting.partitionOfRfq(rfqId, shardCount, partitionCount);
+    }
+
+    /**
+     * Assigns the RFQ id following the last one assigned by this partition. Ids are 1, 2, 3... for a single
+     * partition; with N partitions of a single shard, partition p assigns p + 1, p + 1 + N, p + 1 + 2N...
+     *
+     * @param lastRfqId the last RFQ id assigned by this partition, or 0 if none
+     * @return the next RFQ id
+     */
+    public int nextRfqId(final int lastRfqId)
+    {
+        return RfqRouting.nextRfqId(lastRfqId, shard, shardCount, partition, partitionCount);
+    }
+
+    @Override
+    public String toString()
+    {
+        return 1 == shardCount ? "partition " + partition + " of " + partitionCount :
+            "shard " + shard + " of " + shardCount + ", partition " + partition + " of " + partitionCount;
+    }
+}
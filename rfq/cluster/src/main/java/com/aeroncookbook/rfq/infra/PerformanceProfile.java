@@ -0,0 +1,198 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aeroncookbook.rfq.infra;
+
+import io.aeron.archive.ArchiveThreadingMode;
+import io.aeron.cluster.ClusteredMediaDriver;
+import io.aeron.cluster.ConsensusModule;
+import io.aeron.driver.ThreadingMode;
+import io.aeron.samples.cluster.ClusterConfig;
+import org.agrona.concurrent.BackoffIdleStrategy;
+import org.agrona.concurrent.BusySpinIdleStrategy;
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.SleepingMillisIdleStrategy;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Named trade-offs between latency and resource use for a cluster node, applied consistently to the media driver,
+ * archive, consensus module and clustered service contexts, so a node can be moved between latency and resource
+ * modes by configuration alone. The profile only affects the node it is set on, but the heartbeat timeout should be
+ * the same on every node.
+ */
+public enum PerformanceProfile
+{
+    /**
+     * Dedicated threads for the driver and archive, with the sender, receiver, recorder, consensus module and
+     * services busy spinning, memory pre-touched, and a 1s leader heartbeat timeout for faster failover. Needs a core
+     * per spinning thread.
+     */
+    LOW_LATENCY(
+        ThreadingMode.DEDICATED, ArchiveThreadingMode.DEDICATED, BusySpinIdleStrategy::new, true,
+        TimeUnit.SECONDS.toNanos(1)),
+
+    /**
+     * Shared driver and archive threads with backoff idle strategies, and a 3s leader heartbeat timeout
+     */
+    BALANCED(
+        ThreadingMode.SHARED, ArchiveThreadingMode.SHARED, BackoffIdleStrategy::new, false,
+        TimeUnit.SECONDS.toNanos(3)),
+
+    /**
+     * Shared driver and archive threads sleeping for 1ms when idle, and a 5s leader heartbeat timeout, allowing for
+     * the slower response
+     */
+    LOW_CPU(
+        ThreadingMode.SHARED, ArchiveThreadingMode.SHARED, () -> new SleepingMillisIdleStrategy(1), false,
+        TimeUnit.SECONDS.toNanos(5));
+
+    /**
+     * Aeron counter type id for the performance profile counter
+     */
+    public static final int PROFILE_COUNTER_TYPE_ID = 1103;
+
+    // sender, receiver and archive recorder, besides the consensus module and services
+    private static final int DEDICATED_SPINNING_THREADS = 3;
+
+    private final ThreadingMode driverThreadingMode;
+    private final ArchiveThreadingMode archiveThreadingMode;
+    private final Supplier<IdleStrategy> idleStrategySupplier;
+    private final boolean preTouchMemory;
+    private final long leaderHeartbeatTimeoutNs;
+
+    PerformanceProfile(
+        final ThreadingMode driverThreadingMode,
+        final ArchiveThreadingMode archiveThreadingMode,
+        final Supplier<IdleStrategy> idleStrategySupplier,
+        final boolean preTouchMemory,
+        final long leaderHeartbeatTimeoutNs)
+    {
+        this.driverThreadingMode = driverThreadingMode;
+        this.archiveThreadingMode = archiveThreadingMode;
+        this.idleStrategySupplier = idleStrategySupplier;
+        this.preTouchMemory = preTouchMemory;
+        this.leaderHeartbeatTimeoutNs = leaderHeartbeatTimeoutNs;
+    }
+
+    /**
+     * Reads the profile from the environment variable PERFORMANCE_PROFILE or the system property
+     * performance.profile, defaulting to {@link #BALANCED}
+     *
+     * @return the profile
+     * @throws IllegalArgumentException if the profile is not known
+     */
+    public static PerformanceProfile fromEnvironment()
+    {
+        String value = System.getenv("PERFORMANCE_PROFILE");
+        if (null == value || value.isEmpty())
+        {
+            value = System.getProperty("performance.profile", BALANCED.name());
+        }
+
+        final String name = value.trim().toUpperCase(Locale.ROOT).replace('-', '_');
+        for (final PerformanceProfile profile : values())
+        {
+            if (profile.name().equals(name))
+            {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException("unknown performance profile " + value + ", expected one of " +
+            Arrays.toString(values()));
+    }
+
+    /**
+     * Checks the node can run the profile
+     *
+     * @param serviceCount        the number of clustered services on the node
+     * @param availableProcessors the number of processors available
+     * @throws IllegalStateException if there are fewer processors than busy spinning threads
+     */
+    public void validate(final int serviceCount, final int availableProcessors)
+    {
+        if (this == LOW_LATENCY)
+        {
+            final int spinningThreads = DEDICATED_SPINNING_THREADS + 1 + serviceCount;
+            if (availableProcessors < spinningThreads)
+            {
+                throw new IllegalStateException(this + " needs a processor for each of " + spinningThreads +
+                    " busy spinning threads, only " + availableProcessors + " are available; use " + BALANCED);
+            }
+        }
+    }
+
+    /**
+     * Applies the profile to the contexts of the cluster config, before the service contexts are copied from it. An
+     * {@code aeron.cluster.leader.heartbeat.timeout} system property takes precedence over the profile's timeout.
+     *
+     * @param clusterConfig the cluster config
+     */
+    public void apply(final ClusterConfig clusterConfig)
+    {
+        clusterConfig.mediaDriverContext()
+            .threadingMode(driverThreadingMode)
+            .sharedIdleStrategy(idleStrategySupplier.get())
+            .senderIdleStrategy(idleStrategySupplier.get())
+            .receiverIdleStrategy(idleStrategySupplier.get())
+            .conductorIdleStrategy(backgroundIdleStrategySupplier().get())
+            .termBufferSparseFile(!preTouchMemory)
+            .preTouchMappedMemory(preTouchMemory);
+        clusterConfig.archiveContext()
+            .threadingMode(archiveThreadingMode)
+            .idleStrategySupplier(backgroundIdleStrategySupplier())
+            .recorderIdleStrategySupplier(idleStrategySupplier)
+            .replayerIdleStrategySupplier(backgroundIdleStrategySupplier());
+        clusterConfig.consensusModuleContext().idleStrategySupplier(idleStrategySupplier);
+        if (null == System.getProperty(ConsensusModule.Configuration.LEADER_HEARTBEAT_TIMEOUT_PROP_NAME))
+        {
+            clusterConfig.consensusModuleContext().leaderHeartbeatTimeoutNs(leaderHeartbeatTimeoutNs);
+        }
+        clusterConfig.clusteredServiceContext()
+            .idleStrategySupplier(idleStrategySupplier);
+    }
+
+    /**
+     * Reports the profile as an Aeron counter (type id 1103, label {@code rfq-performance-profile: <profile>}, value
+     * the profile's ordinal) on the node's driver, visible with aeronstat
+     *
+     * @param clusteredMediaDriver the launched clustered media driver
+     */
+    public void report(final ClusteredMediaDriver clusteredMediaDriver)
+    {
+        clusteredMediaDriver.consensusModule().context().aeron()
+            .addCounter(PROFILE_COUNTER_TYPE_ID, "rfq-performance-profile: " + this)
+            .set(ordinal());
+    }
+
+    // conductors and the replayer are off the latency path, so they never spin
+    private Supplier<IdleStrategy> backgroundIdleStrategySupplier()
+    {
+        return this == LOW_LATENCY ? BackoffIdleStrategy::new : idleStrategySupplier;
+    }
+
+    /**
+     * Gets the leader heartbeat timeout of the profile
+     *
+     * @return the timeout in nanoseconds
+     */
+    public long leaderHeartbeatTimeoutNs()
+    {
+        return leaderHeartbeatTimeoutNs;
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.infra;
+
+import com.aeroncookbook.rfq.domain.users.Users;
+import org.agrona.BitUtil;
+import org.agrona.collections.Long2LongHashMap;
+import org.agrona.collections.Long2ObjectHashMap;
+
+import java.util.ArrayDeque;
+
+/**
+ * Bounded cache of the confirms recently sent per requester, keyed by request correlation id. Used to answer
+ * a retried command with its original confirm instead of applying it twice.
+ * <p>
+ * Requests from an authenticated user are keyed by the user, so a command replayed on a new session after a
+ * failover or reconnect is still recognised; clients must keep correlation ids unique per user for the retention
+ * period. Requests from anonymous sessions are keyed by the session, as nothing else identifies them.
+ * <p>
+ * Entries are held in a ring in cluster time order, and are evicted once older than the retention period, or when
+ * the ring is full. All inputs come from the replicated log, so every node holds the same entries.
+ */
+public class ProcessedRequests
+{
+    /**
+     * Default number of entries held across all sessions
+     */
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    /**
+     * Default time, in cluster time units, for which a confirm is retained
+     */
+    public static final long DEFAULT_RETENTION = 60_000;
+
+    private static final long NOT_FOUND = -1;
+    private static final long USER_KEY_FLAG = Long.MIN_VALUE;
+
+    private final Long2ObjectHashMap<Long2LongHashMap> positionByCorrelationByRequester = new Long2ObjectHashMap<>();
+    private final ArrayDeque<Long2LongHashMap> spareMaps = new ArrayDeque<>();
+    private final long retention;
+    private final int mask;
+    private final long[] requesterKeys;
+    private final long[] correlations;
+    private final long[] timestamps;
+    private final int[] confirmTemplateIds;
+    private final int[] rfqIds;
+    private final int[] results;
+    private long head = 0;
+    private long tail = 0;
+    private long foundPosition = NOT_FOUND;
+
+    /**
+     * Constructor using the default capacity and retention
+     */
+    public ProcessedRequests()
+    {
+        this(DEFAULT_CAPACITY, DEFAULT_RETENTION);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param capacity  the maximum number of entries held, rounded up to a power of two
+     * @param retention the time, in cluster time units, for which a confirm is retained
+     */
+    public ProcessedRequests(final int capacity, final long retention)
+    {
+        final int length = BitUtil.findNextPositivePowerOfTwo(capacity);
+        this.retention = retention;
+        this.mask = length - 1;
+        this.requesterKeys = new long[length];
+        this.correlations = new long[length];
+        this.timestamps = new long[length];
+        this.confirmTemplateIds = new int[length];
+        this.rfqIds = new int[length];
+        this.results = new int[length];
+    }
+
+    /**
+     * Gets the key requests are cached under: the user for an authenticated session, otherwise the session. Session
+     * ids are never negative, so the two cannot collide.
+     *
+     * @param sessionId the session the request arrived on
+     * @param userId    the user the session is bound to, or {@link Users#NO_USER}
+     * @return the requester key
+     */
+    public static long requesterKey(final long sessionId, final int userId)
+    {
+        return Users.NO_USER == userId ? sessionId : USER_KEY_FLAG | Integer.toUnsignedLong(userId);
+    }
+
+    /**
+     * Looks up a request. On success the original confirm is available from {@link #confirmTemplateId()},
+     * {@link #rfqId()} and {@link #result()} until the next call.
+     *
+     * @param requesterKey the {@link #requesterKey(long, int)} of the request
+     * @param correlation  the correlation id of the request
+     * @param now          the current cluster time
+     * @return true if the request has already been processed
+     */
+    public boolean find(final long requesterKey, final long correlation, final long now)
+    {
+        evictExpired(now);
+        final Long2LongHashMap positionByCorrelation = positionByCorrelationByRequester.get(requesterKey);
+        foundPosition = null == positionByCorrelation ? NOT_FOUND : positionByCorrelation.get(correlation);
+        return foundPosition != NOT_FOUND;
+    }
+
+    /**
+     * Records the confirm sent for a request
+     *
+     * @param requesterKey      the {@link #requesterKey(long, int)} of the request
+     * @param correlation       the correlation id of the request
+     * @param timestamp         the cluster time the request was processed at
+     * @param confirmTemplateId the SBE template id of the confirm sent
+     * @param rfqId             the RFQ id in the confirm, or -1 if it carries none
+     * @param result            the result code in the confirm
+     */
+    public void record(
+        final long requesterKey,
+        final long correlation,
+        final long timestamp,
+        final int confirmTemplateId,
+        final int rfqId,
+        final int result)
+    {
+        evictExpired(timestamp);
+        if (head - tail > mask)
+        {
+            evictOldest();
+        }
+
+        final int index = (int)(head & mask);
+        requesterKeys[index] = requesterKey;
+        correlations[index] = correlation;
+        timestamps[index] = timestamp;
+        confirmTemplateIds[index] = confirmTemplateId;
+        rfqIds[index] = rfqId;
+        results[index] = result;
+
+        Long2LongHashMap positionByCorrelation = positionByCorrelationByRequester.get(requesterKey);
+        if (null == positionByCorrelation)
+        {
+            positionByCorrelation = spareMaps.isEmpty() ? new Long2LongHashMap(NOT_FOUND) : spareMaps.poll();
+            positionByCorrelationByRequester.put(requesterKey, positionByCorrelation);
+        }
+        positionByCorrelation.put(correlation, head);
+        head++;
+    }
+
+    /**
+     * Drops all entries for a closed anonymous session. Session ids are never reused, so they can no longer match.
+     * Entries of a user are kept until they expire, as the user's retries may arrive on a later session.
+     *
+     * @param sessionId the session that closed
+     */
+    public void removeSession(final long sessionId)
+    {
+        removeRequester(sessionId);
+    }
+
+    /**
+     * Visits all live entries, oldest first. Used when writing a snapshot.
+     *
+     * @param consumer the consumer of each entry
+     */
+    public void forEach(final EntryConsumer consumer)
+    {
+        for (long position = tail; position < head; position++)
+        {
+            final int index = (int)(position & mask);
+            final Long2LongHashMap positionByCorrelation = positionByCorrelationByRequester.get(requesterKeys[index]);
+            if (null != positionByCorrelation && positionByCorrelation.get(correlations[index]) == position)
+            {
+                consumer.accept(
+                    requesterKeys[index],
+                    correlations[index],
+                    timestamps[index],
+                    confirmTemplateIds[index],
+                    rfqIds[index],
+                    results[index]);
+            }
+        }
+    }
+
+    /**
+     * The number of entries held, including those of closed anonymous sessions not yet evicted
+     *
+     * @return the number of entries held
+     */
+    public int size()
+    {
+        return (int)(head - tail);
+    }
+
+    /**
+     * The confirm template id of the last request found
+     *
+     * @return the SBE template id of the original confirm
+     */
+    public int confirmTemplateId()
+    {
+        return confirmTemplateIds[(int)(foundPosition & mask)];
+    }
+
+    /**
+     * The RFQ id of the last request found
+     *
+     * @return the RFQ id in the original confirm
+     */
+    public int rfqId()
+    {
+        return rfqIds[(int)(foundPosition & mask)];
+    }
+
+    /**
+     * The result code of the last request found
+     *
+     * @return the result code in the original confirm
+     */
+    public int result()
+    {
+        return results[(int)(foundPosition & mask)];
+    }
+
+    private void evictExpired(final long now)
+    {
+        while (tail < head && timestamps[(int)(tail & mask)] <= now - retention)
+        {
+            evictOldest();
+        }
+    }
+
+    private void evictOldest()
+    {
+        final int index = (int)(tail & mask);
+        final long requesterKey = requesterKeys[index];
+        final Long2LongHashMap positionByCorrelation = positionByCorrelationByRequester.get(requesterKey);
+        if (null != positionByCorrelation && positionByCorrelation.get(correlations[index]) == tail)
+        {
+            positionByCorrelation.remove(correlations[index]);
+            if (positionByCorrelation.isEmpty())
+            {
+                removeRequester(requesterKey);
+            }
+        }
+        tail++;
+    }
+
+    private void removeRequester(final long requesterKey)
+    {
+        final Long2LongHashMap positionByCorrelation = positionByCorrelationByRequester.remove(requesterKey);
+        if (null != positionByCorrelation)
+        {
+            positionByCorrelation.clear();
+            spareMaps.add(positionByCorrelation);
+        }
+    }
+
+    /**
+     * Receives the entries of the cache
+     */
+    @FunctionalInterface
+    public interface EntryConsumer
+    {
+        /**
+         * Accepts an entry
+         *
+         * @param requesterKey      the {@link #requesterKey(long, int)} of the request
+         * @param correlation       the correlation id of the request
+         * @param timestamp         the cluster time the request was processed at
+         * @param confirmTemplateId the SBE template id of the confirm sent
+         * @param rfqId             the RFQ id in the confirm
+         * @param result            the result code in the confirm
+         */
+        void accept(
+            long requesterKey,
+            long correlation,
+            long timestamp,
+            int confirmTemplateId,
+            int rfqId,
+            int result);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aeroncookbook.rfq.infra;
+
+import com.aeroncookbook.rfq.domain.users.UserClass;
+
+import java.util.Locale;
+
+import static java.lang.Long.parseLong;
+
+/**
+ * Ingress rate limits per {@link UserClass}. Every cluster node must be configured with the same limits, as they
+ * decide which commands are applied.
+ */
+public final class RateLimits
+{
+    private static final long[] DEFAULT_RATE_PER_SECOND = {50, 500, 100};
+    private static final long[] DEFAULT_BURST = {100, 1000, 1000};
+
+    private final long[] ratePerSecond = new long[UserClass.values().length];
+    private final long[] burst = new long[UserClass.values().length];
+
+    private RateLimits()
+    {
+    }
+
+    /**
+     * Default limits: traders 50/s (burst 100), market makers 500/s (burst 1000), admins 100/s (burst 1000)
+     *
+     * @return the default limits
+     */
+    public static RateLimits defaults()
+    {
+        final RateLimits limits = new RateLimits();
+        for (final UserClass userClass : UserClass.values())
+        {
+            limits.set(userClass, DEFAULT_RATE_PER_SECOND[userClass.ordinal()], DEFAULT_BURST[userClass.ordinal()]);
+        }
+        return limits;
+    }
+
+    /**
+     * Reads the limits from the environment variables RATE_LIMIT_&lt;CLASS&gt;_PER_SECOND and
+     * RATE_LIMIT_&lt;CLASS&gt;_BURST, or the system properties rate.limit.&lt;class&gt;.per.second and
+     * rate.limit.&lt;class&gt;.burst, falling back to the defaults
+     *
+     * @return the configured limits
+     */
+    public static RateLimits fromEnvironment()
+    {
+        final RateLimits limits = defaults();
+        for (final UserClass userClass : UserClass.values())
+        {
+            limits.set(
+                userClass,
+                read(userClass, "PER_SECOND", limits.ratePerSecond(userClass)),
+                read(userClass, "BURST", limits.burst(userClass)));
+        }
+        return limits;
+    }
+
+    /**
+     * Sets the limits for a user class
+     *
+     * @param userClass     the user class
+     * @param ratePerSecond the sustained number of commands per second
+     * @param burst         the number of commands that may be sent at once after a quiet period
+     * @return this for a fluent API
+     */
+    public RateLimits set(final UserClass userClass, final long ratePerSecond, final long burst)
+    {
+        if (ratePerSecond < 0 || burst < 1)
+        {
+            throw new IllegalArgumentException("invalid rate limit for " + userClass + ": " + ratePerSecond +
+                "/s burst " + burst);
+        }
+        this.ratePerSecond[userClass.ordinal()] = ratePerSecond;
+        this.burst[userClass.ordinal()] = burst;
+        return this;
+    }
+
+    /**
+     * The sustained rate for a user class
+     *
+     * @param userClass the user class
+     * @return commands per second
+     */
+    public long ratePerSecond(final UserClass userClass)
+    {
+        return ratePerSecond[userClass.ordinal()];
+    }
+
+    /**
+     * The burst size for a user class
+     *
+     * @param userClass the user class
+     * @return the maximum number of commands admitted at once
+     */
+    public long burst(final UserClass userClass)
+    {
+        return burst[userClass.ordinal()];
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder builder = new StringBuilder("RateLimits{");
+        for (final UserClass userClass : UserClass.values())
+        {
+            builder.append(userClass).append('=').append(ratePerSecond(userClass)).append("/s burst ")
+                .append(burst(userClass)).append(userClass.ordinal() < burst.length - 1 ? ", " : "}");
+        }
+        return builder.toString();
+    }
+
+    private static long read(final UserClass userClass, final String suffix, final long defaultValue)
+    {
+        final String name = userClass.name() + "_" + suffix;
+        String value = System.getenv("RATE_LIMIT_" + name);
+        if (null == value || value.isEmpty())
+        {
+            value = System.getProperty("rate.limit." + name.toLowerCase(Locale.ROOT).replace('_', '.'));
+        }
+        return null == value || value.isEmpty() ? defaultValue : parseLong(value.trim());
+    }
+}
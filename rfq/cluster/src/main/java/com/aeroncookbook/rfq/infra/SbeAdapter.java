@@ -16,8 +16,11 @@
 
 package com.aeroncookbook.rfq.infra;
 
+import com.aeroncookbook.cluster.rfq.Cusips;
 import com.aeroncookbook.cluster.rfq.sbe.AcceptRfqCommandDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentsDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.AddUserCommandDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.BooleanType;
 import com.aeroncookbook.cluster.rfq.sbe.CancelRfqCommandDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.CounterRfqCommandDecoder;
@@ -25,17 +28,28 @@ import com.aeroncookbook.cluster.rfq.sbe.CreateRfqCommandDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.InstrumentRecordDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.InstrumentRecordEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.ListInstrumentsCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.ListRfqsCommandDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.QuoteRfqCommandDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.RejectRfqCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqBookSnapshotCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqStatus;
 import com.aeroncookbook.cluster.rfq.sbe.SetInstrumentEnabledFlagDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.SetUserEnabledFlagCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.SetUserEntitlementCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.UserClassType;
 import com.aeroncookbook.rfq.domain.instrument.InstrumentAddType;
 import com.aeroncookbook.rfq.domain.instrument.Instruments;
 import com.aeroncookbook.rfq.domain.rfq.Rfqs;
+import com.aeroncookbook.rfq.domain.rfq.states.RfqStates;
+import com.aeroncookbook.rfq.domain.users.UserClass;
+import com.aeroncookbook.rfq.domain.users.Users;
 import org.agrona.DirectBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+
 /**
  * Demultiplexes messages from the ingress stream to the appropriate domain handler.
  */
@@ -44,12 +58,16 @@ public class SbeAdapter
     private static final Logger LOGGER = LoggerFactory.getLogger(SbeAdapter.class);
     private final Instruments instruments;
     private final Rfqs rfqs;
+    private final Users users;
     private final ClusterClientResponder responder;
+    private final SessionMessageContext context;
+    private final Partitions partitions;
 
     private final MessageHeaderDecoder headerDecoder = new MessageHeaderDecoder();
     private final InstrumentRecordDecoder instrumentRecordDecoder = new InstrumentRecordDecoder();
     private final ListInstrumentsCommandDecoder listInstrumentsCommandDecoder = new ListInstrumentsCommandDecoder();
     private final AddInstrumentDecoder addInstrumentDecoder = new AddInstrumentDecoder();
+    private final AddInstrumentsDecoder addInstrumentsDecoder = new AddInstrumentsDecoder();
     private final CreateRfqCommandDecoder createRfqCommandDecoder = new CreateRfqCommandDecoder();
     private final SetInstrumentEnabledFlagDecoder setInstrumentEnabledDecoder = new SetInstrumentEnabledFlagDecoder();
     private final CancelRfqCommandDecoder cancelRfqCommandDecoder = new CancelRfqCommandDecoder();
@@ -57,26 +75,46 @@ public class SbeAdapter
     private final CounterRfqCommandDecoder counterRfqCommandDecoder = new CounterRfqCommandDecoder();
     private final AcceptRfqCommandDecoder acceptRfqCommandDecoder = new AcceptRfqCommandDecoder();
     private final RejectRfqCommandDecoder rejectRfqCommandDecoder = new RejectRfqCommandDecoder();
+    private final RfqBookSnapshotCommandDecoder rfqBookSnapshotCommandDecoder = new RfqBookSnapshotCommandDecoder();
+    private final ListRfqsCommandDecoder listRfqsCommandDecoder = new ListRfqsCommandDecoder();
+    private final AddUserCommandDecoder addUserCommandDecoder = new AddUserCommandDecoder();
+    private final SetUserEnabledFlagCommandDecoder setUserEnabledFlagCommandDecoder =
+        new SetUserEnabledFlagCommandDecoder();
+    private final SetUserEntitlementCommandDecoder setUserEntitlementCommandDecoder =
+        new SetUserEntitlementCommandDecoder();
+    private final byte[] cusip = new byte[Cusips.CUSIP_LENGTH];
 
     /**
      * Dispatches ingress messages to domain logic.
      *
      * @param instruments the instrument domain model to which commands are dispatched
      * @param rfqs        the RFQ domain model to which commands are dispatched
+     * @param users       the user registry to which commands are dispatched
      * @param responder   the responder to which responses are sent
+     * @param context     the session message context, giving the user the sending session is bound to
+     * @param partitions  the partition of the RFQ book held by the service
      */
     public SbeAdapter(
         final Instruments instruments,
         final Rfqs rfqs,
-        final ClusterClientResponder responder)
+        final Users users,
+        final ClusterClientResponder responder,
+        final SessionMessageContext context,
+        final Partitions partitions)
     {
         this.instruments = instruments;
         this.rfqs = rfqs;
+        this.users = users;
         this.responder = responder;
+        this.context = context;
+        this.partitions = partitions;
     }
 
     /**
-     * Dispatch a message to the appropriate domain handler.
+     * Dispatch a message to the appropriate domain handler. Commands which change state are dropped if the session
+     * already sent them, with the original confirm sent again instead. RFQ commands act as the user the session was
+     * authenticated as, never a user id carried in the message. Instrument and user commands are applied by every
+     * partition and answered by the coordinator; RFQ commands are applied and answered by the owning partition only.
      *
      * @param buffer the buffer containing the inbound message, including a header
      * @param offset the offset to apply
@@ -90,10 +128,12 @@ public class SbeAdapter
             return;
         }
         headerDecoder.wrap(buffer, offset);
+        context.setMuted(!partitions.isCoordinator());
 
         switch (headerDecoder.templateId())
         {
             case AddInstrumentDecoder.TEMPLATE_ID -> addInstrument(buffer, offset);
+            case AddInstrumentsDecoder.TEMPLATE_ID -> addInstruments(buffer, offset);
             case SetInstrumentEnabledFlagDecoder.TEMPLATE_ID -> setInstrumentEnabledFlag(buffer, offset);
             case InstrumentRecordEncoder.TEMPLATE_ID -> initializeInstrument(buffer, offset);
             case ListInstrumentsCommandDecoder.TEMPLATE_ID -> listInstruments(buffer, offset);
@@ -103,73 +143,302 @@ public class SbeAdapter
             case CounterRfqCommandDecoder.TEMPLATE_ID -> counterRfq(buffer, offset);
             case AcceptRfqCommandDecoder.TEMPLATE_ID -> acceptRfq(buffer, offset);
             case RejectRfqCommandDecoder.TEMPLATE_ID -> rejectRfq(buffer, offset);
+            case RfqBookSnapshotCommandDecoder.TEMPLATE_ID -> rfqBookSnapshot(buffer, offset);
+            case ListRfqsCommandDecoder.TEMPLATE_ID -> listRfqs(buffer, offset);
+            case AddUserCommandDecoder.TEMPLATE_ID -> addUser(buffer, offset);
+            case SetUserEnabledFlagCommandDecoder.TEMPLATE_ID -> setUserEnabledFlag(buffer, offset);
+            case SetUserEntitlementCommandDecoder.TEMPLATE_ID -> setUserEntitlement(buffer, offset);
             default -> LOGGER.error("Unknown message template {}, ignored.", headerDecoder.templateId());
         }
     }
 
+    /**
+     * Handles a message from a session that has exceeded its rate limit. Commands are rejected with a THROTTLED
+     * result without being applied. Book snapshot requests are still served, as a client only sends one after a gap
+     * and cannot make progress without the reply.
+     *
+     * @param buffer the buffer containing the inbound message, including a header
+     * @param offset the offset to apply
+     * @param length the length of the message
+     */
+    public void dispatchThrottled(final DirectBuffer buffer, final int offset, final int length)
+    {
+        if (length < MessageHeaderDecoder.ENCODED_LENGTH)
+        {
+            LOGGER.error("Message too short, ignored.");
+            return;
+        }
+        headerDecoder.wrap(buffer, offset);
+
+        final int templateId = headerDecoder.templateId();
+        final long correlation;
+        int owner = Partitions.COORDINATOR;
+        switch (templateId)
+        {
+            case AddInstrumentDecoder.TEMPLATE_ID ->
+                correlation = addInstrumentDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder).correlation();
+            case AddInstrumentsDecoder.TEMPLATE_ID ->
+                correlation = addInstrumentsDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder).correlation();
+            case SetInstrumentEnabledFlagDecoder.TEMPLATE_ID -> correlation =
+                setInstrumentEnabledDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder).correlation();
+            case ListInstrumentsCommandDecoder.TEMPLATE_ID -> correlation =
+                listInstrumentsCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder).correlation();
+            case CreateRfqCommandDecoder.TEMPLATE_ID ->
+            {
+                correlation = createRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder).correlation();
+                createRfqCommandDecoder.getCusip(cusip, 0);
+                owner = partitions.partitionOfCusip(cusip);
+            }
+            case CancelRfqCommandDecoder.TEMPLATE_ID ->
+            {
+                correlation = cancelRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder).correlation();
+                owner = partitions.partitionOfRfq(cancelRfqCommandDecoder.rfqId());
+            }
+            case QuoteRfqCommandDecoder.TEMPLATE_ID ->
+            {
+                correlation = quoteRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder).correlation();
+                owner = partitions.partitionOfRfq(quoteRfqCommandDecoder.rfqId());
+            }
+            case CounterRfqCommandDecoder.TEMPLATE_ID ->
+            {
+                correlation = counterRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder).correlation();
+                owner = partitions.partitionOfRfq(counterRfqCommandDecoder.rfqId());
+            }
+            case AcceptRfqCommandDecoder.TEMPLATE_ID ->
+            {
+                correlation = acceptRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder).correlation();
+                owner = partitions.partitionOfRfq(acceptRfqCommandDecoder.rfqId());
+            }
+            case RejectRfqCommandDecoder.TEMPLATE_ID ->
+            {
+                correlation = rejectRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder).correlation();
+                owner = partitions.partitionOfRfq(rejectRfqCommandDecoder.rfqId());
+            }
+            case AddUserCommandDecoder.TEMPLATE_ID ->
+                correlation = addUserCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder).correlation();
+            case SetUserEnabledFlagCommandDecoder.TEMPLATE_ID -> correlation =
+                setUserEnabledFlagCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder).correlation();
+            case SetUserEntitlementCommandDecoder.TEMPLATE_ID -> correlation =
+                setUserEntitlementCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder).correlation();
+            case ListRfqsCommandDecoder.TEMPLATE_ID ->
+                correlation = listRfqsCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder).correlation();
+            case RfqBookSnapshotCommandDecoder.TEMPLATE_ID ->
+            {
+                correlation =
+                    rfqBookSnapshotCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder).correlation();
+                //every partition answers a snapshot request, so every partition refuses it
+                owner = partitions.partition();
+            }
+            case InstrumentRecordEncoder.TEMPLATE_ID ->
+            {
+                LOGGER.warn("Instrument record throttled, ignored.");
+                return;
+            }
+            default ->
+            {
+                LOGGER.error("Unknown message template {}, ignored.", templateId);
+                return;
+            }
+        }
+        context.setMuted(owner != partitions.partition());
+        responder.sendThrottled(templateId, correlation);
+    }
+
+    private void addUser(final DirectBuffer buffer, final int offset)
+    {
+        addUserCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        if (responder.resendConfirmIfProcessed(addUserCommandDecoder.correlation()))
+        {
+            return;
+        }
+        users.addUser(
+            addUserCommandDecoder.correlation(),
+            addUserCommandDecoder.userId(),
+            mapUserClass(addUserCommandDecoder.userClass()),
+            addUserCommandDecoder.entitledToAll().equals(BooleanType.TRUE));
+    }
+
+    private void setUserEnabledFlag(final DirectBuffer buffer, final int offset)
+    {
+        setUserEnabledFlagCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        if (responder.resendConfirmIfProcessed(setUserEnabledFlagCommandDecoder.correlation()))
+        {
+            return;
+        }
+        users.setUserEnabled(
+            setUserEnabledFlagCommandDecoder.correlation(),
+            setUserEnabledFlagCommandDecoder.userId(),
+            setUserEnabledFlagCommandDecoder.enabled().equals(BooleanType.TRUE));
+    }
+
+    private void setUserEntitlement(final DirectBuffer buffer, final int offset)
+    {
+        setUserEntitlementCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        if (responder.resendConfirmIfProcessed(setUserEntitlementCommandDecoder.correlation()))
+        {
+            return;
+        }
+        setUserEntitlementCommandDecoder.getCusip(cusip, 0);
+        users.setUserEntitlement(
+            setUserEntitlementCommandDecoder.correlation(),
+            setUserEntitlementCommandDecoder.userId(),
+            Cusips.pack(cusip),
+            setUserEntitlementCommandDecoder.entitled().equals(BooleanType.TRUE));
+    }
+
+    private static UserClass mapUserClass(final UserClassType userClassType)
+    {
+        return switch (userClassType)
+        {
+            case MARKET_MAKER -> UserClass.MARKET_MAKER;
+            case ADMIN -> UserClass.ADMIN;
+            default -> UserClass.TRADER;
+        };
+    }
+
+    private void rfqBookSnapshot(final DirectBuffer buffer, final int offset)
+    {
+        rfqBookSnapshotCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        //every partition answers with its own open RFQs
+        context.setMuted(false);
+        rfqs.sendBookSnapshot(rfqBookSnapshotCommandDecoder.correlation());
+    }
+
+    private void listRfqs(final DirectBuffer buffer, final int offset)
+    {
+        listRfqsCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        listRfqsCommandDecoder.getCusip(cusip, 0);
+        //a query on one instrument is answered by its partition, any other query by every partition
+        final int owner = 0 == trimCusip() ? partitions.partition() : partitions.partitionOfCusip(cusip);
+        if (!ownsPartition(owner))
+        {
+            return;
+        }
+        final RfqStatus status = listRfqsCommandDecoder.status();
+        rfqs.listRfqs(
+            listRfqsCommandDecoder.correlation(),
+            listRfqsCommandDecoder.userId(),
+            Cusips.pack(cusip),
+            status == RfqStatus.NULL_VAL ? null : RfqStates.fromId((short)status.value()),
+            listRfqsCommandDecoder.afterRfqId(),
+            listRfqsCommandDecoder.limit());
+    }
+
     private void rejectRfq(final DirectBuffer buffer, final int offset)
     {
         rejectRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        if (!ownsPartition(partitions.partitionOfRfq(rejectRfqCommandDecoder.rfqId())))
+        {
+            return;
+        }
+        if (responder.resendConfirmIfProcessed(rejectRfqCommandDecoder.correlation()))
+        {
+            return;
+        }
         rfqs.rejectRfq(
             rejectRfqCommandDecoder.correlation(),
             rejectRfqCommandDecoder.rfqId(),
-            rejectRfqCommandDecoder.responderUserId());
+            context.getUserId());
     }
 
     private void acceptRfq(final DirectBuffer buffer, final int offset)
     {
         acceptRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        if (!ownsPartition(partitions.partitionOfRfq(acceptRfqCommandDecoder.rfqId())))
+        {
+            return;
+        }
+        if (responder.resendConfirmIfProcessed(acceptRfqCommandDecoder.correlation()))
+        {
+            return;
+        }
         rfqs.acceptRfq(
             acceptRfqCommandDecoder.correlation(),
             acceptRfqCommandDecoder.rfqId(),
-            acceptRfqCommandDecoder.acceptUserId());
+            context.getUserId());
     }
 
     private void counterRfq(final DirectBuffer buffer, final int offset)
     {
         counterRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        if (!ownsPartition(partitions.partitionOfRfq(counterRfqCommandDecoder.rfqId())))
+        {
+            return;
+        }
+        if (responder.resendConfirmIfProcessed(counterRfqCommandDecoder.correlation()))
+        {
+            return;
+        }
         rfqs.counterRfq(
             counterRfqCommandDecoder.correlation(),
             counterRfqCommandDecoder.rfqId(),
-            counterRfqCommandDecoder.counterUserId(),
+            context.getUserId(),
             counterRfqCommandDecoder.price());
     }
 
     private void quoteRfq(final DirectBuffer buffer, final int offset)
     {
         quoteRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        if (!ownsPartition(partitions.partitionOfRfq(quoteRfqCommandDecoder.rfqId())))
+        {
+            return;
+        }
+        if (responder.resendConfirmIfProcessed(quoteRfqCommandDecoder.correlation()))
+        {
+            return;
+        }
         rfqs.quoteRfq(
             quoteRfqCommandDecoder.correlation(),
             quoteRfqCommandDecoder.rfqId(),
-            quoteRfqCommandDecoder.responderUserId(),
+            context.getUserId(),
             quoteRfqCommandDecoder.price());
     }
 
     private void cancelRfq(final DirectBuffer buffer, final int offset)
     {
         cancelRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        if (!ownsPartition(partitions.partitionOfRfq(cancelRfqCommandDecoder.rfqId())))
+        {
+            return;
+        }
+        if (responder.resendConfirmIfProcessed(cancelRfqCommandDecoder.correlation()))
+        {
+            return;
+        }
         rfqs.cancelRfq(
             cancelRfqCommandDecoder.correlation(),
             cancelRfqCommandDecoder.rfqId(),
-            cancelRfqCommandDecoder.cancelUserId());
+            context.getUserId());
     }
 
     private void createRfq(final DirectBuffer buffer, final int offset)
     {
         createRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        createRfqCommandDecoder.getCusip(cusip, 0);
+        if (!ownsPartition(partitions.partitionOfCusip(cusip)))
+        {
+            return;
+        }
+        if (responder.resendConfirmIfProcessed(createRfqCommandDecoder.correlation()))
+        {
+            return;
+        }
+        //the new RFQ holds its cusip, so only the owning partition decodes it into a string
         rfqs.createRfq(
             createRfqCommandDecoder.correlation(),
             createRfqCommandDecoder.expireTimeMs(),
             createRfqCommandDecoder.quantity(),
             createRfqCommandDecoder.requesterSide(),
             createRfqCommandDecoder.cusip(),
-            createRfqCommandDecoder.requesterUserId());
+            context.getUserId());
     }
 
     private void listInstruments(final DirectBuffer buffer, final int offset)
     {
         listInstrumentsCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
-        instruments.listInstruments(listInstrumentsCommandDecoder.correlation());
+        instruments.listInstruments(
+            listInstrumentsCommandDecoder.correlation(),
+            listInstrumentsCommandDecoder.fromInstrumentId());
     }
 
     private void initializeInstrument(final DirectBuffer buffer, final int offset)
@@ -178,7 +447,7 @@ public class SbeAdapter
 
         instruments.addInstrument(
             InstrumentAddType.SNAPSHOT_LOAD,
-            "",
+            0,
             instrumentRecordDecoder.cusip(),
             instrumentRecordDecoder.enabled().equals(BooleanType.TRUE),
             instrumentRecordDecoder.minSize());
@@ -187,16 +456,25 @@ public class SbeAdapter
     private void setInstrumentEnabledFlag(final DirectBuffer buffer, final int offset)
     {
         setInstrumentEnabledDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        if (responder.resendConfirmIfProcessed(setInstrumentEnabledDecoder.correlation()))
+        {
+            return;
+        }
 
+        setInstrumentEnabledDecoder.getCusip(cusip, 0);
         instruments.setEnabledFlagForCusip(
             setInstrumentEnabledDecoder.correlation(),
-            setInstrumentEnabledDecoder.cusip(),
+            Cusips.pack(cusip),
             setInstrumentEnabledDecoder.enabled().equals(BooleanType.TRUE));
     }
 
     private void addInstrument(final DirectBuffer buffer, final int offset)
     {
         addInstrumentDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        if (responder.resendConfirmIfProcessed(addInstrumentDecoder.correlation()))
+        {
+            return;
+        }
 
         instruments.addInstrument(
             InstrumentAddType.INTERACTIVE,
@@ -205,4 +483,61 @@ public class SbeAdapter
             addInstrumentDecoder.enabled().equals(BooleanType.TRUE),
             addInstrumentDecoder.minSize());
     }
+
+    private void addInstruments(final DirectBuffer buffer, final int offset)
+    {
+        addInstrumentsDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        final long correlation = addInstrumentsDecoder.correlation();
+        if (responder.resendConfirmIfProcessed(correlation))
+        {
+            return;
+        }
+
+        final AddInstrumentsDecoder.InstrumentsDecoder instrumentsDecoder = addInstrumentsDecoder.instruments();
+        final int count = instrumentsDecoder.count();
+        instruments.ensureCapacity(count);
+        for (final AddInstrumentsDecoder.InstrumentsDecoder instrument : instrumentsDecoder)
+        {
+            instruments.addInstrument(
+                InstrumentAddType.BULK,
+                correlation,
+                instrument.cusip(),
+                instrument.enabled().equals(BooleanType.TRUE),
+                instrument.minSize());
+        }
+        instruments.completeBulkAdd(correlation, count);
+    }
+
+    //trims the cusip as String.trim would once decoded, moving it to the start, and returns its length
+    private int trimCusip()
+    {
+        int end = 0;
+        while (end < cusip.length && 0 != cusip[end])
+        {
+            end++;
+        }
+        int start = 0;
+        while (start < end && (cusip[start] & 0xFF) <= ' ')
+        {
+            start++;
+        }
+        while (end > start && (cusip[end - 1] & 0xFF) <= ' ')
+        {
+            end--;
+        }
+        System.arraycopy(cusip, start, cusip, 0, end - start);
+        Arrays.fill(cusip, end - start, cusip.length, (byte)0);
+        return end - start;
+    }
+
+    //RFQ commands are applied and answered only by the partition owning the RFQ
+    private boolean ownsPartition(final int owner)
+    {
+        if (owner != partitions.partition())
+        {
+            return false;
+        }
+        context.setMuted(false);
+        return true;
+    }
 }
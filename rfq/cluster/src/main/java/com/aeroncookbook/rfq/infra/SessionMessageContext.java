@@ -29,6 +29,12 @@ public interface SessionMessageContext
      */
     long getClusterTime();
 
+    /**
+     * Gets the user the session that sent the current message was authenticated as
+     * @return the user id, or Users.NO_USER for an anonymous session
+     */
+    int getUserId();
+
     /**
      * Replies to the caller
      * @param buffer the buffer to read data from
@@ -44,5 +50,11 @@ public interface SessionMessageContext
      * @param length the length to read
      */
     void broadcast(DirectBuffer buffer, int offset, int length);
+
+    /**
+     * Mutes everything sent for the current message, when another partition answers it
+     * @param muted true to send nothing for the current message
+     */
+    void setMuted(boolean muted);
 }
 
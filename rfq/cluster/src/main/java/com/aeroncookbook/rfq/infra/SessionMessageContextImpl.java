@@ -16,6 +16,7 @@
 
 package com.aeroncookbook.rfq.infra;
 
+import com.aeroncookbook.rfq.domain.users.Users;
 import io.aeron.Publication;
 import io.aeron.cluster.service.ClientSession;
 import org.agrona.DirectBuffer;
@@ -36,6 +37,7 @@ public class SessionMessageContextImpl implements SessionMessageContext
     private final ClientSessions clientSessions;
     private long timestamp;
     private ClientSession session;
+    private boolean muted;
 
     /**
      * Constructor
@@ -56,6 +58,7 @@ public class SessionMessageContextImpl implements SessionMessageContext
     {
         this.timestamp = timestamp;
         this.session = session;
+        this.muted = false;
     }
 
     /**
@@ -65,6 +68,19 @@ public class SessionMessageContextImpl implements SessionMessageContext
     public void setClusterTime(final long timestamp)
     {
         this.timestamp = timestamp;
+        this.muted = false;
+    }
+
+    /**
+     * Mutes the replies, broadcasts and session closes of the current message, for a partition that applies a
+     * replicated command another partition answers. Reset by the next message, timer or session event.
+     *
+     * @param muted true to send nothing for the current message
+     */
+    @Override
+    public void setMuted(final boolean muted)
+    {
+        this.muted = muted;
     }
 
     /**
@@ -78,6 +94,32 @@ public class SessionMessageContextImpl implements SessionMessageContext
         return timestamp;
     }
 
+    /**
+     * Gets the id of the session that sent the current message
+     *
+     * @return the session id, or -1 outside a session message
+     */
+    public long getSessionId()
+    {
+        return session != null ? session.id() : -1;
+    }
+
+    /**
+     * Gets the user the session that sent the current message was authenticated as
+     *
+     * @return the user id, or Users.NO_USER for an anonymous session or outside a session message
+     */
+    @Override
+    public int getUserId()
+    {
+        if (session == null)
+        {
+            return Users.NO_USER;
+        }
+        final int index = clientSessions.indexOf(session.id());
+        return index == ClientSessions.NOT_FOUND ? Users.NO_USER : clientSessions.userIdAt(index);
+    }
+
     /**
      * Sets the idle strategy to be used during offers
      * @param idleStrategy the idle strategy to be used
@@ -109,10 +151,12 @@ public class SessionMessageContextImpl implements SessionMessageContext
     @Override
     public void broadcast(final DirectBuffer buffer, final int offset, final int length)
     {
-        clientSessions.getAllSessions().forEach(clientSession -> offerToSession(clientSession, buffer, offset, length));
+        for (int i = 0, size = clientSessions.size(); i < size; i++)
+        {
+            offerToSession(clientSessions.sessionAt(i), buffer, offset, length);
+        }
     }
 
-
     /**
      * Sends a message to a specific session, with retry.
      * Disconnects a client that failed to offer after RETRY_COUNT retries
@@ -123,10 +167,50 @@ public class SessionMessageContextImpl implements SessionMessageContext
      */
     public void offerToSessionById(final long sessionId, final DirectBuffer buffer, final int offset, final int length)
     {
-        final ClientSession clientSession = clientSessions.getById(sessionId);
-        if (clientSession != null)
+        final int index = clientSessions.indexOf(sessionId);
+        if (index != ClientSessions.NOT_FOUND)
         {
-            offerToSession(clientSession, buffer, offset, length);
+            offerToSession(clientSessions.sessionAt(index), buffer, offset, length);
+        }
+    }
+
+    /**
+     * Sends a message to every session authenticated as a user, with retry.
+     * Disconnects a client that failed to offer after RETRY_COUNT retries
+     * @param userId the user to send to
+     * @param buffer the buffer to read data from
+     * @param offset the offset to read from
+     * @param length the length to read
+     */
+    public void offerToUser(final int userId, final DirectBuffer buffer, final int offset, final int length)
+    {
+        for (int i = 0, size = clientSessions.size(); i < size; i++)
+        {
+            if (clientSessions.userIdAt(i) == userId)
+            {
+                offerToSession(clientSessions.sessionAt(i), buffer, offset, length);
+            }
+        }
+    }
+
+    /**
+     * Closes every session authenticated as a user
+     * @param userId the user whose sessions are closed
+     */
+    public void closeUserSessions(final int userId)
+    {
+        if (muted)
+        {
+            return;
+        }
+
+        for (int i = 0, size = clientSessions.size(); i < size; i++)
+        {
+            if (clientSessions.userIdAt(i) == userId)
+            {
+                LOGGER.info("Closing client session {} of user {}", clientSessions.sessionAt(i).id(), userId);
+                clientSessions.sessionAt(i).close();
+            }
         }
     }
 
@@ -143,6 +227,11 @@ public class SessionMessageContextImpl implements SessionMessageContext
         final int offset,
         final int length)
     {
+        if (muted)
+        {
+            return;
+        }
+
         Objects.requireNonNull(idleStrategy, "idleStrategy must be set");
         int retries = 0;
         do
@@ -150,9 +239,13 @@ public class SessionMessageContextImpl implements SessionMessageContext
             final long result = targetSession.offer(buffer, offset, length);
             if (result > 0L)
             {
+                clientSessions.onMessageSent(length);
                 return;
             }
-            else if (result == Publication.ADMIN_ACTION || result == Publication.BACK_PRESSURED)
+
+            clientSessions.onOfferFailed();
+
+            if (result == Publication.ADMIN_ACTION || result == Publication.BACK_PRESSURED)
             {
                 LOGGER.warn("backpressure or admin action on session offer");
             }
@@ -167,7 +260,7 @@ public class SessionMessageContextImpl implements SessionMessageContext
         }
         while (retries < RETRY_COUNT);
 
-        LOGGER.error("failed to offer snapshot within {} retries. Closing client session.", RETRY_COUNT);
-        session.close();
+        LOGGER.error("failed to offer within {} retries. Closing client session {}.", RETRY_COUNT, targetSession.id());
+        targetSession.close();
     }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.infra;
+
+/**
+ * Decides whether a snapshot is written in full, as a new base, or as a delta holding the records changed since
+ * the base. Each node decides for its own snapshots, so nodes may use different settings.
+ */
+public final class SnapshotCompaction
+{
+    /**
+     * Every snapshot is written in full
+     */
+    public static final SnapshotCompaction FULL_ONLY = new SnapshotCompaction(0, 0);
+
+    /**
+     * While a file of this name is in a node's cluster directory, its snapshots are written in full
+     */
+    public static final String FULL_SNAPSHOT_FILE = "rfq-full-snapshot";
+
+    private final int maxDeltas;
+    private final int maxChangedPercent;
+
+    /**
+     * Constructor
+     *
+     * @param maxDeltas         the number of deltas written on one base before the next snapshot is full, 0 for none
+     * @param maxChangedPercent the share of records, as a percentage, that may have changed before a delta is no
+     *                          longer worth writing and a full snapshot is written instead
+     */
+    public SnapshotCompaction(final int maxDeltas, final int maxChangedPercent)
+    {
+        if (maxDeltas < 0 || maxChangedPercent < 0 || maxChangedPercent > 100)
+        {
+            throw new IllegalArgumentException("invalid snapshot compaction: " + maxDeltas + " deltas, " +
+                maxChangedPercent + "% changed");
+        }
+        this.maxDeltas = maxDeltas;
+        this.maxChangedPercent = maxChangedPercent;
+    }
+
+    /**
+     * Reads the compaction settings from the environment variables SNAPSHOT_MAX_DELTAS and
+     * SNAPSHOT_MAX_CHANGED_PERCENT, or the system properties snapshot.max.deltas and snapshot.max.changed.percent,
+     * defaulting to full snapshots only, and a limit of 25% changed records once deltas are enabled
+     *
+     * @return the compaction settings
+     */
+    public static SnapshotCompaction fromEnvironment()
+    {
+        return new SnapshotCompaction(
+            read("SNAPSHOT_MAX_DELTAS", "snapshot.max.deltas", 0),
+            read("SNAPSHOT_MAX_CHANGED_PERCENT", "snapshot.max.changed.percent", 25));
+    }
+
+    /**
+     * Returns true if snapshots may be written as deltas
+     *
+     * @return true if deltas are enabled
+     */
+    public boolean deltasEnabled()
+    {
+        return maxDeltas > 0;
+    }
+
+    /**
+     * Decides whether the next snapshot is written in full
+     *
+     * @param deltaCount     the number of deltas already written on the current base
+     * @param changedRecords the number of records changed since the base
+     * @param records        the number of records held
+     * @return true to write a full snapshot
+     */
+    public boolean isFullSnapshotDue(final int deltaCount, final long changedRecords, final long records)
+    {
+        return deltaCount >= maxDeltas || changedRecords * 100 > records * maxChangedPercent;
+    }
+
+    @Override
+    public String toString()
+    {
+        return deltasEnabled() ?
+            "up to " + maxDeltas + " deltas per full snapshot, up to " + maxChangedPercent + "% changed" :
+            "full snapshots only";
+    }
+
+    private static int read(final String environmentVariable, final String property, final int defaultValue)
+    {
+        String value = System.getenv(environmentVariable);
+        if (null == value || value.isEmpty())
+        {
+            value = System.getProperty(property);
+        }
+        return null == value || value.isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.infra;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Compression of the snapshots a service writes. Snapshots are loaded whether compressed or not, so the setting may
+ * be changed at any time, and differ between nodes.
+ */
+public enum SnapshotCompression
+{
+    /**
+     * Each snapshot record is written as its own message
+     */
+    NONE,
+
+    /**
+     * Snapshot records are gathered into blocks of up to 64KB, each written compressed with {@link Lz4BlockCodec}
+     */
+    LZ4;
+
+    /**
+     * Reads the compression from the environment variable SNAPSHOT_COMPRESSION or the system property
+     * snapshot.compression, defaulting to NONE
+     *
+     * @return the snapshot compression
+     */
+    public static SnapshotCompression fromEnvironment()
+    {
+        String value = System.getenv("SNAPSHOT_COMPRESSION");
+        if (null == value || value.isEmpty())
+        {
+            value = System.getProperty("snapshot.compression", NONE.name());
+        }
+
+        final String name = value.trim().toUpperCase(Locale.ROOT);
+        for (final SnapshotCompression compression : values())
+        {
+            if (compression.name().equals(name))
+            {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException("unknown snapshot compression " + value + ", expected one of " +
+            Arrays.toString(values()));
+    }
+}
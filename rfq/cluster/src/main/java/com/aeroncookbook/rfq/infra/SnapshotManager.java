@@ -16,59 +16,269 @@
 
 package com.aeroncookbook.rfq.infra;
 
+import com.aeroncookbook.cluster.rfq.sbe.BooleanType;
+import com.aeroncookbook.cluster.rfq.sbe.CompressedSnapshotBlockDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.CompressedSnapshotBlockEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.EndOfSnapshotDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.EndOfSnapshotEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.InstrumentRecordDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.InstrumentRecordEncoder;
 import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderDecoder;
 import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.ProcessedRequestRecordDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.ProcessedRequestRecordEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqRecordDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqRecordEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqStatus;
+import com.aeroncookbook.cluster.rfq.sbe.ServiceStateRecordDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.ServiceStateRecordEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.SessionRateLimitRecordDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.SessionRateLimitRecordEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.SnapshotType;
+import com.aeroncookbook.cluster.rfq.sbe.UserClassType;
+import com.aeroncookbook.cluster.rfq.sbe.UserRecordDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.UserRecordEncoder;
+import com.aeroncookbook.rfq.domain.instrument.Instrument;
+import com.aeroncookbook.rfq.domain.instrument.InstrumentAddType;
+import com.aeroncookbook.rfq.domain.instrument.Instruments;
+import com.aeroncookbook.rfq.domain.rfq.Rfq;
+import com.aeroncookbook.rfq.domain.rfq.Rfqs;
+import com.aeroncookbook.rfq.domain.users.UserClass;
+import com.aeroncookbook.rfq.domain.users.Users;
 import io.aeron.ExclusivePublication;
 import io.aeron.Image;
+import io.aeron.ImageFragmentAssembler;
 import io.aeron.Publication;
 import io.aeron.logbuffer.FragmentHandler;
 import io.aeron.logbuffer.Header;
+import org.agrona.BitUtil;
 import org.agrona.DirectBuffer;
 import org.agrona.ExpandableDirectByteBuffer;
 import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.UnsafeBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteOrder;
 import java.util.Objects;
 
 /**
- * Manages the loading and writing of domain data snapshots within the cluster
+ * Manages the loading and writing of domain data snapshots within the cluster. A snapshot is either full, or a delta
+ * holding the instruments, users and RFQs changed since the last full snapshot, its base, along with the small
+ * session state in full. Deltas are cumulative, so loading one needs only the base and the latest delta. Records may
+ * be written compressed, gathered into blocks.
  */
 public class SnapshotManager implements FragmentHandler
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(SnapshotManager.class);
     private static final int RETRY_COUNT = 3;
-    private final SessionMessageContext context;
+    private static final int MAX_BLOCK_LENGTH = 64 * 1024;
+    private static final String BASE_RECOVERY = "a delta snapshot can only be loaded from the archive of the node " +
+        "that wrote it; to recover, write a full snapshot on a node of the cluster (see " +
+        SnapshotCompaction.FULL_SNAPSHOT_FILE + ") and seed this member from it, or clear this member's cluster " +
+        "and archive directories so it replicates the log from the leader";
+    private static final int BLOCK_MESSAGE_OVERHEAD = MessageHeaderEncoder.ENCODED_LENGTH +
+        CompressedSnapshotBlockEncoder.BLOCK_LENGTH + CompressedSnapshotBlockEncoder.recordsHeaderLength();
+    private final Instruments instruments;
+    private final Users users;
+    private final Rfqs rfqs;
+    private final TimerManager timerManager;
+    private final ClusterClientResponderImpl responder;
+    private final ProcessedRequests processedRequests;
+    private final ClientSessions clientSessions;
+    private final DropCopyPublisher dropCopyPublisher;
+    private final Partitions partitions;
+    private final SnapshotCompaction compaction;
+    private final SnapshotCompression compression;
     private final ExpandableDirectByteBuffer buffer = new ExpandableDirectByteBuffer(1024);
+    private final ExpandableDirectByteBuffer blockBuffer = new ExpandableDirectByteBuffer(MAX_BLOCK_LENGTH);
+    private final ExpandableDirectByteBuffer compressedBuffer =
+        new ExpandableDirectByteBuffer(Lz4BlockCodec.maxCompressedLength(MAX_BLOCK_LENGTH));
+    private final ExpandableDirectByteBuffer blockMessageBuffer =
+        new ExpandableDirectByteBuffer(BLOCK_MESSAGE_OVERHEAD + Lz4BlockCodec.maxCompressedLength(MAX_BLOCK_LENGTH));
+    private final ExpandableDirectByteBuffer decompressedBuffer = new ExpandableDirectByteBuffer(MAX_BLOCK_LENGTH);
+    private final ExpandableDirectByteBuffer baseDecompressedBuffer = new ExpandableDirectByteBuffer(MAX_BLOCK_LENGTH);
+    private final UnsafeBuffer compressedRecords = new UnsafeBuffer(0, 0);
+    private final Lz4BlockCodec codec = new Lz4BlockCodec();
     private final MessageHeaderDecoder headerDecoder = new MessageHeaderDecoder();
     private final MessageHeaderEncoder headerEncoder = new MessageHeaderEncoder();
+    private final InstrumentRecordEncoder instrumentRecordEncoder = new InstrumentRecordEncoder();
+    private final InstrumentRecordDecoder instrumentRecordDecoder = new InstrumentRecordDecoder();
+    private final RfqRecordEncoder rfqRecordEncoder = new RfqRecordEncoder();
+    private final RfqRecordDecoder rfqRecordDecoder = new RfqRecordDecoder();
+    private final ServiceStateRecordEncoder serviceStateRecordEncoder = new ServiceStateRecordEncoder();
+    private final ServiceStateRecordDecoder serviceStateRecordDecoder = new ServiceStateRecordDecoder();
+    private final ProcessedRequestRecordEncoder processedRequestRecordEncoder = new ProcessedRequestRecordEncoder();
+    private final ProcessedRequestRecordDecoder processedRequestRecordDecoder = new ProcessedRequestRecordDecoder();
+    private final SessionRateLimitRecordEncoder sessionRateLimitRecordEncoder = new SessionRateLimitRecordEncoder();
+    private final SessionRateLimitRecordDecoder sessionRateLimitRecordDecoder = new SessionRateLimitRecordDecoder();
+    private final UserRecordEncoder userRecordEncoder = new UserRecordEncoder();
+    private final UserRecordDecoder userRecordDecoder = new UserRecordDecoder();
+    private final EndOfSnapshotEncoder endOfSnapshotEncoder = new EndOfSnapshotEncoder();
+    private final CompressedSnapshotBlockEncoder compressedBlockEncoder = new CompressedSnapshotBlockEncoder();
+    private final CompressedSnapshotBlockDecoder compressedBlockDecoder = new CompressedSnapshotBlockDecoder();
+    private final ImageFragmentAssembler snapshotAssembler = new ImageFragmentAssembler(this);
+    private final ImageFragmentAssembler baseSnapshotAssembler = new ImageFragmentAssembler(this);
     private boolean snapshotFullyLoaded = false;
+    private boolean loadingBase = false;
+    private boolean loadingDelta = false;
+    private long baseRecordingId = SnapshotRecordings.NULL_RECORDING_ID;
+    private int deltaCount = 0;
+    private boolean fullSnapshotRequested = false;
+    private int blockLength = 0;
+    private int blockCapacity = 0;
     private IdleStrategy idleStrategy;
+    private SnapshotRecordings snapshotRecordings;
+    private ExclusivePublication snapshotPublication;
+
+    /**
+     * Constructor for a service writing full snapshots only
+     *
+     * @param instruments       the instrument domain model
+     * @param users             the user registry
+     * @param rfqs              the RFQ domain model
+     * @param timerManager      the timer manager holding the RFQ expiry timers
+     * @param responder         the responder holding the broadcast sequence
+     * @param processedRequests the cache of recently processed requests
+     * @param clientSessions    the client sessions holding the rate limit state
+     * @param dropCopyPublisher the drop copy publisher holding the trade sequence
+     * @param partitions        the partition of the RFQ book held by the service
+     */
+    public SnapshotManager(
+        final Instruments instruments,
+        final Users users,
+        final Rfqs rfqs,
+        final TimerManager timerManager,
+        final ClusterClientResponderImpl responder,
+        final ProcessedRequests processedRequests,
+        final ClientSessions clientSessions,
+        final DropCopyPublisher dropCopyPublisher,
+        final Partitions partitions)
+    {
+        this(instruments, users, rfqs, timerManager, responder, processedRequests, clientSessions, dropCopyPublisher,
+            partitions, SnapshotCompaction.FULL_ONLY, SnapshotCompression.NONE);
+    }
 
     /**
      * Constructor
      *
-     * @param context the session message context to use for snapshot interactions
+     * @param instruments       the instrument domain model
+     * @param users             the user registry
+     * @param rfqs              the RFQ domain model
+     * @param timerManager      the timer manager holding the RFQ expiry timers
+     * @param responder         the responder holding the broadcast sequence
+     * @param processedRequests the cache of recently processed requests
+     * @param clientSessions    the client sessions holding the rate limit state
+     * @param dropCopyPublisher the drop copy publisher holding the trade sequence
+     * @param partitions        the partition of the RFQ book held by the service
+     * @param compaction        decides when snapshots are written in full rather than as deltas
+     * @param compression       the compression of the snapshots written
      */
     public SnapshotManager(
-        final SessionMessageContext context)
+        final Instruments instruments,
+        final Users users,
+        final Rfqs rfqs,
+        final TimerManager timerManager,
+        final ClusterClientResponderImpl responder,
+        final ProcessedRequests processedRequests,
+        final ClientSessions clientSessions,
+        final DropCopyPublisher dropCopyPublisher,
+        final Partitions partitions,
+        final SnapshotCompaction compaction,
+        final SnapshotCompression compression)
     {
-        this.context = context;
+        this.instruments = instruments;
+        this.users = users;
+        this.rfqs = rfqs;
+        this.timerManager = timerManager;
+        this.responder = responder;
+        this.processedRequests = processedRequests;
+        this.clientSessions = clientSessions;
+        this.dropCopyPublisher = dropCopyPublisher;
+        this.partitions = partitions;
+        this.compaction = compaction;
+        this.compression = compression;
     }
 
     /**
-     * Called by the clustered service once a snapshot needs to be taken
+     * Called by the clustered service once a snapshot needs to be taken. A delta is written when the compaction
+     * settings allow one and the base it applies to is known; otherwise a full snapshot is written, becoming the
+     * base of later deltas.
      *
      * @param snapshotPublication the publication to write snapshot data to
      */
     public void takeSnapshot(final ExclusivePublication snapshotPublication)
     {
-        LOGGER.info("Starting snapshot...");
+        this.snapshotPublication = snapshotPublication;
+        blockLength = 0;
+        blockCapacity = maxBlockLength(snapshotPublication.maxMessageLength());
+        final ChangeSet changedInstrumentIds = instruments.getChangedInstrumentIds();
+        final ChangeSet changedUserIds = users.getChangedUserIds();
+        final ChangeSet changedRfqIds = rfqs.getChangedRfqIds();
+        final long changedRecords = (long)changedInstrumentIds.size() + changedUserIds.size() + changedRfqIds.size();
+        final long records = (long)instruments.instrumentCount() + users.userCount() + rfqs.getRfqs().size();
+        final boolean delta = !fullSnapshotRequested && compaction.deltasEnabled() &&
+            SnapshotRecordings.NULL_RECORDING_ID != baseRecordingId &&
+            !compaction.isFullSnapshotDue(deltaCount, changedRecords, records);
+        fullSnapshotRequested = false;
+
+        if (delta)
+        {
+            deltaCount++;
+            LOGGER.info("Starting delta snapshot {} on base recording {}, {} of {} records changed...", deltaCount,
+                baseRecordingId, changedRecords, records);
+            offerServiceState(SnapshotType.DELTA);
+            changedInstrumentIds.forEachInOrder(id -> offerInstrument(instruments.getInstrument(id)));
+            changedUserIds.forEachInOrder(userId -> users.forUser(userId, this::offerUser));
+            changedRfqIds.forEachInOrder(rfqId -> offerRfq(rfqs.getRfq(rfqId)));
+        }
+        else
+        {
+            LOGGER.info("Starting snapshot...");
+            offerServiceState(SnapshotType.FULL);
+            for (final Instrument instrument : instruments.getInstruments())
+            {
+                offerInstrument(instrument);
+            }
+            users.forEach(this::offerUser);
+            for (final Rfq rfq : rfqs.getRfqs())
+            {
+                offerRfq(rfq);
+            }
+        }
+
+        processedRequests.forEach(this::offerProcessedRequest);
+        clientSessions.forEachRateLimit(this::offerSessionRateLimit);
+
+        endOfSnapshotEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder);
+        writeRecord(headerEncoder.encodedLength() + endOfSnapshotEncoder.encodedLength());
+        flushBlock();
+
+        if (!delta)
+        {
+            changedInstrumentIds.clear();
+            changedUserIds.clear();
+            changedRfqIds.clear();
+            deltaCount = 0;
+            baseRecordingId = compaction.deltasEnabled() && null != snapshotRecordings ?
+                snapshotRecordings.recordingId(snapshotPublication) : SnapshotRecordings.NULL_RECORDING_ID;
+        }
+        this.snapshotPublication = null;
         LOGGER.info("Snapshot complete");
     }
 
     /**
-     * Called by the clustered service once a snapshot has been provided by the cluster
+     * Has the next snapshot written in full, whatever the compaction settings, such as before the cluster is backed
+     * up to seed a new member
+     */
+    public void requestFullSnapshot()
+    {
+        fullSnapshotRequested = true;
+    }
+
+    /**
+     * Called by the clustered service once a snapshot has been provided by the cluster. Records longer than the MTU,
+     * such as users with many entitlements, arrive in several fragments and are reassembled before they are decoded.
      *
      * @param snapshotImage the image to read snapshot data from
      */
@@ -76,17 +286,19 @@ public class SnapshotManager implements FragmentHandler
     {
         LOGGER.info("Loading snapshot...");
         snapshotFullyLoaded = false;
+        loadingDelta = false;
         Objects.requireNonNull(idleStrategy, "Idle strategy must be set before loading snapshot");
         idleStrategy.reset();
         while (!snapshotImage.isEndOfStream())
         {
-            idleStrategy.idle(snapshotImage.poll(this, 20));
+            idleStrategy.idle(snapshotImage.poll(snapshotAssembler, 20));
         }
 
         if (!snapshotFullyLoaded)
         {
             LOGGER.warn("Snapshot load not completed; no end of snapshot marker found");
         }
+        loadingDelta = false;
         LOGGER.info("Snapshot load complete.");
     }
 
@@ -100,6 +312,16 @@ public class SnapshotManager implements FragmentHandler
         this.idleStrategy = idleStrategy;
     }
 
+    /**
+     * Provide access to the recordings of earlier snapshots, needed to write delta snapshots and to load them
+     *
+     * @param snapshotRecordings the snapshot recordings of the service
+     */
+    public void setSnapshotRecordings(final SnapshotRecordings snapshotRecordings)
+    {
+        this.snapshotRecordings = snapshotRecordings;
+    }
+
     /**
      * @param buffer containing the data.
      * @param offset at which the data begins.
@@ -115,12 +337,399 @@ public class SnapshotManager implements FragmentHandler
         }
 
         headerDecoder.wrap(buffer, offset);
+        if (headerDecoder.schemaId() != MessageHeaderDecoder.SCHEMA_ID)
+        {
+            //the cluster's own records, seen when a base snapshot is replayed from its recording
+            return;
+        }
+        if (headerDecoder.templateId() == CompressedSnapshotBlockDecoder.TEMPLATE_ID)
+        {
+            loadCompressedBlock(buffer, offset);
+        }
+        else
+        {
+            loadRecord(buffer, offset);
+        }
+    }
 
-        LOGGER.warn("Unknown snapshot message template id: {}", headerDecoder.templateId());
+    //loads a record whose header has been read into the header decoder
+    private void loadRecord(final DirectBuffer buffer, final int offset)
+    {
+        if (loadingBase && (headerDecoder.templateId() == ProcessedRequestRecordDecoder.TEMPLATE_ID ||
+            headerDecoder.templateId() == SessionRateLimitRecordDecoder.TEMPLATE_ID))
+        {
+            //a delta holds the session state in full
+            return;
+        }
+
+        switch (headerDecoder.templateId())
+        {
+            case ServiceStateRecordDecoder.TEMPLATE_ID -> loadServiceState(buffer, offset);
+            case InstrumentRecordDecoder.TEMPLATE_ID -> loadInstrument(buffer, offset);
+            case UserRecordDecoder.TEMPLATE_ID -> loadUser(buffer, offset);
+            case RfqRecordDecoder.TEMPLATE_ID -> loadRfq(buffer, offset);
+            case ProcessedRequestRecordDecoder.TEMPLATE_ID -> loadProcessedRequest(buffer, offset);
+            case SessionRateLimitRecordDecoder.TEMPLATE_ID -> loadSessionRateLimit(buffer, offset);
+            case EndOfSnapshotDecoder.TEMPLATE_ID -> snapshotFullyLoaded = true;
+            default -> LOGGER.warn("Unknown snapshot message template id: {}", headerDecoder.templateId());
+        }
+    }
+
+    //decompresses a block of records, each preceded by its length, and loads them in order
+    private void loadCompressedBlock(final DirectBuffer buffer, final int offset)
+    {
+        compressedBlockDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        final int uncompressedLength = compressedBlockDecoder.uncompressedLength();
+        compressedBlockDecoder.wrapRecords(compressedRecords);
+
+        //a delta loads its base while one of its own blocks is being read, so the base has a buffer of its own
+        final ExpandableDirectByteBuffer records = loadingBase ? baseDecompressedBuffer : decompressedBuffer;
+        records.checkLimit(uncompressedLength);
+        Lz4BlockCodec.decompress(compressedRecords, 0, compressedRecords.capacity(), records, 0, uncompressedLength);
+
+        int recordOffset = 0;
+        while (recordOffset < uncompressedLength)
+        {
+            final int recordLength = records.getInt(recordOffset, ByteOrder.LITTLE_ENDIAN);
+            recordOffset += BitUtil.SIZE_OF_INT;
+            headerDecoder.wrap(records, recordOffset);
+            loadRecord(records, recordOffset);
+            recordOffset += recordLength;
+        }
+    }
+
+    private void loadServiceState(final DirectBuffer buffer, final int offset)
+    {
+        serviceStateRecordDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        if (serviceStateRecordDecoder.partition() != partitions.partition() ||
+            serviceStateRecordDecoder.partitionCount() != partitions.partitionCount() ||
+            serviceStateRecordDecoder.shard() != partitions.shard() ||
+            serviceStateRecordDecoder.shardCount() != partitions.shardCount())
+        {
+            throw new IllegalStateException("snapshot holds shard " + serviceStateRecordDecoder.shard() + " of " +
+                serviceStateRecordDecoder.shardCount() + ", partition " + serviceStateRecordDecoder.partition() +
+                " of " + serviceStateRecordDecoder.partitionCount() + ", the service is " + partitions);
+        }
+
+        //read before a delta loads its base, which reuses the decoder
+        final int lastRfqId = serviceStateRecordDecoder.lastRfqId();
+        final long lastTimerId = serviceStateRecordDecoder.lastTimerId();
+        final long broadcastSequence = serviceStateRecordDecoder.broadcastSequence();
+        final long tradeSequence = serviceStateRecordDecoder.tradeSequence();
+        if (serviceStateRecordDecoder.snapshotType() == SnapshotType.DELTA)
+        {
+            final long deltaBaseRecordingId = serviceStateRecordDecoder.baseRecordingId();
+            final int deltas = serviceStateRecordDecoder.deltaCount();
+            loadBase(deltaBaseRecordingId);
+            baseRecordingId = deltaBaseRecordingId;
+            deltaCount = deltas;
+            loadingDelta = true;
+        }
+        else if (!loadingBase)
+        {
+            //the recording of a loaded full snapshot is not known, so the next snapshot is full
+            baseRecordingId = SnapshotRecordings.NULL_RECORDING_ID;
+            deltaCount = 0;
+        }
+
+        rfqs.restoreLastRfqId(lastRfqId);
+        timerManager.restoreLastCorrelationId(lastTimerId);
+        responder.restoreBroadcastSequence(broadcastSequence);
+        dropCopyPublisher.restoreTradeSequence(tradeSequence);
+    }
+
+    //loads the full snapshot a delta applies to, then lets the delta replace the records it holds
+    private void loadBase(final long recordingId)
+    {
+        if (null == snapshotRecordings)
+        {
+            throw new IllegalStateException("cannot load the base of a delta snapshot, recording " + recordingId +
+                ", without access to the snapshot recordings: " + BASE_RECOVERY);
+        }
+
+        LOGGER.info("Loading base snapshot from recording {}...", recordingId);
+        loadingBase = true;
+        try
+        {
+            snapshotRecordings.replay(recordingId, this::readBase);
+        }
+        catch (final RuntimeException ex)
+        {
+            throw new IllegalStateException("cannot replay base snapshot recording " + recordingId + ": " +
+                BASE_RECOVERY, ex);
+        }
+        finally
+        {
+            loadingBase = false;
+        }
+
+        if (!snapshotFullyLoaded)
+        {
+            throw new IllegalStateException("base snapshot recording " + recordingId + " ended before its end of " +
+                "snapshot marker: " + BASE_RECOVERY);
+        }
+        snapshotFullyLoaded = false;
+    }
+
+    private void readBase(final Image baseImage)
+    {
+        idleStrategy.reset();
+        while (!snapshotFullyLoaded && !baseImage.isEndOfStream() && !baseImage.isClosed())
+        {
+            idleStrategy.idle(baseImage.poll(baseSnapshotAssembler, 20));
+        }
+    }
+
+    private void loadInstrument(final DirectBuffer buffer, final int offset)
+    {
+        instrumentRecordDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        instruments.addInstrument(
+            InstrumentAddType.SNAPSHOT_LOAD,
+            0,
+            instrumentRecordDecoder.cusip(),
+            instrumentRecordDecoder.enabled().equals(BooleanType.TRUE),
+            instrumentRecordDecoder.minSize());
+        if (loadingDelta)
+        {
+            //a delta is cumulative, so the next delta on the same base holds its records again
+            instruments.getChangedInstrumentIds().add(instruments.getInstrumentId(instrumentRecordDecoder.cusip()));
+        }
+    }
+
+    private void loadUser(final DirectBuffer buffer, final int offset)
+    {
+        userRecordDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        final int userId = userRecordDecoder.userId();
+        if (loadingDelta)
+        {
+            users.getChangedUserIds().add(userId);
+        }
+        users.restoreUser(
+            userId,
+            UserClass.valueOf(userRecordDecoder.userClass().name()),
+            userRecordDecoder.enabled().equals(BooleanType.TRUE),
+            userRecordDecoder.entitledToAll().equals(BooleanType.TRUE));
+        for (final UserRecordDecoder.EntitlementsDecoder entitlement : userRecordDecoder.entitlements())
+        {
+            users.restoreEntitlement(userId, instruments.getInstrumentId(entitlement.cusip()));
+        }
+    }
+
+    private void loadRfq(final DirectBuffer buffer, final int offset)
+    {
+        rfqRecordDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        final Rfq rfq = new Rfq(
+            rfqRecordDecoder.rfqId(),
+            rfqRecordDecoder.correlation(),
+            rfqRecordDecoder.expireTimeMs(),
+            rfqRecordDecoder.quantity(),
+            rfqRecordDecoder.requesterSide(),
+            rfqRecordDecoder.cusip(),
+            rfqRecordDecoder.requesterUserId());
+        rfq.restore(
+            (short)rfqRecordDecoder.status().value(),
+            rfqRecordDecoder.responderUserId(),
+            rfqRecordDecoder.lastCounterUserId(),
+            rfqRecordDecoder.acceptUserId(),
+            rfqRecordDecoder.rejectUserId(),
+            rfqRecordDecoder.price());
+        rfq.setExpiryTimerId(rfqRecordDecoder.expiryTimerId());
+        rfqs.restoreRfq(rfq);
+        if (loadingDelta)
+        {
+            rfqs.getChangedRfqIds().add(rfq.getRfqId());
+        }
+    }
+
+    private void loadProcessedRequest(final DirectBuffer buffer, final int offset)
+    {
+        processedRequestRecordDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        processedRequests.record(
+            processedRequestRecordDecoder.requesterKey(),
+            processedRequestRecordDecoder.correlation(),
+            processedRequestRecordDecoder.timestamp(),
+            processedRequestRecordDecoder.confirmTemplateId(),
+            processedRequestRecordDecoder.rfqId(),
+            processedRequestRecordDecoder.result());
+    }
+
+    private void loadSessionRateLimit(final DirectBuffer buffer, final int offset)
+    {
+        sessionRateLimitRecordDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        clientSessions.restoreRateLimit(
+            sessionRateLimitRecordDecoder.sessionId(),
+            sessionRateLimitRecordDecoder.userId(),
+            UserClass.values()[sessionRateLimitRecordDecoder.userClass()],
+            sessionRateLimitRecordDecoder.tokens(),
+            sessionRateLimitRecordDecoder.lastRefillMs());
+    }
+
+    private void offerServiceState(final SnapshotType snapshotType)
+    {
+        serviceStateRecordEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder);
+        serviceStateRecordEncoder.lastRfqId(rfqs.getLastRfqId());
+        serviceStateRecordEncoder.lastTimerId(timerManager.getLastCorrelationId());
+        serviceStateRecordEncoder.broadcastSequence(responder.getBroadcastSequence());
+        serviceStateRecordEncoder.tradeSequence(dropCopyPublisher.getTradeSequence());
+        serviceStateRecordEncoder.partition(partitions.partition());
+        serviceStateRecordEncoder.partitionCount(partitions.partitionCount());
+        serviceStateRecordEncoder.shard(partitions.shard());
+        serviceStateRecordEncoder.shardCount(partitions.shardCount());
+        serviceStateRecordEncoder.snapshotType(snapshotType);
+        serviceStateRecordEncoder.baseRecordingId(
+            snapshotType == SnapshotType.DELTA ? baseRecordingId : SnapshotRecordings.NULL_RECORDING_ID);
+        serviceStateRecordEncoder.deltaCount(snapshotType == SnapshotType.DELTA ? deltaCount : 0);
+        writeRecord(headerEncoder.encodedLength() + serviceStateRecordEncoder.encodedLength());
+    }
+
+    private void offerInstrument(final Instrument instrument)
+    {
+        instrumentRecordEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder);
+        instrumentRecordEncoder.cusip(instrument.getCusip());
+        instrumentRecordEncoder.enabled(instrument.isEnabled() ? BooleanType.TRUE : BooleanType.FALSE);
+        instrumentRecordEncoder.minSize(instrument.getMinSize());
+        writeRecord(headerEncoder.encodedLength() + instrumentRecordEncoder.encodedLength());
+    }
+
+    private void offerRfq(final Rfq rfq)
+    {
+        rfqRecordEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder);
+        rfqRecordEncoder.rfqId(rfq.getRfqId());
+        rfqRecordEncoder.correlation(rfq.getCorrelation());
+        rfqRecordEncoder.expireTimeMs(rfq.getExpireTimeMs());
+        rfqRecordEncoder.quantity(rfq.getQuantity());
+        rfqRecordEncoder.requesterSide(rfq.getRequesterSide());
+        rfqRecordEncoder.cusip(rfq.getCusip());
+        rfqRecordEncoder.requesterUserId(rfq.getRequesterUserId());
+        rfqRecordEncoder.status(RfqStatus.get(rfq.getCurrentState().getCurrentStateId()));
+        rfqRecordEncoder.responderUserId(rfq.getResponderUserId());
+        rfqRecordEncoder.lastCounterUserId(rfq.getLastCounterUser());
+        rfqRecordEncoder.acceptUserId(rfq.getAcceptUser());
+        rfqRecordEncoder.rejectUserId(rfq.getRejectUser());
+        rfqRecordEncoder.price(rfq.getPrice());
+        rfqRecordEncoder.expiryTimerId(rfq.getExpiryTimerId());
+        writeRecord(headerEncoder.encodedLength() + rfqRecordEncoder.encodedLength());
+    }
+
+    private void offerSessionRateLimit(
+        final long sessionId,
+        final int userId,
+        final UserClass userClass,
+        final long tokens,
+        final long lastRefillMs)
+    {
+        sessionRateLimitRecordEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder);
+        sessionRateLimitRecordEncoder.sessionId(sessionId);
+        sessionRateLimitRecordEncoder.userId(userId);
+        sessionRateLimitRecordEncoder.userClass(userClass.ordinal());
+        sessionRateLimitRecordEncoder.tokens(tokens);
+        sessionRateLimitRecordEncoder.lastRefillMs(lastRefillMs);
+        writeRecord(headerEncoder.encodedLength() + sessionRateLimitRecordEncoder.encodedLength());
+    }
+
+    private void offerUser(
+        final int userId,
+        final UserClass userClass,
+        final boolean enabled,
+        final boolean entitledToAll,
+        final long[] entitlements)
+    {
+        int entitlementCount = 0;
+        for (final long word : entitlements)
+        {
+            entitlementCount += Long.bitCount(word);
+        }
+
+        userRecordEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder);
+        userRecordEncoder.userId(userId);
+        userRecordEncoder.userClass(UserClassType.valueOf(userClass.name()));
+        userRecordEncoder.enabled(enabled ? BooleanType.TRUE : BooleanType.FALSE);
+        userRecordEncoder.entitledToAll(entitledToAll ? BooleanType.TRUE : BooleanType.FALSE);
+        final UserRecordEncoder.EntitlementsEncoder entitlementsEncoder =
+            userRecordEncoder.entitlementsCount(entitlementCount);
+        for (int word = 0; word < entitlements.length; word++)
+        {
+            long bits = entitlements[word];
+            while (bits != 0)
+            {
+                final int instrumentId = (word << 6) + Long.numberOfTrailingZeros(bits);
+                entitlementsEncoder.next().cusip(instruments.getInstrument(instrumentId).getCusip());
+                bits &= bits - 1;
+            }
+        }
+        writeRecord(headerEncoder.encodedLength() + userRecordEncoder.encodedLength());
+    }
+
+    private void offerProcessedRequest(
+        final long requesterKey,
+        final long correlation,
+        final long timestamp,
+        final int confirmTemplateId,
+        final int rfqId,
+        final int result)
+    {
+        processedRequestRecordEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder);
+        processedRequestRecordEncoder.requesterKey(requesterKey);
+        processedRequestRecordEncoder.correlation(correlation);
+        processedRequestRecordEncoder.timestamp(timestamp);
+        processedRequestRecordEncoder.confirmTemplateId(confirmTemplateId);
+        processedRequestRecordEncoder.rfqId(rfqId);
+        processedRequestRecordEncoder.result(result);
+        writeRecord(headerEncoder.encodedLength() + processedRequestRecordEncoder.encodedLength());
+    }
+
+    //writes the record encoded at the start of the buffer, either as a message or into the block being gathered
+    private void writeRecord(final int length)
+    {
+        if (SnapshotCompression.NONE == compression)
+        {
+            retryingOffer(snapshotPublication, buffer, length);
+            return;
+        }
+
+        if (blockLength + BitUtil.SIZE_OF_INT + length > blockCapacity)
+        {
+            flushBlock();
+            if (BitUtil.SIZE_OF_INT + length > blockCapacity)
+            {
+                //too large for a block, so written as it is
+                retryingOffer(snapshotPublication, buffer, length);
+                return;
+            }
+        }
+
+        blockBuffer.putInt(blockLength, length, ByteOrder.LITTLE_ENDIAN);
+        blockBuffer.putBytes(blockLength + BitUtil.SIZE_OF_INT, buffer, 0, length);
+        blockLength += BitUtil.SIZE_OF_INT + length;
+    }
+
+    //compresses the records gathered so far and writes them as one message
+    private void flushBlock()
+    {
+        if (0 == blockLength)
+        {
+            return;
+        }
+
+        final int compressedLength = codec.compress(blockBuffer, 0, blockLength, compressedBuffer, 0);
+        compressedBlockEncoder.wrapAndApplyHeader(blockMessageBuffer, 0, headerEncoder);
+        compressedBlockEncoder.uncompressedLength(blockLength);
+        compressedBlockEncoder.putRecords(compressedBuffer, 0, compressedLength);
+        retryingOffer(snapshotPublication, blockMessageBuffer, headerEncoder.encodedLength() +
+            compressedBlockEncoder.encodedLength());
+        blockLength = 0;
+    }
+
+    //the longest block which, compressed at worst, still fits in one message of the publication
+    private static int maxBlockLength(final int maxMessageLength)
+    {
+        final int maxCompressedLength = maxMessageLength - BLOCK_MESSAGE_OVERHEAD;
+        return Math.min(MAX_BLOCK_LENGTH, maxCompressedLength - maxCompressedLength / 128 - 16);
     }
 
     /**
-     * Retries the offer to the publication if it fails on back pressure or admin action.
+     * Retries the offer to the publication until it is not refused on back pressure or admin action, as a large
+     * record may need to wait for the archive to catch up. Other failures are retried a few times.
      * Buffer is assumed to always start at offset 0
      *
      * @param publication the publication to offer data to
@@ -140,7 +749,8 @@ public class SnapshotManager implements FragmentHandler
             }
             else if (result == Publication.ADMIN_ACTION || result == Publication.BACK_PRESSURED)
             {
-                LOGGER.warn("backpressure or admin action on snapshot");
+                idleStrategy.idle();
+                continue;
             }
             else if (result == Publication.NOT_CONNECTED || result == Publication.MAX_POSITION_EXCEEDED)
             {
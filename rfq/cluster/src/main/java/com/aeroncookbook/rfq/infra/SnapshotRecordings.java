@@ -0,0 +1,50 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.infra;
+
+import io.aeron.ExclusivePublication;
+import io.aeron.Image;
+
+import java.util.function.Consumer;
+
+/**
+ * Access to the archive recordings of the service's own snapshots, so a delta snapshot can name the full snapshot
+ * it applies to, and that full snapshot can be read again when the delta is loaded
+ */
+public interface SnapshotRecordings
+{
+    /**
+     * Returned when the recording of a snapshot cannot be found
+     */
+    long NULL_RECORDING_ID = -1;
+
+    /**
+     * Finds the recording of a snapshot being written
+     *
+     * @param snapshotPublication the publication the snapshot is written to
+     * @return the recording id, or {@link #NULL_RECORDING_ID} if the snapshot is not being recorded
+     */
+    long recordingId(ExclusivePublication snapshotPublication);
+
+    /**
+     * Replays the recording of an earlier snapshot
+     *
+     * @param recordingId   the recording id
+     * @param imageConsumer reads the snapshot from the image, to its end, before returning
+     */
+    void replay(long recordingId, Consumer<Image> imageConsumer);
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.infra;
+
+import io.aeron.ChannelUri;
+import io.aeron.ExclusivePublication;
+import io.aeron.Image;
+import io.aeron.Subscription;
+import io.aeron.archive.client.AeronArchive;
+import io.aeron.archive.status.RecordingPos;
+import io.aeron.cluster.service.Cluster;
+import org.agrona.CloseHelper;
+import org.agrona.concurrent.AgentInvoker;
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.status.CountersReader;
+
+import java.util.function.Consumer;
+
+/**
+ * Snapshot recordings held by the node's archive, reached with an archive client of the clustered service's own.
+ * The client is connected when first needed, as most services never write or load a delta snapshot.
+ */
+public class SnapshotRecordingsImpl implements SnapshotRecordings, AutoCloseable
+{
+    private static final String REPLAY_CHANNEL = "aeron:ipc?alias=rfq-base-snapshot";
+    private static final int REPLAY_STREAM_ID = 3001;
+    private final Cluster cluster;
+    private AeronArchive archive;
+
+    /**
+     * Constructor
+     *
+     * @param cluster the cluster the service runs in, whose archive context and client are used
+     */
+    public SnapshotRecordingsImpl(final Cluster cluster)
+    {
+        this.cluster = cluster;
+    }
+
+    @Override
+    public long recordingId(final ExclusivePublication snapshotPublication)
+    {
+        //the service container starts recording the snapshot, and waits for the recording, before it is written
+        final CountersReader counters = cluster.aeron().countersReader();
+        final int counterId =
+            RecordingPos.findCounterIdBySession(counters, snapshotPublication.sessionId(), archive().archiveId());
+        return CountersReader.NULL_COUNTER_ID == counterId ?
+            NULL_RECORDING_ID : RecordingPos.getRecordingId(counters, counterId);
+    }
+
+    @Override
+    public void replay(final long recordingId, final Consumer<Image> imageConsumer)
+    {
+        final AeronArchive archive = archive();
+        final long startPosition = archive.getStartPosition(recordingId);
+        final long stopPosition = archive.getStopPosition(recordingId);
+        if (AeronArchive.NULL_POSITION == stopPosition)
+        {
+            throw new IllegalStateException("snapshot recording " + recordingId + " is still active");
+        }
+
+        final int replaySessionId = (int)archive.startReplay(
+            recordingId, startPosition, stopPosition - startPosition, REPLAY_CHANNEL, REPLAY_STREAM_ID);
+        try (Subscription subscription = cluster.aeron().addSubscription(
+            ChannelUri.addSessionId(REPLAY_CHANNEL, replaySessionId), REPLAY_STREAM_ID))
+        {
+            final IdleStrategy idleStrategy = cluster.idleStrategy();
+            idleStrategy.reset();
+            Image image;
+            while (null == (image = subscription.imageBySessionId(replaySessionId)))
+            {
+                invokeClient();
+                idleStrategy.idle();
+            }
+            imageConsumer.accept(image);
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        CloseHelper.quietClose(archive);
+        archive = null;
+    }
+
+    private AeronArchive archive()
+    {
+        if (null == archive)
+        {
+            archive = AeronArchive.connect(cluster.context().archiveContext().clone());
+        }
+        return archive;
+    }
+
+    //the service's aeron client runs on the service thread, so it is progressed while waiting for the replay
+    private void invokeClient()
+    {
+        final AgentInvoker invoker = cluster.aeron().conductorAgentInvoker();
+        if (null != invoker)
+        {
+            invoker.invoke();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.infra;
+
+import com.aeroncookbook.cluster.rfq.sbe.CompressedSnapshotBlockDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.ServiceStateRecordDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.SnapshotType;
+import io.aeron.Image;
+import io.aeron.ImageFragmentAssembler;
+import io.aeron.logbuffer.FragmentHandler;
+import io.aeron.logbuffer.Header;
+import org.agrona.BitUtil;
+import org.agrona.DirectBuffer;
+import org.agrona.ExpandableDirectByteBuffer;
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.nio.ByteOrder;
+
+/**
+ * Reads whether a snapshot is full or a delta from its service state record, without loading it. A delta can only be
+ * loaded from the archive it was written to, as it names its base by recording id, so snapshots copied to another
+ * archive are checked before they are used.
+ */
+public final class SnapshotTypeReader implements FragmentHandler
+{
+    private final MessageHeaderDecoder headerDecoder = new MessageHeaderDecoder();
+    private final ServiceStateRecordDecoder serviceStateRecordDecoder = new ServiceStateRecordDecoder();
+    private final CompressedSnapshotBlockDecoder compressedBlockDecoder = new CompressedSnapshotBlockDecoder();
+    private final UnsafeBuffer compressedRecords = new UnsafeBuffer(0, 0);
+    private final ExpandableDirectByteBuffer decompressedBuffer = new ExpandableDirectByteBuffer(64 * 1024);
+    private final ImageFragmentAssembler assembler = new ImageFragmentAssembler(this);
+    private SnapshotType snapshotType;
+
+    /**
+     * Polls a snapshot image until its service state record is read
+     *
+     * @param snapshotImage the image of the snapshot, such as a replay of its recording
+     * @param idleStrategy  the idle strategy used while polling
+     * @return the type of the snapshot, or null if the image ended without a service state record
+     */
+    public SnapshotType read(final Image snapshotImage, final IdleStrategy idleStrategy)
+    {
+        snapshotType = null;
+        idleStrategy.reset();
+        while (null == snapshotType && !snapshotImage.isEndOfStream() && !snapshotImage.isClosed())
+        {
+            idleStrategy.idle(snapshotImage.poll(assembler, 20));
+        }
+        return snapshotType;
+    }
+
+    /**
+     * @param buffer containing the data.
+     * @param offset at which the data begins.
+     * @param length of the data in bytes.
+     * @param header representing the metadata for the data.
+     */
+    @Override
+    public void onFragment(final DirectBuffer buffer, final int offset, final int length, final Header header)
+    {
+        if (null != snapshotType || length < MessageHeaderDecoder.ENCODED_LENGTH)
+        {
+            return;
+        }
+
+        headerDecoder.wrap(buffer, offset);
+        if (headerDecoder.schemaId() != MessageHeaderDecoder.SCHEMA_ID)
+        {
+            //the cluster's own records
+            return;
+        }
+        if (headerDecoder.templateId() == CompressedSnapshotBlockDecoder.TEMPLATE_ID)
+        {
+            readCompressedBlock(buffer, offset);
+        }
+        else
+        {
+            readRecord(buffer, offset);
+        }
+    }
+
+    //reads a record whose header has been read into the header decoder
+    private void readRecord(final DirectBuffer buffer, final int offset)
+    {
+        if (headerDecoder.templateId() == ServiceStateRecordDecoder.TEMPLATE_ID)
+        {
+            serviceStateRecordDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+            snapshotType = serviceStateRecordDecoder.snapshotType();
+        }
+    }
+
+    private void readCompressedBlock(final DirectBuffer buffer, final int offset)
+    {
+        compressedBlockDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        final int uncompressedLength = compressedBlockDecoder.uncompressedLength();
+        compressedBlockDecoder.wrapRecords(compressedRecords);
+        decompressedBuffer.checkLimit(uncompressedLength);
+        Lz4BlockCodec.decompress(compressedRecords, 0, compressedRecords.capacity(), decompressedBuffer, 0,
+            uncompressedLength);
+
+        int recordOffset = 0;
+        while (null == snapshotType && recordOffset < uncompressedLength)
+        {
+            final int recordLength = decompressedBuffer.getInt(recordOffset, ByteOrder.LITTLE_ENDIAN);
+            recordOffset += BitUtil.SIZE_OF_INT;
+            headerDecoder.wrap(decompressedBuffer, recordOffset);
+            readRecord(decompressedBuffer, recordOffset);
+            recordOffset += recordLength;
+        }
+    }
+}
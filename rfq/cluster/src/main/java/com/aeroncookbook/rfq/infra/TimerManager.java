@@ -76,6 +76,15 @@ public class TimerManager
         correlationIdToRunnable.put(timerCorrelationId, task);
     }
 
+    /**
+     * Discards the task of a restored timer that will not run, as the RFQ it expires has since closed
+     * @param timerCorrelationId the correlation id of the timer
+     */
+    public void discardTimer(final long timerCorrelationId)
+    {
+        correlationIdToRunnable.remove(timerCorrelationId);
+    }
+
     /**
      * Called when a timer cluster event occurs
      * @param correlationId the cluster timer id
@@ -95,6 +104,25 @@ public class TimerManager
         }
     }
 
+    /**
+     * Gets the correlation id of the most recently scheduled timer
+     * @return the last timer correlation id
+     */
+    public long getLastCorrelationId()
+    {
+        return correlationId;
+    }
+
+    /**
+     * Restores the last timer correlation id from a snapshot, so that new timers do not reuse ids still held by the
+     * cluster
+     * @param lastCorrelationId the last timer correlation id
+     */
+    public void restoreLastCorrelationId(final long lastCorrelationId)
+    {
+        this.correlationId = lastCorrelationId;
+    }
+
     /***
      * Sets the cluster object used for scheduling timers
      * @param cluster the cluster object
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.aeroncookbook.rfq.infra;
+
+/**
+ * Token bucket refilled from cluster time, so every node admits and rejects the same requests. Tokens are held in
+ * thousandths to keep the refill in integer arithmetic.
+ */
+public final class TokenBucket
+{
+    private static final long TOKEN = 1000;
+
+    private long ratePerSecond;
+    private long capacity;
+    private long tokens;
+    private long lastRefillMs;
+
+    /**
+     * Constructor, starting with a full bucket
+     *
+     * @param ratePerSecond the number of tokens added per second
+     * @param burst         the maximum number of tokens held
+     * @param nowMs         the current cluster time in milliseconds
+     */
+    public TokenBucket(final long ratePerSecond, final long burst, final long nowMs)
+    {
+        reset(ratePerSecond, burst, nowMs);
+    }
+
+    /**
+     * Applies new limits and refills the bucket
+     *
+     * @param ratePerSecond the number of tokens added per second
+     * @param burst         the maximum number of tokens held
+     * @param nowMs         the current cluster time in milliseconds
+     */
+    public void reset(final long ratePerSecond, final long burst, final long nowMs)
+    {
+        this.ratePerSecond = ratePerSecond;
+        this.capacity = burst * TOKEN;
+        this.tokens = capacity;
+        this.lastRefillMs = nowMs;
+    }
+
+    /**
+     * Takes a token if one is available
+     *
+     * @param nowMs the current cluster time in milliseconds
+     * @return true if a token was taken, false if the caller must be throttled
+     */
+    public boolean tryAcquire(final long nowMs)
+    {
+        if (nowMs > lastRefillMs)
+        {
+            final long elapsedMs = nowMs - lastRefillMs;
+            if (ratePerSecond > 0 && elapsedMs >= capacity)
+            {
+                tokens = capacity;
+            }
+            else
+            {
+                tokens = Math.min(capacity, tokens + elapsedMs * ratePerSecond);
+            }
+            lastRefillMs = nowMs;
+        }
+
+        if (tokens >= TOKEN)
+        {
+            tokens -= TOKEN;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Restores the bucket state from a snapshot, keeping the current limits
+     *
+     * @param tokens       the tokens held, in thousandths
+     * @param lastRefillMs the cluster time of the last refill
+     */
+    public void restore(final long tokens, final long lastRefillMs)
+    {
+        this.tokens = Math.min(capacity, tokens);
+        this.lastRefillMs = lastRefillMs;
+    }
+
+    /**
+     * The tokens held as of the last call, in thousandths
+     *
+     * @return the tokens held
+     */
+    public long getTokens()
+    {
+        return tokens;
+    }
+
+    /**
+     * The cluster time of the last refill
+     *
+     * @return the time in milliseconds
+     */
+    public long getLastRefillMs()
+    {
+        return lastRefillMs;
+    }
+
+    /**
+     * The number of whole tokens available as of the last call
+     *
+     * @return the available tokens
+     */
+    public long availableTokens()
+    {
+        return tokens / TOKEN;
+    }
+}
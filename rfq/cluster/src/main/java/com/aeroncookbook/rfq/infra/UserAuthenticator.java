@@ -0,0 +1,144 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.infra;
+
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.UserCredentialsDecoder;
+import com.aeroncookbook.rfq.domain.users.Users;
+import io.aeron.security.Authenticator;
+import io.aeron.security.SessionProxy;
+import org.agrona.collections.Long2LongHashMap;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteOrder;
+
+/**
+ * Authenticates client sessions in the consensus module. A client sends {@code UserCredentials} when connecting,
+ * and is accepted with its user id as the encoded principal, which the clustered service reads from the session to
+ * bind the session to the user. The user registry is replicated state of the clustered service, so it is the service
+ * that closes sessions of unknown or disabled users. A client sending no credentials is accepted as anonymous, and
+ * may only use the instrument and user commands.
+ * <p>
+ * The sample trusts the user id sent; a real deployment would verify a secret or token here.
+ */
+public class UserAuthenticator implements Authenticator
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(UserAuthenticator.class);
+    private static final byte[] ANONYMOUS_PRINCIPAL = new byte[0];
+    private static final long REJECTED = Long.MIN_VALUE;
+
+    private final Long2LongHashMap userIdBySessionId = new Long2LongHashMap(REJECTED);
+    private final MessageHeaderDecoder headerDecoder = new MessageHeaderDecoder();
+    private final UserCredentialsDecoder credentialsDecoder = new UserCredentialsDecoder();
+    private final UnsafeBuffer credentialsBuffer = new UnsafeBuffer();
+
+    /**
+     * Encodes a user id as a session principal
+     *
+     * @param userId the user id
+     * @return the encoded principal
+     */
+    public static byte[] encodePrincipal(final int userId)
+    {
+        final byte[] principal = new byte[Integer.BYTES];
+        new UnsafeBuffer(principal).putInt(0, userId, ByteOrder.LITTLE_ENDIAN);
+        return principal;
+    }
+
+    /**
+     * Decodes the user id from a session principal
+     *
+     * @param encodedPrincipal the principal of the session
+     * @return the user id, or {@link Users#NO_USER} for an anonymous session
+     */
+    public static int decodePrincipal(final byte[] encodedPrincipal)
+    {
+        if (encodedPrincipal == null || encodedPrincipal.length < Integer.BYTES)
+        {
+            return Users.NO_USER;
+        }
+        return new UnsafeBuffer(encodedPrincipal).getInt(0, ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public void onConnectRequest(final long sessionId, final byte[] encodedCredentials, final long nowMs)
+    {
+        if (encodedCredentials == null || encodedCredentials.length == 0)
+        {
+            userIdBySessionId.put(sessionId, Users.NO_USER);
+            return;
+        }
+
+        if (encodedCredentials.length < MessageHeaderDecoder.ENCODED_LENGTH + UserCredentialsDecoder.BLOCK_LENGTH)
+        {
+            LOGGER.warn("Session {} sent malformed credentials", sessionId);
+            return;
+        }
+
+        credentialsBuffer.wrap(encodedCredentials);
+        headerDecoder.wrap(credentialsBuffer, 0);
+        if (headerDecoder.templateId() != UserCredentialsDecoder.TEMPLATE_ID ||
+            headerDecoder.schemaId() != UserCredentialsDecoder.SCHEMA_ID)
+        {
+            LOGGER.warn("Session {} sent unknown credentials template {}", sessionId, headerDecoder.templateId());
+            return;
+        }
+
+        credentialsDecoder.wrapAndApplyHeader(credentialsBuffer, 0, headerDecoder);
+        final int userId = credentialsDecoder.userId();
+        if (userId > 0)
+        {
+            userIdBySessionId.put(sessionId, userId);
+        }
+        else
+        {
+            LOGGER.warn("Session {} rejected, invalid user id {}", sessionId, userId);
+        }
+    }
+
+    @Override
+    public void onChallengeResponse(final long sessionId, final byte[] encodedCredentials, final long nowMs)
+    {
+    }
+
+    @Override
+    public void onConnectedSession(final SessionProxy sessionProxy, final long nowMs)
+    {
+        final long userId = userIdBySessionId.remove(sessionProxy.sessionId());
+        if (userId == REJECTED)
+        {
+            sessionProxy.reject();
+        }
+        else if (userId == Users.NO_USER)
+        {
+            sessionProxy.authenticate(ANONYMOUS_PRINCIPAL);
+        }
+        else
+        {
+            sessionProxy.authenticate(encodePrincipal((int)userId));
+        }
+    }
+
+    @Override
+    public void onChallengedSession(final SessionProxy sessionProxy, final long nowMs)
+    {
+        userIdBySessionId.remove(sessionProxy.sessionId());
+        sessionProxy.reject();
+    }
+}
@@ -0,0 +1,480 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aeroncookbook.rfq.infra;
+
+import com.aeroncookbook.cluster.rfq.Cusips;
+import com.aeroncookbook.cluster.rfq.sbe.AcceptRfqCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.AddUserCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.BooleanType;
+import com.aeroncookbook.cluster.rfq.sbe.CancelRfqCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.CounterRfqCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.CreateRfqCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.ListInstrumentsCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.ListRfqsCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.QuoteRfqCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.RejectRfqCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqBookSnapshotCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqStatus;
+import com.aeroncookbook.cluster.rfq.sbe.SetInstrumentEnabledFlagEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.SetUserEnabledFlagCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.SetUserEntitlementCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.Side;
+import com.aeroncookbook.cluster.rfq.sbe.UserClassType;
+import com.aeroncookbook.rfq.domain.instrument.InstrumentAddType;
+import com.aeroncookbook.rfq.domain.instrument.Instruments;
+import com.aeroncookbook.rfq.domain.rfq.Rfqs;
+import com.aeroncookbook.rfq.domain.users.UserClass;
+import com.aeroncookbook.rfq.domain.users.Users;
+import io.aeron.DirectBufferVector;
+import io.aeron.cluster.service.ClientSession;
+import io.aeron.logbuffer.BufferClaim;
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.NoOpIdleStrategy;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.IntConsumer;
+
+/**
+ * Drives the service's command and timer handling outside a cluster, as the clustered service would, and measures
+ * the bytes the calling thread allocates doing so. Commands are sent by three sessions, bound to a trader, a market
+ * maker and the admin user, to a single partition holding a few instruments. Cusips are encoded from bytes, so the
+ * harness itself does not allocate. Responses are accepted and discarded by the
+ * sessions, and cluster time advances with each command so that retained processed requests expire.
+ */
+final class AllocationHarness
+{
+    static final int TRADER = 500;
+    static final int MARKET_MAKER = 502;
+    static final int INSTRUMENT_COUNT = 16;
+    static final long PRICE = 10_000;
+    static final int FIRST_NEW_USER_ID = 10_000;
+    static final int LIST_LIMIT = 20;
+
+    private static final long START_TIME = 1_000_000;
+    private static final long TIME_STEP = 10;
+    private static final long EXPIRE_TIME_MS = Long.MAX_VALUE / 2;
+    private static final int MIN_SIZE = 100;
+    private static final long QUANTITY = 1_000;
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    final ClientSessions clientSessions = new ClientSessions(RateLimits.defaults());
+    final SessionMessageContextImpl context = new SessionMessageContextImpl(clientSessions);
+    final ProcessedRequests processedRequests = new ProcessedRequests();
+    final DropCopyPublisher dropCopyPublisher =
+        new DropCopyPublisher(DropCopyPublisher.DEFAULT_CHANNEL, DropCopyPublisher.DEFAULT_STREAM_ID);
+    final ClusterClientResponderImpl responder =
+        new ClusterClientResponderImpl(context, processedRequests, dropCopyPublisher);
+    final TimerManager timerManager = new LocalTimerManager(context);
+    final Instruments instruments = new Instruments(responder);
+    final Users users = new Users(context, instruments, responder);
+    final Rfqs rfqs = new Rfqs(context, instruments, users, responder, timerManager, Partitions.SINGLE);
+    final SbeAdapter sbeAdapter = new SbeAdapter(instruments, rfqs, users, responder, context, Partitions.SINGLE);
+
+    private final StubClientSession traderSession = new StubClientSession(1);
+    private final StubClientSession marketMakerSession = new StubClientSession(2);
+    private final StubClientSession adminSession = new StubClientSession(3);
+    private final String[] cusips = new String[INSTRUMENT_COUNT];
+    private final byte[] cusip = new byte[Cusips.CUSIP_LENGTH];
+    private final UnsafeBuffer buffer = new UnsafeBuffer(new byte[256]);
+    private final MessageHeaderEncoder headerEncoder = new MessageHeaderEncoder();
+    private final CreateRfqCommandEncoder createRfqCommandEncoder = new CreateRfqCommandEncoder();
+    private final CancelRfqCommandEncoder cancelRfqCommandEncoder = new CancelRfqCommandEncoder();
+    private final QuoteRfqCommandEncoder quoteRfqCommandEncoder = new QuoteRfqCommandEncoder();
+    private final CounterRfqCommandEncoder counterRfqCommandEncoder = new CounterRfqCommandEncoder();
+    private final AcceptRfqCommandEncoder acceptRfqCommandEncoder = new AcceptRfqCommandEncoder();
+    private final RejectRfqCommandEncoder rejectRfqCommandEncoder = new RejectRfqCommandEncoder();
+    private final AddInstrumentEncoder addInstrumentEncoder = new AddInstrumentEncoder();
+    private final SetInstrumentEnabledFlagEncoder setInstrumentEnabledFlagEncoder =
+        new SetInstrumentEnabledFlagEncoder();
+    private final ListInstrumentsCommandEncoder listInstrumentsCommandEncoder = new ListInstrumentsCommandEncoder();
+    private final ListRfqsCommandEncoder listRfqsCommandEncoder = new ListRfqsCommandEncoder();
+    private final RfqBookSnapshotCommandEncoder rfqBookSnapshotCommandEncoder = new RfqBookSnapshotCommandEncoder();
+    private final AddUserCommandEncoder addUserCommandEncoder = new AddUserCommandEncoder();
+    private final SetUserEnabledFlagCommandEncoder setUserEnabledFlagCommandEncoder =
+        new SetUserEnabledFlagCommandEncoder();
+    private final SetUserEntitlementCommandEncoder setUserEntitlementCommandEncoder =
+        new SetUserEntitlementCommandEncoder();
+    private ClientSession lastSession;
+    private int lastLength;
+    private long clusterTime = START_TIME;
+    private long timeStep = TIME_STEP;
+    private long correlation = 0;
+
+    AllocationHarness()
+    {
+        context.setIdleStrategy(NoOpIdleStrategy.INSTANCE);
+        for (int i = 0; i < INSTRUMENT_COUNT; i++)
+        {
+            cusips[i] = String.format("%09d", i);
+            instruments.addInstrument(InstrumentAddType.SNAPSHOT_LOAD, 0, cusips[i], true, MIN_SIZE);
+        }
+        clientSessions.addSession(traderSession, clusterTime);
+        clientSessions.bindUser(traderSession.id(), TRADER, UserClass.TRADER, clusterTime);
+        clientSessions.addSession(marketMakerSession, clusterTime);
+        clientSessions.bindUser(marketMakerSession.id(), MARKET_MAKER, UserClass.MARKET_MAKER, clusterTime);
+        clientSessions.addSession(adminSession, clusterTime);
+        clientSessions.bindUser(adminSession.id(), Users.DEFAULT_ADMIN_USER_ID, UserClass.ADMIN, clusterTime);
+    }
+
+    /**
+     * Runs an operation for each index from zero, first to let the JIT compiler settle, then measuring the bytes
+     * allocated by the calling thread. Operations are given the index so each may act on a different RFQ.
+     * <p>
+     * The total is returned rather than an average, so that a single allocation in any of the measured operations
+     * is seen. The bytes allocated by measuring itself, found by measuring nothing first, are taken off.
+     *
+     * @param warmUpOperations the number of operations run before measuring
+     * @param operations       the number of operations measured
+     * @param operation        the operation, given its index
+     * @return the bytes allocated by all the measured operations together
+     */
+    static long allocatedBytes(
+        final int warmUpOperations,
+        final int operations,
+        final IntConsumer operation)
+    {
+        for (int i = 0; i < warmUpOperations; i++)
+        {
+            operation.accept(i);
+        }
+
+        final long threadId = Thread.currentThread().threadId();
+        final long measuringBefore = THREADS.getThreadAllocatedBytes(threadId);
+        final long measuringAfter = THREADS.getThreadAllocatedBytes(threadId);
+
+        final long allocatedBefore = THREADS.getThreadAllocatedBytes(threadId);
+        for (int i = warmUpOperations, end = warmUpOperations + operations; i < end; i++)
+        {
+            operation.accept(i);
+        }
+        final long allocatedAfter = THREADS.getThreadAllocatedBytes(threadId);
+
+        return Math.max(0, (allocatedAfter - allocatedBefore) - (measuringAfter - measuringBefore));
+    }
+
+    /**
+     * Gets the id of an RFQ by the order it was created in
+     *
+     * @param index the index of the RFQ, from zero
+     * @return the RFQ id
+     */
+    int rfqId(final int index)
+    {
+        return rfqs.getRfqs().get(index).getRfqId();
+    }
+
+    /**
+     * Stops cluster time advancing with each command, so processed requests are retained however many are sent
+     */
+    void freezeClusterTime()
+    {
+        timeStep = 0;
+    }
+
+    void createRfq(final int instrumentIndex)
+    {
+        createRfqCommandEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder)
+            .correlation(++correlation)
+            .expireTimeMs(EXPIRE_TIME_MS)
+            .quantity(QUANTITY)
+            .requesterSide(Side.BUY)
+            .cusip(cusips[instrumentIndex % INSTRUMENT_COUNT]);
+        dispatch(traderSession, createRfqCommandEncoder.encodedLength());
+    }
+
+    void cancelRfq(final int rfqId)
+    {
+        encodeCancelRfq(rfqId);
+        dispatch(traderSession, cancelRfqCommandEncoder.encodedLength());
+    }
+
+    void cancelRfqThrottled(final int rfqId)
+    {
+        encodeCancelRfq(rfqId);
+        context.setSessionContext(traderSession, advanceClusterTime());
+        sbeAdapter.dispatchThrottled(
+            buffer, 0, MessageHeaderEncoder.ENCODED_LENGTH + cancelRfqCommandEncoder.encodedLength());
+    }
+
+    void quoteRfq(final int rfqId)
+    {
+        quoteRfqCommandEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder)
+            .correlation(++correlation)
+            .rfqId(rfqId)
+            .price(PRICE);
+        dispatch(marketMakerSession, quoteRfqCommandEncoder.encodedLength());
+    }
+
+    void counterRfq(final int rfqId)
+    {
+        counterRfqCommandEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder)
+            .correlation(++correlation)
+            .rfqId(rfqId)
+            .price(PRICE - 1);
+        dispatch(traderSession, counterRfqCommandEncoder.encodedLength());
+    }
+
+    void acceptRfq(final int rfqId)
+    {
+        acceptRfqCommandEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder)
+            .correlation(++correlation)
+            .rfqId(rfqId);
+        dispatch(traderSession, acceptRfqCommandEncoder.encodedLength());
+    }
+
+    void rejectRfq(final int rfqId)
+    {
+        rejectRfqCommandEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder)
+            .correlation(++correlation)
+            .rfqId(rfqId)
+            .price(PRICE);
+        dispatch(traderSession, rejectRfqCommandEncoder.encodedLength());
+    }
+
+    /**
+     * Adds an instrument not held before, the first after the harness's own instruments
+     *
+     * @param index the index of the new instrument, from zero
+     */
+    void addInstrument(final int index)
+    {
+        addInstrumentEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder)
+            .correlation(++correlation)
+            .putCusip(cusipOf(INSTRUMENT_COUNT + index), 0)
+            .enabled(BooleanType.TRUE)
+            .minSize(MIN_SIZE);
+        dispatch(adminSession, addInstrumentEncoder.encodedLength());
+    }
+
+    void setInstrumentEnabledFlag(final int instrumentIndex, final boolean enabled)
+    {
+        setInstrumentEnabledFlagEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder)
+            .correlation(++correlation)
+            .putCusip(cusipOf(instrumentIndex % INSTRUMENT_COUNT), 0)
+            .enabled(enabled ? BooleanType.TRUE : BooleanType.FALSE);
+        dispatch(adminSession, setInstrumentEnabledFlagEncoder.encodedLength());
+    }
+
+    void listInstruments()
+    {
+        listInstrumentsCommandEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder)
+            .correlation(++correlation)
+            .fromInstrumentId(0);
+        dispatch(traderSession, listInstrumentsCommandEncoder.encodedLength());
+    }
+
+    /**
+     * Queries the first page of the RFQs on an instrument, in any state
+     *
+     * @param instrumentIndex the index of the instrument
+     */
+    void listRfqs(final int instrumentIndex)
+    {
+        listRfqsCommandEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder)
+            .correlation(++correlation)
+            .userId(Rfqs.ANY_USER)
+            .putCusip(cusipOf(instrumentIndex % INSTRUMENT_COUNT), 0)
+            .status(RfqStatus.NULL_VAL)
+            .afterRfqId(0)
+            .limit(LIST_LIMIT);
+        dispatch(traderSession, listRfqsCommandEncoder.encodedLength());
+    }
+
+    void rfqBookSnapshot()
+    {
+        rfqBookSnapshotCommandEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder)
+            .correlation(++correlation);
+        dispatch(traderSession, rfqBookSnapshotCommandEncoder.encodedLength());
+    }
+
+    /**
+     * Adds a user not held before, a trader entitled to all instruments
+     *
+     * @param index the index of the new user, from zero
+     */
+    void addUser(final int index)
+    {
+        addUserCommandEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder)
+            .correlation(++correlation)
+            .userId(FIRST_NEW_USER_ID + index)
+            .userClass(UserClassType.TRADER)
+            .entitledToAll(BooleanType.TRUE);
+        dispatch(adminSession, addUserCommandEncoder.encodedLength());
+    }
+
+    void setUserEnabledFlag(final int userId, final boolean enabled)
+    {
+        setUserEnabledFlagCommandEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder)
+            .correlation(++correlation)
+            .userId(userId)
+            .enabled(enabled ? BooleanType.TRUE : BooleanType.FALSE);
+        dispatch(adminSession, setUserEnabledFlagCommandEncoder.encodedLength());
+    }
+
+    void setUserEntitlement(final int userId, final int instrumentIndex, final boolean entitled)
+    {
+        setUserEntitlementCommandEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder)
+            .correlation(++correlation)
+            .userId(userId)
+            .putCusip(cusipOf(instrumentIndex % INSTRUMENT_COUNT), 0)
+            .entitled(entitled ? BooleanType.TRUE : BooleanType.FALSE);
+        dispatch(adminSession, setUserEntitlementCommandEncoder.encodedLength());
+    }
+
+    /**
+     * Sends the last command again from the same session with the same correlation, as a client retrying it would
+     */
+    void resendLastCommand()
+    {
+        context.setSessionContext(lastSession, advanceClusterTime());
+        sbeAdapter.dispatch(buffer, 0, lastLength);
+    }
+
+    /**
+     * Fires the expiry timer of an RFQ
+     *
+     * @param rfqId the RFQ id
+     */
+    void expireRfq(final int rfqId)
+    {
+        timerManager.onTimerEvent(rfqs.getRfq(rfqId).getExpiryTimerId(), advanceClusterTime());
+    }
+
+    //the cusip of an instrument index, as nine digits, the same as the harness's own cusips
+    private byte[] cusipOf(final int index)
+    {
+        int value = index;
+        for (int i = Cusips.CUSIP_LENGTH - 1; i >= 0; i--)
+        {
+            cusip[i] = (byte)('0' + value % 10);
+            value /= 10;
+        }
+        return cusip;
+    }
+
+    private void encodeCancelRfq(final int rfqId)
+    {
+        cancelRfqCommandEncoder.wrapAndApplyHeader(buffer, 0, headerEncoder)
+            .correlation(++correlation)
+            .rfqId(rfqId);
+    }
+
+    private void dispatch(final ClientSession session, final int encodedLength)
+    {
+        lastSession = session;
+        lastLength = MessageHeaderEncoder.ENCODED_LENGTH + encodedLength;
+        context.setSessionContext(session, advanceClusterTime());
+        sbeAdapter.dispatch(buffer, 0, lastLength);
+    }
+
+    private long advanceClusterTime()
+    {
+        clusterTime += timeStep;
+        return clusterTime;
+    }
+
+    /**
+     * Schedules timers locally rather than with the cluster, so they only fire when the harness fires them
+     */
+    private static final class LocalTimerManager extends TimerManager
+    {
+        LocalTimerManager(final SessionMessageContextImpl context)
+        {
+            super(context);
+        }
+
+        @Override
+        public long scheduleTimer(final long deadline, final Runnable timerRunnable)
+        {
+            final long correlationId = getLastCorrelationId() + 1;
+            restoreLastCorrelationId(correlationId);
+            restoreTimer(correlationId, timerRunnable);
+            return correlationId;
+        }
+    }
+
+    /**
+     * A session accepting and discarding every message, written by hand as mocks allocate on each call
+     */
+    static final class StubClientSession implements ClientSession
+    {
+        private final long id;
+
+        StubClientSession(final long id)
+        {
+            this.id = id;
+        }
+
+        @Override
+        public long id()
+        {
+            return id;
+        }
+
+        @Override
+        public int responseStreamId()
+        {
+            return 0;
+        }
+
+        @Override
+        public String responseChannel()
+        {
+            return "aeron:ipc";
+        }
+
+        @Override
+        public byte[] encodedPrincipal()
+        {
+            return new byte[0];
+        }
+
+        @Override
+        public void close()
+        {
+        }
+
+        @Override
+        public boolean isClosing()
+        {
+            return false;
+        }
+
+        @Override
+        public long offer(final DirectBuffer buffer, final int offset, final int length)
+        {
+            return length;
+        }
+
+        @Override
+        public long offer(final DirectBufferVector[] vectors)
+        {
+            return 1;
+        }
+
+        @Override
+        public long tryClaim(final int length, final BufferClaim bufferClaim)
+        {
+            return 1;
+        }
+    }
+}
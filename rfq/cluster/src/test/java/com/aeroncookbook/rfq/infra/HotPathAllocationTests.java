@@ -0,0 +1,273 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aeroncookbook.rfq.infra;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fails the build when the hot paths of the service start to allocate. Commands which only change existing state,
+ * and queries, must not allocate at all; commands which add to the book, the instruments or the users are held to a
+ * budget covering what they retain.
+ */
+public class HotPathAllocationTests
+{
+    private static final int WARM_UP_OPERATIONS = 20_000;
+    private static final int OPERATIONS = 20_000;
+    //budgets are bytes per command, averaged over the measured commands
+    //a new RFQ retains the RFQ, its cusip, its expiry task and its index entries, with the growth of their maps
+    private static final long CREATE_RFQ_BUDGET = 512;
+    //a quote adds the RFQ to the index of the market maker, which grows as they quote more
+    private static final long QUOTE_RFQ_BUDGET = 64;
+    //a new instrument retains the instrument, its cusip and its index entries, with the growth of their maps
+    private static final long ADD_INSTRUMENT_BUDGET = 512;
+    //a new user retains its slot in the user arrays and its index entries, with their growth
+    private static final long ADD_USER_BUDGET = 256;
+    //each snapshot request is answered with the whole book, so the book is kept small to keep the test quick
+    private static final int SNAPSHOT_RFQS = 100;
+    private static final int OTHER_TRADER = 501;
+
+    private static Level rootLevel;
+    private AllocationHarness harness;
+
+    @BeforeAll
+    public static void quietLogging()
+    {
+        //info logging formats a message for each command, so a service is only allocation free at warn or above
+        final Logger root = (Logger)LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+        rootLevel = root.getLevel();
+        root.setLevel(Level.WARN);
+    }
+
+    @AfterAll
+    public static void restoreLogging()
+    {
+        ((Logger)LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(rootLevel);
+    }
+
+    @BeforeEach
+    public void setUp()
+    {
+        harness = new AllocationHarness();
+    }
+
+    @Test
+    public void canCreateRfqWithinBudget()
+    {
+        final long bytes = AllocationHarness.allocatedBytes(
+            WARM_UP_OPERATIONS, OPERATIONS, harness::createRfq);
+
+        Assertions.assertTrue(bytes <= CREATE_RFQ_BUDGET * OPERATIONS,
+            "create RFQ allocated " + bytes / OPERATIONS + " bytes per command");
+    }
+
+    @Test
+    public void canCancelRfqWithoutAllocating()
+    {
+        createRfqs();
+
+        final long bytes = AllocationHarness.allocatedBytes(
+            WARM_UP_OPERATIONS, OPERATIONS, i -> harness.cancelRfq(harness.rfqId(i)));
+
+        Assertions.assertEquals(0, bytes, "cancel RFQ allocated bytes over " + OPERATIONS + " commands");
+    }
+
+    @Test
+    public void canQuoteRfqWithinBudget()
+    {
+        createRfqs();
+
+        final long bytes = AllocationHarness.allocatedBytes(
+            WARM_UP_OPERATIONS, OPERATIONS, i -> harness.quoteRfq(harness.rfqId(i)));
+
+        Assertions.assertTrue(bytes <= QUOTE_RFQ_BUDGET * OPERATIONS,
+            "quote RFQ allocated " + bytes / OPERATIONS + " bytes per command");
+    }
+
+    @Test
+    public void canCounterRfqWithoutAllocating()
+    {
+        createQuotedRfqs();
+
+        final long bytes = AllocationHarness.allocatedBytes(
+            WARM_UP_OPERATIONS, OPERATIONS, i -> harness.counterRfq(harness.rfqId(i)));
+
+        Assertions.assertEquals(0, bytes, "counter RFQ allocated bytes over " + OPERATIONS + " commands");
+    }
+
+    @Test
+    public void canAcceptRfqWithoutAllocating()
+    {
+        createQuotedRfqs();
+
+        final long bytes = AllocationHarness.allocatedBytes(
+            WARM_UP_OPERATIONS, OPERATIONS, i -> harness.acceptRfq(harness.rfqId(i)));
+
+        Assertions.assertEquals(0, bytes, "accept RFQ allocated bytes over " + OPERATIONS + " commands");
+    }
+
+    @Test
+    public void canRejectRfqWithoutAllocating()
+    {
+        createQuotedRfqs();
+
+        final long bytes = AllocationHarness.allocatedBytes(
+            WARM_UP_OPERATIONS, OPERATIONS, i -> harness.rejectRfq(harness.rfqId(i)));
+
+        Assertions.assertEquals(0, bytes, "reject RFQ allocated bytes over " + OPERATIONS + " commands");
+    }
+
+    @Test
+    public void canExpireRfqWithoutAllocating()
+    {
+        createRfqs();
+
+        final long bytes = AllocationHarness.allocatedBytes(
+            WARM_UP_OPERATIONS, OPERATIONS, i -> harness.expireRfq(harness.rfqId(i)));
+
+        Assertions.assertEquals(0, bytes, "expiry timer allocated bytes over " + OPERATIONS + " events");
+    }
+
+    @Test
+    public void canResendConfirmOfRetriedCommandWithoutAllocating()
+    {
+        harness.createRfq(0);
+        harness.cancelRfq(harness.rfqId(0));
+        harness.freezeClusterTime();
+
+        final long bytes = AllocationHarness.allocatedBytes(
+            WARM_UP_OPERATIONS, OPERATIONS, i -> harness.resendLastCommand());
+
+        Assertions.assertEquals(0, bytes, "retried command allocated bytes over " + OPERATIONS + " commands");
+    }
+
+    @Test
+    public void canRejectThrottledCommandWithoutAllocating()
+    {
+        final long bytes = AllocationHarness.allocatedBytes(
+            WARM_UP_OPERATIONS, OPERATIONS, i -> harness.cancelRfqThrottled(i + 1));
+
+        Assertions.assertEquals(0, bytes, "throttled command allocated bytes over " + OPERATIONS + " commands");
+    }
+
+    @Test
+    public void canAddInstrumentWithinBudget()
+    {
+        final long bytes = AllocationHarness.allocatedBytes(
+            WARM_UP_OPERATIONS, OPERATIONS, harness::addInstrument);
+
+        Assertions.assertTrue(bytes <= ADD_INSTRUMENT_BUDGET * OPERATIONS,
+            "add instrument allocated " + bytes / OPERATIONS + " bytes per command");
+    }
+
+    @Test
+    public void canSetInstrumentEnabledFlagWithoutAllocating()
+    {
+        final long bytes = AllocationHarness.allocatedBytes(
+            WARM_UP_OPERATIONS, OPERATIONS, i -> harness.setInstrumentEnabledFlag(i, i % 2 == 0));
+
+        Assertions.assertEquals(0, bytes, "set instrument enabled flag allocated bytes over " + OPERATIONS +
+            " commands");
+    }
+
+    @Test
+    public void canListInstrumentsWithoutAllocating()
+    {
+        final long bytes = AllocationHarness.allocatedBytes(
+            WARM_UP_OPERATIONS, OPERATIONS, i -> harness.listInstruments());
+
+        Assertions.assertEquals(0, bytes, "list instruments allocated bytes over " + OPERATIONS + " commands");
+    }
+
+    @Test
+    public void canListRfqsWithoutAllocating()
+    {
+        createRfqs();
+
+        final long bytes = AllocationHarness.allocatedBytes(
+            WARM_UP_OPERATIONS, OPERATIONS, harness::listRfqs);
+
+        Assertions.assertEquals(0, bytes, "list RFQs allocated bytes over " + OPERATIONS + " commands");
+    }
+
+    @Test
+    public void canSendBookSnapshotWithoutAllocating()
+    {
+        for (int i = 0; i < SNAPSHOT_RFQS; i++)
+        {
+            harness.createRfq(i);
+        }
+
+        final long bytes = AllocationHarness.allocatedBytes(
+            WARM_UP_OPERATIONS, OPERATIONS, i -> harness.rfqBookSnapshot());
+
+        Assertions.assertEquals(0, bytes, "book snapshot allocated bytes over " + OPERATIONS + " commands");
+    }
+
+    @Test
+    public void canAddUserWithinBudget()
+    {
+        final long bytes = AllocationHarness.allocatedBytes(
+            WARM_UP_OPERATIONS, OPERATIONS, harness::addUser);
+
+        Assertions.assertTrue(bytes <= ADD_USER_BUDGET * OPERATIONS,
+            "add user allocated " + bytes / OPERATIONS + " bytes per command");
+    }
+
+    @Test
+    public void canSetUserEnabledFlagWithoutAllocating()
+    {
+        final long bytes = AllocationHarness.allocatedBytes(
+            WARM_UP_OPERATIONS, OPERATIONS, i -> harness.setUserEnabledFlag(OTHER_TRADER, i % 2 == 0));
+
+        Assertions.assertEquals(0, bytes, "set user enabled flag allocated bytes over " + OPERATIONS + " commands");
+    }
+
+    @Test
+    public void canSetUserEntitlementWithoutAllocating()
+    {
+        //the first revoke gives the user a bitset of its own, made during the warm-up
+        final long bytes = AllocationHarness.allocatedBytes(
+            WARM_UP_OPERATIONS, OPERATIONS, i -> harness.setUserEntitlement(OTHER_TRADER, i, i % 2 == 0));
+
+        Assertions.assertEquals(0, bytes, "set user entitlement allocated bytes over " + OPERATIONS + " commands");
+    }
+
+    private void createRfqs()
+    {
+        for (int i = 0; i < WARM_UP_OPERATIONS + OPERATIONS; i++)
+        {
+            harness.createRfq(i);
+        }
+    }
+
+    private void createQuotedRfqs()
+    {
+        createRfqs();
+        for (int i = 0; i < WARM_UP_OPERATIONS + OPERATIONS; i++)
+        {
+            harness.quoteRfq(harness.rfqId(i));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.infra;
+
+import org.agrona.ExpandableArrayBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+public class Lz4BlockCodecTests
+{
+    private static final int OFFSET = 3;
+
+    private final Lz4BlockCodec codec = new Lz4BlockCodec();
+
+    @Test
+    public void canRoundTripBlocksOfEveryShape()
+    {
+        final Random random = new Random(42);
+        for (final int length : new int[]{0, 1, 12, 13, 100, 4096, 65_536, 200_000})
+        {
+            final byte[] randomBytes = new byte[length];
+            random.nextBytes(randomBytes);
+            assertRoundTrip(randomBytes);
+
+            final byte[] runs = new byte[length];
+            for (int i = 0; i < length; i++)
+            {
+                runs[i] = (byte)(i / 300);
+            }
+            assertRoundTrip(runs);
+        }
+    }
+
+    @Test
+    public void canCompressRepetitiveRecords()
+    {
+        final StringBuilder records = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+        {
+            records.append(String.format("%09d", i)).append("\u0001\u0000\u0000\u0000d\u0000\u0000\u0000");
+        }
+        final byte[] bytes = records.toString().getBytes(StandardCharsets.US_ASCII);
+
+        final int compressedLength = assertRoundTrip(bytes);
+        Assertions.assertTrue(compressedLength < bytes.length / 2, "compressed " + compressedLength);
+    }
+
+    @Test
+    public void canRejectCorruptBlock()
+    {
+        final byte[] bytes = new byte[1000];
+        final UnsafeBuffer compressed = new UnsafeBuffer(new byte[Lz4BlockCodec.maxCompressedLength(bytes.length)]);
+        final int compressedLength = codec.compress(new UnsafeBuffer(bytes), 0, bytes.length, compressed, 0);
+        final ExpandableArrayBuffer decompressed = new ExpandableArrayBuffer(bytes.length);
+
+        Assertions.assertThrows(IllegalStateException.class, () -> Lz4BlockCodec.decompress(
+            compressed, 0, compressedLength - 1, decompressed, 0, bytes.length));
+        Assertions.assertThrows(IllegalStateException.class, () -> Lz4BlockCodec.decompress(
+            compressed, 0, compressedLength, decompressed, 0, bytes.length + 1));
+    }
+
+    private int assertRoundTrip(final byte[] bytes)
+    {
+        final UnsafeBuffer source = new UnsafeBuffer(new byte[OFFSET + bytes.length]);
+        source.putBytes(OFFSET, bytes);
+        final UnsafeBuffer compressed =
+            new UnsafeBuffer(new byte[OFFSET + Lz4BlockCodec.maxCompressedLength(bytes.length)]);
+        final int compressedLength = codec.compress(source, OFFSET, bytes.length, compressed, OFFSET);
+        Assertions.assertTrue(compressedLength <= Lz4BlockCodec.maxCompressedLength(bytes.length));
+
+        final UnsafeBuffer decompressed = new UnsafeBuffer(new byte[OFFSET + bytes.length]);
+        Lz4BlockCodec.decompress(compressed, OFFSET, compressedLength, decompressed, OFFSET, bytes.length);
+        final byte[] result = new byte[bytes.length];
+        decompressed.getBytes(OFFSET, result);
+        Assertions.assertArrayEquals(bytes, result, "length " + bytes.length);
+        return compressedLength;
+    }
+}
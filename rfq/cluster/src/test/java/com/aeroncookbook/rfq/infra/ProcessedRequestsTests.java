@@ -0,0 +1,118 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.infra;
+
+import com.aeroncookbook.rfq.domain.users.Users;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProcessedRequestsTests
+{
+    private static final int TEMPLATE_ID = 122;
+    private static final long RETENTION = 1000;
+
+    private final ProcessedRequests processedRequests = new ProcessedRequests(4, RETENTION);
+
+    @Test
+    public void canFindRecordedConfirm()
+    {
+        final long requester = ProcessedRequests.requesterKey(1, 500);
+        processedRequests.record(requester, 10, 100, TEMPLATE_ID, 7, 3);
+
+        Assertions.assertTrue(processedRequests.find(requester, 10, 200));
+        Assertions.assertEquals(TEMPLATE_ID, processedRequests.confirmTemplateId());
+        Assertions.assertEquals(7, processedRequests.rfqId());
+        Assertions.assertEquals(3, processedRequests.result());
+        Assertions.assertFalse(processedRequests.find(requester, 11, 200));
+        Assertions.assertFalse(processedRequests.find(ProcessedRequests.requesterKey(1, 501), 10, 200));
+    }
+
+    @Test
+    public void canMatchUserAcrossSessions()
+    {
+        processedRequests.record(ProcessedRequests.requesterKey(1, 500), 10, 100, TEMPLATE_ID, 7, 0);
+        processedRequests.removeSession(1);
+
+        Assertions.assertTrue(processedRequests.find(ProcessedRequests.requesterKey(2, 500), 10, 200));
+    }
+
+    @Test
+    public void canKeepAnonymousSessionsApart()
+    {
+        final long firstSession = ProcessedRequests.requesterKey(1, Users.NO_USER);
+        processedRequests.record(firstSession, 10, 100, TEMPLATE_ID, 7, 0);
+
+        Assertions.assertFalse(processedRequests.find(ProcessedRequests.requesterKey(2, Users.NO_USER), 10, 200));
+        Assertions.assertNotEquals(firstSession, ProcessedRequests.requesterKey(1, 1));
+
+        processedRequests.removeSession(1);
+        Assertions.assertFalse(processedRequests.find(firstSession, 10, 200));
+    }
+
+    @Test
+    public void canEvictAfterRetention()
+    {
+        final long requester = ProcessedRequests.requesterKey(1, 500);
+        processedRequests.record(requester, 10, 100, TEMPLATE_ID, 7, 0);
+        processedRequests.record(requester, 11, 600, TEMPLATE_ID, 8, 0);
+
+        Assertions.assertTrue(processedRequests.find(requester, 10, 100 + RETENTION - 1));
+        Assertions.assertFalse(processedRequests.find(requester, 10, 100 + RETENTION));
+        Assertions.assertTrue(processedRequests.find(requester, 11, 100 + RETENTION));
+        Assertions.assertEquals(1, processedRequests.size());
+    }
+
+    @Test
+    public void canEvictOldestWhenFull()
+    {
+        final long requester = ProcessedRequests.requesterKey(1, 500);
+        for (int correlation = 1; correlation <= 5; correlation++)
+        {
+            processedRequests.record(requester, correlation, 100, TEMPLATE_ID, correlation, 0);
+        }
+
+        Assertions.assertEquals(4, processedRequests.size());
+        Assertions.assertFalse(processedRequests.find(requester, 1, 100));
+        for (int correlation = 2; correlation <= 5; correlation++)
+        {
+            Assertions.assertTrue(processedRequests.find(requester, correlation, 100));
+            Assertions.assertEquals(correlation, processedRequests.rfqId());
+        }
+    }
+
+    @Test
+    public void canVisitOnlyLiveEntries()
+    {
+        final long requester = ProcessedRequests.requesterKey(1, 500);
+        final long anonymous = ProcessedRequests.requesterKey(2, Users.NO_USER);
+        processedRequests.record(requester, 10, 100, TEMPLATE_ID, 7, 0);
+        processedRequests.record(anonymous, 10, 100, TEMPLATE_ID, 8, 0);
+        processedRequests.record(requester, 11, 100, TEMPLATE_ID, 9, 0);
+        processedRequests.removeSession(2);
+
+        final List<Integer> rfqIds = new ArrayList<>();
+        processedRequests.forEach((requesterKey, correlation, timestamp, confirmTemplateId, rfqId, result) ->
+        {
+            Assertions.assertEquals(requester, requesterKey);
+            rfqIds.add(rfqId);
+        });
+        Assertions.assertEquals(List.of(7, 9), rfqIds);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.infra;
+
+import com.aeroncookbook.rfq.domain.rfq.Rfq;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class RfqsTests
+{
+    private final AllocationHarness harness = new AllocationHarness();
+
+    @Test
+    public void canKeepOnlyOpenRfqs()
+    {
+        for (int i = 0; i < 5; i++)
+        {
+            harness.createRfq(i);
+        }
+        harness.cancelRfq(harness.rfqId(0));
+        harness.quoteRfq(harness.rfqId(2));
+        harness.counterRfq(harness.rfqId(2));
+        harness.quoteRfq(harness.rfqId(3));
+        harness.acceptRfq(harness.rfqId(3));
+        harness.expireRfq(harness.rfqId(4));
+
+        Assertions.assertEquals(Set.of(harness.rfqId(1), harness.rfqId(2)), openRfqIds());
+        Assertions.assertEquals(5, harness.rfqs.getRfqs().size());
+    }
+
+    @Test
+    public void canTrackOpenRfqsRemovedInAnyOrder()
+    {
+        for (int i = 0; i < 4; i++)
+        {
+            harness.createRfq(i);
+        }
+        harness.cancelRfq(harness.rfqId(3));
+        harness.cancelRfq(harness.rfqId(0));
+        harness.createRfq(4);
+        harness.cancelRfq(harness.rfqId(2));
+
+        Assertions.assertEquals(Set.of(harness.rfqId(1), harness.rfqId(4)), openRfqIds());
+        for (final Rfq rfq : harness.rfqs.getOpenRfqs())
+        {
+            Assertions.assertTrue(rfq.isOpen());
+        }
+    }
+
+    private Set<Integer> openRfqIds()
+    {
+        final Set<Integer> rfqIds = new HashSet<>();
+        for (final Rfq rfq : harness.rfqs.getOpenRfqs())
+        {
+            rfqIds.add(rfq.getRfqId());
+        }
+        return rfqIds;
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.infra;
+
+import com.aeroncookbook.cluster.rfq.sbe.Side;
+import com.aeroncookbook.cluster.rfq.sbe.SnapshotType;
+import com.aeroncookbook.rfq.domain.instrument.InstrumentAddType;
+import com.aeroncookbook.rfq.domain.instrument.Instruments;
+import com.aeroncookbook.rfq.domain.rfq.Rfq;
+import com.aeroncookbook.rfq.domain.rfq.Rfqs;
+import com.aeroncookbook.rfq.domain.rfq.states.RfqStates;
+import com.aeroncookbook.rfq.domain.users.UserClass;
+import com.aeroncookbook.rfq.domain.users.Users;
+import io.aeron.Aeron;
+import io.aeron.ExclusivePublication;
+import io.aeron.Image;
+import io.aeron.Subscription;
+import io.aeron.driver.MediaDriver;
+import io.aeron.driver.ThreadingMode;
+import org.agrona.CloseHelper;
+import org.agrona.concurrent.YieldingIdleStrategy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Consumer;
+
+public class SnapshotManagerTests
+{
+    private static final String CHANNEL = "aeron:ipc?term-length=32m";
+    private static final int STREAM_ID = 1;
+    private static final int INSTRUMENT_COUNT = 60_000;
+    private static final int USER_COUNT = 8;
+    private static final int FIRST_USER_ID = 1000;
+
+    private MediaDriver mediaDriver;
+    private Aeron aeron;
+
+    @BeforeEach
+    public void setUp()
+    {
+        mediaDriver = MediaDriver.launchEmbedded(new MediaDriver.Context()
+            .threadingMode(ThreadingMode.SHARED)
+            .dirDeleteOnStart(true)
+            .dirDeleteOnShutdown(true));
+        aeron = Aeron.connect(new Aeron.Context().aeronDirectoryName(mediaDriver.aeronDirectoryName()));
+    }
+
+    @AfterEach
+    public void tearDown()
+    {
+        CloseHelper.quietCloseAll(aeron, mediaDriver);
+    }
+
+    @Test
+    public void canLoadUserRecordsLongerThanTheMtu()
+    {
+        final ServiceState source = new ServiceState();
+        for (int i = 0; i < INSTRUMENT_COUNT; i++)
+        {
+            source.instruments.addInstrument(InstrumentAddType.SNAPSHOT_LOAD, 0, cusip(i), true, 100);
+        }
+        //each user record holds an entitlement group of 9 bytes per instrument, over half a megabyte for a user
+        //entitled to every instrument, so the whole snapshot is several megabytes
+        for (int u = 0; u < USER_COUNT; u++)
+        {
+            final int userId = FIRST_USER_ID + u;
+            source.users.restoreUser(userId, UserClass.MARKET_MAKER, true, false);
+            for (int i = u % 2; i < INSTRUMENT_COUNT; i += 1 + u % 2)
+            {
+                source.users.restoreEntitlement(userId, i);
+            }
+        }
+
+        final ServiceState target = new ServiceState();
+        try (Subscription subscription = aeron.addSubscription(CHANNEL, STREAM_ID))
+        {
+            Image image = null;
+            try (ExclusivePublication publication = aeron.addExclusivePublication(CHANNEL, STREAM_ID))
+            {
+                while (null == image)
+                {
+                    Thread.yield();
+                    image = subscription.imageBySessionId(publication.sessionId());
+                }
+                source.snapshotManager.takeSnapshot(publication);
+            }
+            target.snapshotManager.loadSnapshot(image);
+        }
+
+        Assertions.assertEquals(INSTRUMENT_COUNT, target.instruments.instrumentCount());
+        for (int u = 0; u < USER_COUNT; u++)
+        {
+            final int userId = FIRST_USER_ID + u;
+            Assertions.assertTrue(target.users.isEnabled(userId));
+            for (int i = 0; i < INSTRUMENT_COUNT; i++)
+            {
+                final boolean expected = u % 2 == 0 || i % 2 == 1;
+                Assertions.assertEquals(expected, target.users.isEntitled(userId, i), "user " + userId + " " + i);
+            }
+        }
+    }
+
+    @Test
+    public void canLoadDeltaSnapshotOverItsBase()
+    {
+        final SnapshotCompaction compaction = new SnapshotCompaction(4, 100);
+        final ServiceState source = new ServiceState(compaction);
+        for (int i = 0; i < 4; i++)
+        {
+            source.instruments.addInstrument(InstrumentAddType.BULK, 0, cusip(i), true, 100);
+        }
+        for (int rfqId = 1; rfqId <= 3; rfqId++)
+        {
+            source.rfqs.restoreRfq(new Rfq(rfqId, rfqId, Long.MAX_VALUE, 200, Side.BUY, cusip(0), 500));
+        }
+        source.rfqs.restoreLastRfqId(3);
+
+        final ServiceState target = new ServiceState(compaction);
+        try (Subscription subscription = aeron.addSubscription(CHANNEL, STREAM_ID))
+        {
+            final IpcSnapshotRecordings recordings = new IpcSnapshotRecordings(subscription);
+            source.snapshotManager.setSnapshotRecordings(recordings);
+            target.snapshotManager.setSnapshotRecordings(recordings);
+
+            final long baseLength = recordings.takeSnapshot(source.snapshotManager);
+
+            source.instruments.addInstrument(InstrumentAddType.BULK, 0, cusip(0), false, 100);
+            source.instruments.addInstrument(InstrumentAddType.BULK, 0, cusip(4), true, 100);
+            source.rfqs.getRfq(2).cancel();
+            source.rfqs.getChangedRfqIds().add(2);
+            source.rfqs.restoreRfq(new Rfq(4, 4, Long.MAX_VALUE, 200, Side.SELL, cusip(4), 501));
+            source.rfqs.getChangedRfqIds().add(4);
+            source.rfqs.restoreLastRfqId(4);
+
+            final long deltaLength = recordings.takeSnapshot(source.snapshotManager);
+            Assertions.assertTrue(deltaLength < baseLength, "delta " + deltaLength + " base " + baseLength);
+
+            target.snapshotManager.loadSnapshot(recordings.image(recordings.lastRecordingId));
+        }
+
+        Assertions.assertEquals(5, target.instruments.instrumentCount());
+        Assertions.assertFalse(target.instruments.isInstrumentEnabled(cusip(0)));
+        Assertions.assertTrue(target.instruments.isInstrumentEnabled(cusip(4)));
+        Assertions.assertEquals(4, target.rfqs.getRfqs().size());
+        Assertions.assertEquals(4, target.rfqs.getLastRfqId());
+        Assertions.assertEquals(RfqStates.CANCELED, target.rfqs.getRfq(2).getCurrentState().getCurrentState());
+        Assertions.assertEquals(RfqStates.CREATED, target.rfqs.getRfq(3).getCurrentState().getCurrentState());
+        Assertions.assertEquals(501, target.rfqs.getRfq(4).getRequesterUserId());
+        //the delta is cumulative, so the target's next delta on the same base holds the same records
+        Assertions.assertEquals(2, target.instruments.getChangedInstrumentIds().size());
+        Assertions.assertEquals(2, target.rfqs.getChangedRfqIds().size());
+    }
+
+    @Test
+    public void canForceFullSnapshot()
+    {
+        final SnapshotCompaction compaction = new SnapshotCompaction(4, 100);
+        final ServiceState source = new ServiceState(compaction, SnapshotCompression.LZ4);
+        for (int i = 0; i < 4; i++)
+        {
+            source.instruments.addInstrument(InstrumentAddType.BULK, 0, cusip(i), true, 100);
+        }
+
+        try (Subscription subscription = aeron.addSubscription(CHANNEL, STREAM_ID))
+        {
+            final IpcSnapshotRecordings recordings = new IpcSnapshotRecordings(subscription);
+            source.snapshotManager.setSnapshotRecordings(recordings);
+            final SnapshotTypeReader reader = new SnapshotTypeReader();
+            final YieldingIdleStrategy idleStrategy = new YieldingIdleStrategy();
+
+            recordings.takeSnapshot(source.snapshotManager);
+            Assertions.assertEquals(SnapshotType.FULL,
+                reader.read(recordings.image(recordings.lastRecordingId), idleStrategy));
+
+            source.instruments.addInstrument(InstrumentAddType.BULK, 0, cusip(0), false, 100);
+            recordings.takeSnapshot(source.snapshotManager);
+            Assertions.assertEquals(SnapshotType.DELTA,
+                reader.read(recordings.image(recordings.lastRecordingId), idleStrategy));
+
+            source.snapshotManager.requestFullSnapshot();
+            recordings.takeSnapshot(source.snapshotManager);
+            Assertions.assertEquals(SnapshotType.FULL,
+                reader.read(recordings.image(recordings.lastRecordingId), idleStrategy));
+
+            //the request applies to the next snapshot only
+            recordings.takeSnapshot(source.snapshotManager);
+            Assertions.assertEquals(SnapshotType.DELTA,
+                reader.read(recordings.image(recordings.lastRecordingId), idleStrategy));
+        }
+    }
+
+    @Test
+    public void canLoadCompressedSnapshot()
+    {
+        final ServiceState source = new ServiceState(SnapshotCompaction.FULL_ONLY, SnapshotCompression.LZ4);
+        final ServiceState uncompressedSource = new ServiceState();
+        populateForCompression(source);
+        populateForCompression(uncompressedSource);
+
+        final ServiceState target = new ServiceState();
+        try (Subscription subscription = aeron.addSubscription(CHANNEL, STREAM_ID))
+        {
+            final IpcSnapshotRecordings recordings = new IpcSnapshotRecordings(subscription);
+            final long uncompressedLength = recordings.takeSnapshot(uncompressedSource.snapshotManager);
+            final long compressedLength = recordings.takeSnapshot(source.snapshotManager);
+            Assertions.assertTrue(compressedLength < uncompressedLength,
+                "compressed " + compressedLength + " uncompressed " + uncompressedLength);
+
+            target.snapshotManager.loadSnapshot(recordings.image(recordings.lastRecordingId));
+        }
+
+        Assertions.assertEquals(INSTRUMENT_COUNT, target.instruments.instrumentCount());
+        Assertions.assertFalse(target.instruments.isInstrumentEnabled(cusip(0)));
+        Assertions.assertTrue(target.instruments.isInstrumentEnabled(cusip(INSTRUMENT_COUNT - 1)));
+        Assertions.assertTrue(target.users.isEntitled(FIRST_USER_ID, 0));
+        Assertions.assertFalse(target.users.isEntitled(FIRST_USER_ID, 1));
+        Assertions.assertTrue(target.users.isEntitled(FIRST_USER_ID + 1, 1));
+        Assertions.assertEquals(1000, target.rfqs.getRfqs().size());
+        Assertions.assertEquals(1000, target.rfqs.getLastRfqId());
+        Assertions.assertEquals(cusip(1000), target.rfqs.getRfq(1000).getCusip());
+    }
+
+    private static void populateForCompression(final ServiceState state)
+    {
+        for (int i = 0; i < INSTRUMENT_COUNT; i++)
+        {
+            state.instruments.addInstrument(InstrumentAddType.SNAPSHOT_LOAD, 0, cusip(i), i % 3 != 0, 100);
+        }
+        //the entitlements of the first user make a record too long for a block, which is written uncompressed
+        state.users.restoreUser(FIRST_USER_ID, UserClass.MARKET_MAKER, true, false);
+        for (int i = 0; i < INSTRUMENT_COUNT; i += 2)
+        {
+            state.users.restoreEntitlement(FIRST_USER_ID, i);
+        }
+        state.users.restoreUser(FIRST_USER_ID + 1, UserClass.TRADER, true, true);
+        for (int rfqId = 1; rfqId <= 1000; rfqId++)
+        {
+            state.rfqs.restoreRfq(new Rfq(rfqId, rfqId, Long.MAX_VALUE, 200, Side.BUY, cusip(rfqId), 500));
+        }
+        state.rfqs.restoreLastRfqId(1000);
+    }
+
+    private static String cusip(final int index)
+    {
+        return String.format("%09d", index);
+    }
+
+    private static final class ServiceState
+    {
+        final ClientSessions clientSessions = new ClientSessions(RateLimits.defaults());
+        final SessionMessageContextImpl context = new SessionMessageContextImpl(clientSessions);
+        final ProcessedRequests processedRequests = new ProcessedRequests();
+        final DropCopyPublisher dropCopyPublisher =
+            new DropCopyPublisher(DropCopyPublisher.DEFAULT_CHANNEL, DropCopyPublisher.DEFAULT_STREAM_ID);
+        final ClusterClientResponderImpl responder =
+            new ClusterClientResponderImpl(context, processedRequests, dropCopyPublisher);
+        final TimerManager timerManager = new TimerManager(context);
+        final Instruments instruments = new Instruments(responder);
+        final Users users = new Users(context, instruments, responder);
+        final Rfqs rfqs = new Rfqs(context, instruments, users, responder, timerManager, Partitions.SINGLE);
+        final SnapshotManager snapshotManager;
+
+        ServiceState()
+        {
+            this(SnapshotCompaction.FULL_ONLY);
+        }
+
+        ServiceState(final SnapshotCompaction compaction)
+        {
+            this(compaction, SnapshotCompression.NONE);
+        }
+
+        ServiceState(final SnapshotCompaction compaction, final SnapshotCompression compression)
+        {
+            snapshotManager = new SnapshotManager(instruments, users, rfqs, timerManager, responder, processedRequests,
+                clientSessions, dropCopyPublisher, Partitions.SINGLE, compaction, compression);
+            snapshotManager.setIdleStrategy(new YieldingIdleStrategy());
+        }
+    }
+
+    /**
+     * Stands in for the archive, each snapshot publication's session id being its recording id, and the image
+     * of the publication being its replay
+     */
+    private final class IpcSnapshotRecordings implements SnapshotRecordings
+    {
+        private final Subscription subscription;
+        private long lastRecordingId = NULL_RECORDING_ID;
+
+        IpcSnapshotRecordings(final Subscription subscription)
+        {
+            this.subscription = subscription;
+        }
+
+        long takeSnapshot(final SnapshotManager snapshotManager)
+        {
+            try (ExclusivePublication publication = aeron.addExclusivePublication(CHANNEL, STREAM_ID))
+            {
+                image(publication.sessionId());
+                snapshotManager.takeSnapshot(publication);
+                lastRecordingId = publication.sessionId();
+                return publication.position();
+            }
+        }
+
+        Image image(final long recordingId)
+        {
+            Image image = null;
+            while (null == image)
+            {
+                Thread.yield();
+                image = subscription.imageBySessionId((int)recordingId);
+            }
+            return image;
+        }
+
+        @Override
+        public long recordingId(final ExclusivePublication snapshotPublication)
+        {
+            return snapshotPublication.sessionId();
+        }
+
+        @Override
+        public void replay(final long recordingId, final Consumer<Image> imageConsumer)
+        {
+            imageConsumer.accept(image(recordingId));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.infra;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TokenBucketTests
+{
+    @Test
+    public void canThrottleOnceBurstIsSpent()
+    {
+        final TokenBucket bucket = new TokenBucket(10, 3, 1000);
+
+        for (int i = 0; i < 3; i++)
+        {
+            Assertions.assertTrue(bucket.tryAcquire(1000));
+        }
+        Assertions.assertFalse(bucket.tryAcquire(1000));
+        Assertions.assertEquals(0, bucket.availableTokens());
+    }
+
+    @Test
+    public void canRefillFromElapsedTime()
+    {
+        final TokenBucket bucket = new TokenBucket(10, 5, 1000);
+        while (bucket.tryAcquire(1000))
+        {
+            // drain
+        }
+
+        Assertions.assertFalse(bucket.tryAcquire(1099));
+        Assertions.assertTrue(bucket.tryAcquire(1100));
+        Assertions.assertFalse(bucket.tryAcquire(1100));
+
+        Assertions.assertTrue(bucket.tryAcquire(1350));
+        Assertions.assertEquals(1, bucket.availableTokens());
+    }
+
+    @Test
+    public void canCapRefillAtBurst()
+    {
+        final TokenBucket bucket = new TokenBucket(1000, 5, 0);
+        Assertions.assertTrue(bucket.tryAcquire(0));
+
+        Assertions.assertTrue(bucket.tryAcquire(60_000));
+        Assertions.assertEquals(4, bucket.availableTokens());
+    }
+
+    @Test
+    public void canRefillAfterLongIdleWithoutOverflow()
+    {
+        final TokenBucket bucket = new TokenBucket(1_000_000, 5, 0);
+        while (bucket.tryAcquire(0))
+        {
+            // drain
+        }
+
+        Assertions.assertTrue(bucket.tryAcquire(Long.MAX_VALUE / 2));
+        Assertions.assertEquals(4, bucket.availableTokens());
+    }
+
+    @Test
+    public void canIgnoreClockGoingBackwards()
+    {
+        final TokenBucket bucket = new TokenBucket(10, 1, 1000);
+        Assertions.assertTrue(bucket.tryAcquire(1000));
+
+        Assertions.assertFalse(bucket.tryAcquire(500));
+        Assertions.assertEquals(1000, bucket.getLastRefillMs());
+    }
+
+    @Test
+    public void canRestoreWithinCurrentLimits()
+    {
+        final TokenBucket bucket = new TokenBucket(10, 2, 1000);
+        bucket.restore(10_000, 900);
+
+        Assertions.assertEquals(2, bucket.availableTokens());
+        Assertions.assertEquals(900, bucket.getLastRefillMs());
+
+        bucket.reset(10, 0, 1000);
+        Assertions.assertFalse(bucket.tryAcquire(1000));
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.infra;
+
+import com.aeroncookbook.rfq.domain.instrument.InstrumentAddType;
+import com.aeroncookbook.rfq.domain.instrument.Instruments;
+import com.aeroncookbook.rfq.domain.users.UserClass;
+import com.aeroncookbook.rfq.domain.users.Users;
+import org.agrona.concurrent.NoOpIdleStrategy;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class UsersTests
+{
+    private static final int ADMIN = Users.DEFAULT_ADMIN_USER_ID;
+    private static final int TRADER = 500;
+    private static final int NEW_USER = 600;
+    private static final int INSTRUMENT_COUNT = 130;
+
+    private final ClientSessions clientSessions = new ClientSessions(RateLimits.defaults());
+    private final SessionMessageContextImpl context = new SessionMessageContextImpl(clientSessions);
+    private final ClusterClientResponderImpl responder = new ClusterClientResponderImpl(context,
+        new ProcessedRequests(), new DropCopyPublisher(DropCopyPublisher.DEFAULT_CHANNEL,
+        DropCopyPublisher.DEFAULT_STREAM_ID));
+    private final Instruments instruments = new Instruments(responder);
+    private final Users users = new Users(context, instruments, responder);
+    private long nextSessionId = 1;
+    private long correlation = 0;
+
+    public UsersTests()
+    {
+        context.setIdleStrategy(NoOpIdleStrategy.INSTANCE);
+        for (int i = 0; i < INSTRUMENT_COUNT; i++)
+        {
+            instruments.addInstrument(InstrumentAddType.SNAPSHOT_LOAD, 0, cusip(i), true, 100);
+        }
+    }
+
+    @Test
+    public void canSeedAdminUser()
+    {
+        Assertions.assertTrue(users.isEnabled(ADMIN));
+        Assertions.assertEquals(UserClass.ADMIN, users.getUserClass(ADMIN));
+
+        final Users configured = new Users(context, instruments, responder, 7);
+        Assertions.assertEquals(UserClass.ADMIN, configured.getUserClass(7));
+        Assertions.assertFalse(configured.isEnabled(ADMIN));
+    }
+
+    @Test
+    public void canManageUsersOnlyAsAdmin()
+    {
+        actAs(Users.NO_USER);
+        users.addUser(++correlation, NEW_USER, UserClass.TRADER, true);
+        Assertions.assertFalse(users.isEnabled(NEW_USER));
+
+        actAs(TRADER);
+        users.addUser(++correlation, NEW_USER, UserClass.TRADER, true);
+        Assertions.assertFalse(users.isEnabled(NEW_USER));
+
+        actAs(ADMIN);
+        users.addUser(++correlation, NEW_USER, UserClass.TRADER, true);
+        Assertions.assertTrue(users.isEnabled(NEW_USER));
+    }
+
+    @Test
+    public void canNotManageUsersAsDisabledAdmin()
+    {
+        actAs(ADMIN);
+        users.addUser(++correlation, NEW_USER, UserClass.ADMIN, false);
+        users.setUserEnabled(++correlation, NEW_USER, false);
+
+        actAs(NEW_USER);
+        users.setUserEnabled(++correlation, TRADER, false);
+        users.addUser(++correlation, NEW_USER + 1, UserClass.TRADER, true);
+
+        Assertions.assertTrue(users.isEnabled(TRADER));
+        Assertions.assertFalse(users.isEnabled(NEW_USER + 1));
+    }
+
+    @Test
+    public void canEntitleBeyondFirstWord()
+    {
+        actAs(ADMIN);
+        users.addUser(++correlation, NEW_USER, UserClass.TRADER, false);
+        users.setUserEntitlement(++correlation, NEW_USER, cusip(100), true);
+
+        Assertions.assertTrue(users.isEntitled(NEW_USER, instruments.getInstrumentId(cusip(100))));
+        Assertions.assertFalse(users.isEntitled(NEW_USER, instruments.getInstrumentId(cusip(36))));
+        Assertions.assertFalse(users.isEntitled(NEW_USER, instruments.getInstrumentId(cusip(101))));
+        Assertions.assertTrue(users.isEntitled(TRADER, instruments.getInstrumentId(cusip(129))));
+    }
+
+    @Test
+    public void canRevokeEntitlement()
+    {
+        actAs(ADMIN);
+        users.addUser(++correlation, NEW_USER, UserClass.TRADER, false);
+        final int instrumentId = instruments.getInstrumentId(cusip(3));
+        users.setUserEntitlement(++correlation, NEW_USER, cusip(3), true);
+        users.setUserEntitlement(++correlation, NEW_USER, cusip(120), false);
+        Assertions.assertTrue(users.isEntitled(NEW_USER, instrumentId));
+
+        users.setUserEntitlement(++correlation, NEW_USER, cusip(3), false);
+        Assertions.assertFalse(users.isEntitled(NEW_USER, instrumentId));
+    }
+
+    @Test
+    public void canRevokeEntitlementFromUserEntitledToAll()
+    {
+        actAs(ADMIN);
+        users.setUserEntitlement(++correlation, TRADER, cusip(70), false);
+
+        Assertions.assertFalse(users.isEntitled(TRADER, instruments.getInstrumentId(cusip(70))));
+        Assertions.assertTrue(users.isEntitled(TRADER, instruments.getInstrumentId(cusip(0))));
+        Assertions.assertTrue(users.isEntitled(TRADER, instruments.getInstrumentId(cusip(129))));
+
+        instruments.addInstrument(InstrumentAddType.SNAPSHOT_LOAD, 0, cusip(INSTRUMENT_COUNT), true, 100);
+        Assertions.assertFalse(users.isEntitled(TRADER, instruments.getInstrumentId(cusip(INSTRUMENT_COUNT))));
+
+        users.setUserEntitlement(++correlation, TRADER, cusip(70), true);
+        Assertions.assertTrue(users.isEntitled(TRADER, instruments.getInstrumentId(cusip(70))));
+    }
+
+    @Test
+    public void canNotEntitleDisabledUser()
+    {
+        actAs(ADMIN);
+        users.setUserEnabled(++correlation, TRADER, false);
+
+        Assertions.assertFalse(users.isEnabled(TRADER));
+        Assertions.assertFalse(users.isEntitled(TRADER, instruments.getInstrumentId(cusip(0))));
+        Assertions.assertEquals(UserClass.TRADER, users.getUserClass(TRADER));
+    }
+
+    // sets the context to a new session bound to the user, or anonymous for NO_USER
+    private void actAs(final int userId)
+    {
+        final AllocationHarness.StubClientSession session = new AllocationHarness.StubClientSession(nextSessionId++);
+        clientSessions.addSession(session, 0);
+        if (userId != Users.NO_USER)
+        {
+            clientSessions.bindUser(session.id(), userId, users.getUserClass(userId), 0);
+        }
+        context.setSessionContext(session, 0);
+    }
+
+    private static String cusip(final int index)
+    {
+        return String.format("%09d", index);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.failover;
+
+import com.aeroncookbook.rfq.ClusterApp;
+import io.aeron.samples.cluster.ClusterConfig;
+import org.agrona.IoUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A three node RFQ cluster on loopback, each node a {@link ClusterApp} in its own JVM so that a leader can be killed
+ * outright. Every start uses fresh cluster and archive directories, so each run begins with an empty log.
+ */
+public class ClusterProcesses implements AutoCloseable
+{
+    /**
+     * The number of nodes started
+     */
+    public static final int NODE_COUNT = 3;
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClusterProcesses.class);
+    private static final String HIGH_RATE_LIMIT = "1000000";
+    private final Process[] nodes = new Process[NODE_COUNT];
+    private final Path workingDir;
+
+    /**
+     * Starts the nodes
+     * @param portBase the CLUSTER_PORT_BASE of the nodes
+     * @param settings the failover settings every node uses
+     * @param performanceProfile the PERFORMANCE_PROFILE of the nodes
+     */
+    public ClusterProcesses(final int portBase, final FailoverSettings settings, final String performanceProfile)
+    {
+        try
+        {
+            workingDir = Files.createTempDirectory("rfq-failover-");
+            for (int nodeId = 0; nodeId < NODE_COUNT; nodeId++)
+            {
+                nodes[nodeId] = startNode(nodeId, portBase, settings, performanceProfile);
+            }
+        }
+        catch (final IOException e)
+        {
+            close();
+            throw new UncheckedIOException(e);
+        }
+        LOGGER.info("Started {} nodes with {}, logs in {}", NODE_COUNT, settings, workingDir);
+    }
+
+    /**
+     * Gets the ingress endpoints of the nodes
+     * @param portBase the CLUSTER_PORT_BASE of the nodes
+     * @return the ingress endpoints
+     */
+    public static String ingressEndpoints(final int portBase)
+    {
+        return ClusterConfig.ingressEndpoints(hostnames(), portBase, ClusterConfig.CLIENT_FACING_PORT_OFFSET);
+    }
+
+    /**
+     * Kills a node without letting it shut down, as a crash would
+     * @param memberId the cluster member id of the node
+     */
+    public void kill(final int memberId)
+    {
+        final Process node = nodes[memberId];
+        if (null != node)
+        {
+            node.destroyForcibly();
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        for (final Process node : nodes)
+        {
+            if (null != node)
+            {
+                node.destroyForcibly();
+            }
+        }
+        for (final Process node : nodes)
+        {
+            awaitExit(node);
+        }
+        if (null != workingDir)
+        {
+            IoUtil.delete(workingDir.toFile(), true);
+        }
+    }
+
+    private Process startNode(
+        final int nodeId,
+        final int portBase,
+        final FailoverSettings settings,
+        final String performanceProfile) throws IOException
+    {
+        final File nodeDir = Files.createDirectories(workingDir.resolve("node-" + nodeId)).toFile();
+        final List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("--add-opens=java.base/sun.nio.ch=ALL-UNNAMED");
+        command.addAll(settings.jvmArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ClusterApp.class.getName());
+
+        final ProcessBuilder processBuilder = new ProcessBuilder(command)
+            .directory(nodeDir)
+            .redirectErrorStream(true)
+            .redirectOutput(new File(nodeDir, "node.log"));
+        final Map<String, String> environment = processBuilder.environment();
+        environment.put("CLUSTER_ADDRESSES", String.join(",", hostnames()));
+        environment.put("CLUSTER_NODE", Integer.toString(nodeId));
+        environment.put("CLUSTER_PORT_BASE", Integer.toString(portBase));
+        environment.put("PERFORMANCE_PROFILE", performanceProfile);
+        environment.put("RATE_LIMIT_TRADER_PER_SECOND", HIGH_RATE_LIMIT);
+        environment.put("RATE_LIMIT_TRADER_BURST", HIGH_RATE_LIMIT);
+        return processBuilder.start();
+    }
+
+    //the nodes share loopback, told apart by their ports
+    private static List<String> hostnames()
+    {
+        final List<String> hostnames = new ArrayList<>(NODE_COUNT);
+        for (int i = 0; i < NODE_COUNT; i++)
+        {
+            hostnames.add("localhost");
+        }
+        return hostnames;
+    }
+
+    //waits for a killed node to go, so the next run can reuse its ports and aeron directory
+    private static void awaitExit(final Process node)
+    {
+        if (null == node)
+        {
+            return;
+        }
+        try
+        {
+            if (!node.waitFor(10, TimeUnit.SECONDS))
+            {
+                LOGGER.warn("Node process {} did not exit", node.pid());
+            }
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.failover;
+
+import io.aeron.CommonContext;
+import io.aeron.driver.MediaDriver;
+import io.aeron.driver.ThreadingMode;
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.SleepingMillisIdleStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Integer.parseInt;
+
+/**
+ * Measures how long RFQ traffic stops for when the leader of a local three node cluster dies. For each failover
+ * setting it runs the cluster several times; each run puts steady load on the cluster, kills the leader's process,
+ * and times the gap from the kill to the first successful confirm of a command sent after it.
+ */
+public class FailoverBenchmark
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(FailoverBenchmark.class);
+    private static final long CONNECT_TIMEOUT_NS = TimeUnit.SECONDS.toNanos(60);
+    private static final long RECOVERY_TIMEOUT_NS = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * The main method.
+     * @param args command line args
+     */
+    public static void main(final String[] args)
+    {
+        final List<FailoverSettings> settingsList =
+            FailoverSettings.parse(getSetting("FAILOVER_SETTINGS", "failover.settings", "500:250,1000:1000,3000:1000"));
+        final int runs = parseInt(getSetting("BENCH_RUNS", "bench.runs", "3"));
+        final long warmupNs = TimeUnit.MILLISECONDS.toNanos(
+            Long.parseLong(getSetting("BENCH_WARMUP_MS", "bench.warmup.ms", "5000")));
+        final long sendIntervalNs = TimeUnit.MICROSECONDS.toNanos(
+            Long.parseLong(getSetting("BENCH_SEND_INTERVAL_US", "bench.send.interval.us", "1000")));
+        final int portBase = parseInt(getSetting("CLUSTER_PORT_BASE", "cluster.port.base", "9000"));
+        final String performanceProfile = getSetting("PERFORMANCE_PROFILE", "performance.profile", "BALANCED");
+        final String resultsFile = getSetting("BENCH_RESULTS_FILE", "bench.results.file", "");
+
+        final List<String> csv = new ArrayList<>();
+        csv.add("heartbeat_timeout_ms,election_timeout_ms,run,new_leader,gap_ms,window_ms");
+        final StringBuilder summary = new StringBuilder();
+
+        try (MediaDriver mediaDriver = MediaDriver.launch(new MediaDriver.Context()
+            .aeronDirectoryName(CommonContext.getAeronDirectoryName() + "-failover-bench")
+            .threadingMode(ThreadingMode.SHARED)
+            .dirDeleteOnStart(true)
+            .dirDeleteOnShutdown(true)))
+        {
+            for (final FailoverSettings settings : settingsList)
+            {
+                final double[] gapsMs = new double[runs];
+                int completed = 0;
+                for (int run = 0; run < runs; run++)
+                {
+                    final RunResult result = runOnce(mediaDriver.aeronDirectoryName(), portBase, settings,
+                        performanceProfile, warmupNs, sendIntervalNs);
+                    if (null == result)
+                    {
+                        LOGGER.warn("{} run {} did not recover within {}s", settings, run,
+                            TimeUnit.NANOSECONDS.toSeconds(RECOVERY_TIMEOUT_NS));
+                        continue;
+                    }
+                    LOGGER.info("{} run {}: leader {} -> {}, gap {}ms, window {}ms", settings, run,
+                        result.oldLeader, result.newLeader, format(result.gapMs), format(result.windowMs));
+                    gapsMs[completed++] = result.gapMs;
+                    csv.add(settings.leaderHeartbeatTimeoutMs() + "," + settings.electionTimeoutMs() + "," + run +
+                        "," + result.newLeader + "," + format(result.gapMs) + "," + format(result.windowMs));
+                }
+                summary.append(summarise(settings, Arrays.copyOf(gapsMs, completed), runs))
+                    .append(System.lineSeparator());
+            }
+        }
+
+        LOGGER.info("Failover gap per setting, profile {}:{}{}", performanceProfile, System.lineSeparator(), summary);
+        if (!resultsFile.isEmpty())
+        {
+            writeResults(Path.of(resultsFile), csv);
+        }
+    }
+
+    //starts a fresh cluster, loads it, kills the leader and waits for the load to be confirmed again
+    private static RunResult runOnce(
+        final String aeronDirectoryName,
+        final int portBase,
+        final FailoverSettings settings,
+        final String performanceProfile,
+        final long warmupNs,
+        final long sendIntervalNs)
+    {
+        final IdleStrategy idleStrategy = new SleepingMillisIdleStrategy(0);
+        try (ClusterProcesses cluster = new ClusterProcesses(portBase, settings, performanceProfile);
+            LoadClient client = new LoadClient(
+                aeronDirectoryName, ClusterProcesses.ingressEndpoints(portBase), sendIntervalNs))
+        {
+            if (!client.connect(System.nanoTime() + CONNECT_TIMEOUT_NS))
+            {
+                throw new IllegalStateException("could not connect to the cluster");
+            }
+
+            final long warmupEndNs = System.nanoTime() + warmupNs;
+            long nowNs;
+            while ((nowNs = System.nanoTime()) < warmupEndNs)
+            {
+                idleStrategy.idle(client.doWork(nowNs));
+            }
+            if (0 == client.confirmCount())
+            {
+                throw new IllegalStateException("no RFQs confirmed during warm up");
+            }
+
+            final int oldLeader = client.leaderMemberId();
+            client.mark();
+            final long killTimeNs = System.nanoTime();
+            cluster.kill(oldLeader);
+
+            final long recoveryDeadlineNs = killTimeNs + RECOVERY_TIMEOUT_NS;
+            while (0 == client.firstConfirmAfterMarkNs() && (nowNs = System.nanoTime()) < recoveryDeadlineNs)
+            {
+                idleStrategy.idle(client.doWork(nowNs));
+            }
+            if (0 == client.firstConfirmAfterMarkNs())
+            {
+                return null;
+            }
+
+            return new RunResult(
+                oldLeader,
+                client.leaderMemberId(),
+                toMillis(client.firstConfirmAfterMarkNs() - killTimeNs),
+                toMillis(client.firstConfirmAfterMarkNs() - client.lastConfirmBeforeMarkNs()));
+        }
+    }
+
+    //the min, median and max gap of the completed runs of a setting
+    private static String summarise(final FailoverSettings settings, final double[] gapsMs, final int runs)
+    {
+        if (0 == gapsMs.length)
+        {
+            return settings + ": no run recovered of " + runs;
+        }
+        Arrays.sort(gapsMs);
+        final int middle = gapsMs.length / 2;
+        final double median = gapsMs.length % 2 == 1 ? gapsMs[middle] : (gapsMs[middle - 1] + gapsMs[middle]) / 2;
+        return settings + ": gap min " + format(gapsMs[0]) + "ms, median " + format(median) + "ms, max " +
+            format(gapsMs[gapsMs.length - 1]) + "ms over " + gapsMs.length + " of " + runs + " runs";
+    }
+
+    private static void writeResults(final Path path, final List<String> lines)
+    {
+        try
+        {
+            Files.write(path, lines);
+            LOGGER.info("Results written to {}", path.toAbsolutePath());
+        }
+        catch (final IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static double toMillis(final long durationNs)
+    {
+        return durationNs / 1_000_000.0;
+    }
+
+    private static String format(final double valueMs)
+    {
+        return String.format("%.1f", valueMs);
+    }
+
+    /**
+     * Reads a setting from an environment variable, then a system property
+     * @param environmentVariable the environment variable
+     * @param property the system property
+     * @param defaultValue the value if neither is set
+     * @return the setting
+     */
+    private static String getSetting(final String environmentVariable, final String property, final String defaultValue)
+    {
+        final String value = System.getenv(environmentVariable);
+        if (null == value || value.isEmpty())
+        {
+            return System.getProperty(property, defaultValue);
+        }
+        return value;
+    }
+
+    /**
+     * The outcome of a run: the leader killed, the leader that took over, the gap from the kill to the first
+     * confirm after it, and the window from the last confirm before the kill to the first after
+     */
+    private static final class RunResult
+    {
+        private final int oldLeader;
+        private final int newLeader;
+        private final double gapMs;
+        private final double windowMs;
+
+        RunResult(final int oldLeader, final int newLeader, final double gapMs, final double windowMs)
+        {
+            this.oldLeader = oldLeader;
+            this.newLeader = newLeader;
+            this.gapMs = gapMs;
+            this.windowMs = windowMs;
+        }
+    }
+}
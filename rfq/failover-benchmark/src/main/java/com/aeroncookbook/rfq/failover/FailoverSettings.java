@@ -0,0 +1,118 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.failover;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Long.parseLong;
+
+/**
+ * Leader failure detection settings a failover run is made with, passed to every node as Aeron system properties.
+ * The heartbeat interval follows from the timeout, so that a follower misses several heartbeats before giving up
+ * on the leader.
+ */
+public final class FailoverSettings
+{
+    private static final long MAX_HEARTBEAT_INTERVAL_MS = 200;
+    private final long leaderHeartbeatTimeoutMs;
+    private final long electionTimeoutMs;
+
+    /**
+     * Constructor
+     * @param leaderHeartbeatTimeoutMs the time after which followers consider the leader failed
+     * @param electionTimeoutMs the time an election waits for canvass and votes
+     */
+    public FailoverSettings(final long leaderHeartbeatTimeoutMs, final long electionTimeoutMs)
+    {
+        if (leaderHeartbeatTimeoutMs <= 0 || electionTimeoutMs <= 0)
+        {
+            throw new IllegalArgumentException("timeouts must be positive, got " + leaderHeartbeatTimeoutMs + ":" +
+                electionTimeoutMs);
+        }
+        this.leaderHeartbeatTimeoutMs = leaderHeartbeatTimeoutMs;
+        this.electionTimeoutMs = electionTimeoutMs;
+    }
+
+    /**
+     * Parses a comma separated list of settings, each {@code <heartbeat timeout ms>:<election timeout ms>}, such as
+     * {@code 500:250,1000:1000}
+     * @param settings the settings list
+     * @return the settings, in list order
+     */
+    public static List<FailoverSettings> parse(final String settings)
+    {
+        final List<FailoverSettings> result = new ArrayList<>();
+        for (final String setting : settings.split(","))
+        {
+            final String[] timeouts = setting.trim().split(":");
+            if (timeouts.length != 2)
+            {
+                throw new IllegalArgumentException("expected <heartbeat timeout ms>:<election timeout ms>, got " +
+                    setting);
+            }
+            result.add(new FailoverSettings(parseLong(timeouts[0].trim()), parseLong(timeouts[1].trim())));
+        }
+        return result;
+    }
+
+    /**
+     * The leader heartbeat timeout
+     * @return the timeout in milliseconds
+     */
+    public long leaderHeartbeatTimeoutMs()
+    {
+        return leaderHeartbeatTimeoutMs;
+    }
+
+    /**
+     * The election timeout
+     * @return the timeout in milliseconds
+     */
+    public long electionTimeoutMs()
+    {
+        return electionTimeoutMs;
+    }
+
+    /**
+     * The interval the leader sends heartbeats at, a fifth of the timeout up to 200ms
+     * @return the interval in milliseconds
+     */
+    public long leaderHeartbeatIntervalMs()
+    {
+        return Math.max(1, Math.min(MAX_HEARTBEAT_INTERVAL_MS, leaderHeartbeatTimeoutMs / 5));
+    }
+
+    /**
+     * The JVM arguments setting these timeouts on a node. They take precedence over the node's performance profile.
+     * @return the system property arguments
+     */
+    public List<String> jvmArguments()
+    {
+        return List.of(
+            "-Daeron.cluster.leader.heartbeat.timeout=" + TimeUnit.MILLISECONDS.toNanos(leaderHeartbeatTimeoutMs),
+            "-Daeron.cluster.leader.heartbeat.interval=" + TimeUnit.MILLISECONDS.toNanos(leaderHeartbeatIntervalMs()),
+            "-Daeron.cluster.election.timeout=" + TimeUnit.MILLISECONDS.toNanos(electionTimeoutMs));
+    }
+
+    @Override
+    public String toString()
+    {
+        return "heartbeat timeout " + leaderHeartbeatTimeoutMs + "ms, election timeout " + electionTimeoutMs + "ms";
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.failover;
+
+import com.aeroncookbook.cluster.rfq.Correlations;
+import com.aeroncookbook.cluster.rfq.UserCredentialsSupplier;
+import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.BooleanType;
+import com.aeroncookbook.cluster.rfq.sbe.CreateRfqCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.CreateRfqConfirmEventDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.CreateRfqResult;
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.Side;
+import io.aeron.cluster.client.AeronCluster;
+import io.aeron.cluster.client.EgressListener;
+import io.aeron.cluster.codecs.EventCode;
+import io.aeron.exceptions.AeronException;
+import io.aeron.logbuffer.Header;
+import org.agrona.CloseHelper;
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trader session putting steady load on the cluster, creating an RFQ at a fixed interval and timing the confirms.
+ * When the cluster fails over the session follows the new leader, and the client records the first successful
+ * confirm of a command sent after the failure.
+ */
+public class LoadClient implements EgressListener, AutoCloseable
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadClient.class);
+    private static final int TRADER_USER_ID = 500;
+    private static final String CUSIP = "FAILOVER1";
+    private static final long RFQ_LIFETIME_MS = TimeUnit.MINUTES.toMillis(1);
+    private final MessageHeaderEncoder messageHeaderEncoder = new MessageHeaderEncoder();
+    private final MessageHeaderDecoder messageHeaderDecoder = new MessageHeaderDecoder();
+    private final AddInstrumentEncoder addInstrumentEncoder = new AddInstrumentEncoder();
+    private final CreateRfqCommandEncoder createRfqCommandEncoder = new CreateRfqCommandEncoder();
+    private final CreateRfqConfirmEventDecoder createRfqConfirmEventDecoder = new CreateRfqConfirmEventDecoder();
+    private final UnsafeBuffer sendBuffer = new UnsafeBuffer(ByteBuffer.allocateDirect(128));
+    private final String aeronDirectoryName;
+    private final String ingressEndpoints;
+    private final long sendIntervalNs;
+    private AeronCluster aeronCluster;
+    private long correlation = Correlations.initialCorrelation(System.currentTimeMillis());
+    private long nextSendTimeNs;
+    private long markCorrelation = Long.MAX_VALUE;
+    private long lastConfirmTimeNs;
+    private long lastConfirmBeforeMarkNs;
+    private long firstConfirmAfterMarkNs;
+    private long confirmCount;
+
+    /**
+     * Constructor
+     * @param aeronDirectoryName the aeron directory of the client's media driver
+     * @param ingressEndpoints the ingress endpoints of the cluster
+     * @param sendIntervalNs the interval between commands
+     */
+    public LoadClient(final String aeronDirectoryName, final String ingressEndpoints, final long sendIntervalNs)
+    {
+        this.aeronDirectoryName = aeronDirectoryName;
+        this.ingressEndpoints = ingressEndpoints;
+        this.sendIntervalNs = sendIntervalNs;
+    }
+
+    /**
+     * Connects to the cluster, retrying until a leader is elected or the deadline passes, and adds the instrument
+     * RFQs are created on
+     * @param deadlineNs the {@link System#nanoTime()} to give up at
+     * @return true if connected
+     */
+    public boolean connect(final long deadlineNs)
+    {
+        while (System.nanoTime() < deadlineNs)
+        {
+            try
+            {
+                aeronCluster = AeronCluster.connect(new AeronCluster.Context()
+                    .aeronDirectoryName(aeronDirectoryName)
+                    .egressListener(this)
+                    .egressChannel("aeron:udp?endpoint=localhost:0")
+                    .ingressChannel("aeron:udp?term-length=64k")
+                    .ingressEndpoints(ingressEndpoints)
+                    .credentialsSupplier(new UserCredentialsSupplier(TRADER_USER_ID)));
+                addInstrument();
+                return true;
+            }
+            catch (final AeronException e)
+            {
+                LOGGER.debug("Cluster not ready: {}", e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sends a command if one is due, and polls the egress. Reconnects if the session has been closed.
+     * @param nowNs the current {@link System#nanoTime()}
+     * @return the number of fragments read
+     */
+    public int doWork(final long nowNs)
+    {
+        if (aeronCluster.isClosed())
+        {
+            LOGGER.info("Session closed, reconnecting");
+            connect(nowNs + TimeUnit.SECONDS.toNanos(30));
+            return 0;
+        }
+
+        if (nowNs >= nextSendTimeNs)
+        {
+            createRfq();
+            nextSendTimeNs = nowNs + sendIntervalNs;
+        }
+        return aeronCluster.pollEgress();
+    }
+
+    /**
+     * Marks the point of failure; the confirms before and after are timed from here
+     */
+    public void mark()
+    {
+        markCorrelation = correlation + 1;
+        lastConfirmBeforeMarkNs = lastConfirmTimeNs;
+        firstConfirmAfterMarkNs = 0;
+    }
+
+    /**
+     * The time of the last successful confirm before the mark
+     * @return the {@link System#nanoTime()} of the confirm, or 0 if none
+     */
+    public long lastConfirmBeforeMarkNs()
+    {
+        return lastConfirmBeforeMarkNs;
+    }
+
+    /**
+     * The time of the first successful confirm of a command sent after the mark
+     * @return the {@link System#nanoTime()} of the confirm, or 0 if none yet
+     */
+    public long firstConfirmAfterMarkNs()
+    {
+        return firstConfirmAfterMarkNs;
+    }
+
+    /**
+     * The member id of the leader, as last seen by the session
+     * @return the leader member id
+     */
+    public int leaderMemberId()
+    {
+        return aeronCluster.leaderMemberId();
+    }
+
+    /**
+     * The number of successful confirms received
+     * @return the confirm count
+     */
+    public long confirmCount()
+    {
+        return confirmCount;
+    }
+
+    @Override
+    public void onMessage(
+        final long clusterSessionId,
+        final long timestamp,
+        final DirectBuffer buffer,
+        final int offset,
+        final int length,
+        final Header header)
+    {
+        messageHeaderDecoder.wrap(buffer, offset);
+        if (messageHeaderDecoder.templateId() != CreateRfqConfirmEventDecoder.TEMPLATE_ID)
+        {
+            return;
+        }
+
+        createRfqConfirmEventDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        if (createRfqConfirmEventDecoder.result() != CreateRfqResult.SUCCESS)
+        {
+            LOGGER.warn("RFQ {} not created: {}", createRfqConfirmEventDecoder.correlation(),
+                createRfqConfirmEventDecoder.result());
+            return;
+        }
+
+        final long nowNs = System.nanoTime();
+        confirmCount++;
+        lastConfirmTimeNs = nowNs;
+        if (0 == firstConfirmAfterMarkNs && createRfqConfirmEventDecoder.correlation() >= markCorrelation)
+        {
+            firstConfirmAfterMarkNs = nowNs;
+        }
+    }
+
+    @Override
+    public void onSessionEvent(
+        final long correlationId,
+        final long clusterSessionId,
+        final long leadershipTermId,
+        final int leaderMemberId,
+        final EventCode code,
+        final String detail)
+    {
+        if (code != EventCode.OK)
+        {
+            LOGGER.info("Session event {} {}", code, detail);
+        }
+    }
+
+    @Override
+    public void onNewLeader(
+        final long clusterSessionId,
+        final long leadershipTermId,
+        final int leaderMemberId,
+        final String ingressEndpoints)
+    {
+        LOGGER.info("New leader {} in term {}", leaderMemberId, leadershipTermId);
+    }
+
+    @Override
+    public void close()
+    {
+        CloseHelper.quietClose(aeronCluster);
+    }
+
+    private void addInstrument()
+    {
+        addInstrumentEncoder.wrapAndApplyHeader(sendBuffer, 0, messageHeaderEncoder);
+        addInstrumentEncoder.correlation(++correlation);
+        addInstrumentEncoder.cusip(CUSIP);
+        addInstrumentEncoder.enabled(BooleanType.TRUE);
+        addInstrumentEncoder.minSize(1);
+        offer(MessageHeaderEncoder.ENCODED_LENGTH + addInstrumentEncoder.encodedLength());
+    }
+
+    private void createRfq()
+    {
+        createRfqCommandEncoder.wrapAndApplyHeader(sendBuffer, 0, messageHeaderEncoder);
+        createRfqCommandEncoder.correlation(++correlation);
+        createRfqCommandEncoder.expireTimeMs(System.currentTimeMillis() + RFQ_LIFETIME_MS);
+        createRfqCommandEncoder.quantity(1);
+        createRfqCommandEncoder.requesterSide(Side.BUY);
+        createRfqCommandEncoder.cusip(CUSIP);
+        offer(MessageHeaderEncoder.ENCODED_LENGTH + createRfqCommandEncoder.encodedLength());
+    }
+
+    //a command offered while the cluster has no leader is dropped, as the load carries on regardless
+    private void offer(final int length)
+    {
+        final long result = aeronCluster.offer(sendBuffer, 0, length);
+        if (result < 0)
+        {
+            LOGGER.debug("Command {} not sent: {}", correlation, result);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.gateway;
+
+import com.aeroncookbook.cluster.rfq.sbe.GatewayConnectDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderDecoder;
+import io.aeron.Aeron;
+import io.aeron.FragmentAssembler;
+import io.aeron.Subscription;
+import io.aeron.logbuffer.Header;
+import org.agrona.CloseHelper;
+import org.agrona.DirectBuffer;
+import org.agrona.collections.Int2ObjectHashMap;
+import org.agrona.concurrent.Agent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Gateway agent, receiving the commands of every client on one subscription. A client opens its gateway session
+ * with a {@code GatewayConnect} naming its user and response channel, and is then known by the session id of its
+ * image. A client's session is closed when its image goes away.
+ * <p>
+ * With pre-validation on, the agent also keeps a copy of the instruments from the first shard, and create RFQ
+ * commands naming an unknown instrument are answered by the gateway rather than sequenced into a shard's log.
+ */
+public class GatewayAgent implements Agent
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(GatewayAgent.class);
+    private static final int FRAGMENT_LIMIT = 10;
+
+    private final MessageHeaderDecoder headerDecoder = new MessageHeaderDecoder();
+    private final GatewayConnectDecoder connectDecoder = new GatewayConnectDecoder();
+    private final Int2ObjectHashMap<GatewaySession> sessions = new Int2ObjectHashMap<>();
+    private final FragmentAssembler fragmentAssembler = new FragmentAssembler(this::onFragment);
+    private final Aeron aeron;
+    private final String channel;
+    private final int streamId;
+    private final List<String> shardIngressEndpoints;
+    private final String egressChannel;
+    private final ShardRouter router;
+    private final boolean preValidation;
+    private final int referenceDataUserId;
+    private IngressPreValidator preValidator;
+    private ReferenceDataSession referenceDataSession;
+    private Subscription subscription;
+
+    /**
+     * Constructor
+     *
+     * @param aeron                 the Aeron client
+     * @param channel               the channel clients send commands to the gateway on
+     * @param streamId              the stream id clients send commands to the gateway on
+     * @param shardIngressEndpoints the ingress endpoints of each shard, in shard order
+     * @param egressChannel         the channel shards send egress to the gateway on
+     * @param preValidation         true to reject invalid create RFQ commands in the gateway
+     * @param referenceDataUserId   the user the gateway reads instruments from the first shard as
+     */
+    public GatewayAgent(
+        final Aeron aeron,
+        final String channel,
+        final int streamId,
+        final List<String> shardIngressEndpoints,
+        final String egressChannel,
+        final boolean preValidation,
+        final int referenceDataUserId)
+    {
+        this.aeron = aeron;
+        this.channel = channel;
+        this.streamId = streamId;
+        this.shardIngressEndpoints = shardIngressEndpoints;
+        this.egressChannel = egressChannel;
+        this.router = new ShardRouter(shardIngressEndpoints.size());
+        this.preValidation = preValidation;
+        this.referenceDataUserId = referenceDataUserId;
+    }
+
+    @Override
+    public void onStart()
+    {
+        subscription = aeron.addSubscription(channel, streamId);
+        LOGGER.info("Gateway listening on {} stream {}, routing to {} shards", channel, streamId,
+            router.shardCount());
+        if (preValidation)
+        {
+            final InstrumentReferenceData referenceData = new InstrumentReferenceData();
+            preValidator = new IngressPreValidator(referenceData);
+            referenceDataSession = new ReferenceDataSession(aeron, shardIngressEndpoints.get(ShardRouter.FIRST_SHARD),
+                egressChannel, referenceDataUserId, referenceData);
+            LOGGER.info("Pre-validating the cusips of create RFQ commands");
+        }
+    }
+
+    @Override
+    public int doWork()
+    {
+        final long nowNs = System.nanoTime();
+        int workCount = 0;
+        if (null != referenceDataSession)
+        {
+            // instrument events are applied before the commands that may depend on them
+            workCount += referenceDataSession.poll(nowNs);
+        }
+        workCount += subscription.poll(fragmentAssembler, FRAGMENT_LIMIT);
+
+        final Iterator<GatewaySession> iterator = sessions.values().iterator();
+        while (iterator.hasNext())
+        {
+            final GatewaySession session = iterator.next();
+            if (null == subscription.imageBySessionId(session.clientSessionId()))
+            {
+                LOGGER.info("Client {} went away", session.clientSessionId());
+                session.close();
+            }
+            workCount += session.poll(nowNs);
+            if (session.isClosed())
+            {
+                iterator.remove();
+            }
+        }
+        return workCount;
+    }
+
+    @Override
+    public void onClose()
+    {
+        for (final GatewaySession session : sessions.values())
+        {
+            session.close();
+        }
+        sessions.clear();
+        if (null != preValidator)
+        {
+            LOGGER.info("Gateway rejected {} create RFQ commands", preValidator.rejectedCount());
+        }
+        CloseHelper.close(referenceDataSession);
+        CloseHelper.close(subscription);
+    }
+
+    @Override
+    public String roleName()
+    {
+        return "rfq-gateway";
+    }
+
+    private void onFragment(final DirectBuffer buffer, final int offset, final int length, final Header header)
+    {
+        final int clientSessionId = header.sessionId();
+        headerDecoder.wrap(buffer, offset);
+        if (GatewayConnectDecoder.TEMPLATE_ID == headerDecoder.templateId())
+        {
+            connectDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+            final GatewaySession previous = sessions.remove(clientSessionId);
+            if (null != previous)
+            {
+                previous.close();
+            }
+            sessions.put(clientSessionId, new GatewaySession(aeron, clientSessionId, connectDecoder, router,
+                shardIngressEndpoints, egressChannel, preValidator, System.nanoTime()));
+            return;
+        }
+
+        final GatewaySession session = sessions.get(clientSessionId);
+        if (null == session)
+        {
+            LOGGER.warn("Dropping command from client {} without a gateway session", clientSessionId);
+            return;
+        }
+        session.onClientMessage(buffer, offset, length);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.gateway;
+
+import io.aeron.Aeron;
+import io.aeron.driver.MediaDriver;
+import io.aeron.driver.ThreadingMode;
+import io.aeron.samples.cluster.ClusterConfig;
+import org.agrona.concurrent.AgentRunner;
+import org.agrona.concurrent.BackoffIdleStrategy;
+import org.agrona.concurrent.ShutdownSignalBarrier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.Integer.parseInt;
+
+/**
+ * Gateway spreading RFQ traffic over several independent RFQ clusters, the shards, each running the usual
+ * ClusterApp. Clients connect to the gateway rather than a cluster, and see one logical session over all shards.
+ */
+public class GatewayApp
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(GatewayApp.class);
+
+    /**
+     * The main method.
+     * @param args command line args
+     */
+    public static void main(final String[] args)
+    {
+        final ShutdownSignalBarrier barrier = new ShutdownSignalBarrier();
+        final String channel = getSetting("GATEWAY_CHANNEL", "gateway.channel", "aeron:udp?endpoint=localhost:8050");
+        final int streamId = parseInt(getSetting("GATEWAY_STREAM_ID", "gateway.stream.id", "1"));
+        final String egressHost = getSetting("GATEWAY_EGRESS_HOST", "gateway.egress.host", "localhost");
+        final List<String> shardIngressEndpoints =
+            shardIngressEndpoints(getSetting("SHARD_CLUSTERS", "shard.clusters", "localhost:9000"));
+        final boolean preValidation =
+            Boolean.parseBoolean(getSetting("GATEWAY_PRE_VALIDATION", "gateway.pre.validation", "false"));
+        final int gatewayUserId = parseInt(getSetting("GATEWAY_USER_ID", "gateway.user.id", "1"));
+
+        try (
+            MediaDriver mediaDriver = MediaDriver.launch(new MediaDriver.Context()
+                .threadingMode(ThreadingMode.SHARED)
+                .dirDeleteOnStart(true)
+                .dirDeleteOnShutdown(true));
+            Aeron aeron = Aeron.connect(new Aeron.Context().aeronDirectoryName(mediaDriver.aeronDirectoryName()));
+            AgentRunner agentRunner = new AgentRunner(new BackoffIdleStrategy(), Throwable::printStackTrace, null,
+                new GatewayAgent(aeron, channel, streamId, shardIngressEndpoints,
+                "aeron:udp?endpoint=" + egressHost + ":0", preValidation, gatewayUserId)))
+        {
+            AgentRunner.startOnThread(agentRunner);
+            LOGGER.info("Started RFQ gateway over {} shards", shardIngressEndpoints.size());
+            barrier.await();
+            LOGGER.info("Exiting");
+        }
+    }
+
+    /**
+     * Gets the ingress endpoints of each shard, from a semicolon separated list of shards, each a comma separated
+     * list of the shard's cluster addresses, a colon and the shard's CLUSTER_PORT_BASE, such as
+     * {@code localhost:9000;localhost:9100}
+     * @param shardClusters the shard list
+     * @return the ingress endpoints, in shard order
+     */
+    private static List<String> shardIngressEndpoints(final String shardClusters)
+    {
+        final List<String> endpoints = new ArrayList<>();
+        for (final String shard : shardClusters.split(";"))
+        {
+            final int separator = shard.lastIndexOf(':');
+            if (separator <= 0)
+            {
+                throw new IllegalArgumentException("expected <hosts>:<port base>, got " + shard);
+            }
+            final List<String> hostnames = List.of(shard.substring(0, separator).trim().split(","));
+            final int portBase = parseInt(shard.substring(separator + 1).trim());
+            endpoints.add(ClusterConfig.ingressEndpoints(hostnames, portBase, ClusterConfig.CLIENT_FACING_PORT_OFFSET));
+        }
+        return endpoints;
+    }
+
+    /**
+     * Reads a setting from an environment variable, then a system property
+     * @param environmentVariable the environment variable
+     * @param property the system property
+     * @param defaultValue the value if neither is set
+     * @return the setting
+     */
+    private static String getSetting(final String environmentVariable, final String property, final String defaultValue)
+    {
+        final String value = System.getenv(environmentVariable);
+        if (null == value || value.isEmpty())
+        {
+            return System.getProperty(property, defaultValue);
+        }
+        return value;
+    }
+}
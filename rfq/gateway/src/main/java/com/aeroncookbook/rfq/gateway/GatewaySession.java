@@ -0,0 +1,376 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.gateway;
+
+import com.aeroncookbook.cluster.rfq.UserCredentialsSupplier;
+import com.aeroncookbook.cluster.rfq.sbe.GatewayConnectDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.GatewayConnectResultEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.RequestResult;
+import io.aeron.Aeron;
+import io.aeron.ExclusivePublication;
+import io.aeron.Publication;
+import io.aeron.cluster.client.AeronCluster;
+import org.agrona.CloseHelper;
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.YieldingIdleStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One client of the gateway, presented to the client as a single session. The gateway holds a cluster session with
+ * every shard for the client, authenticated as the client's user, passes each client command to the shards chosen by
+ * the {@link ShardRouter}, and passes the shards' egress back to the client on the response channel it asked for.
+ * <p>
+ * Commands received before the {@code GatewayConnectResult} is sent are dropped. If any shard closes its session, for
+ * example on disabling the user, the gateway session is closed too. With pre-validation on, commands the
+ * {@link IngressPreValidator} rejects are answered by the gateway and never reach a shard. The shards' replies to
+ * commands replicated on every shard are collected by {@link ReplicatedCommandResults}, and the client gets one reply,
+ * reporting success only if every shard applied the command.
+ */
+public class GatewaySession implements AutoCloseable
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(GatewaySession.class);
+    private static final String INGRESS_CHANNEL = "aeron:udp?term-length=64k";
+    private static final long CONNECT_TIMEOUT_NS = TimeUnit.SECONDS.toNanos(10);
+    private static final int RETRY_COUNT = 3;
+
+    private final MessageHeaderEncoder headerEncoder = new MessageHeaderEncoder();
+    private final GatewayConnectResultEncoder connectResultEncoder = new GatewayConnectResultEncoder();
+    private final UnsafeBuffer sendBuffer = new UnsafeBuffer(ByteBuffer.allocateDirect(64));
+    private final IdleStrategy idleStrategy = new YieldingIdleStrategy();
+    private final int clientSessionId;
+    private final long correlation;
+    private final int userId;
+    private final ShardRouter router;
+    private final IngressPreValidator preValidator;
+    private final ReplicatedCommandResults replicatedResults;
+    private final ExclusivePublication clientPublication;
+    private final AeronCluster.AsyncConnect[] asyncConnects;
+    private final AeronCluster[] shardClusters;
+    private final long connectDeadlineNs;
+    private boolean connected;
+    private boolean closed;
+
+    /**
+     * Constructor, starting the connection to every shard
+     *
+     * @param aeron                  the gateway's Aeron client, shared by the shard sessions
+     * @param clientSessionId        the session id of the client's image on the gateway subscription
+     * @param connect                the client's connect command
+     * @param router                 the shard router
+     * @param shardIngressEndpoints  the ingress endpoints of each shard, in shard order
+     * @param egressChannel          the channel shards send egress to the gateway on
+     * @param preValidator           the validator of client commands, or null to pass every command to the shards
+     * @param nowNs                  the current time in nanoseconds
+     */
+    public GatewaySession(
+        final Aeron aeron,
+        final int clientSessionId,
+        final GatewayConnectDecoder connect,
+        final ShardRouter router,
+        final List<String> shardIngressEndpoints,
+        final String egressChannel,
+        final IngressPreValidator preValidator,
+        final long nowNs)
+    {
+        this.clientSessionId = clientSessionId;
+        this.correlation = connect.correlation();
+        this.userId = connect.userId();
+        this.router = router;
+        this.preValidator = preValidator;
+        final int responseStreamId = connect.responseStreamId();
+        this.clientPublication = aeron.addExclusivePublication(connect.responseChannel(), responseStreamId);
+        this.connectDeadlineNs = nowNs + CONNECT_TIMEOUT_NS;
+
+        final int shardCount = router.shardCount();
+        replicatedResults = new ReplicatedCommandResults(shardCount, this::offerToClient);
+        asyncConnects = new AeronCluster.AsyncConnect[shardCount];
+        shardClusters = new AeronCluster[shardCount];
+        for (int shard = 0; shard < shardCount; shard++)
+        {
+            asyncConnects[shard] = AeronCluster.asyncConnect(new AeronCluster.Context()
+                .aeron(aeron)
+                .ownsAeronClient(false)
+                .egressListener(new ShardEgressForwarder(shard, this))
+                .egressChannel(egressChannel)
+                .ingressChannel(INGRESS_CHANNEL)
+                .ingressEndpoints(shardIngressEndpoints.get(shard))
+                .credentialsSupplier(new UserCredentialsSupplier(userId)));
+        }
+    }
+
+    /**
+     * Gets the session id of the client's image on the gateway subscription
+     *
+     * @return the client session id
+     */
+    public int clientSessionId()
+    {
+        return clientSessionId;
+    }
+
+    /**
+     * Checks if the session is closed, and can be removed
+     *
+     * @return true if closed
+     */
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * Progresses the connection to the shards, then polls the egress of every shard
+     *
+     * @param nowNs the current time in nanoseconds
+     * @return the work done
+     */
+    public int poll(final long nowNs)
+    {
+        if (closed)
+        {
+            return 0;
+        }
+        if (!connected)
+        {
+            return pollConnect(nowNs);
+        }
+
+        int workCount = replicatedResults.poll(nowNs);
+        for (int shard = 0; shard < shardClusters.length; shard++)
+        {
+            final AeronCluster shardCluster = shardClusters[shard];
+            if (shardCluster.isClosed())
+            {
+                LOGGER.info("Shard {} closed the session of user {}, closing client {}", shard, userId,
+                    clientSessionId);
+                close();
+                return workCount + 1;
+            }
+            workCount += shardCluster.pollEgress();
+        }
+        return workCount;
+    }
+
+    /**
+     * Passes a client command to the shards chosen by the router, or answers it if the pre-validator rejects it
+     *
+     * @param buffer the buffer holding the command
+     * @param offset the offset of the command
+     * @param length the length of the command
+     */
+    public void onClientMessage(final DirectBuffer buffer, final int offset, final int length)
+    {
+        if (!connected)
+        {
+            LOGGER.warn("Dropping command from client {} received before the gateway session connected",
+                clientSessionId);
+            return;
+        }
+        if (null != preValidator)
+        {
+            final int rejectionLength = preValidator.validate(userId, buffer, offset, sendBuffer);
+            if (IngressPreValidator.VALID != rejectionLength)
+            {
+                offerToClient(sendBuffer, 0, rejectionLength);
+                return;
+            }
+        }
+
+        final int shard = router.route(buffer, offset);
+        if (ShardRouter.NO_SHARD == shard)
+        {
+            LOGGER.warn("Dropping unknown command from client {}", clientSessionId);
+        }
+        else if (ShardRouter.ALL_SHARDS == shard)
+        {
+            long unavailableShards = 0;
+            for (int i = 0; i < shardClusters.length; i++)
+            {
+                if (!offerToShard(i, buffer, offset, length))
+                {
+                    unavailableShards |= 1L << i;
+                }
+            }
+            if (replicatedResults.isReplicatedCommand(buffer, offset))
+            {
+                replicatedResults.onCommandSent(buffer, offset, unavailableShards, System.nanoTime());
+            }
+        }
+        else
+        {
+            offerToShard(shard, buffer, offset, length);
+        }
+    }
+
+    /**
+     * Passes a message received from a shard back to the client, unless only the first shard's copy is passed back.
+     * Replies to replicated commands are held until every shard has answered.
+     *
+     * @param shard  the shard the message was received from
+     * @param buffer the buffer holding the message
+     * @param offset the offset of the message
+     * @param length the length of the message
+     */
+    public void onShardMessage(final int shard, final DirectBuffer buffer, final int offset, final int length)
+    {
+        if (replicatedResults.isReplicatedResult(buffer, offset))
+        {
+            replicatedResults.onShardResult(shard, buffer, offset, length);
+        }
+        else if (router.forwardEgress(shard, buffer, offset))
+        {
+            offerToClient(buffer, offset, length);
+        }
+    }
+
+    /**
+     * Notes a leader election in a shard. The shard's AeronCluster follows the new leader itself.
+     *
+     * @param shard          the shard
+     * @param leaderMemberId the member id of the new leader
+     */
+    public void onShardNewLeader(final int shard, final int leaderMemberId)
+    {
+        LOGGER.info("Shard {} has a new leader, node {}", shard, leaderMemberId);
+    }
+
+    @Override
+    public void close()
+    {
+        if (!closed)
+        {
+            closed = true;
+            CloseHelper.closeAll(asyncConnects);
+            CloseHelper.closeAll(shardClusters);
+            CloseHelper.close(clientPublication);
+        }
+    }
+
+    private int pollConnect(final long nowNs)
+    {
+        int workCount = 0;
+        boolean allConnected = true;
+        try
+        {
+            for (int shard = 0; shard < shardClusters.length; shard++)
+            {
+                if (null == shardClusters[shard])
+                {
+                    shardClusters[shard] = asyncConnects[shard].poll();
+                    if (null == shardClusters[shard])
+                    {
+                        allConnected = false;
+                    }
+                    else
+                    {
+                        asyncConnects[shard] = null;
+                        workCount++;
+                    }
+                }
+            }
+        }
+        catch (final RuntimeException ex)
+        {
+            LOGGER.warn("Failed to connect user {} to every shard: {}", userId, ex.getMessage());
+            sendConnectResult(RequestResult.ERROR);
+            close();
+            return workCount + 1;
+        }
+
+        if (allConnected && clientPublication.isConnected())
+        {
+            connected = true;
+            sendConnectResult(RequestResult.SUCCESS);
+            LOGGER.info("Connected client {} as user {} to {} shards", clientSessionId, userId, shardClusters.length);
+            return workCount + 1;
+        }
+        if (nowNs > connectDeadlineNs)
+        {
+            LOGGER.warn("Timed out connecting client {} as user {}", clientSessionId, userId);
+            sendConnectResult(RequestResult.ERROR);
+            close();
+            return workCount + 1;
+        }
+        return workCount;
+    }
+
+    private void sendConnectResult(final RequestResult result)
+    {
+        connectResultEncoder.wrapAndApplyHeader(sendBuffer, 0, headerEncoder)
+            .correlation(correlation)
+            .result(result)
+            .shardCount(shardClusters.length);
+        offerToClient(sendBuffer, 0, MessageHeaderEncoder.ENCODED_LENGTH + connectResultEncoder.encodedLength());
+    }
+
+    private boolean offerToShard(final int shard, final DirectBuffer buffer, final int offset, final int length)
+    {
+        int retries = 0;
+        do
+        {
+            final long result = shardClusters[shard].offer(buffer, offset, length);
+            if (result > 0L)
+            {
+                return true;
+            }
+            else if (result == Publication.NOT_CONNECTED || result == Publication.CLOSED ||
+                result == Publication.MAX_POSITION_EXCEEDED)
+            {
+                LOGGER.warn("Shard {} ingress is unavailable ({}), dropping command", shard, result);
+                return false;
+            }
+            idleStrategy.idle();
+            retries += 1;
+        }
+        while (retries < RETRY_COUNT);
+
+        LOGGER.warn("Shard {} ingress is back pressured, dropping command from client {}", shard, clientSessionId);
+        return false;
+    }
+
+    private void offerToClient(final DirectBuffer buffer, final int offset, final int length)
+    {
+        int retries = 0;
+        do
+        {
+            final long result = clientPublication.offer(buffer, offset, length);
+            if (result > 0L)
+            {
+                return;
+            }
+            else if (result == Publication.NOT_CONNECTED || result == Publication.CLOSED ||
+                result == Publication.MAX_POSITION_EXCEEDED)
+            {
+                LOGGER.warn("Client {} response channel is unavailable ({})", clientSessionId, result);
+                return;
+            }
+            idleStrategy.idle();
+            retries += 1;
+        }
+        while (retries < RETRY_COUNT);
+
+        LOGGER.warn("Client {} is back pressured, dropping a message", clientSessionId);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aeroncookbook.rfq.gateway;
+
+import com.aeroncookbook.cluster.rfq.Cusips;
+import com.aeroncookbook.cluster.rfq.sbe.CreateRfqCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.CreateRfqConfirmEventEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.CreateRfqResult;
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderEncoder;
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.collections.LongHashSet;
+
+/**
+ * Rejects create RFQ commands the shards would certainly reject, before they are sequenced into a shard's log.
+ * Commands naming an instrument the shards do not know are answered with the {@code UNKNOWN_CUSIP}
+ * {@code CreateRfqConfirmEvent} the shard would send, without an RFQ id.
+ * <p>
+ * Only the cusip is checked. It is the shard's first check after the user, and instruments are never removed, so the
+ * answer can only go stale while an instrument just added is on its way to the gateway. The shard's later checks come
+ * after entitlement, which is not broadcast, and depend on cluster time and on instrument state that may change, so
+ * they are left to the shard. Until the {@link InstrumentReferenceData} is loaded, every command passes.
+ * <p>
+ * A command repeating the correlation of a create RFQ command already passed to the shards is passed again unchecked,
+ * so a client retrying it gets the shard's original confirm. The most recent {@link #FORWARDED_CAPACITY} correlations
+ * are kept, by a hash of user and correlation; a collision only passes a command unchecked.
+ */
+public class IngressPreValidator
+{
+    /**
+     * Returned by {@link #validate} for a command to pass to the shards
+     */
+    public static final int VALID = 0;
+
+    /**
+     * Number of forwarded create RFQ correlations kept
+     */
+    public static final int FORWARDED_CAPACITY = 64 * 1024;
+
+    private static final int NO_RFQ_ID = -1;
+
+    private final MessageHeaderDecoder headerDecoder = new MessageHeaderDecoder();
+    private final MessageHeaderEncoder headerEncoder = new MessageHeaderEncoder();
+    private final CreateRfqCommandDecoder createRfqCommandDecoder = new CreateRfqCommandDecoder();
+    private final CreateRfqConfirmEventEncoder createRfqConfirmEventEncoder = new CreateRfqConfirmEventEncoder();
+    private final byte[] cusip = new byte[Cusips.CUSIP_LENGTH];
+    private final LongHashSet forwardedKeys = new LongHashSet(FORWARDED_CAPACITY * 2);
+    private final long[] forwardedRing = new long[FORWARDED_CAPACITY];
+    private final InstrumentReferenceData referenceData;
+    private int forwardedIndex;
+    private long rejectedCount;
+
+    /**
+     * Constructor
+     *
+     * @param referenceData the gateway's copy of the instruments
+     */
+    public IngressPreValidator(final InstrumentReferenceData referenceData)
+    {
+        this.referenceData = referenceData;
+    }
+
+    /**
+     * Checks a client command, encoding the shard's answer into the rejection buffer if the command is rejected
+     *
+     * @param userId          the user the client's gateway session is authenticated as
+     * @param buffer          the buffer holding the command
+     * @param offset          the offset of the command
+     * @param rejectionBuffer the buffer to encode the rejection into, at offset 0
+     * @return {@link #VALID}, or the length of the rejection
+     */
+    public int validate(
+        final int userId,
+        final DirectBuffer buffer,
+        final int offset,
+        final MutableDirectBuffer rejectionBuffer)
+    {
+        headerDecoder.wrap(buffer, offset);
+        if (CreateRfqCommandDecoder.TEMPLATE_ID != headerDecoder.templateId())
+        {
+            return VALID;
+        }
+
+        createRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        final long key = forwardedKey(userId, createRfqCommandDecoder.correlation());
+        if (forwardedKeys.contains(key))
+        {
+            return VALID;
+        }
+        final CreateRfqResult result = referenceData.isLoaded() ? checkCreateRfq() : CreateRfqResult.SUCCESS;
+        if (CreateRfqResult.SUCCESS == result)
+        {
+            recordForwarded(key);
+            return VALID;
+        }
+
+        rejectedCount++;
+        createRfqConfirmEventEncoder.wrapAndApplyHeader(rejectionBuffer, 0, headerEncoder)
+            .correlation(createRfqCommandDecoder.correlation())
+            .rfqId(NO_RFQ_ID)
+            .result(result);
+        return MessageHeaderEncoder.ENCODED_LENGTH + createRfqConfirmEventEncoder.encodedLength();
+    }
+
+    /**
+     * Gets the number of commands rejected
+     *
+     * @return the rejected count
+     */
+    public long rejectedCount()
+    {
+        return rejectedCount;
+    }
+
+    private CreateRfqResult checkCreateRfq()
+    {
+        createRfqCommandDecoder.getCusip(cusip, 0);
+        final int index = referenceData.indexOf(Cusips.pack(cusip));
+        return InstrumentReferenceData.NOT_FOUND == index ? CreateRfqResult.UNKNOWN_CUSIP : CreateRfqResult.SUCCESS;
+    }
+
+    private void recordForwarded(final long key)
+    {
+        if (forwardedKeys.size() == FORWARDED_CAPACITY)
+        {
+            forwardedKeys.remove(forwardedRing[forwardedIndex]);
+        }
+        forwardedKeys.add(key);
+        forwardedRing[forwardedIndex] = key;
+        forwardedIndex = (forwardedIndex + 1) % FORWARDED_CAPACITY;
+    }
+
+    private static long forwardedKey(final int userId, final long correlation)
+    {
+        return correlation * 31 + userId;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aeroncookbook.rfq.gateway;
+
+import org.agrona.collections.Long2LongHashMap;
+
+import java.util.Arrays;
+
+/**
+ * The gateway's read-only copy of the instruments, which every shard holds the same. It is loaded from the first
+ * shard's instrument list, then kept up to date from the instrument events the shard broadcasts. Instruments are
+ * looked up by their {@link com.aeroncookbook.cluster.rfq.Cusips packed cusip}, without allocating.
+ */
+public class InstrumentReferenceData
+{
+    /**
+     * Returned by {@link #indexOf(long)} for an unknown cusip
+     */
+    public static final int NOT_FOUND = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Long2LongHashMap indexByCusip = new Long2LongHashMap(NOT_FOUND);
+    private boolean[] enabled = new boolean[INITIAL_CAPACITY];
+    private int[] minSizes = new int[INITIAL_CAPACITY];
+    private int instrumentCount;
+    private boolean loaded;
+
+    /**
+     * Checks if the instrument list has been loaded since the copy was last cleared, and so can be trusted
+     *
+     * @return true if loaded
+     */
+    public boolean isLoaded()
+    {
+        return loaded;
+    }
+
+    /**
+     * Marks the copy as loaded, once the whole instrument list has been applied
+     */
+    public void onLoaded()
+    {
+        loaded = true;
+    }
+
+    /**
+     * Removes every instrument, and marks the copy as not loaded
+     */
+    public void clear()
+    {
+        indexByCusip.clear();
+        instrumentCount = 0;
+        loaded = false;
+    }
+
+    /**
+     * Adds an instrument, or updates a known one
+     *
+     * @param packedCusip the packed cusip of the instrument
+     * @param isEnabled   true if the instrument is enabled
+     * @param minSize     the minimum quantity of an RFQ on the instrument
+     */
+    public void update(final long packedCusip, final boolean isEnabled, final int minSize)
+    {
+        int index = (int)indexByCusip.get(packedCusip);
+        if (NOT_FOUND == index)
+        {
+            index = instrumentCount++;
+            if (index == enabled.length)
+            {
+                enabled = Arrays.copyOf(enabled, index * 2);
+                minSizes = Arrays.copyOf(minSizes, index * 2);
+            }
+            indexByCusip.put(packedCusip, index);
+        }
+        enabled[index] = isEnabled;
+        minSizes[index] = minSize;
+    }
+
+    /**
+     * Gets the index of an instrument
+     *
+     * @param packedCusip the packed cusip of the instrument
+     * @return the index, or {@link #NOT_FOUND} if the instrument is unknown
+     */
+    public int indexOf(final long packedCusip)
+    {
+        return (int)indexByCusip.get(packedCusip);
+    }
+
+    /**
+     * Checks if an instrument is enabled
+     *
+     * @param index the index of the instrument
+     * @return true if enabled
+     */
+    public boolean isEnabled(final int index)
+    {
+        return enabled[index];
+    }
+
+    /**
+     * Gets the minimum quantity of an RFQ on an instrument
+     *
+     * @param index the index of the instrument
+     * @return the minimum quantity
+     */
+    public int minSize(final int index)
+    {
+        return minSizes[index];
+    }
+
+    /**
+     * Gets the number of instruments
+     *
+     * @return the instrument count
+     */
+    public int instrumentCount()
+    {
+        return instrumentCount;
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aeroncookbook.rfq.gateway;
+
+import com.aeroncookbook.cluster.rfq.Cusips;
+import com.aeroncookbook.cluster.rfq.UserCredentialsSupplier;
+import com.aeroncookbook.cluster.rfq.sbe.BooleanType;
+import com.aeroncookbook.cluster.rfq.sbe.InstrumentUpdatedEventDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.InstrumentsListDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.ListInstrumentsCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderEncoder;
+import io.aeron.Aeron;
+import io.aeron.cluster.client.AeronCluster;
+import io.aeron.cluster.client.EgressListener;
+import io.aeron.logbuffer.Header;
+import org.agrona.CloseHelper;
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session with the first shard, as the gateway's own user, keeping the gateway's {@link InstrumentReferenceData} up
+ * to date. On connecting it lists the instruments page by page, replacing the copy with the list, then applies every
+ * instrument event the shard broadcasts after it. If the shard closes the session the copy is cleared, so commands pass
+ * unchecked, and the session reconnects.
+ */
+public class ReferenceDataSession implements EgressListener, AutoCloseable
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReferenceDataSession.class);
+    private static final String INGRESS_CHANNEL = "aeron:udp?term-length=64k";
+    private static final long RECONNECT_DELAY_NS = TimeUnit.SECONDS.toNanos(1);
+
+    private final MessageHeaderDecoder headerDecoder = new MessageHeaderDecoder();
+    private final MessageHeaderEncoder headerEncoder = new MessageHeaderEncoder();
+    private final InstrumentsListDecoder instrumentsListDecoder = new InstrumentsListDecoder();
+    private final InstrumentUpdatedEventDecoder instrumentUpdatedEventDecoder = new InstrumentUpdatedEventDecoder();
+    private final ListInstrumentsCommandEncoder listInstrumentsCommandEncoder = new ListInstrumentsCommandEncoder();
+    private final UnsafeBuffer sendBuffer = new UnsafeBuffer(ByteBuffer.allocateDirect(64));
+    private final byte[] cusip = new byte[Cusips.CUSIP_LENGTH];
+    private final Aeron aeron;
+    private final String ingressEndpoints;
+    private final String egressChannel;
+    private final int userId;
+    private final InstrumentReferenceData referenceData;
+    private AeronCluster.AsyncConnect asyncConnect;
+    private AeronCluster aeronCluster;
+    private long nextConnectNs;
+    private long listCorrelation;
+    private int listFromInstrumentId;
+    private boolean listRequested;
+
+    /**
+     * Constructor
+     *
+     * @param aeron            the gateway's Aeron client
+     * @param ingressEndpoints the ingress endpoints of the first shard
+     * @param egressChannel    the channel shards send egress to the gateway on
+     * @param userId           the user the gateway connects to the shard as
+     * @param referenceData    the copy of the instruments to keep up to date
+     */
+    public ReferenceDataSession(
+        final Aeron aeron,
+        final String ingressEndpoints,
+        final String egressChannel,
+        final int userId,
+        final InstrumentReferenceData referenceData)
+    {
+        this.aeron = aeron;
+        this.ingressEndpoints = ingressEndpoints;
+        this.egressChannel = egressChannel;
+        this.userId = userId;
+        this.referenceData = referenceData;
+    }
+
+    /**
+     * Progresses the connection to the shard and the instrument list request, then polls the shard's egress
+     *
+     * @param nowNs the current time in nanoseconds
+     * @return the work done
+     */
+    public int poll(final long nowNs)
+    {
+        if (null == aeronCluster)
+        {
+            return pollConnect(nowNs);
+        }
+        if (aeronCluster.isClosed())
+        {
+            LOGGER.warn("Reference data session closed, commands pass unchecked until the instruments are reloaded");
+            referenceData.clear();
+            aeronCluster = null;
+            nextConnectNs = nowNs + RECONNECT_DELAY_NS;
+            return 1;
+        }
+        if (!listRequested)
+        {
+            return requestInstruments();
+        }
+        return aeronCluster.pollEgress();
+    }
+
+    @Override
+    public void onMessage(
+        final long clusterSessionId,
+        final long timestamp,
+        final DirectBuffer buffer,
+        final int offset,
+        final int length,
+        final Header header)
+    {
+        headerDecoder.wrap(buffer, offset);
+        switch (headerDecoder.templateId())
+        {
+            case InstrumentsListDecoder.TEMPLATE_ID -> onInstrumentsList(buffer, offset);
+            case InstrumentUpdatedEventDecoder.TEMPLATE_ID -> onInstrumentUpdated(buffer, offset);
+            default ->
+            {
+                // other egress, such as RFQ events, is not reference data
+            }
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        CloseHelper.close(asyncConnect);
+        CloseHelper.close(aeronCluster);
+        referenceData.clear();
+    }
+
+    private int pollConnect(final long nowNs)
+    {
+        if (null == asyncConnect)
+        {
+            if (nowNs < nextConnectNs)
+            {
+                return 0;
+            }
+            asyncConnect = AeronCluster.asyncConnect(new AeronCluster.Context()
+                .aeron(aeron)
+                .ownsAeronClient(false)
+                .egressListener(this)
+                .egressChannel(egressChannel)
+                .ingressChannel(INGRESS_CHANNEL)
+                .ingressEndpoints(ingressEndpoints)
+                .credentialsSupplier(new UserCredentialsSupplier(userId)));
+            return 1;
+        }
+
+        try
+        {
+            aeronCluster = asyncConnect.poll();
+        }
+        catch (final RuntimeException ex)
+        {
+            LOGGER.warn("Failed to connect the reference data session: {}", ex.getMessage());
+            CloseHelper.quietClose(asyncConnect);
+            asyncConnect = null;
+            nextConnectNs = nowNs + RECONNECT_DELAY_NS;
+            return 1;
+        }
+        if (null == aeronCluster)
+        {
+            return 0;
+        }
+        asyncConnect = null;
+        listFromInstrumentId = 0;
+        listRequested = false;
+        return 1;
+    }
+
+    // asks for the next page of instruments; events broadcast before a page is answered are replaced by the page
+    private int requestInstruments()
+    {
+        listCorrelation++;
+        listInstrumentsCommandEncoder.wrapAndApplyHeader(sendBuffer, 0, headerEncoder)
+            .correlation(listCorrelation)
+            .fromInstrumentId(listFromInstrumentId);
+        final int length = MessageHeaderEncoder.ENCODED_LENGTH + listInstrumentsCommandEncoder.encodedLength();
+        listRequested = aeronCluster.offer(sendBuffer, 0, length) > 0L;
+        return 1;
+    }
+
+    // replaces the copy with the listed instruments, ignoring the answer to an earlier session's request, and asks
+    // for the next page until the last one is loaded
+    private void onInstrumentsList(final DirectBuffer buffer, final int offset)
+    {
+        instrumentsListDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        if (instrumentsListDecoder.correlation() != listCorrelation)
+        {
+            return;
+        }
+
+        if (0 == listFromInstrumentId)
+        {
+            referenceData.clear();
+        }
+        final InstrumentsListDecoder.ValuesDecoder values = instrumentsListDecoder.values();
+        while (values.hasNext())
+        {
+            values.next();
+            values.getCusip(cusip, 0);
+            referenceData.update(Cusips.pack(cusip), values.enabled() == BooleanType.TRUE, values.minSize());
+        }
+
+        final int nextFromInstrumentId = instrumentsListDecoder.nextFromInstrumentId();
+        if (0 != nextFromInstrumentId)
+        {
+            listFromInstrumentId = nextFromInstrumentId;
+            listRequested = false;
+            return;
+        }
+        referenceData.onLoaded();
+        LOGGER.info("Loaded {} instruments for pre-validation", referenceData.instrumentCount());
+    }
+
+    private void onInstrumentUpdated(final DirectBuffer buffer, final int offset)
+    {
+        instrumentUpdatedEventDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+        instrumentUpdatedEventDecoder.getCusip(cusip, 0);
+        referenceData.update(Cusips.pack(cusip), instrumentUpdatedEventDecoder.enabled() == BooleanType.TRUE,
+            instrumentUpdatedEventDecoder.minSize());
+    }
+}
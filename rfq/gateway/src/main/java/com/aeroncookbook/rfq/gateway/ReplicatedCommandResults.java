@@ -0,0 +1,431 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.gateway;
+
+import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentResultDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentResultEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentsDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentsResultDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentsResultEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.AddUserCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.RequestResult;
+import com.aeroncookbook.cluster.rfq.sbe.SetInstrumentEnabledFlagDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.SetInstrumentEnabledFlagResultDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.SetInstrumentEnabledFlagResultEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.SetUserEnabledFlagCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.SetUserEntitlementCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.UserCommandResultDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.UserCommandResultEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.UserResult;
+import org.agrona.DirectBuffer;
+import org.agrona.collections.Long2ObjectHashMap;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the shards' replies to the commands that change state replicated on every shard, and passes one reply
+ * back to the client once every shard has answered.
+ * <p>
+ * A replicated command is only reported as applied when every shard confirms it. If every shard succeeded, the first
+ * success received is passed back; otherwise the first failure is. A shard the command could not be offered to, or
+ * that has not answered within {@link #REPLY_TIMEOUT_NS}, counts as an {@code ERROR} result. The shards may then
+ * disagree, and the client repeats the command with the same correlation; shards that already applied it answer
+ * with their original confirm.
+ */
+public class ReplicatedCommandResults
+{
+    /**
+     * Time a shard has to answer a replicated command before the command is reported as failed
+     */
+    public static final long REPLY_TIMEOUT_NS = TimeUnit.SECONDS.toNanos(10);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicatedCommandResults.class);
+    private static final int MAX_SHARD_COUNT = Long.SIZE;
+    private static final int MAX_REPLY_LENGTH = 64;
+
+    private final MessageHeaderDecoder headerDecoder = new MessageHeaderDecoder();
+    private final AddInstrumentDecoder addInstrumentDecoder = new AddInstrumentDecoder();
+    private final AddInstrumentsDecoder addInstrumentsDecoder = new AddInstrumentsDecoder();
+    private final SetInstrumentEnabledFlagDecoder setInstrumentEnabledFlagDecoder =
+        new SetInstrumentEnabledFlagDecoder();
+    private final AddUserCommandDecoder addUserCommandDecoder = new AddUserCommandDecoder();
+    private final SetUserEnabledFlagCommandDecoder setUserEnabledFlagCommandDecoder =
+        new SetUserEnabledFlagCommandDecoder();
+    private final SetUserEntitlementCommandDecoder setUserEntitlementCommandDecoder =
+        new SetUserEntitlementCommandDecoder();
+    private final AddInstrumentResultDecoder addInstrumentResultDecoder = new AddInstrumentResultDecoder();
+    private final AddInstrumentsResultDecoder addInstrumentsResultDecoder = new AddInstrumentsResultDecoder();
+    private final SetInstrumentEnabledFlagResultDecoder setInstrumentEnabledFlagResultDecoder =
+        new SetInstrumentEnabledFlagResultDecoder();
+    private final UserCommandResultDecoder userCommandResultDecoder = new UserCommandResultDecoder();
+    private final MessageHeaderEncoder headerEncoder = new MessageHeaderEncoder();
+    private final AddInstrumentResultEncoder addInstrumentResultEncoder = new AddInstrumentResultEncoder();
+    private final AddInstrumentsResultEncoder addInstrumentsResultEncoder = new AddInstrumentsResultEncoder();
+    private final SetInstrumentEnabledFlagResultEncoder setInstrumentEnabledFlagResultEncoder =
+        new SetInstrumentEnabledFlagResultEncoder();
+    private final UserCommandResultEncoder userCommandResultEncoder = new UserCommandResultEncoder();
+    private final Long2ObjectHashMap<PendingCommand> pendingByCorrelation = new Long2ObjectHashMap<>();
+    private final ArrayDeque<PendingCommand> sparePending = new ArrayDeque<>();
+    private final List<PendingCommand> expired = new ArrayList<>();
+    private final UnsafeBuffer errorBuffer = new UnsafeBuffer(ByteBuffer.allocateDirect(MAX_REPLY_LENGTH));
+    private final ResultListener listener;
+    private final long allShardsMask;
+
+    /**
+     * Receives the one reply passed back to the client for a replicated command
+     */
+    @FunctionalInterface
+    public interface ResultListener
+    {
+        /**
+         * Called once every shard has answered a replicated command, or the command has timed out
+         *
+         * @param buffer the buffer holding the reply
+         * @param offset the offset of the reply's message header
+         * @param length the length of the reply
+         */
+        void onResult(DirectBuffer buffer, int offset, int length);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param shardCount the number of shards, at most 64
+     * @param listener   the listener the reply of each replicated command is passed to
+     */
+    public ReplicatedCommandResults(final int shardCount, final ResultListener listener)
+    {
+        if (shardCount < 1 || shardCount > MAX_SHARD_COUNT)
+        {
+            throw new IllegalArgumentException("shard count must be between 1 and " + MAX_SHARD_COUNT);
+        }
+        this.listener = listener;
+        this.allShardsMask = MAX_SHARD_COUNT == shardCount ? -1L : (1L << shardCount) - 1;
+    }
+
+    /**
+     * Checks if a client command changes state replicated on every shard, so its replies are collected here
+     *
+     * @param buffer the buffer holding the command
+     * @param offset the offset of the command's message header
+     * @return true if the command is replicated
+     */
+    public boolean isReplicatedCommand(final DirectBuffer buffer, final int offset)
+    {
+        headerDecoder.wrap(buffer, offset);
+        return switch (headerDecoder.templateId())
+        {
+            case AddInstrumentDecoder.TEMPLATE_ID, AddInstrumentsDecoder.TEMPLATE_ID,
+                SetInstrumentEnabledFlagDecoder.TEMPLATE_ID, AddUserCommandDecoder.TEMPLATE_ID,
+                SetUserEnabledFlagCommandDecoder.TEMPLATE_ID, SetUserEntitlementCommandDecoder.TEMPLATE_ID -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Checks if a message received from a shard is the reply to a replicated command
+     *
+     * @param buffer the buffer holding the message
+     * @param offset the offset of the message header
+     * @return true if the message is collected here rather than passed straight back
+     */
+    public boolean isReplicatedResult(final DirectBuffer buffer, final int offset)
+    {
+        headerDecoder.wrap(buffer, offset);
+        return switch (headerDecoder.templateId())
+        {
+            case AddInstrumentResultDecoder.TEMPLATE_ID, AddInstrumentsResultDecoder.TEMPLATE_ID,
+                SetInstrumentEnabledFlagResultDecoder.TEMPLATE_ID, UserCommandResultDecoder.TEMPLATE_ID -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Starts collecting the replies to a replicated command once it has been offered to every shard. A command
+     * repeated while its replies are still being collected joins the earlier one, waiting on the shards it reached.
+     *
+     * @param buffer            the buffer holding the command
+     * @param offset            the offset of the command's message header
+     * @param unavailableShards bit mask of the shards the command could not be offered to
+     * @param nowNs             the current time in nanoseconds
+     */
+    public void onCommandSent(final DirectBuffer buffer, final int offset, final long unavailableShards,
+        final long nowNs)
+    {
+        headerDecoder.wrap(buffer, offset);
+        final int templateId = headerDecoder.templateId();
+        final long correlation;
+        int userId = 0;
+        switch (templateId)
+        {
+            case AddInstrumentDecoder.TEMPLATE_ID ->
+            {
+                addInstrumentDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+                correlation = addInstrumentDecoder.correlation();
+            }
+            case AddInstrumentsDecoder.TEMPLATE_ID ->
+            {
+                addInstrumentsDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+                correlation = addInstrumentsDecoder.correlation();
+            }
+            case SetInstrumentEnabledFlagDecoder.TEMPLATE_ID ->
+            {
+                setInstrumentEnabledFlagDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+                correlation = setInstrumentEnabledFlagDecoder.correlation();
+            }
+            case AddUserCommandDecoder.TEMPLATE_ID ->
+            {
+                addUserCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+                correlation = addUserCommandDecoder.correlation();
+                userId = addUserCommandDecoder.userId();
+            }
+            case SetUserEnabledFlagCommandDecoder.TEMPLATE_ID ->
+            {
+                setUserEnabledFlagCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+                correlation = setUserEnabledFlagCommandDecoder.correlation();
+                userId = setUserEnabledFlagCommandDecoder.userId();
+            }
+            case SetUserEntitlementCommandDecoder.TEMPLATE_ID ->
+            {
+                setUserEntitlementCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+                correlation = setUserEntitlementCommandDecoder.correlation();
+                userId = setUserEntitlementCommandDecoder.userId();
+            }
+            default ->
+            {
+                return;
+            }
+        }
+
+        PendingCommand pending = pendingByCorrelation.get(correlation);
+        if (null == pending)
+        {
+            pending = sparePending.isEmpty() ? new PendingCommand() : sparePending.poll();
+            pending.reset(correlation, templateId, userId, nowNs + REPLY_TIMEOUT_NS);
+            pendingByCorrelation.put(correlation, pending);
+        }
+        pending.unavailableShards = unavailableShards & ~pending.answeredShards;
+        completeIfAnswered(pending);
+    }
+
+    /**
+     * Collects a shard's reply to a replicated command, passing one reply back once every shard has answered.
+     * Replies to commands no longer pending, such as those that timed out, are dropped.
+     *
+     * @param shard  the shard the reply was received from
+     * @param buffer the buffer holding the reply
+     * @param offset the offset of the reply's message header
+     * @param length the length of the reply
+     */
+    public void onShardResult(final int shard, final DirectBuffer buffer, final int offset, final int length)
+    {
+        headerDecoder.wrap(buffer, offset);
+        final long correlation;
+        final boolean success;
+        switch (headerDecoder.templateId())
+        {
+            case AddInstrumentResultDecoder.TEMPLATE_ID ->
+            {
+                addInstrumentResultDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+                correlation = addInstrumentResultDecoder.correlation();
+                success = RequestResult.SUCCESS == addInstrumentResultDecoder.result();
+            }
+            case AddInstrumentsResultDecoder.TEMPLATE_ID ->
+            {
+                addInstrumentsResultDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+                correlation = addInstrumentsResultDecoder.correlation();
+                success = RequestResult.SUCCESS == addInstrumentsResultDecoder.result();
+            }
+            case SetInstrumentEnabledFlagResultDecoder.TEMPLATE_ID ->
+            {
+                setInstrumentEnabledFlagResultDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+                correlation = setInstrumentEnabledFlagResultDecoder.correlation();
+                success = RequestResult.SUCCESS == setInstrumentEnabledFlagResultDecoder.result();
+            }
+            case UserCommandResultDecoder.TEMPLATE_ID ->
+            {
+                userCommandResultDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+                correlation = userCommandResultDecoder.correlation();
+                success = UserResult.SUCCESS == userCommandResultDecoder.result();
+            }
+            default ->
+            {
+                return;
+            }
+        }
+
+        final PendingCommand pending = pendingByCorrelation.get(correlation);
+        if (null == pending)
+        {
+            LOGGER.debug("Dropping reply {} from shard {} to a command no longer pending", correlation, shard);
+            return;
+        }
+
+        final long shardBit = 1L << shard;
+        if (0 == (pending.answeredShards & shardBit))
+        {
+            pending.answeredShards |= shardBit;
+            pending.unavailableShards &= ~shardBit;
+            if (0 == pending.replyLength || (!success && pending.replySucceeded))
+            {
+                pending.reply.putBytes(0, buffer, offset, length);
+                pending.replyLength = length;
+                pending.replySucceeded = success;
+            }
+        }
+        completeIfAnswered(pending);
+    }
+
+    /**
+     * Reports the replicated commands not answered by every shard in time as failed
+     *
+     * @param nowNs the current time in nanoseconds
+     * @return the number of commands timed out
+     */
+    public int poll(final long nowNs)
+    {
+        if (pendingByCorrelation.isEmpty())
+        {
+            return 0;
+        }
+
+        for (final PendingCommand pending : pendingByCorrelation.values())
+        {
+            if (nowNs > pending.deadlineNs)
+            {
+                expired.add(pending);
+            }
+        }
+        final int expiredCount = expired.size();
+        for (int i = 0; i < expiredCount; i++)
+        {
+            final PendingCommand pending = expired.get(i);
+            LOGGER.warn("Shards {} did not answer command {} in time", Long.toBinaryString(
+                allShardsMask & ~pending.answeredShards), pending.correlation);
+            complete(pending, false);
+        }
+        expired.clear();
+        return expiredCount;
+    }
+
+    /**
+     * Gets the number of replicated commands still waiting for a shard's reply
+     *
+     * @return the number of pending commands
+     */
+    public int pendingCount()
+    {
+        return pendingByCorrelation.size();
+    }
+
+    private void completeIfAnswered(final PendingCommand pending)
+    {
+        if (allShardsMask == (pending.answeredShards | pending.unavailableShards))
+        {
+            complete(pending, 0 == pending.unavailableShards);
+        }
+    }
+
+    private void complete(final PendingCommand pending, final boolean allAnswered)
+    {
+        pendingByCorrelation.remove(pending.correlation);
+        if (0 != pending.replyLength && (allAnswered || !pending.replySucceeded))
+        {
+            listener.onResult(pending.reply, 0, pending.replyLength);
+        }
+        else
+        {
+            listener.onResult(errorBuffer, 0, encodeError(pending));
+        }
+        sparePending.add(pending);
+    }
+
+    private int encodeError(final PendingCommand pending)
+    {
+        final int length;
+        switch (pending.commandTemplateId)
+        {
+            case AddInstrumentDecoder.TEMPLATE_ID ->
+            {
+                addInstrumentResultEncoder.wrapAndApplyHeader(errorBuffer, 0, headerEncoder)
+                    .correlation(pending.correlation)
+                    .result(RequestResult.ERROR);
+                length = addInstrumentResultEncoder.encodedLength();
+            }
+            case AddInstrumentsDecoder.TEMPLATE_ID ->
+            {
+                addInstrumentsResultEncoder.wrapAndApplyHeader(errorBuffer, 0, headerEncoder)
+                    .correlation(pending.correlation)
+                    .count(0)
+                    .result(RequestResult.ERROR);
+                length = addInstrumentsResultEncoder.encodedLength();
+            }
+            case SetInstrumentEnabledFlagDecoder.TEMPLATE_ID ->
+            {
+                setInstrumentEnabledFlagResultEncoder.wrapAndApplyHeader(errorBuffer, 0, headerEncoder)
+                    .correlation(pending.correlation)
+                    .result(RequestResult.ERROR);
+                length = setInstrumentEnabledFlagResultEncoder.encodedLength();
+            }
+            default ->
+            {
+                userCommandResultEncoder.wrapAndApplyHeader(errorBuffer, 0, headerEncoder)
+                    .correlation(pending.correlation)
+                    .userId(pending.userId)
+                    .result(UserResult.ERROR);
+                length = userCommandResultEncoder.encodedLength();
+            }
+        }
+        return MessageHeaderEncoder.ENCODED_LENGTH + length;
+    }
+
+    private static final class PendingCommand
+    {
+        private final UnsafeBuffer reply = new UnsafeBuffer(ByteBuffer.allocateDirect(MAX_REPLY_LENGTH));
+        private long correlation;
+        private int commandTemplateId;
+        private int userId;
+        private long deadlineNs;
+        private long answeredShards;
+        private long unavailableShards;
+        private int replyLength;
+        private boolean replySucceeded;
+
+        private void reset(final long correlation, final int commandTemplateId, final int userId,
+            final long deadlineNs)
+        {
+            this.correlation = correlation;
+            this.commandTemplateId = commandTemplateId;
+            this.userId = userId;
+            this.deadlineNs = deadlineNs;
+            this.answeredShards = 0;
+            this.unavailableShards = 0;
+            this.replyLength = 0;
+            this.replySucceeded = false;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.gateway;
+
+import io.aeron.cluster.client.EgressListener;
+import io.aeron.logbuffer.Header;
+import org.agrona.DirectBuffer;
+
+/**
+ * Receives the egress of one shard for a gateway session, and hands it to the session to pass back to the client
+ */
+public class ShardEgressForwarder implements EgressListener
+{
+    private final int shard;
+    private final GatewaySession gatewaySession;
+
+    /**
+     * Constructor
+     *
+     * @param shard          the shard the egress is received from
+     * @param gatewaySession the gateway session of the client
+     */
+    public ShardEgressForwarder(final int shard, final GatewaySession gatewaySession)
+    {
+        this.shard = shard;
+        this.gatewaySession = gatewaySession;
+    }
+
+    @Override
+    public void onMessage(
+        final long clusterSessionId,
+        final long timestamp,
+        final DirectBuffer buffer,
+        final int offset,
+        final int length,
+        final Header header)
+    {
+        gatewaySession.onShardMessage(shard, buffer, offset, length);
+    }
+
+    @Override
+    public void onNewLeader(
+        final long clusterSessionId,
+        final long leadershipTermId,
+        final int leaderMemberId,
+        final String ingressEndpoints)
+    {
+        gatewaySession.onShardNewLeader(shard, leaderMemberId);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.gateway;
+
+import com.aeroncookbook.cluster.rfq.RfqRouting;
+import com.aeroncookbook.cluster.rfq.sbe.AcceptRfqCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentsDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.AddUserCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.CancelRfqCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.CounterRfqCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.CreateRfqCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.InstrumentUpdatedEventDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.InstrumentsListDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.ListInstrumentsCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.ListInstrumentsResultDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.ListRfqsCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.QuoteRfqCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.RejectRfqCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqBookSnapshotCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.SetInstrumentEnabledFlagDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.SetUserEnabledFlagCommandDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.SetUserEntitlementCommandDecoder;
+import org.agrona.DirectBuffer;
+
+/**
+ * Picks the shards a client command is sent to, and the shards whose egress is passed back to the client.
+ * <p>
+ * RFQ commands go to the one shard owning the RFQ, found from the cusip of a create command and from the RFQ id
+ * otherwise. Instrument and user commands change state replicated on every shard, so they go to all of them; their
+ * replies are combined by {@link ReplicatedCommandResults}, and only the first shard's instrument events and instrument
+ * lists are passed back, so the client sees each once. Book snapshot requests, and RFQ queries without a cusip, go to
+ * all shards, each answering for its own RFQs.
+ */
+public class ShardRouter
+{
+    /**
+     * The command goes to every shard
+     */
+    public static final int ALL_SHARDS = -1;
+
+    /**
+     * The command is not routed
+     */
+    public static final int NO_SHARD = -2;
+
+    /**
+     * The shard instrument commands go to, and whose instrument events are passed back
+     */
+    public static final int FIRST_SHARD = 0;
+
+    private final MessageHeaderDecoder headerDecoder = new MessageHeaderDecoder();
+    private final CreateRfqCommandDecoder createRfqCommandDecoder = new CreateRfqCommandDecoder();
+    private final CancelRfqCommandDecoder cancelRfqCommandDecoder = new CancelRfqCommandDecoder();
+    private final QuoteRfqCommandDecoder quoteRfqCommandDecoder = new QuoteRfqCommandDecoder();
+    private final CounterRfqCommandDecoder counterRfqCommandDecoder = new CounterRfqCommandDecoder();
+    private final AcceptRfqCommandDecoder acceptRfqCommandDecoder = new AcceptRfqCommandDecoder();
+    private final RejectRfqCommandDecoder rejectRfqCommandDecoder = new RejectRfqCommandDecoder();
+    private final ListRfqsCommandDecoder listRfqsCommandDecoder = new ListRfqsCommandDecoder();
+    private final int shardCount;
+
+    /**
+     * Constructor
+     *
+     * @param shardCount the number of shards
+     */
+    public ShardRouter(final int shardCount)
+    {
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * Gets the number of shards
+     *
+     * @return the number of shards
+     */
+    public int shardCount()
+    {
+        return shardCount;
+    }
+
+    /**
+     * Picks the shard a client command is sent to
+     *
+     * @param buffer the buffer holding the command
+     * @param offset the offset of the command's message header
+     * @return the shard, {@link #ALL_SHARDS} or {@link #NO_SHARD} if the command is unknown
+     */
+    public int route(final DirectBuffer buffer, final int offset)
+    {
+        headerDecoder.wrap(buffer, offset);
+        return switch (headerDecoder.templateId())
+        {
+            case CreateRfqCommandDecoder.TEMPLATE_ID ->
+            {
+                createRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+                yield RfqRouting.shardOfCusip(createRfqCommandDecoder.cusip(), shardCount);
+            }
+            case CancelRfqCommandDecoder.TEMPLATE_ID ->
+            {
+                cancelRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+                yield RfqRouting.shardOfRfq(cancelRfqCommandDecoder.rfqId(), shardCount);
+            }
+            case QuoteRfqCommandDecoder.TEMPLATE_ID ->
+            {
+                quoteRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+                yield RfqRouting.shardOfRfq(quoteRfqCommandDecoder.rfqId(), shardCount);
+            }
+            case CounterRfqCommandDecoder.TEMPLATE_ID ->
+            {
+                counterRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+                yield RfqRouting.shardOfRfq(counterRfqCommandDecoder.rfqId(), shardCount);
+            }
+            case AcceptRfqCommandDecoder.TEMPLATE_ID ->
+            {
+                acceptRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+                yield RfqRouting.shardOfRfq(acceptRfqCommandDecoder.rfqId(), shardCount);
+            }
+            case RejectRfqCommandDecoder.TEMPLATE_ID ->
+            {
+                rejectRfqCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+                yield RfqRouting.shardOfRfq(rejectRfqCommandDecoder.rfqId(), shardCount);
+            }
+            case ListRfqsCommandDecoder.TEMPLATE_ID ->
+            {
+                listRfqsCommandDecoder.wrapAndApplyHeader(buffer, offset, headerDecoder);
+                final String cusip = listRfqsCommandDecoder.cusip().trim();
+                yield cusip.isEmpty() ? ALL_SHARDS : RfqRouting.shardOfCusip(cusip, shardCount);
+            }
+            case ListInstrumentsCommandDecoder.TEMPLATE_ID -> FIRST_SHARD;
+            case AddInstrumentDecoder.TEMPLATE_ID, AddInstrumentsDecoder.TEMPLATE_ID,
+                SetInstrumentEnabledFlagDecoder.TEMPLATE_ID, AddUserCommandDecoder.TEMPLATE_ID,
+                SetUserEnabledFlagCommandDecoder.TEMPLATE_ID, SetUserEntitlementCommandDecoder.TEMPLATE_ID,
+                RfqBookSnapshotCommandDecoder.TEMPLATE_ID -> ALL_SHARDS;
+            default -> NO_SHARD;
+        };
+    }
+
+    /**
+     * Checks if a message received from a shard is passed back to the client. Events and lists of replicated state are
+     * only passed back from the first shard. Replies to replicated commands are not checked here, as they are combined
+     * by {@link ReplicatedCommandResults}.
+     *
+     * @param shard  the shard the message was received from
+     * @param buffer the buffer holding the message
+     * @param offset the offset of the message header
+     * @return true if the message is passed back
+     */
+    public boolean forwardEgress(final int shard, final DirectBuffer buffer, final int offset)
+    {
+        if (FIRST_SHARD == shard)
+        {
+            return true;
+        }
+
+        headerDecoder.wrap(buffer, offset);
+        return switch (headerDecoder.templateId())
+        {
+            case InstrumentUpdatedEventDecoder.TEMPLATE_ID, ListInstrumentsResultDecoder.TEMPLATE_ID,
+                InstrumentsListDecoder.TEMPLATE_ID -> false;
+            default -> true;
+        };
+    }
+}
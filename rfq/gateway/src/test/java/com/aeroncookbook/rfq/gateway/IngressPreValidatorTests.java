@@ -0,0 +1,143 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.gateway;
+
+import com.aeroncookbook.cluster.rfq.Cusips;
+import com.aeroncookbook.cluster.rfq.sbe.CancelRfqCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.CreateRfqCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.CreateRfqConfirmEventDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.CreateRfqResult;
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.Side;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class IngressPreValidatorTests
+{
+    private static final int USER_ID = 500;
+    private static final String KNOWN_CUSIP = "037833100";
+    private static final String UNKNOWN_CUSIP = "594918104";
+
+    private final UnsafeBuffer buffer = new UnsafeBuffer(new byte[256]);
+    private final UnsafeBuffer rejectionBuffer = new UnsafeBuffer(new byte[256]);
+    private final MessageHeaderEncoder headerEncoder = new MessageHeaderEncoder();
+    private final MessageHeaderDecoder headerDecoder = new MessageHeaderDecoder();
+    private final CreateRfqConfirmEventDecoder confirmDecoder = new CreateRfqConfirmEventDecoder();
+    private final InstrumentReferenceData referenceData = new InstrumentReferenceData();
+    private final IngressPreValidator validator = new IngressPreValidator(referenceData);
+
+    @BeforeEach
+    public void setUp()
+    {
+        referenceData.update(Cusips.pack(KNOWN_CUSIP), true, 100);
+        referenceData.onLoaded();
+    }
+
+    @Test
+    public void canRejectUnknownCusip()
+    {
+        encodeCreateRfq(1, UNKNOWN_CUSIP, 1_000);
+
+        final int length = validator.validate(USER_ID, buffer, 0, rejectionBuffer);
+
+        Assertions.assertNotEquals(IngressPreValidator.VALID, length);
+        confirmDecoder.wrapAndApplyHeader(rejectionBuffer, 0, headerDecoder);
+        Assertions.assertEquals(1, confirmDecoder.correlation());
+        Assertions.assertEquals(-1, confirmDecoder.rfqId());
+        Assertions.assertEquals(CreateRfqResult.UNKNOWN_CUSIP, confirmDecoder.result());
+        Assertions.assertEquals(1, validator.rejectedCount());
+    }
+
+    @Test
+    public void canLeaveInstrumentStateChecksToShard()
+    {
+        referenceData.update(Cusips.pack(KNOWN_CUSIP), false, 100);
+        encodeCreateRfq(1, KNOWN_CUSIP, 1);
+
+        Assertions.assertEquals(IngressPreValidator.VALID, validator.validate(USER_ID, buffer, 0, rejectionBuffer));
+        Assertions.assertEquals(0, validator.rejectedCount());
+    }
+
+    @Test
+    public void canPassEveryCommandUntilLoaded()
+    {
+        referenceData.clear();
+        encodeCreateRfq(1, UNKNOWN_CUSIP, 1_000);
+
+        Assertions.assertEquals(IngressPreValidator.VALID, validator.validate(USER_ID, buffer, 0, rejectionBuffer));
+    }
+
+    @Test
+    public void canPassRetryOfForwardedCommand()
+    {
+        referenceData.clear();
+        encodeCreateRfq(1, UNKNOWN_CUSIP, 1_000);
+        Assertions.assertEquals(IngressPreValidator.VALID, validator.validate(USER_ID, buffer, 0, rejectionBuffer));
+
+        referenceData.onLoaded();
+        Assertions.assertEquals(IngressPreValidator.VALID, validator.validate(USER_ID, buffer, 0, rejectionBuffer));
+        Assertions.assertNotEquals(
+            IngressPreValidator.VALID, validator.validate(USER_ID + 1, buffer, 0, rejectionBuffer));
+    }
+
+    @Test
+    public void canRejectRetryOfRejectedCommand()
+    {
+        encodeCreateRfq(1, UNKNOWN_CUSIP, 1_000);
+
+        Assertions.assertNotEquals(IngressPreValidator.VALID, validator.validate(USER_ID, buffer, 0, rejectionBuffer));
+        Assertions.assertNotEquals(IngressPreValidator.VALID, validator.validate(USER_ID, buffer, 0, rejectionBuffer));
+        Assertions.assertEquals(2, validator.rejectedCount());
+    }
+
+    @Test
+    public void canForgetOldestForwardedCommand()
+    {
+        for (int correlation = 1; correlation <= IngressPreValidator.FORWARDED_CAPACITY + 1; correlation++)
+        {
+            encodeCreateRfq(correlation, KNOWN_CUSIP, 1_000);
+            Assertions.assertEquals(
+                IngressPreValidator.VALID, validator.validate(USER_ID, buffer, 0, rejectionBuffer));
+        }
+
+        encodeCreateRfq(1, UNKNOWN_CUSIP, 1_000);
+        Assertions.assertNotEquals(IngressPreValidator.VALID, validator.validate(USER_ID, buffer, 0, rejectionBuffer));
+        encodeCreateRfq(2, UNKNOWN_CUSIP, 1_000);
+        Assertions.assertEquals(IngressPreValidator.VALID, validator.validate(USER_ID, buffer, 0, rejectionBuffer));
+    }
+
+    @Test
+    public void canPassOtherCommands()
+    {
+        new CancelRfqCommandEncoder().wrapAndApplyHeader(buffer, 0, headerEncoder).correlation(1).rfqId(1);
+
+        Assertions.assertEquals(IngressPreValidator.VALID, validator.validate(USER_ID, buffer, 0, rejectionBuffer));
+    }
+
+    private void encodeCreateRfq(final long correlation, final String cusip, final long quantity)
+    {
+        new CreateRfqCommandEncoder().wrapAndApplyHeader(buffer, 0, headerEncoder)
+            .correlation(correlation)
+            .expireTimeMs(0)
+            .quantity(quantity)
+            .requesterSide(Side.BUY)
+            .cusip(cusip);
+    }
+}
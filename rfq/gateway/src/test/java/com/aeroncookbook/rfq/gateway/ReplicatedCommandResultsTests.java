@@ -0,0 +1,202 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.gateway;
+
+import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentResultDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentResultEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.BooleanType;
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.RequestResult;
+import com.aeroncookbook.cluster.rfq.sbe.RfqBookSnapshotCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.SetUserEnabledFlagCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.UserCommandResultDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.UserCommandResultEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.UserResult;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ReplicatedCommandResultsTests
+{
+    private static final int SHARD_COUNT = 3;
+    private static final int USER_ID = 600;
+    private static final String CUSIP = "037833100";
+
+    private final UnsafeBuffer commandBuffer = new UnsafeBuffer(new byte[256]);
+    private final UnsafeBuffer replyBuffer = new UnsafeBuffer(new byte[256]);
+    private final MessageHeaderEncoder headerEncoder = new MessageHeaderEncoder();
+    private final MessageHeaderDecoder headerDecoder = new MessageHeaderDecoder();
+    private final List<String> results = new ArrayList<>();
+    private final ReplicatedCommandResults replicatedResults = new ReplicatedCommandResults(SHARD_COUNT,
+        (buffer, offset, length) -> results.add(decode(new UnsafeBuffer(buffer, offset, length))));
+
+    @Test
+    public void canReportSuccessOnlyOnceEveryShardConfirms()
+    {
+        sendAddInstrument(1, 0);
+
+        replyAddInstrument(0, 1, RequestResult.SUCCESS);
+        replyAddInstrument(2, 1, RequestResult.SUCCESS);
+        Assertions.assertTrue(results.isEmpty());
+
+        replyAddInstrument(1, 1, RequestResult.SUCCESS);
+        Assertions.assertEquals(List.of("instrument:1:SUCCESS"), results);
+        Assertions.assertEquals(0, replicatedResults.pendingCount());
+    }
+
+    @Test
+    public void canReportFailureOfAnyShard()
+    {
+        sendAddInstrument(1, 0);
+
+        replyAddInstrument(0, 1, RequestResult.SUCCESS);
+        replyAddInstrument(1, 1, RequestResult.THROTTLED);
+        replyAddInstrument(2, 1, RequestResult.SUCCESS);
+
+        Assertions.assertEquals(List.of("instrument:1:THROTTLED"), results);
+    }
+
+    @Test
+    public void canReportErrorIfShardUnavailable()
+    {
+        sendSetUserEnabled(7, 1L << 2);
+
+        replyUser(0, 7, UserResult.SUCCESS);
+        Assertions.assertTrue(results.isEmpty());
+
+        replyUser(1, 7, UserResult.SUCCESS);
+        Assertions.assertEquals(List.of("user:7:" + USER_ID + ":ERROR"), results);
+    }
+
+    @Test
+    public void canReportErrorIfShardDoesNotAnswerInTime()
+    {
+        sendAddInstrument(1, 0);
+        replyAddInstrument(0, 1, RequestResult.SUCCESS);
+        replyAddInstrument(1, 1, RequestResult.SUCCESS);
+
+        Assertions.assertEquals(0, replicatedResults.poll(ReplicatedCommandResults.REPLY_TIMEOUT_NS));
+        Assertions.assertEquals(1, replicatedResults.poll(ReplicatedCommandResults.REPLY_TIMEOUT_NS + 1));
+        Assertions.assertEquals(List.of("instrument:1:ERROR"), results);
+
+        replyAddInstrument(2, 1, RequestResult.SUCCESS);
+        Assertions.assertEquals(1, results.size());
+    }
+
+    @Test
+    public void canCountEachShardOnce()
+    {
+        sendAddInstrument(1, 0);
+
+        replyAddInstrument(0, 1, RequestResult.SUCCESS);
+        replyAddInstrument(0, 1, RequestResult.SUCCESS);
+        replyAddInstrument(0, 1, RequestResult.SUCCESS);
+
+        Assertions.assertTrue(results.isEmpty());
+        Assertions.assertEquals(1, replicatedResults.pendingCount());
+    }
+
+    @Test
+    public void canJoinRepeatedCommandToPendingOne()
+    {
+        sendSetUserEnabled(7, 1L << 1);
+        replyUser(0, 7, UserResult.SUCCESS);
+        Assertions.assertEquals(List.of("user:7:" + USER_ID + ":ERROR"), results);
+
+        sendSetUserEnabled(8, 1L << 1);
+        replyUser(0, 8, UserResult.SUCCESS);
+        sendSetUserEnabled(8, 0);
+        replyUser(1, 8, UserResult.SUCCESS);
+        replyUser(2, 8, UserResult.SUCCESS);
+
+        Assertions.assertEquals(List.of("user:7:" + USER_ID + ":ERROR", "user:8:" + USER_ID + ":SUCCESS"), results);
+    }
+
+    @Test
+    public void canIgnoreCommandsAnsweredByEachShard()
+    {
+        new RfqBookSnapshotCommandEncoder().wrapAndApplyHeader(commandBuffer, 0, headerEncoder).correlation(3);
+
+        Assertions.assertFalse(replicatedResults.isReplicatedCommand(commandBuffer, 0));
+        replicatedResults.onCommandSent(commandBuffer, 0, 0, 0);
+        Assertions.assertEquals(0, replicatedResults.pendingCount());
+    }
+
+    private void sendAddInstrument(final long correlation, final long unavailableShards)
+    {
+        new AddInstrumentEncoder().wrapAndApplyHeader(commandBuffer, 0, headerEncoder)
+            .correlation(correlation)
+            .cusip(CUSIP)
+            .enabled(BooleanType.TRUE)
+            .minSize(10);
+        Assertions.assertTrue(replicatedResults.isReplicatedCommand(commandBuffer, 0));
+        replicatedResults.onCommandSent(commandBuffer, 0, unavailableShards, 0);
+    }
+
+    private void sendSetUserEnabled(final long correlation, final long unavailableShards)
+    {
+        new SetUserEnabledFlagCommandEncoder().wrapAndApplyHeader(commandBuffer, 0, headerEncoder)
+            .correlation(correlation)
+            .userId(USER_ID)
+            .enabled(BooleanType.FALSE);
+        replicatedResults.onCommandSent(commandBuffer, 0, unavailableShards, 0);
+    }
+
+    private void replyAddInstrument(final int shard, final long correlation, final RequestResult result)
+    {
+        final AddInstrumentResultEncoder encoder = new AddInstrumentResultEncoder()
+            .wrapAndApplyHeader(replyBuffer, 0, headerEncoder)
+            .correlation(correlation)
+            .result(result);
+        onShardResult(shard, MessageHeaderEncoder.ENCODED_LENGTH + encoder.encodedLength());
+    }
+
+    private void replyUser(final int shard, final long correlation, final UserResult result)
+    {
+        final UserCommandResultEncoder encoder = new UserCommandResultEncoder()
+            .wrapAndApplyHeader(replyBuffer, 0, headerEncoder)
+            .correlation(correlation)
+            .userId(USER_ID)
+            .result(result);
+        onShardResult(shard, MessageHeaderEncoder.ENCODED_LENGTH + encoder.encodedLength());
+    }
+
+    private void onShardResult(final int shard, final int length)
+    {
+        Assertions.assertTrue(replicatedResults.isReplicatedResult(replyBuffer, 0));
+        replicatedResults.onShardResult(shard, replyBuffer, 0, length);
+    }
+
+    private String decode(final UnsafeBuffer buffer)
+    {
+        headerDecoder.wrap(buffer, 0);
+        if (AddInstrumentResultDecoder.TEMPLATE_ID == headerDecoder.templateId())
+        {
+            final AddInstrumentResultDecoder decoder = new AddInstrumentResultDecoder()
+                .wrapAndApplyHeader(buffer, 0, headerDecoder);
+            return "instrument:" + decoder.correlation() + ":" + decoder.result();
+        }
+        final UserCommandResultDecoder decoder = new UserCommandResultDecoder()
+            .wrapAndApplyHeader(buffer, 0, headerDecoder);
+        return "user:" + decoder.correlation() + ":" + decoder.userId() + ":" + decoder.result();
+    }
+}
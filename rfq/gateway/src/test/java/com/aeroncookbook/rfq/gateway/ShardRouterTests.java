@@ -0,0 +1,136 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aeroncookbook.rfq.gateway;
+
+import com.aeroncookbook.cluster.rfq.RfqRouting;
+import com.aeroncookbook.cluster.rfq.sbe.AddInstrumentEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.AddUserCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.BooleanType;
+import com.aeroncookbook.cluster.rfq.sbe.CancelRfqCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.CreateRfqCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.InstrumentUpdatedEventEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.ListInstrumentsCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.ListRfqsCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqBookSnapshotCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqCreatedEventEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.Side;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ShardRouterTests
+{
+    private static final int SHARD_COUNT = 3;
+    private static final String CUSIP = "037833100";
+
+    private final UnsafeBuffer buffer = new UnsafeBuffer(new byte[256]);
+    private final MessageHeaderEncoder headerEncoder = new MessageHeaderEncoder();
+    private final ShardRouter router = new ShardRouter(SHARD_COUNT);
+
+    @Test
+    public void canRouteCreateRfqByCusip()
+    {
+        new CreateRfqCommandEncoder().wrapAndApplyHeader(buffer, 0, headerEncoder)
+            .correlation(1)
+            .expireTimeMs(1000)
+            .quantity(100)
+            .requesterSide(Side.BUY)
+            .cusip(CUSIP);
+
+        Assertions.assertEquals(RfqRouting.shardOfCusip(CUSIP, SHARD_COUNT), router.route(buffer, 0));
+    }
+
+    @Test
+    public void canRouteRfqCommandsByRfqId()
+    {
+        for (int rfqId = 1; rfqId <= SHARD_COUNT * 2; rfqId++)
+        {
+            new CancelRfqCommandEncoder().wrapAndApplyHeader(buffer, 0, headerEncoder)
+                .correlation(rfqId)
+                .rfqId(rfqId);
+
+            Assertions.assertEquals(RfqRouting.shardOfRfq(rfqId, SHARD_COUNT), router.route(buffer, 0));
+        }
+    }
+
+    @Test
+    public void canRouteRfqQueryByCusipOrToAllShards()
+    {
+        final ListRfqsCommandEncoder encoder = new ListRfqsCommandEncoder();
+        encoder.wrapAndApplyHeader(buffer, 0, headerEncoder).correlation(1).cusip(CUSIP).limit(10);
+        Assertions.assertEquals(RfqRouting.shardOfCusip(CUSIP, SHARD_COUNT), router.route(buffer, 0));
+
+        encoder.wrapAndApplyHeader(buffer, 0, headerEncoder).correlation(2).cusip("").limit(10);
+        Assertions.assertEquals(ShardRouter.ALL_SHARDS, router.route(buffer, 0));
+    }
+
+    @Test
+    public void canRouteReplicatedCommandsToAllShards()
+    {
+        new AddInstrumentEncoder().wrapAndApplyHeader(buffer, 0, headerEncoder)
+            .correlation(1)
+            .cusip(CUSIP)
+            .enabled(BooleanType.TRUE)
+            .minSize(10);
+        Assertions.assertEquals(ShardRouter.ALL_SHARDS, router.route(buffer, 0));
+
+        new AddUserCommandEncoder().wrapAndApplyHeader(buffer, 0, headerEncoder)
+            .correlation(2)
+            .userId(600);
+        Assertions.assertEquals(ShardRouter.ALL_SHARDS, router.route(buffer, 0));
+
+        new RfqBookSnapshotCommandEncoder().wrapAndApplyHeader(buffer, 0, headerEncoder);
+        Assertions.assertEquals(ShardRouter.ALL_SHARDS, router.route(buffer, 0));
+    }
+
+    @Test
+    public void canRouteInstrumentListToFirstShard()
+    {
+        new ListInstrumentsCommandEncoder().wrapAndApplyHeader(buffer, 0, headerEncoder);
+
+        Assertions.assertEquals(ShardRouter.FIRST_SHARD, router.route(buffer, 0));
+    }
+
+    @Test
+    public void canNotRouteUnknownCommand()
+    {
+        new RfqCreatedEventEncoder().wrapAndApplyHeader(buffer, 0, headerEncoder);
+
+        Assertions.assertEquals(ShardRouter.NO_SHARD, router.route(buffer, 0));
+    }
+
+    @Test
+    public void canForwardInstrumentEventsFromFirstShardOnly()
+    {
+        new InstrumentUpdatedEventEncoder().wrapAndApplyHeader(buffer, 0, headerEncoder).cusip(CUSIP);
+
+        Assertions.assertTrue(router.forwardEgress(ShardRouter.FIRST_SHARD, buffer, 0));
+        Assertions.assertFalse(router.forwardEgress(1, buffer, 0));
+    }
+
+    @Test
+    public void canForwardRfqEventsFromEveryShard()
+    {
+        new RfqCreatedEventEncoder().wrapAndApplyHeader(buffer, 0, headerEncoder).cusip(CUSIP).rfqId(2);
+
+        for (int shard = 0; shard < SHARD_COUNT; shard++)
+        {
+            Assertions.assertTrue(router.forwardEgress(shard, buffer, 0));
+        }
+    }
+}
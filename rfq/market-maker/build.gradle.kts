@@ -0,0 +1,49 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+plugins {
+    application
+    checkstyle
+}
+
+repositories {
+    mavenCentral()
+}
+
+dependencies {
+    checkstyle(libs.checkstyle)
+    implementation(libs.agrona)
+    implementation(libs.aeron.samples)
+    implementation(libs.slf4j)
+    implementation(libs.logback)
+    implementation(libs.hdrHistogram)
+    implementation(project(":rfq:cluster-protocol"))
+    implementation(project(":agent-launcher"))
+    testImplementation(libs.bundles.testing)
+}
+
+application {
+    mainClass.set("com.aeroncookbook.rfq.marketmaker.MarketMakerApp")
+}
+
+tasks {
+    task("runMarketMaker", JavaExec::class) {
+        group = "run"
+        classpath = sourceSets.main.get().runtimeClasspath
+        mainClass.set("com.aeroncookbook.rfq.marketmaker.MarketMakerApp")
+        jvmArgs("--add-opens=java.base/sun.nio.ch=ALL-UNNAMED")
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aeroncookbook.rfq.marketmaker;
+
+import com.aeroncookbook.cluster.rfq.Correlations;
+import com.aeroncookbook.cluster.rfq.Cusips;
+import com.aeroncookbook.cluster.rfq.UserCredentialsSupplier;
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.MessageHeaderEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.QuoteRfqCommandEncoder;
+import com.aeroncookbook.cluster.rfq.sbe.QuoteRfqConfirmEventDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.QuoteRfqResult;
+import com.aeroncookbook.cluster.rfq.sbe.RfqAcceptedEventDecoder;
+import com.aeroncookbook.cluster.rfq.sbe.RfqCreatedEventDecoder;
+import io.aeron.Publication;
+import io.aeron.cluster.client.AeronCluster;
+import io.aeron.cluster.client.EgressListener;
+import io.aeron.cluster.codecs.EventCode;
+import io.aeron.exceptions.AeronException;
+import io.aeron.logbuffer.Header;
+import org.HdrHistogram.Histogram;
+import org.agrona.CloseHelper;
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.Agent;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless market maker, quoting every new RFQ it can price as soon as the RFQ is broadcast. Each RFQ event is
+ * priced from the local {@link PriceModel} and answered with a quote command on the same duty cycle, without
+ * allocating. Two latencies are recorded per quote:
+ * <ul>
+ *     <li>quote, from the RFQ event being read from the egress to the quote being offered to the ingress, the time
+ *     the market maker takes to react</li>
+ *     <li>confirm, from the quote being offered to its confirm being read, the round trip through the cluster</li>
+ * </ul>
+ * Both are reported, then reset, at each report interval, and once more on close.
+ */
+public class MarketMakerAgent implements Agent, EgressListener
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(MarketMakerAgent.class);
+    private static final String INGRESS_CHANNEL = "aeron:udp?term-length=64k";
+    private static final long CONNECT_TIMEOUT_NS = TimeUnit.SECONDS.toNanos(30);
+    private static final long HIGHEST_LATENCY_NS = TimeUnit.SECONDS.toNanos(10);
+    private static final int PENDING_QUOTES = 4096;
+    private static final int MAX_OFFER_ATTEMPTS = 3;
+    private final MessageHeaderEncoder messageHeaderEncoder = new MessageHeaderEncoder();
+    private final MessageHeaderDecoder messageHeaderDecoder = new MessageHeaderDecoder();
+    private final RfqCreatedEventDecoder rfqCreatedEventDecoder = new RfqCreatedEventDecoder();
+    private final QuoteRfqCommandEncoder quoteRfqCommandEncoder = new QuoteRfqCommandEncoder();
+    private final QuoteRfqConfirmEventDecoder quoteRfqConfirmEventDecoder = new QuoteRfqConfirmEventDecoder();
+    private final RfqAcceptedEventDecoder rfqAcceptedEventDecoder = new RfqAcceptedEventDecoder();
+    private final UnsafeBuffer sendBuffer = new UnsafeBuffer(ByteBuffer.allocateDirect(128));
+    private final byte[] cusip = new byte[Cusips.CUSIP_LENGTH];
+    private final long[] pendingCorrelations = new long[PENDING_QUOTES];
+    private final long[] pendingSendTimesNs = new long[PENDING_QUOTES];
+    private final Histogram quoteLatencies = new Histogram(HIGHEST_LATENCY_NS, 3);
+    private final Histogram confirmLatencies = new Histogram(HIGHEST_LATENCY_NS, 3);
+    private final String aeronDirectoryName;
+    private final String ingressEndpoints;
+    private final String egressChannel;
+    private final int userId;
+    private final PriceModel priceModel;
+    private final long reportIntervalNs;
+    private AeronCluster aeronCluster;
+    private long correlation = Correlations.initialCorrelation(System.currentTimeMillis());
+    private long nextReportNs;
+    private long rfqCount;
+    private long unpricedCount;
+    private long offerFailedCount;
+    private long acceptedCount;
+    private long lostCount;
+    private long rejectedCount;
+    private long wonCount;
+
+    /**
+     * Constructor
+     *
+     * @param aeronDirectoryName the aeron directory of the market maker's media driver
+     * @param ingressEndpoints   the ingress endpoints of the cluster
+     * @param egressChannel      the channel the cluster sends egress to the market maker on
+     * @param userId             the market maker user to connect as
+     * @param priceModel         the prices quoted
+     * @param reportIntervalNs   the interval between latency reports
+     */
+    public MarketMakerAgent(
+        final String aeronDirectoryName,
+        final String ingressEndpoints,
+        final String egressChannel,
+        final int userId,
+        final PriceModel priceModel,
+        final long reportIntervalNs)
+    {
+        this.aeronDirectoryName = aeronDirectoryName;
+        this.ingressEndpoints = ingressEndpoints;
+        this.egressChannel = egressChannel;
+        this.userId = userId;
+        this.priceModel = priceModel;
+        this.reportIntervalNs = reportIntervalNs;
+    }
+
+    @Override
+    public void onStart()
+    {
+        connect();
+        nextReportNs = System.nanoTime() + reportIntervalNs;
+    }
+
+    @Override
+    public int doWork()
+    {
+        if (null == aeronCluster || aeronCluster.isClosed())
+        {
+            LOGGER.info("Session closed, reconnecting");
+            connect();
+            return 0;
+        }
+
+        final long nowNs = System.nanoTime();
+        if (nowNs >= nextReportNs)
+        {
+            report();
+            nextReportNs = nowNs + reportIntervalNs;
+        }
+        return aeronCluster.pollEgress();
+    }
+
+    @Override
+    public void onClose()
+    {
+        report();
+        CloseHelper.quietClose(aeronCluster);
+    }
+
+    @Override
+    public String roleName()
+    {
+        return "market-maker";
+    }
+
+    @Override
+    public void onMessage(
+        final long clusterSessionId,
+        final long timestamp,
+        final DirectBuffer buffer,
+        final int offset,
+        final int length,
+        final Header header)
+    {
+        final long receivedNs = System.nanoTime();
+        messageHeaderDecoder.wrap(buffer, offset);
+        switch (messageHeaderDecoder.templateId())
+        {
+            case RfqCreatedEventDecoder.TEMPLATE_ID -> onRfqCreated(buffer, offset, receivedNs);
+            case QuoteRfqConfirmEventDecoder.TEMPLATE_ID -> onQuoteConfirm(buffer, offset, receivedNs);
+            case RfqAcceptedEventDecoder.TEMPLATE_ID -> onRfqAccepted(buffer, offset);
+            default ->
+            {
+                //other events and confirms are of no interest to the market maker
+            }
+        }
+    }
+
+    @Override
+    public void onSessionEvent(
+        final long correlationId,
+        final long clusterSessionId,
+        final long leadershipTermId,
+        final int leaderMemberId,
+        final EventCode code,
+        final String detail)
+    {
+        if (code != EventCode.OK)
+        {
+            LOGGER.info("Session event {} {}", code, detail);
+        }
+    }
+
+    @Override
+    public void onNewLeader(
+        final long clusterSessionId,
+        final long leadershipTermId,
+        final int leaderMemberId,
+        final String ingressEndpoints)
+    {
+        LOGGER.info("New leader {} in term {}", leaderMemberId, leadershipTermId);
+    }
+
+    //prices the RFQ and quotes it at once; RFQs of the market maker itself cannot be quoted by it
+    private void onRfqCreated(final DirectBuffer buffer, final int offset, final long receivedNs)
+    {
+        rfqCreatedEventDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        rfqCount++;
+        if (rfqCreatedEventDecoder.requesterUserId() == userId)
+        {
+            return;
+        }
+
+        rfqCreatedEventDecoder.getCusip(cusip, 0);
+        final long price = priceModel.quotePrice(
+            Cusips.pack(cusip), rfqCreatedEventDecoder.requesterSide(), rfqCreatedEventDecoder.quantity());
+        if (PriceModel.NO_PRICE == price)
+        {
+            unpricedCount++;
+            return;
+        }
+
+        quoteRfqCommandEncoder.wrapAndApplyHeader(sendBuffer, 0, messageHeaderEncoder)
+            .correlation(++correlation)
+            .rfqId(rfqCreatedEventDecoder.rfqId())
+            .price(price);
+        if (!offer(MessageHeaderEncoder.ENCODED_LENGTH + quoteRfqCommandEncoder.encodedLength()))
+        {
+            offerFailedCount++;
+            return;
+        }
+
+        final long sentNs = System.nanoTime();
+        quoteLatencies.recordValue(Math.min(sentNs - receivedNs, HIGHEST_LATENCY_NS));
+        final int index = (int)(correlation & (PENDING_QUOTES - 1));
+        pendingCorrelations[index] = correlation;
+        pendingSendTimesNs[index] = sentNs;
+    }
+
+    private void onQuoteConfirm(final DirectBuffer buffer, final int offset, final long receivedNs)
+    {
+        quoteRfqConfirmEventDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        final long confirmCorrelation = quoteRfqConfirmEventDecoder.correlation();
+        final int index = (int)(confirmCorrelation & (PENDING_QUOTES - 1));
+        if (pendingCorrelations[index] == confirmCorrelation)
+        {
+            confirmLatencies.recordValue(Math.min(receivedNs - pendingSendTimesNs[index], HIGHEST_LATENCY_NS));
+        }
+
+        final QuoteRfqResult result = quoteRfqConfirmEventDecoder.result();
+        if (QuoteRfqResult.SUCCESS == result)
+        {
+            acceptedCount++;
+        }
+        else if (QuoteRfqResult.ANOTHER_USER_RESPONDED == result)
+        {
+            lostCount++;
+        }
+        else
+        {
+            rejectedCount++;
+        }
+    }
+
+    //a quote confirmed as a success only means the cluster took it; it is won once the RFQ is accepted
+    private void onRfqAccepted(final DirectBuffer buffer, final int offset)
+    {
+        rfqAcceptedEventDecoder.wrapAndApplyHeader(buffer, offset, messageHeaderDecoder);
+        if (rfqAcceptedEventDecoder.responderUserId() == userId)
+        {
+            wonCount++;
+        }
+    }
+
+    //a quote is only worth sending at once, so back pressure is retried briefly rather than waited out
+    private boolean offer(final int length)
+    {
+        for (int attempt = 0; attempt < MAX_OFFER_ATTEMPTS; attempt++)
+        {
+            final long result = aeronCluster.offer(sendBuffer, 0, length);
+            if (result > 0)
+            {
+                return true;
+            }
+            if (result != Publication.BACK_PRESSURED && result != Publication.ADMIN_ACTION)
+            {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private void connect()
+    {
+        final long deadlineNs = System.nanoTime() + CONNECT_TIMEOUT_NS;
+        while (System.nanoTime() < deadlineNs)
+        {
+            try
+            {
+                aeronCluster = AeronCluster.connect(new AeronCluster.Context()
+                    .aeronDirectoryName(aeronDirectoryName)
+                    .egressListener(this)
+                    .egressChannel(egressChannel)
+                    .ingressChannel(INGRESS_CHANNEL)
+                    .ingressEndpoints(ingressEndpoints)
+                    .credentialsSupplier(new UserCredentialsSupplier(userId)));
+                LOGGER.info("Connected to cluster leader, node {} as user {}", aeronCluster.leaderMemberId(), userId);
+                return;
+            }
+            catch (final AeronException e)
+            {
+                LOGGER.debug("Cluster not ready: {}", e.getMessage());
+            }
+        }
+        throw new IllegalStateException("could not connect to the cluster within " +
+            TimeUnit.NANOSECONDS.toSeconds(CONNECT_TIMEOUT_NS) + "s");
+    }
+
+    private void report()
+    {
+        LOGGER.info("RFQs {}, unpriced {}, quotes accepted {}, lost {}, rejected {}, not sent {}, won {}",
+            rfqCount, unpricedCount, acceptedCount, lostCount, rejectedCount, offerFailedCount, wonCount);
+        LOGGER.info("Quote latency (us): {}", format(quoteLatencies));
+        LOGGER.info("Confirm latency (us): {}", format(confirmLatencies));
+        quoteLatencies.reset();
+        confirmLatencies.reset();
+    }
+
+    private static String format(final Histogram histogram)
+    {
+        return "p50=" + toMicros(histogram.getValueAtPercentile(50)) +
+            " p90=" + toMicros(histogram.getValueAtPercentile(90)) +
+            " p99=" + toMicros(histogram.getValueAtPercentile(99)) +
+            " p99.9=" + toMicros(histogram.getValueAtPercentile(99.9)) +
+            " max=" + toMicros(histogram.getMaxValue()) +
+            " count=" + histogram.getTotalCount();
+    }
+
+    private static String toMicros(final long valueNs)
+    {
+        return String.format("%.1f", valueNs / 1000.0);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aeroncookbook.rfq.marketmaker;
+
+import com.aeroncookbook.launcher.AgentLauncher;
+import io.aeron.driver.MediaDriver;
+import io.aeron.driver.ThreadingMode;
+import io.aeron.samples.cluster.ClusterConfig;
+import org.agrona.concurrent.BackoffIdleStrategy;
+import org.agrona.concurrent.BusySpinIdleStrategy;
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.ShutdownSignalBarrier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static java.lang.Integer.parseInt;
+import static java.lang.Long.parseLong;
+
+/**
+ * Headless market maker, connecting to the cluster as a market maker user and quoting new RFQs from a local price
+ * model, as a latency sensitive participant to benchmark the cluster against. With busy spinning on, the market
+ * maker's agent and its media driver's sender and receiver spin rather than idle.
+ */
+public class MarketMakerApp
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(MarketMakerApp.class);
+
+    /**
+     * The main method.
+     * @param args command line args
+     */
+    public static void main(final String[] args)
+    {
+        final ShutdownSignalBarrier barrier = new ShutdownSignalBarrier();
+        final List<String> hostnames = List.of(getSetting("CLUSTER_ADDRESSES", "cluster.addresses", "localhost")
+            .split(","));
+        final int portBase = parseInt(getSetting("CLUSTER_PORT_BASE", "cluster.port.base", "9000"));
+        final String egressHost = getSetting("MM_EGRESS_HOST", "mm.egress.host", "localhost");
+        final int userId = parseInt(getSetting("MM_USER_ID", "mm.user.id", "502"));
+        final boolean busySpin = Boolean.parseBoolean(getSetting("MM_BUSY_SPIN", "mm.busy.spin", "false"));
+        final long reportIntervalNs = TimeUnit.SECONDS.toNanos(
+            parseLong(getSetting("MM_REPORT_INTERVAL_S", "mm.report.interval.s", "10")));
+        final PriceModel priceModel = priceModel(
+            getSetting("MM_PRICE_FILE", "mm.price.file", ""),
+            getSetting("MM_DEFAULT_PRICES", "mm.default.prices", "99:101"));
+        final Supplier<IdleStrategy> idleStrategySupplier =
+            busySpin ? BusySpinIdleStrategy::new : BackoffIdleStrategy::new;
+
+        try (
+            MediaDriver mediaDriver = MediaDriver.launch(mediaDriverContext(busySpin));
+            AgentLauncher agentLauncher = AgentLauncher.fromEnvironment())
+        {
+            agentLauncher.launch(
+                new MarketMakerAgent(
+                    mediaDriver.aeronDirectoryName(),
+                    ClusterConfig.ingressEndpoints(hostnames, portBase, ClusterConfig.CLIENT_FACING_PORT_OFFSET),
+                    "aeron:udp?endpoint=" + egressHost + ":0",
+                    userId,
+                    priceModel,
+                    reportIntervalNs),
+                idleStrategySupplier,
+                Throwable::printStackTrace);
+            LOGGER.info("Started market maker as user {} with {} prices{}", userId, priceModel.size(),
+                busySpin ? ", busy spinning" : "");
+            barrier.await();
+            LOGGER.info("Exiting");
+        }
+    }
+
+    //the sender and receiver carry the quotes and RFQs, so they get threads of their own when busy spinning
+    private static MediaDriver.Context mediaDriverContext(final boolean busySpin)
+    {
+        final MediaDriver.Context context = new MediaDriver.Context()
+            .dirDeleteOnStart(true)
+            .dirDeleteOnShutdown(true);
+        if (busySpin)
+        {
+            return context
+                .threadingMode(ThreadingMode.DEDICATED)
+                .senderIdleStrategy(new BusySpinIdleStrategy())
+                .receiverIdleStrategy(new BusySpinIdleStrategy())
+                .conductorIdleStrategy(new BackoffIdleStrategy());
+        }
+        return context.threadingMode(ThreadingMode.SHARED);
+    }
+
+    /**
+     * Loads the price model from the price file, if set, with default prices for other cusips, if set
+     * @param priceFile the CSV price file, or empty for none
+     * @param defaultPrices {@code <bid>:<ask>} for cusips not in the file, or empty to not quote them
+     * @return the price model
+     */
+    private static PriceModel priceModel(final String priceFile, final String defaultPrices)
+    {
+        final PriceModel priceModel = priceFile.isEmpty() ? new PriceModel() : PriceModel.load(Path.of(priceFile));
+        if (!defaultPrices.isEmpty())
+        {
+            final String[] prices = defaultPrices.split(":");
+            if (prices.length != 2)
+            {
+                throw new IllegalArgumentException("expected <bid>:<ask>, got " + defaultPrices);
+            }
+            priceModel.setDefaultPrices(parseLong(prices[0].trim()), parseLong(prices[1].trim()));
+        }
+        return priceModel;
+    }
+
+    /**
+     * Reads a setting from an environment variable, then a system property
+     * @param environmentVariable the environment variable
+     * @param property the system property
+     * @param defaultValue the value if neither is set
+     * @return the setting
+     */
+    private static String getSetting(final String environmentVariable, final String property, final String defaultValue)
+    {
+        final String value = System.getenv(environmentVariable);
+        if (null == value || value.isEmpty())
+        {
+            return System.getProperty(property, defaultValue);
+        }
+        return value;
+    }
+}
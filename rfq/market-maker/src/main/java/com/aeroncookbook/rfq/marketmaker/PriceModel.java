@@ -0,0 +1,169 @@
+/*
+ * Copyright 2023 Adaptive Financial Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aeroncookbook.rfq.marketmaker;
+
+import com.aeroncookbook.cluster.rfq.Cusips;
+import com.aeroncookbook.cluster.rfq.sbe.Side;
+import org.agrona.collections.Long2LongHashMap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.lang.Long.parseLong;
+
+/**
+ * Prices quoted by the market maker, a bid and an ask per cusip with the largest quantity quoted at them. Prices are
+ * held in primitive arrays, found by the cusip packed into a long (see {@link Cusips}), so pricing an RFQ neither
+ * allocates nor decodes the cusip into a string. A cusip without a price of its own is quoted at the default prices, if set.
+ */
+public final class PriceModel
+{
+    /**
+     * The RFQ is not quoted
+     */
+    public static final long NO_PRICE = Long.MIN_VALUE;
+
+    private static final long NOT_FOUND = -1;
+
+    private final Long2LongHashMap indexByCusip = new Long2LongHashMap(NOT_FOUND);
+    private long[] bids = new long[16];
+    private long[] asks = new long[16];
+    private long[] maxQuantities = new long[16];
+    private int size;
+    private long defaultBid = NO_PRICE;
+    private long defaultAsk = NO_PRICE;
+
+    /**
+     * Loads prices from a CSV file of {@code cusip,bid,ask[,max-quantity]} lines, with blank lines and lines starting
+     * with # ignored. Without a maximum quantity, any quantity is quoted.
+     *
+     * @param file the price file
+     * @return the prices
+     * @throws IllegalArgumentException if a line cannot be parsed
+     */
+    public static PriceModel load(final Path file)
+    {
+        final List<String> lines;
+        try
+        {
+            lines = Files.readAllLines(file);
+        }
+        catch (final IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+
+        final PriceModel priceModel = new PriceModel();
+        for (int i = 0; i < lines.size(); i++)
+        {
+            final String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#"))
+            {
+                continue;
+            }
+            final String[] fields = line.split(",");
+            if (fields.length < 3 || fields.length > 4)
+            {
+                throw new IllegalArgumentException("expected cusip,bid,ask[,max-quantity] at line " + (i + 1) +
+                    " of " + file + ", got " + line);
+            }
+            priceModel.setPrice(
+                fields[0].trim(),
+                parseLong(fields[1].trim()),
+                parseLong(fields[2].trim()),
+                fields.length == 4 ? parseLong(fields[3].trim()) : Long.MAX_VALUE);
+        }
+        return priceModel;
+    }
+
+    /**
+     * Sets the prices of a cusip, replacing any it had
+     *
+     * @param cusip       the cusip
+     * @param bid         the price the market maker buys at
+     * @param ask         the price the market maker sells at
+     * @param maxQuantity the largest quantity quoted
+     */
+    public void setPrice(final String cusip, final long bid, final long ask, final long maxQuantity)
+    {
+        final long packedCusip = Cusips.pack(cusip);
+        int index = (int)indexByCusip.get(packedCusip);
+        if (NOT_FOUND == index)
+        {
+            if (size == bids.length)
+            {
+                bids = Arrays.copyOf(bids, size * 2);
+                asks = Arrays.copyOf(asks, size * 2);
+                maxQuantities = Arrays.copyOf(maxQuantities, size * 2);
+            }
+            index = size++;
+            indexByCusip.put(packedCusip, index);
+        }
+        bids[index] = bid;
+        asks[index] = ask;
+        maxQuantities[index] = maxQuantity;
+    }
+
+    /**
+     * Sets the prices of cusips without prices of their own, for any quantity
+     *
+     * @param bid the price the market maker buys at, or {@link #NO_PRICE} to not quote such cusips
+     * @param ask the price the market maker sells at, or {@link #NO_PRICE} to not quote such cusips
+     */
+    public void setDefaultPrices(final long bid, final long ask)
+    {
+        this.defaultBid = bid;
+        this.defaultAsk = ask;
+    }
+
+    /**
+     * Prices an RFQ. A requester buying is quoted the ask, and a requester selling the bid.
+     *
+     * @param packedCusip   the cusip of the RFQ, packed by {@link Cusips#pack(byte[])}
+     * @param requesterSide the side of the requester
+     * @param quantity      the quantity of the RFQ
+     * @return the price to quote, or {@link #NO_PRICE} if the RFQ is not quoted
+     */
+    public long quotePrice(final long packedCusip, final Side requesterSide, final long quantity)
+    {
+        final int index = (int)indexByCusip.get(packedCusip);
+        if (NOT_FOUND == index)
+        {
+            return requesterSide == Side.BUY ? defaultAsk : defaultBid;
+        }
+        if (quantity > maxQuantities[index])
+        {
+            return NO_PRICE;
+        }
+        return requesterSide == Side.BUY ? asks[index] : bids[index];
+    }
+
+    /**
+     * The number of cusips with prices of their own
+     *
+     * @return the number of cusips
+     */
+    public int size()
+    {
+        return size;
+    }
+}
@@ -17,7 +17,8 @@
 rootProject.name = "aeron-cookbook"
 
 include ("sbe-core", "sbe-protocol", "archive-core", "async", "ipc-core", "aeron-core", "cluster-rsm",
-    "theory", "agrona", "archive-multi-host:archive-host", "archive-multi-host:archive-client",
+    "theory", "agrona", "agent-launcher", "archive-multi-host:archive-host", "archive-multi-host:archive-client",
     "archive-replication:archive-client", "archive-replication:archive-host", "archive-replication:archive-backup",
     "archive-replication:common", "aeron-mdc:aeron-mdc-publisher", "aeron-mdc:aeron-mdc-subscriber",
-    "rfq:cluster", "rfq:cluster-protocol", "rfq:admin")
+    "rfq:cluster", "rfq:cluster-protocol", "rfq:admin", "rfq:gateway", "rfq:backup",
+    "rfq:failover-benchmark", "rfq:market-maker")